@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo4j.coffe.controllers.CommandCache;
+import com.robo4j.coffe.controllers.TankEvent;
+import com.robo4j.units.rpi.roboclaw.MotionEvent;
+
+/**
+ * Compares the garbage created by the motion commands, allocated for every
+ * command as before, and interned with a {@link CommandCache} like the
+ * MissionController and the TankController now do. Each operation is one
+ * command: a TankEvent to the tank controller, and the MotionEvent it sends
+ * on. Look at gc.alloc.rate.norm, in bytes per operation, from the gc
+ * profiler that <code>gradle jmh</code> enables.
+ * <p>
+ * The ROTATION commands are those of a predictive rotation, slowing down in
+ * steps in a fixed direction, as sent for the gyro events. The STEERING
+ * commands wander in speed and direction, as when moving to a target.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandAllocationBenchmark {
+	public enum Scenario {
+		ROTATION, STEERING
+	}
+
+	private static final int COMMANDS = 4096;
+	private static final float MAX_SPEED = 0.4f;
+	private static final float ROTATION_MIN_SPEED = 0.3f;
+	// As for the TankController
+	private static final float SPEED_QUANTUM = 0.05f;
+
+	@Param({ "ROTATION", "STEERING" })
+	private Scenario scenario;
+
+	private final float[] speeds = new float[COMMANDS];
+	private final float[] directions = new float[COMMANDS];
+	private final CommandCache<MotionEvent> motionEvents = new CommandCache<MotionEvent>("benchmark.motionEvents") {
+		@Override
+		protected MotionEvent create(float speed, float direction) {
+			return new MotionEvent(speed * MAX_SPEED, direction);
+		}
+	};
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(4711);
+		if (scenario == Scenario.ROTATION) {
+			float speed = 1;
+			float direction = (float) Math.toRadians(90);
+			for (int i = 0; i < COMMANDS; i++) {
+				speeds[i] = speed;
+				directions[i] = direction;
+				speed -= SPEED_QUANTUM;
+				if (speed < ROTATION_MIN_SPEED) {
+					// Next rotation, to the other side
+					speed = 1;
+					direction = -direction;
+				}
+			}
+		} else {
+			float speed = 0.6f;
+			float direction = 0;
+			for (int i = 0; i < COMMANDS; i++) {
+				speed = Math.max(0.3f, Math.min(1f, speed + (float) random.nextGaussian() * 0.02f));
+				direction = Math.max(-0.5f, Math.min(0.5f, direction + (float) random.nextGaussian() * 0.02f));
+				speeds[i] = speed;
+				directions[i] = direction;
+			}
+		}
+	}
+
+	@Benchmark
+	public void allocated(Blackhole blackhole) {
+		int i = nextIndex();
+		blackhole.consume(new TankEvent(speeds[i], directions[i], 0f));
+		blackhole.consume(new MotionEvent(speeds[i] * MAX_SPEED, directions[i]));
+	}
+
+	@Benchmark
+	public void interned(Blackhole blackhole) {
+		int i = nextIndex();
+		blackhole.consume(TankEvent.motion(speeds[i], directions[i]));
+		blackhole.consume(motionEvents.get(speeds[i], directions[i]));
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = (i + 1) & (COMMANDS - 1);
+		return i;
+	}
+}
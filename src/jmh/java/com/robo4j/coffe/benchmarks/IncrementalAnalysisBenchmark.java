@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.coffe.benchmarks.ScanGenerator.Scene;
+import com.robo4j.coffe.units.IncrementalScanAnalyzer;
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.coffe.units.ScanAngleIndex;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Compares a full analysis of a quick scan with an incremental analysis, where
+ * the previous quick scan was taken a few centimeters back.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalAnalysisBenchmark {
+	private static final float MIN_LATERAL_DISTANCE = 0.32f;
+	private static final float RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.4f);
+	private static final float QUICK_SCAN_RESOLUTION = 1f;
+
+	@Param({ "ROOM", "CORRIDOR", "CLUTTER" })
+	private Scene scene;
+
+	@Param({ "0.05", "0.15" })
+	private float distance;
+
+	private List<Point2f> previousPoints;
+	private List<Point2f> currentPoints;
+	private PackedScan previousScan = new PackedScan();
+	private PackedScan currentScan = new PackedScan();
+	private ScanAngleIndex previousIndex = new ScanAngleIndex((float) Math.toRadians(2));
+	private ScanAngleIndex currentIndex = new ScanAngleIndex((float) Math.toRadians(2));
+	private IncrementalScanAnalyzer analyzer;
+
+	@Setup(Level.Trial)
+	public void setupScans() {
+		previousPoints = ScanGenerator.generate(scene, -30f, 60f, QUICK_SCAN_RESOLUTION, 4711);
+		currentPoints = ScanGenerator.generate(scene, -30f, 60f, QUICK_SCAN_RESOLUTION, 4711, distance);
+		pack(previousPoints, previousScan);
+		pack(currentPoints, currentScan);
+		previousIndex.build(previousScan);
+		currentIndex.build(currentScan);
+		analyzer = new IncrementalScanAnalyzer(MIN_LATERAL_DISTANCE, 0.05f, (float) Math.toRadians(5), 0.3f);
+	}
+
+	/**
+	 * Analysis takes long enough for the per invocation setup not to skew the
+	 * results.
+	 */
+	@Setup(Level.Invocation)
+	public void primeAnalyzer() {
+		analyzer.analyze(previousIndex, previousPoints, QUICK_SCAN_RESOLUTION, RAYCASTING_STEP_ANGLE, MotionDelta.UNKNOWN, 1);
+	}
+
+	@Benchmark
+	public Point2f fullAnalysis() {
+		analyzer.analyze(currentIndex, currentPoints, QUICK_SCAN_RESOLUTION, RAYCASTING_STEP_ANGLE, MotionDelta.UNKNOWN, 2);
+		return analyzer.getTargetPoint();
+	}
+
+	@Benchmark
+	public Point2f incrementalAnalysis() {
+		analyzer.analyze(currentIndex, currentPoints, QUICK_SCAN_RESOLUTION, RAYCASTING_STEP_ANGLE, new MotionDelta(0, distance),
+				2);
+		return analyzer.getTargetPoint();
+	}
+
+	private static void pack(List<Point2f> points, PackedScan target) {
+		target.clear(QUICK_SCAN_RESOLUTION);
+		for (int i = 0; i < points.size(); i++) {
+			target.add(points.get(i).getRange(), points.get(i).getAngle());
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.coffe.benchmarks.ScanGenerator.Scene;
+import com.robo4j.coffe.slam.OccupancyGrid;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Measures the number of scans per second that can be integrated into the
+ * {@link OccupancyGrid}, for different map and cell sizes. The pose moves a
+ * little between each scan, so that the rays don't hit the exact same cells
+ * every time.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OccupancyGridBenchmark {
+	private static final int POSES = 64;
+
+	@Param({ "CLUTTER" })
+	private Scene scene;
+
+	@Param({ "20", "100" })
+	private float mapSize;
+
+	@Param({ "0.05", "0.1" })
+	private float cellSize;
+
+	@Param({ "0.4", "1.0" })
+	private float angularResolution;
+
+	private OccupancyGrid grid;
+	private PackedScan scan = new PackedScan();
+	private int pose;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<Point2f> points = ScanGenerator.generate(scene, -45f, 90f, angularResolution, 4711);
+		scan.clear(angularResolution);
+		for (int i = 0; i < points.size(); i++) {
+			scan.add(points.get(i).getRange(), points.get(i).getAngle());
+		}
+		grid = new OccupancyGrid(cellSize, mapSize, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public OccupancyGrid integrate() {
+		int i = pose++ % POSES;
+		grid.integrate(i * 0.01f, i * 0.02f, i * 0.005f, scan, 10f);
+		return grid;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo4j.coffe.benchmarks.ScanGenerator.Scene;
+import com.robo4j.coffe.units.PackedRaycast;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.coffe.units.ParallelScanAnalyzer;
+import com.robo4j.coffe.units.ScanAngleIndex;
+import com.robo4j.math.features.FeatureExtraction;
+import com.robo4j.math.features.FeatureSet;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Measures the speedup of the parallel analysis over the serial one, for a
+ * full scan, at raycasting step sizes of 0.4 and 0.2 degrees. Compare the
+ * serial benchmarks with the parallel ones for the different parallelism
+ * settings.
+ *
+ * @author Marcus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelAnalysisBenchmark {
+	private static final float MIN_LATERAL_DISTANCE = 0.32f;
+	private static final float FULL_SCAN_RESOLUTION = 0.4f;
+
+	@Param({ "CLUTTER" })
+	private Scene scene;
+
+	@Param({ "0.4", "0.2" })
+	private float stepAngleDegrees;
+
+	@Param({ "2", "4" })
+	private int parallelism;
+
+	private List<Point2f> points;
+	private PackedScan scan = new PackedScan();
+	private ScanAngleIndex index = new ScanAngleIndex((float) Math.toRadians(2));
+	private float stepAngle;
+	private ParallelScanAnalyzer analyzer;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		points = ScanGenerator.generate(scene, -45f, 90f, FULL_SCAN_RESOLUTION, 4711);
+		scan.clear(FULL_SCAN_RESOLUTION);
+		for (int i = 0; i < points.size(); i++) {
+			scan.add(points.get(i).getRange(), points.get(i).getAngle());
+		}
+		index.build(scan);
+		stepAngle = (float) Math.toRadians(stepAngleDegrees);
+		analyzer = new ParallelScanAnalyzer(parallelism, 16);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		analyzer.shutdown();
+	}
+
+	@Benchmark
+	public Point2f serialRaycast() {
+		return PackedRaycast.raycastFarthestPoint(scan, MIN_LATERAL_DISTANCE, stepAngle);
+	}
+
+	@Benchmark
+	public Point2f serialIndexedRaycast() {
+		return PackedRaycast.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle);
+	}
+
+	@Benchmark
+	public Point2f parallelRaycast() {
+		return analyzer.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle);
+	}
+
+	@Benchmark
+	public void serialAnalysis(Blackhole blackhole) {
+		blackhole.consume(FeatureExtraction.getFeatures(points, FULL_SCAN_RESOLUTION));
+		blackhole.consume(PackedRaycast.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle));
+	}
+
+	@Benchmark
+	public void parallelAnalysis(Blackhole blackhole) {
+		ForkJoinTask<FeatureSet> features = analyzer.extractFeatures(points, FULL_SCAN_RESOLUTION);
+		blackhole.consume(analyzer.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle));
+		blackhole.consume(features.join());
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.coffe.benchmarks.ScanGenerator.Scene;
+import com.robo4j.coffe.slam.DistanceField;
+import com.robo4j.coffe.slam.OccupancyGrid;
+import com.robo4j.coffe.slam.ParticleFilter;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Measures the time to match a scan with the {@link ParticleFilter}, for
+ * different particle counts, and the time to rebuild the distance field. Use
+ * the results to pick the particle count and the localization budget for the
+ * Raspberry Pi.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleFilterBenchmark {
+	private static final float MAX_RANGE = 10f;
+
+	@Param({ "CLUTTER" })
+	private Scene scene;
+
+	@Param({ "100", "300", "1000" })
+	private int particles;
+
+	@Param({ "1.0" })
+	private float angularResolution;
+
+	private OccupancyGrid grid;
+	private DistanceField field = new DistanceField(1f);
+	private ParticleFilter filter;
+	private PackedScan scan = new PackedScan();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<Point2f> points = ScanGenerator.generate(scene, -45f, 90f, angularResolution, 4711);
+		scan.clear(angularResolution);
+		for (int i = 0; i < points.size(); i++) {
+			scan.add(points.get(i).getRange(), points.get(i).getAngle());
+		}
+		grid = new OccupancyGrid(0.05f, 50f, Integer.MAX_VALUE);
+		for (int i = 0; i < 5; i++) {
+			grid.integrate(0, 0, 0, scan, MAX_RANGE);
+		}
+		field.build(grid);
+		filter = new ParticleFilter(particles, 4711);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetFilter() {
+		filter.reset(0, 0, 0, 0.05f, (float) Math.toRadians(2));
+	}
+
+	@Benchmark
+	public ParticleFilter update() {
+		filter.predict(0, 0.01f, (float) Math.toRadians(2), 0.2f);
+		filter.update(scan, field, 0.1f, 2, MAX_RANGE);
+		return filter;
+	}
+
+	@Benchmark
+	public DistanceField buildField() {
+		field.build(grid);
+		return field;
+	}
+}
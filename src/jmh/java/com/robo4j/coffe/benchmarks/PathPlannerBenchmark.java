@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.coffe.navigation.CostMap;
+import com.robo4j.coffe.navigation.PathPlanner;
+import com.robo4j.coffe.slam.OccupancyGrid;
+
+/**
+ * Compares planning from scratch with replanning, where Coff-E has moved a
+ * little along the previous path, on a map with a few walls to get around.
+ * Also measures updating the cost map after a scan has changed a few tiles.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathPlannerBenchmark {
+	@Param({ "10", "20" })
+	private float goalDistance;
+
+	@Param({ "2", "4" })
+	private int planResolution;
+
+	private OccupancyGrid grid;
+	private CostMap costMap;
+	private PathPlanner planner;
+	private int step;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		grid = new OccupancyGrid(0.05f, 50f, Integer.MAX_VALUE);
+		// Walls with gaps at alternating ends
+		for (int wall = 1; wall * 3 < goalDistance; wall++) {
+			float y = wall * 3;
+			float from = wall % 2 == 0 ? -6 : -3;
+			for (int cx = grid.toCellX(from); cx <= grid.toCellX(from + 9); cx++) {
+				grid.setLogOdds(cx, grid.toCellY(y), OccupancyGrid.LOG_ODDS_OCCUPIED * 2);
+			}
+		}
+		costMap = new CostMap(grid, planResolution, 0.3f, 0.6f);
+		costMap.update();
+		planner = new PathPlanner(costMap);
+		planner.plan(0, 0, 0, goalDistance);
+	}
+
+	@Benchmark
+	public boolean plan() {
+		return planner.plan(0, 0, 0, goalDistance);
+	}
+
+	@Benchmark
+	public boolean replan() {
+		// Alternate between two nearby positions on the path
+		float y = (step++ & 1) * costMap.getCellSize();
+		return planner.replan(0, y, 0, goalDistance);
+	}
+
+	@Benchmark
+	public boolean updateCostMap() {
+		// Touch a tile, as integrating a scan would
+		grid.setLogOdds(grid.toCellX(0), grid.toCellY(-2), step++ & 1);
+		return costMap.update();
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import com.robo4j.coffe.navigation.CostMap;
+import com.robo4j.coffe.navigation.PathPlanner;
+import com.robo4j.coffe.sim.SimulatedWorld;
+import com.robo4j.coffe.slam.GridMapper;
+import com.robo4j.coffe.slam.OccupancyGrid;
+import com.robo4j.coffe.time.VirtualClock;
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * Benchmarks the mapping and the planning over many navigation episodes in
+ * the world of the simulation, on a {@link VirtualClock}, as fast as the CPU
+ * allows. Each episode drives from the start to a goal by mapping sweeps with
+ * the {@link GridMapper}, planning with the {@link PathPlanner} and steering
+ * for the lookahead point, with the sweeps and the control loop timed like on
+ * the robot. Everything runs on one thread and all noise is seeded, so a given
+ * seed always gives the same episodes.
+ * <p>
+ * The steering loop is the harness' own. The MissionController, the
+ * TankController, the ScanProcessor and the ClawUnit are not involved, so the
+ * results say nothing about their decisions, their messaging or the scan
+ * analysis. Use the simulation for that.
+ * <p>
+ * An episode ends when the robot believes it is at the goal, and is a
+ * success if it really is close enough. Run the main method, optionally with
+ * the number of episodes and the seed.
+ *
+ * @author Marcus
+ */
+public final class PlannerEpisodeHarness {
+	private static final String WORLD = "world-sim.txt";
+	private static final float[][] GOALS = { { 4.5f, 5f }, { -5f, 5f }, { 5f, -1.5f }, { -5f, -1f }, { 0f, 5f } };
+	private static final float GOAL_TOLERANCE = 0.3f;
+	// How far from the goal the robot may really be when it thinks it is there
+	private static final float SUCCESS_TOLERANCE = 0.5f;
+	private static final long TIMEOUT_NANOS = 120_000_000_000L;
+	private static final long CONTROL_PERIOD_NANOS = 50_000_000L;
+
+	// As for the simulated scanner
+	private static final float SWEEP_START = -45f;
+	private static final float SWEEP_RANGE = 90f;
+	private static final float SWEEP_STEP = 1f;
+	private static final float ANGULAR_SPEED = 100f;
+	private static final float MAX_RANGE = 10f;
+	private static final float RANGE_NOISE = 0.02f;
+	// Odometry noise, relative
+	private static final float ODOMETRY_NOISE = 0.02f;
+
+	private static final float MAX_SPEED = 0.4f;
+	private static final float LOOKAHEAD = 0.6f;
+
+	private final VirtualClock clock = new VirtualClock();
+	private final Random random;
+	private final SimulatedWorld world;
+	private final GridMapper mapper;
+	private final CostMap costMap;
+	private final PathPlanner planner;
+	private final PackedScan scan = new PackedScan();
+	private final float[] lookahead = new float[2];
+	private final float goalX;
+	private final float goalY;
+
+	// The odometry estimate, and the true pose it was last updated from
+	private float odometryX;
+	private float odometryY;
+	private float odometryHeading;
+	private float lastX;
+	private float lastY;
+	private float lastHeading;
+	// The odometry pose of the last scan
+	private float scanX;
+	private float scanY;
+	private float scanHeading;
+	private long sequence;
+	private boolean hasPath;
+	private boolean isDone;
+	private int cycles;
+
+	private PlannerEpisodeHarness(byte[] worldDefinition, long seed) throws IOException {
+		random = new Random(seed);
+		world = SimulatedWorld.load(new ByteArrayInputStream(worldDefinition), clock);
+		OccupancyGrid grid = new OccupancyGrid(0.05f, 20f, 1024);
+		mapper = new GridMapper(grid, MAX_RANGE);
+		costMap = new CostMap(grid, 2, 0.25f, 0.6f);
+		planner = new PathPlanner(costMap);
+		float[] goal = GOALS[random.nextInt(GOALS.length)];
+		goalX = goal[0];
+		goalY = goal[1];
+		lastX = world.getX();
+		lastY = world.getY();
+		lastHeading = world.getHeading();
+		odometryX = lastX;
+		odometryY = lastY;
+		odometryHeading = lastHeading;
+		scanX = odometryX;
+		scanY = odometryY;
+		scanHeading = odometryHeading;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int episodes = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 4711;
+		byte[] worldDefinition = readWorld();
+
+		int reached = 0;
+		int timeouts = 0;
+		int collisions = 0;
+		long cycles = 0;
+		double simulatedSeconds = 0;
+		double secondsToGoal = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < episodes; i++) {
+			PlannerEpisodeHarness episode = new PlannerEpisodeHarness(worldDefinition, seed + i);
+			if (!episode.run()) {
+				timeouts++;
+			} else if (distance(episode.world.getX(), episode.world.getY(), episode.goalX, episode.goalY) < SUCCESS_TOLERANCE) {
+				reached++;
+				secondsToGoal += episode.clock.nanoTime() / 1e9;
+			}
+			collisions += episode.world.getCollisions();
+			cycles += episode.cycles;
+			simulatedSeconds += episode.clock.nanoTime() / 1e9;
+		}
+		double wallSeconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Episodes:          %d, %d reached the goal, %d timed out", episodes, reached, timeouts));
+		System.out.println(String.format("Episodes/minute:   %.0f", episodes / wallSeconds * 60));
+		System.out.println(String.format("Mean time to goal: %.1f s (simulated)", reached == 0 ? 0 : secondsToGoal / reached));
+		System.out.println(String.format("Collisions:        %d", collisions));
+		System.out.println(String.format("Loop iterations/s: %.0f", cycles / wallSeconds));
+		System.out.println(String.format("Speedup:           %.0fx real time", simulatedSeconds / wallSeconds));
+	}
+
+	/**
+	 * @return true if the robot believed it reached the goal before the
+	 *         timeout.
+	 */
+	private boolean run() {
+		clock.schedule(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, 0);
+		clock.schedule(new Runnable() {
+			@Override
+			public void run() {
+				control();
+			}
+		}, CONTROL_PERIOD_NANOS);
+		while (!isDone && clock.getNextTaskTime() < TIMEOUT_NANOS) {
+			clock.runNext();
+		}
+		return isDone;
+	}
+
+	private void sweep() {
+		// Ranges are measured at the pose when requested, like the simulated
+		// scanner does
+		updateOdometry();
+		mapper.scanTaken(new MotionDelta(odometryHeading - scanHeading, distance(scanX, scanY, odometryX, odometryY)),
+				++sequence);
+		scanX = odometryX;
+		scanY = odometryY;
+		scanHeading = odometryHeading;
+		final long scanSequence = sequence;
+		scan.clear(SWEEP_STEP);
+		int points = Math.round(SWEEP_RANGE / SWEEP_STEP) + 1;
+		for (int i = 0; i < points; i++) {
+			float angle = (float) Math.toRadians(SWEEP_START + i * SWEEP_STEP);
+			float range = world.raycast(angle, MAX_RANGE);
+			if (range < MAX_RANGE) {
+				range = Math.max(0, range + (float) random.nextGaussian() * RANGE_NOISE);
+			}
+			scan.add(range, angle);
+		}
+		long sweepNanos = (long) (SWEEP_RANGE / ANGULAR_SPEED * 1e9);
+		clock.schedule(new Runnable() {
+			@Override
+			public void run() {
+				mapper.integrate(scan, scanSequence);
+				costMap.update();
+				hasPath = planner.replan(mapper.getX(), mapper.getY(), goalX, goalY);
+				cycles++;
+				sweep();
+			}
+		}, sweepNanos);
+	}
+
+	private void control() {
+		updateOdometry();
+		// Steer from the pose of the last scan, moved by the odometry since
+		float heading = mapper.getHeading() + odometryHeading - scanHeading;
+		float distance = distance(scanX, scanY, odometryX, odometryY);
+		float x = mapper.getX() + distance * (float) Math.sin(heading);
+		float y = mapper.getY() + distance * (float) Math.cos(heading);
+		if (distance(x, y, goalX, goalY) < GOAL_TOLERANCE) {
+			world.setMotorSpeeds(0, 0);
+			isDone = true;
+			return;
+		}
+		if (hasPath && planner.getLookahead(x, y, LOOKAHEAD, lookahead)) {
+			float bearing = (float) Math.atan2(lookahead[0] - x, lookahead[1] - y);
+			float error = (float) Math.IEEEremainder(bearing - heading, 2 * Math.PI);
+			float speed = MAX_SPEED * (float) Math.max(0, Math.cos(error));
+			float turn = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, error));
+			world.setMotorSpeeds(speed + turn, speed - turn);
+		} else {
+			world.setMotorSpeeds(0, 0);
+		}
+		clock.schedule(new Runnable() {
+			@Override
+			public void run() {
+				control();
+			}
+		}, CONTROL_PERIOD_NANOS);
+	}
+
+	private void updateOdometry() {
+		float x = world.getX();
+		float y = world.getY();
+		float heading = world.getHeading();
+		float turned = (heading - lastHeading) * (1 + (float) random.nextGaussian() * ODOMETRY_NOISE);
+		float moved = distance(lastX, lastY, x, y) * (1 + (float) random.nextGaussian() * ODOMETRY_NOISE);
+		odometryHeading += turned;
+		odometryX += moved * (float) Math.sin(odometryHeading);
+		odometryY += moved * (float) Math.cos(odometryHeading);
+		lastX = x;
+		lastY = y;
+		lastHeading = heading;
+	}
+
+	private static float distance(float x1, float y1, float x2, float y2) {
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private static byte[] readWorld() throws IOException {
+		InputStream in = PlannerEpisodeHarness.class.getClassLoader().getResourceAsStream(WORLD);
+		if (in == null) {
+			throw new IOException("Could not find the world " + WORLD);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
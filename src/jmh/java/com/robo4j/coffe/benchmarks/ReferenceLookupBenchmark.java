@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.RoboBuilder;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.coffe.controllers.CachedReference;
+
+/**
+ * Measures the cost of looking up a unit by id in the context, as was done for
+ * every motion and gyro request in the gyro driven rotation (100 Hz), compared
+ * to using a {@link CachedReference}. The context is populated with as many
+ * units as Coff-E has, or more.
+ *
+ * @author Marcus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReferenceLookupBenchmark {
+	private static final String ID_MOTION = "motion";
+	private static final String ID_GYRO = "gyro";
+
+	@Param({ "12", "64" })
+	private int unitCount;
+
+	private RoboContext context;
+	private CachedReference<Object> motion;
+	private CachedReference<Object> gyro;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		StringBuilder xml = new StringBuilder("<robo4j>\n");
+		addUnit(xml, ID_MOTION);
+		addUnit(xml, ID_GYRO);
+		for (int i = 2; i < unitCount; i++) {
+			addUnit(xml, "unit" + i);
+		}
+		xml.append("</robo4j>\n");
+		RoboBuilder builder = new RoboBuilder();
+		builder.add(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+		context = builder.build();
+		context.start();
+		motion = new CachedReference<>(context, ID_MOTION);
+		gyro = new CachedReference<>(context, ID_GYRO);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.shutdown();
+	}
+
+	@Benchmark
+	public RoboReference<Object> lookup() {
+		return context.getReference(ID_MOTION);
+	}
+
+	@Benchmark
+	public RoboReference<Object> cached() {
+		return motion.get();
+	}
+
+	/**
+	 * The references needed per gyro event during a rotation, looked up.
+	 */
+	@Benchmark
+	public int lookupGyroPath() {
+		RoboReference<Object> g = context.getReference(ID_GYRO);
+		RoboReference<Object> m = context.getReference(ID_MOTION);
+		return System.identityHashCode(g) ^ System.identityHashCode(m);
+	}
+
+	/**
+	 * The references needed per gyro event during a rotation, cached.
+	 */
+	@Benchmark
+	public int cachedGyroPath() {
+		RoboReference<Object> g = gyro.get();
+		RoboReference<Object> m = motion.get();
+		return System.identityHashCode(g) ^ System.identityHashCode(m);
+	}
+
+	private static void addUnit(StringBuilder xml, String id) {
+		xml.append("\t<roboUnit id=\"").append(id).append("\">\n");
+		xml.append("\t\t<class>").append(NullUnit.class.getName()).append("</class>\n");
+		xml.append("\t</roboUnit>\n");
+	}
+}
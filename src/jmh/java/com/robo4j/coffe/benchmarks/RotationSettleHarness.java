@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import com.robo4j.coffe.controllers.RotationController;
+
+/**
+ * Measures the overshoot and settle time of gyro based rotations against a
+ * simulated motor, for the plain threshold stop and for the
+ * {@link RotationController}. Run the main method; the simulation runs in
+ * virtual time, so it completes instantly.
+ * <p>
+ * The simulated tank turns at up to MAX_RATE degrees per second at speed 1.0,
+ * approaching the commanded rate with a first order lag. Speed commands take
+ * effect after a fixed latency, and the gyro is sampled every 10 ms, as
+ * configured in units.xml.
+ *
+ * @author Marcus
+ */
+public final class RotationSettleHarness {
+	private static final float MAX_RATE = 360f;
+	private static final float TIME_CONSTANT = 0.05f;
+	private static final long COMMAND_LATENCY_NANOS = 20_000_000L;
+	private static final long GYRO_PERIOD_NANOS = 10_000_000L;
+	private static final long STEP_NANOS = 1_000_000L;
+	private static final long TIMEOUT_NANOS = 10_000_000_000L;
+	private static final float RATE_AT_REST = 2f;
+	private static final float ROTATION_SPEED = 1.0f;
+
+	private float angle;
+	private float rate;
+	private float speed;
+	private float commandedSpeed;
+	// Commands on their way to the motors
+	private final float[] pendingSpeeds = new float[64];
+	private final long[] pendingTimes = new long[64];
+	private int pendingHead;
+	private int pendingCount;
+
+	private RotationSettleHarness() {
+	}
+
+	public static void main(String[] args) {
+		System.out.println("target  | threshold: overshoot settle | predictive: overshoot settle");
+		for (float target : new float[] { 10, 25, 45, 90, 180 }) {
+			float[] threshold = new RotationSettleHarness().run(target, null);
+			float[] predictive = new RotationSettleHarness().run(target, new RotationController(30f, 0.3f, 0.06f));
+			System.out.println(String.format("%5.0f   |  %7.1f deg %6.0f ms    |  %7.1f deg %6.0f ms", target, threshold[0], threshold[1],
+					predictive[0], predictive[1]));
+		}
+	}
+
+	/**
+	 * @return the overshoot in degrees and the time in ms until at rest.
+	 */
+	private float[] run(float target, RotationController controller) {
+		if (controller != null) {
+			controller.start(target, ROTATION_SPEED);
+		}
+		command(ROTATION_SPEED, 0);
+		boolean stopped = false;
+		long time = 0;
+		while (time < TIMEOUT_NANOS) {
+			step(time);
+			time += STEP_NANOS;
+			if (time % GYRO_PERIOD_NANOS == 0 && !stopped) {
+				if (controller == null) {
+					if (angle >= target) {
+						command(0, time);
+						stopped = true;
+					}
+				} else {
+					float newSpeed = controller.update(angle, time);
+					// Same quantization as the TankController
+					if (newSpeed == 0 || Math.abs(newSpeed - commandedSpeed) >= 0.05f) {
+						command(newSpeed, time);
+					}
+					stopped = newSpeed == 0;
+				}
+			}
+			if (stopped && pendingCount == 0 && Math.abs(rate) < RATE_AT_REST) {
+				break;
+			}
+		}
+		return new float[] { angle - target, time / 1_000_000f };
+	}
+
+	private void command(float newSpeed, long time) {
+		int slot = (pendingHead + pendingCount++) % pendingSpeeds.length;
+		pendingSpeeds[slot] = newSpeed;
+		pendingTimes[slot] = time + COMMAND_LATENCY_NANOS;
+		commandedSpeed = newSpeed;
+	}
+
+	private void step(long time) {
+		while (pendingCount > 0 && time >= pendingTimes[pendingHead]) {
+			speed = pendingSpeeds[pendingHead];
+			pendingHead = (pendingHead + 1) % pendingSpeeds.length;
+			pendingCount--;
+		}
+		float dt = STEP_NANOS / 1e9f;
+		rate += (speed * MAX_RATE - rate) * dt / TIME_CONSTANT;
+		angle += rate * dt;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robo4j.coffe.benchmarks.ScanGenerator.Scene;
+import com.robo4j.coffe.units.PackedRaycast;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.coffe.units.ScanAngleIndex;
+import com.robo4j.math.features.FeatureExtraction;
+import com.robo4j.math.features.FeatureSet;
+import com.robo4j.math.features.Raycast;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Benchmarks the stages of the analysis done in the ScanProcessor, for the
+ * full scans (0.4 degrees) and quick scans (1 degree) that the
+ * MissionController requests. Run with <code>gradle jmh</code>; the gc
+ * profiler is enabled by default to get the allocation rate.
+ * <p>
+ * To benchmark a recorded scan, pass the file with -p scanFile=&lt;path&gt;.
+ * See {@link ScanGenerator#load(java.nio.file.Path)} for the format.
+ *
+ * @author Marcus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanAnalysisBenchmark {
+	// Same values as used in the ScanProcessor.
+	private static final float MIN_LATERAL_DISTANCE = 0.32f;
+	private static final float RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.4f);
+	private static final float DETAILED_RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.2f);
+	private static final float ONE_DEGREE = (float) Math.toRadians(1.0);
+
+	@Param({ "ROOM", "CORRIDOR", "CLUTTER" })
+	private Scene scene;
+
+	@Param({ "0.4", "1.0" })
+	private float angularResolution;
+
+	/**
+	 * A text file as read by {@link ScanGenerator#load(java.nio.file.Path)},
+	 * or a recording ending with .rec, to use instead of the scene.
+	 */
+	@Param({ "" })
+	private String scanFile;
+
+	/**
+	 * The scan to use, if the scan file is a recording.
+	 */
+	@Param({ "0" })
+	private int recordedScan;
+
+	private List<Point2f> points;
+	private PackedScan packedScan;
+	private PackedScan reusedScan;
+	private ScanAngleIndex index;
+	private FeatureSet features;
+	private float raycastStep;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		if (scanFile.isEmpty()) {
+			// The full scan is -45..45 degrees, the quick scan -30..30 degrees
+			if (angularResolution < 1) {
+				points = ScanGenerator.generate(scene, -45f, 90f, angularResolution, 4711);
+			} else {
+				points = ScanGenerator.generate(scene, -30f, 60f, angularResolution, 4711);
+			}
+		} else if (scanFile.endsWith(".rec")) {
+			points = ScanGenerator.loadRecorded(Paths.get(scanFile), recordedScan);
+		} else {
+			points = ScanGenerator.load(Paths.get(scanFile));
+		}
+		packedScan = pack(points, angularResolution, new PackedScan());
+		reusedScan = new PackedScan();
+		index = new ScanAngleIndex((float) Math.toRadians(2));
+		features = FeatureExtraction.getFeatures(points, angularResolution);
+		raycastStep = angularResolution < 1 ? DETAILED_RAYCASTING_STEP_ANGLE : RAYCASTING_STEP_ANGLE;
+	}
+
+	@Benchmark
+	public FeatureSet featureExtraction() {
+		return FeatureExtraction.getFeatures(points, angularResolution);
+	}
+
+	@Benchmark
+	public Point2f raycastFarthestPoint() {
+		return Raycast.raycastFarthestPoint(points, MIN_LATERAL_DISTANCE, raycastStep, features);
+	}
+
+	@Benchmark
+	public Point2f raycastAtAngle() {
+		return Raycast.raycastAtAngle(points, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE, features);
+	}
+
+	/**
+	 * All the stages, in the same order as in the ScanProcessor.
+	 */
+	@Benchmark
+	public void fullAnalysis(Blackhole blackhole) {
+		FeatureSet features = FeatureExtraction.getFeatures(points, angularResolution);
+		blackhole.consume(Raycast.raycastFarthestPoint(points, MIN_LATERAL_DISTANCE, raycastStep, features));
+		blackhole.consume(
+				Raycast.raycastAtAngle(points, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE, features));
+	}
+
+	@Benchmark
+	public PackedScan packScan() {
+		return pack(points, angularResolution, reusedScan);
+	}
+
+	@Benchmark
+	public Point2f packedRaycastFarthestPoint() {
+		return PackedRaycast.raycastFarthestPoint(packedScan, MIN_LATERAL_DISTANCE, raycastStep);
+	}
+
+	@Benchmark
+	public Point2f packedRaycastAtAngle() {
+		return PackedRaycast.raycastAtAngle(packedScan, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE);
+	}
+
+	/**
+	 * Includes building the index, since that is done once per scan.
+	 */
+	@Benchmark
+	public void indexedRaycasts(Blackhole blackhole) {
+		index.build(packedScan);
+		blackhole.consume(PackedRaycast.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, raycastStep));
+		blackhole.consume(
+				PackedRaycast.raycastAtAngle(index, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE));
+	}
+
+	@Benchmark
+	public void packedRaycasts(Blackhole blackhole) {
+		blackhole.consume(PackedRaycast.raycastFarthestPoint(packedScan, MIN_LATERAL_DISTANCE, raycastStep));
+		blackhole.consume(
+				PackedRaycast.raycastAtAngle(packedScan, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE));
+	}
+
+	private static PackedScan pack(List<Point2f> points, float angularResolution, PackedScan target) {
+		target.clear(angularResolution);
+		for (int i = 0; i < points.size(); i++) {
+			target.add(points.get(i).getRange(), points.get(i).getAngle());
+		}
+		return target;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.robo4j.coffe.recording.RecordingFormat;
+import com.robo4j.coffe.recording.RecordingReader;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Generates synthetic scans, similar to what the LaserScanner on Coff-E
+ * produces, by raycasting from origo against a set of wall segments. Angles are
+ * in radians with zero straight ahead, x to the right and y forward, same as
+ * {@link Point2f#fromPolar(float, float)}.
+ *
+ * @author Marcus
+ */
+public final class ScanGenerator {
+	/**
+	 * Max range of the LidarLite.
+	 */
+	private static final float MAX_RANGE = 40f;
+
+	/**
+	 * Typical noise of the LidarLite, in meters.
+	 */
+	private static final float NOISE = 0.025f;
+
+	public enum Scene {
+		/**
+		 * A 4 x 5 meter room, with Coff-E a bit off center.
+		 */
+		ROOM,
+		/**
+		 * A 1.2 meter wide corridor, with a wall 8 meters ahead.
+		 */
+		CORRIDOR,
+		/**
+		 * A room with plenty of boxes and chair legs in it.
+		 */
+		CLUTTER
+	}
+
+	private ScanGenerator() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * Generates a scan of the specified scene.
+	 *
+	 * @param scene
+	 *            the scene to scan.
+	 * @param startAngle
+	 *            the start angle, in degrees.
+	 * @param range
+	 *            the angular range to sweep, in degrees.
+	 * @param angularResolution
+	 *            the angular resolution, in degrees.
+	 * @param seed
+	 *            the seed used for the noise and the clutter, so that the
+	 *            scans are repeatable.
+	 * @return the scan, sorted by angle.
+	 */
+	public static List<Point2f> generate(Scene scene, float startAngle, float range, float angularResolution, long seed) {
+		return generate(scene, startAngle, range, angularResolution, seed, 0f);
+	}
+
+	/**
+	 * Generates a scan of the specified scene, as seen after having driven
+	 * straight ahead the specified distance.
+	 *
+	 * @param scene
+	 *            the scene to scan.
+	 * @param startAngle
+	 *            the start angle, in degrees.
+	 * @param range
+	 *            the angular range to sweep, in degrees.
+	 * @param angularResolution
+	 *            the angular resolution, in degrees.
+	 * @param seed
+	 *            the seed used for the noise and the clutter, so that the
+	 *            scans are repeatable.
+	 * @param forward
+	 *            the distance driven forward, in meters.
+	 * @return the scan, sorted by angle.
+	 */
+	public static List<Point2f> generate(Scene scene, float startAngle, float range, float angularResolution, long seed,
+			float forward) {
+		Random random = new Random(seed);
+		float[] walls = createWalls(scene, random);
+		for (int i = 1; i < walls.length; i += 2) {
+			walls[i] -= forward;
+		}
+		int count = Math.round(range / angularResolution) + 1;
+		List<Point2f> points = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			float angle = (float) Math.toRadians(startAngle + i * angularResolution);
+			float hit = castRay(walls, angle);
+			if (hit < MAX_RANGE) {
+				float noisyRange = hit + (float) random.nextGaussian() * NOISE;
+				points.add(Point2f.fromPolar(Math.max(0.01f, noisyRange), angle));
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Loads a recorded scan from a text file, one point per line, with the
+	 * range in meters and the angle in radians separated by whitespace. Lines
+	 * starting with # are ignored.
+	 *
+	 * @param file
+	 *            the file to load.
+	 * @return the scan.
+	 * @throws IOException
+	 *             if the file could not be read.
+	 */
+	public static List<Point2f> load(Path file) throws IOException {
+		List<Point2f> points = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] values = line.split("\\s+");
+				points.add(Point2f.fromPolar(Float.parseFloat(values[0]), Float.parseFloat(values[1])));
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Loads a scan from a recording made with the
+	 * {@link com.robo4j.coffe.recording.RecorderUnit}.
+	 *
+	 * @param file
+	 *            the recording.
+	 * @param index
+	 *            the index of the scan in the recording, counting from 0.
+	 * @return the scan.
+	 * @throws IOException
+	 *             if the file could not be read, or has too few scans.
+	 */
+	public static List<Point2f> loadRecorded(Path file, int index) throws IOException {
+		try (RecordingReader reader = new RecordingReader(file.toString())) {
+			int scans = 0;
+			while (reader.next()) {
+				if (reader.getType() == RecordingFormat.TYPE_SCAN && scans++ == index) {
+					return reader.toScanResult().getPoints();
+				}
+			}
+		}
+		throw new IOException("The recording " + file + " only has " + index + " scans");
+	}
+
+	/**
+	 * Walls are stored as x1, y1, x2, y2 quadruples.
+	 */
+	private static float[] createWalls(Scene scene, Random random) {
+		switch (scene) {
+		case CORRIDOR:
+			return new float[] { -0.6f, -1f, -0.6f, 8f, 0.6f, -1f, 0.6f, 8f, -0.6f, 8f, 0.6f, 8f };
+		case CLUTTER:
+			float[] room = room(-1.5f, -1f, 2.5f, 4f);
+			int boxes = 12;
+			float[] walls = new float[room.length + boxes * 16];
+			System.arraycopy(room, 0, walls, 0, room.length);
+			for (int i = 0; i < boxes; i++) {
+				float size = 0.05f + random.nextFloat() * 0.4f;
+				float x = -1.3f + random.nextFloat() * 3.4f;
+				float y = 0.5f + random.nextFloat() * 3.2f;
+				System.arraycopy(room(x, y, x + size, y + size), 0, walls, room.length + i * 16, 16);
+			}
+			return walls;
+		case ROOM:
+		default:
+			return room(-1.5f, -1f, 2.5f, 4f);
+		}
+	}
+
+	private static float[] room(float minX, float minY, float maxX, float maxY) {
+		return new float[] { minX, minY, maxX, minY, maxX, minY, maxX, maxY, maxX, maxY, minX, maxY, minX, maxY, minX, minY };
+	}
+
+	private static float castRay(float[] walls, float angle) {
+		float dx = (float) Math.sin(angle);
+		float dy = (float) Math.cos(angle);
+		float nearest = MAX_RANGE;
+		for (int i = 0; i < walls.length; i += 4) {
+			float ex = walls[i + 2] - walls[i];
+			float ey = walls[i + 3] - walls[i + 1];
+			float denominator = dx * ey - dy * ex;
+			if (Math.abs(denominator) < 1e-9f) {
+				continue;
+			}
+			float t = (walls[i] * ey - walls[i + 1] * ex) / denominator;
+			float u = (walls[i] * dy - walls[i + 1] * dx) / denominator;
+			if (t > 0 && u >= 0 && u <= 1 && t < nearest) {
+				nearest = t;
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+
+/**
+ * Caches the reference to a unit, so that the unit does not have to be looked
+ * up by id in the context for every message sent. The lookup is retried until
+ * it succeeds, so it is fine to create these before all the units are
+ * registered. Invalidate when the context is stopped, since the units may be
+ * replaced before it is started again.
+ *
+ * @author Marcus
+ */
+public final class CachedReference<T> {
+	private final RoboContext context;
+	private final String id;
+	private volatile RoboReference<T> reference;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param context
+	 *            the context to look the unit up in.
+	 * @param id
+	 *            the id of the unit.
+	 */
+	public CachedReference(RoboContext context, String id) {
+		this.context = context;
+		this.id = id;
+	}
+
+	/**
+	 * @return the reference, or null if there is no unit with the id in the
+	 *         context.
+	 */
+	public RoboReference<T> get() {
+		RoboReference<T> ref = reference;
+		if (ref == null) {
+			ref = context.getReference(id);
+			reference = ref;
+		}
+		return ref;
+	}
+
+	/**
+	 * Forgets the reference, so that it is looked up again on the next
+	 * {@link #get()}.
+	 */
+	public void invalidate() {
+		reference = null;
+	}
+
+	public String getId() {
+		return id;
+	}
+}
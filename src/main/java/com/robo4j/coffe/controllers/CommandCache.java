@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import com.robo4j.coffe.metrics.Counter;
+import com.robo4j.coffe.metrics.Metrics;
+
+/**
+ * Interns immutable motion commands by speed and direction, so that the
+ * control loop does not allocate a new message for every command sent. The
+ * speed is quantized to 1/32 and the direction to a tenth of a degree, which
+ * keeps the small steering corrections of the mission controller, and the
+ * commands are kept in a small direct mapped cache. A command is only created
+ * when its slot holds another speed and direction; in steady motion that is
+ * rare.
+ * <p>
+ * The slots are read and written without synchronization. That is benign,
+ * since the entries are immutable; at worst a command is created twice.
+ *
+ * @author Marcus
+ */
+public abstract class CommandCache<T> {
+	private static final int SPEED_STEPS = 32;
+	private static final float DIRECTION_STEP = (float) Math.toRadians(0.1);
+	private static final int SLOT_BITS = 10;
+
+	private static final class Entry<T> {
+		private final int speedLevel;
+		private final int directionLevel;
+		private final T command;
+
+		Entry(int speedLevel, int directionLevel, T command) {
+			this.speedLevel = speedLevel;
+			this.directionLevel = directionLevel;
+			this.command = command;
+		}
+	}
+
+	private final Entry<?>[] slots = new Entry<?>[1 << SLOT_BITS];
+	private final Counter misses;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            the name of the cache, for the metrics.
+	 */
+	public CommandCache(String name) {
+		misses = Metrics.counter(name + ".cacheMisses");
+	}
+
+	/**
+	 * Returns the command for the speed and direction, quantized.
+	 * 
+	 * @param speed
+	 *            the normalized speed.
+	 * @param direction
+	 *            the direction, in radians.
+	 * @return the command.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(float speed, float direction) {
+		int speedLevel = Math.round(speed * SPEED_STEPS);
+		int directionLevel = Math.round(direction / DIRECTION_STEP);
+		int slot = ((speedLevel * 0x9E3779B1) ^ (directionLevel * 0x85EBCA6B)) >>> (32 - SLOT_BITS);
+		Entry<T> entry = (Entry<T>) slots[slot];
+		if (entry == null || entry.speedLevel != speedLevel || entry.directionLevel != directionLevel) {
+			misses.increment();
+			entry = new Entry<>(speedLevel, directionLevel,
+					create(speedLevel / (float) SPEED_STEPS, directionLevel * DIRECTION_STEP));
+			slots[slot] = entry;
+		}
+		return entry.command;
+	}
+
+	/**
+	 * Creates a new command.
+	 * 
+	 * @param speed
+	 *            the quantized speed.
+	 * @param direction
+	 *            the quantized direction.
+	 * @return the new command.
+	 */
+	protected abstract T create(float speed, float direction);
+}
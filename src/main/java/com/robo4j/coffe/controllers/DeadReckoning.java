@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import com.robo4j.coffe.units.MotionDelta;
+
+/**
+ * Estimates how far Coff-E has moved between scans from the commands sent to
+ * the tank. Coff-E has no wheel encoders, so this is just commanded speed
+ * integrated over time. Any turn or rotation makes the heading unknown until
+ * the next scan, but the distance driven is still reported.
+ *
+ * @author Marcus
+ */
+final class DeadReckoning {
+	private final float fullSpeedVelocity;
+
+	private float speed;
+	private boolean isCommandKeepingHeading = true;
+	private boolean isHeadingKnown;
+	private float distance;
+	private long lastUpdate;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param fullSpeedVelocity
+	 *            the velocity, in m/s, at tank speed 1.0.
+	 */
+	DeadReckoning(float fullSpeedVelocity) {
+		this.fullSpeedVelocity = fullSpeedVelocity;
+	}
+
+	/**
+	 * To be called whenever a command is sent to the tank.
+	 */
+	synchronized void commandIssued(TankEvent event, long nanoTime) {
+		integrate(nanoTime);
+		speed = event.getSpeed();
+		isCommandKeepingHeading = event.getDirection() == 0 && event.getRotate() == 0;
+		isHeadingKnown &= isCommandKeepingHeading;
+	}
+
+	/**
+	 * Returns the motion since the last call, and starts over.
+	 */
+	synchronized MotionDelta takeDelta(long nanoTime) {
+		integrate(nanoTime);
+		MotionDelta delta = isHeadingKnown ? new MotionDelta(0, distance) : new MotionDelta(Float.NaN, distance);
+		distance = 0;
+		isHeadingKnown = isCommandKeepingHeading;
+		return delta;
+	}
+
+	/**
+	 * To be called when a gyro based rotation is done. The rotation is
+	 * accounted for separately, and a rotation on the spot does not move
+	 * Coff-E, so we can start over with a known heading.
+	 */
+	synchronized void rotationCompleted(long nanoTime) {
+		integrate(nanoTime);
+		distance = 0;
+		isHeadingKnown = true;
+	}
+
+	private void integrate(long nanoTime) {
+		if (lastUpdate != 0) {
+			distance += speed * fullSpeedVelocity * (nanoTime - lastUpdate) / 1_000_000_000f;
+		}
+		lastUpdate = nanoTime;
+	}
+}
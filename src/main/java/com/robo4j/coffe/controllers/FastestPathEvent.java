@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+/**
+ * The events driving the {@link FastestPathState} machine of the
+ * {@link MissionController}.
+ * 
+ * @author Marcus
+ */
+public enum FastestPathEvent {
+	/**
+	 * A scan has been analyzed. The payload is the
+	 * {@link com.robo4j.coffe.units.AnalysisResult}.
+	 */
+	SCAN_ANALYZED,
+	/**
+	 * A range has been measured while cornered. The payload is the
+	 * ScanResult2D.
+	 */
+	RANGE_MEASURED,
+	/**
+	 * The rotation to face the target is done. The payload is the
+	 * {@link RotationDoneNotification}.
+	 */
+	ROTATION_DONE
+}
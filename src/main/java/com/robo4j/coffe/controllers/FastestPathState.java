@@ -17,6 +17,7 @@
 package com.robo4j.coffe.controllers;
 
 import com.robo4j.hw.rpi.i2c.adafruitlcd.Color;
+import com.robo4j.units.rpi.lcd.LcdMessage;
 
 /**
  * These are the states that Coff-E will move when in the
@@ -41,10 +42,12 @@ public enum FastestPathState {
 
 	Color stateColor;
 	String humanFriendlyName;
+	LcdMessage lcdMessage;
 	
 	FastestPathState(Color stateColor, String humanFriendlyName) {
 		this.stateColor = stateColor;
 		this.humanFriendlyName = humanFriendlyName;
+		this.lcdMessage = new LcdMessage(humanFriendlyName, stateColor);
 	}
 	
 	public Color getStateColor() {
@@ -54,4 +57,12 @@ public enum FastestPathState {
 	public String getHumanFriendlyName() {
 		return humanFriendlyName;
 	}
+
+	/**
+	 * @return the message showing the state on the LCD, shared since it
+	 *         never changes.
+	 */
+	public LcdMessage getLcdMessage() {
+		return lcdMessage;
+	}
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+/**
+ * Decides how much the gyro angle must change before we want to be notified
+ * during a rotation. The threshold for a rotation is picked from its target,
+ * so that we still get several samples before reaching it, and switched to
+ * the fine threshold once close to the target. The thresholds are powers of
+ * two times the fine threshold, so that the gyro requests can be shared.
+ * 
+ * @author Marcus
+ */
+final class GyroSamplingPolicy {
+	// Want at least this many notifications over the remaining angle
+	private static final float SAMPLES_TO_TARGET = 4;
+
+	private final float fineThreshold;
+	private final float coarseThreshold;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param fineThreshold
+	 *            the threshold, in degrees, to use close to the target.
+	 * @param coarseThreshold
+	 *            the max threshold, in degrees.
+	 */
+	GyroSamplingPolicy(float fineThreshold, float coarseThreshold) {
+		this.fineThreshold = fineThreshold;
+		this.coarseThreshold = Math.max(fineThreshold, coarseThreshold);
+	}
+
+	/**
+	 * @param remaining
+	 *            the angle, in degrees, left to the target.
+	 * @return the notification threshold, in degrees.
+	 */
+	float getThreshold(float remaining) {
+		float wanted = Math.abs(remaining) / SAMPLES_TO_TARGET;
+		float threshold = fineThreshold;
+		while (threshold * 2 <= coarseThreshold && threshold * 2 <= wanted) {
+			threshold *= 2;
+		}
+		return threshold;
+	}
+
+	float getFineThreshold() {
+		return fineThreshold;
+	}
+}
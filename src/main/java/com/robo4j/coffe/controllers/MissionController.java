@@ -16,16 +16,44 @@
  */
 package com.robo4j.coffe.controllers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.robo4j.ConfigurationException;
 import com.robo4j.LocalReferenceAdapter;
 import com.robo4j.RoboContext;
 import com.robo4j.RoboReference;
 import com.robo4j.RoboUnit;
+import com.robo4j.coffe.jfr.LoopStage;
+import com.robo4j.coffe.jfr.StageTimer;
+import com.robo4j.coffe.metrics.Counter;
+import com.robo4j.coffe.metrics.Gauge;
+import com.robo4j.coffe.metrics.Metrics;
+import com.robo4j.coffe.navigation.CostMap;
+import com.robo4j.coffe.navigation.GeoFrame;
+import com.robo4j.coffe.navigation.GpsFix;
+import com.robo4j.coffe.navigation.GpsRequest;
+import com.robo4j.coffe.navigation.PathPlanner;
+import com.robo4j.coffe.slam.GridMapper;
+import com.robo4j.coffe.slam.MapFiles;
+import com.robo4j.coffe.slam.OccupancyGrid;
+import com.robo4j.coffe.slam.ParticleLocalizer;
+import com.robo4j.coffe.statemachine.StateMachine;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.SystemClock;
 import com.robo4j.coffe.units.AnalysisResult;
+import com.robo4j.coffe.units.LcdText;
+import com.robo4j.coffe.units.MotionDelta;
 import com.robo4j.coffe.units.ProcessingRequest;
 import com.robo4j.coffe.units.ProcessingRequest.Scope;
+import com.robo4j.coffe.units.ScanStream;
 import com.robo4j.configuration.Configuration;
 import com.robo4j.hw.rpi.i2c.adafruitlcd.Color;
 import com.robo4j.logging.SimpleLoggingUtil;
@@ -72,27 +100,243 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 	 * The mode of operation.
 	 */
 	public static final String KEY_MODE_OF_OPERATION = "modeOfOperation";
+
+	/**
+	 * The velocity, in m/s, that Coff-E makes at tank speed 1.0 (i.e. with
+	 * the max speed of the tank already applied). Used to estimate how far we
+	 * have moved between scans.
+	 */
+	public static final String KEY_FULL_SPEED_VELOCITY = "fullSpeedVelocity";
+
+	/**
+	 * The number of chunks to split each sweep into. Each chunk is sent for
+	 * analysis as soon as it arrives, so that the analysis is almost done when
+	 * the sweep is. Defaults to 1, i.e. no splitting.
+	 */
+	public static final String KEY_SCAN_CHUNKS = "scanChunks";
+
+	/**
+	 * If true, the next quick scan is requested as soon as the previous one
+	 * has arrived, so that the analysis of one scan overlaps the acquisition of
+	 * the next. Results for scans that were overtaken by newer ones, or that
+	 * were taken before a state change, are dropped. Defaults to false.
+	 */
+	public static final String KEY_PIPELINED = "pipelined";
+
+	/**
+	 * The side of a cell in the FAST_SLAM map, in meters. Defaults to 0.05.
+	 */
+	public static final String KEY_MAP_CELL_SIZE = "mapCellSize";
+
+	/**
+	 * The side of the FAST_SLAM map, in meters. Defaults to 50.
+	 */
+	public static final String KEY_MAP_SIZE = "mapSize";
+
+	/**
+	 * The max number of 1 kB map tiles to allocate in FAST_SLAM mode, bounding
+	 * the memory used by the map. Defaults to 2048.
+	 */
+	public static final String KEY_MAP_MAX_TILES = "mapMaxTiles";
+
+	/**
+	 * The max range of the scanner, in meters, when mapping. Defaults to 10.
+	 */
+	public static final String KEY_MAP_MAX_RANGE = "mapMaxRange";
+
+	/**
+	 * A PGM image on the class path to start the FAST_SLAM map from, with the
+	 * same resolution as the map cells. Coff-E starts in the center of the
+	 * image, facing up. Optional.
+	 */
+	public static final String KEY_MAP_FILE = "mapFile";
+
+	/**
+	 * The max number of particles for the FAST_SLAM localization. Set to 0 to
+	 * only use the dead reckoning. Defaults to 500.
+	 */
+	public static final String KEY_PARTICLES = "particles";
+
+	/**
+	 * The time budget, in ms, for matching a scan in the FAST_SLAM
+	 * localization. The number of particles is adapted to stay within it.
+	 * Defaults to 50.
+	 */
+	public static final String KEY_LOCALIZATION_BUDGET = "localizationBudget";
+
+	/**
+	 * The seed for the random numbers of the FAST_SLAM localization, so that
+	 * simulations and replays can be repeated. Defaults to 4711.
+	 */
+	public static final String KEY_PARTICLE_SEED = "particleSeed";
+
+	/**
+	 * The reference id of the GPS unit. Only needed in the GPS mode.
+	 */
+	public static final String KEY_ID_GPS = "gps";
+
+	/**
+	 * The waypoints to visit in the GPS mode, as latitude,longitude pairs in
+	 * degrees, separated by semicolons.
+	 */
+	public static final String KEY_WAYPOINTS = "waypoints";
+
+	/**
+	 * How close, in meters, Coff-E must get to a waypoint for it to count as
+	 * visited. Should be no less than the accuracy of the GPS. Defaults to 2.
+	 */
+	public static final String KEY_WAYPOINT_TOLERANCE = "waypointTolerance";
+
+	/**
+	 * The radius of Coff-E, in meters, used to keep the planned paths clear
+	 * of obstacles. Defaults to 0.3.
+	 */
+	public static final String KEY_ROBOT_RADIUS = "robotRadius";
+
+	/**
+	 * The number of map cells along the side of a path planning cell, rounded
+	 * down to a power of two no larger than 32. Defaults to 2.
+	 */
+	public static final String KEY_PLAN_RESOLUTION = "planResolution";
+
+	/**
+	 * If true, the sweep and resolution of each scan are planned from the
+	 * speed, the clearance and the bearing to the target, see
+	 * {@link ScanPlanner}. If false, full scans are 90 degrees at 0.4 degree
+	 * resolution, and quick scans 60 degrees at 1 degree. Defaults to false.
+	 */
+	public static final String KEY_ADAPTIVE_SCANS = "adaptiveScans";
+
+	/**
+	 * For adaptive scans, the largest distance, in meters, between the scan
+	 * points where Coff-E is heading. Defaults to 0.1.
+	 */
+	public static final String KEY_SCAN_SPACING = "scanSpacing";
+
+	/**
+	 * For adaptive scans, how far ahead, in seconds of driving, the quick
+	 * scans look. Defaults to 2.
+	 */
+	public static final String KEY_SCAN_HORIZON = "scanHorizon";
+
+	/**
+	 * If true, the quick scans while moving to the target are narrow region of
+	 * interest scans, centered on the bearing to the target and just wide
+	 * enough for Coff-E to pass. The ScanProcessor merges them into the last
+	 * full scan, so that the obstacles outside are not forgotten. Defaults to
+	 * false.
+	 */
+	public static final String KEY_ROI_SCANS = "roiScans";
+
+	/**
+	 * The number of region of interest scans to do before refreshing the
+	 * context with a quick scan. Defaults to 4.
+	 */
+	public static final String KEY_ROI_SCANS_PER_CONTEXT = "roiScansPerContext";
+
+	/**
+	 * The clock to time the motion with. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
 	// Robo4J head location
 	private static final Point2f ORIGO = Point2f.fromPolar(0, 0);
 	// If closer than this, get more info
 	private static final float MIN_GOAL_RANGE = 0.5f;
 	private static final TankEvent STOP_MESSAGE = new TankEvent(0, 0, 0);
+	private static final TankEvent FULL_SPEED_MESSAGE = new TankEvent(1.0f, 0f, 0f);
+	private static final LcdMessage CORNER_ESCAPE_MESSAGE = new LcdMessage("Corner escape\nRotating...", Color.BLUE);
+	// How far ahead on the planned path to steer for
+	private static final float PLAN_LOOKAHEAD = 1.5f;
+	// The GPS track must spread this far, in meters, to tell the map rotation
+	private static final float GEO_MIN_SPREAD = 3f;
+	private static final float GEO_FORGETTING = 0.98f;
 
 	private final ScannerDelegate scannerDelegate;
 	private final RangeDelegate rangeDelegate;
 	private final AnalysisDelegate analysisDelegate;
+	private final GpsDelegate gpsDelegate;
+	private final RotationDelegate rotationDelegate;
 
 	private volatile ModeOfOperation currentMode = ModeOfOperation.FASTEST_PATH;
 
 	// Using this to make sure that we don't send multiple scan requests
 	// concurrently.
 	private final AtomicBoolean laserLock = new AtomicBoolean();
-	private volatile FastestPathState currentPathState = FastestPathState.NMI;
+	private StateMachine<FastestPathState, FastestPathEvent> stateMachine;
+	// What we are rotating to face
+	private volatile Point2f rotationTarget;
+
+	private CachedReference<LcdMessage> lcd;
+	private CachedReference<TankEvent> tank;
+	private CachedReference<ScanRequest> scanner;
+	private CachedReference<ProcessingRequest> scanProcessor;
+	private DeadReckoning deadReckoning;
+	private Clock clock = SystemClock.INSTANCE;
+	private int scanChunks;
+	private boolean isPipelined;
+	private float mapCellSize;
+	private float mapSize;
+	private int mapMaxTiles;
+	private float mapMaxRange;
+	private String mapFile;
+	private int particles;
+	private int localizationBudget;
+	private int particleSeed;
+	// Only set in FAST_SLAM and GPS mode
+	private volatile GridMapper mapper;
+
+	private CachedReference<GpsRequest> gps;
+	private double[] waypointLatitudes;
+	private double[] waypointLongitudes;
+	private float waypointTolerance;
+	private float robotRadius;
+	// Only set if the scans are adaptive, or region of interest scans are
+	// used
+	private ScanPlanner scanPlanner;
+	private boolean isAdaptiveScans;
+	private boolean isRoiScans;
+	private int roiScansPerContext;
+	// Only touched when holding the laser lock
+	private final float[] scanPlan = new float[3];
+	private int roiScansSinceContext;
+	private volatile boolean isInFlightScanRoi;
+	private int planResolution;
+	// Only set in GPS mode
+	private volatile GeoFrame geoFrame;
+	private volatile int waypointIndex;
+	// Only touched when analyzing
+	private PathPlanner planner;
+	private boolean isFollowingPath;
+	private final float[] planPoint = new float[2];
+
+	// Sequence numbers for the scans, so that stale results can be dropped
+	// when pipelining.
+	private final AtomicLong scanSequence = new AtomicLong();
+	private volatile long inFlightScanSequence;
+	private volatile long minimumSequence;
+	private volatile long lastActedSequence;
+	// At most one analysis in flight, and at most one waiting. A newer scan
+	// replaces the waiting one. Keeps the sequence number of the scan being
+	// analyzed, or 0 if none. Streamed scans are not counted.
+	private final AtomicLong analysisInFlight = new AtomicLong();
+	private final AtomicReference<ProcessingRequest> pendingAnalysis = new AtomicReference<>();
+
+	// Timing of the control loop. The scans in flight, from request to
+	// action, are kept by sequence number. More than a few in flight means
+	// they were dropped, and they will simply be overwritten.
+	private static final int SENSE_TO_ACT_SLOTS = 16;
+	private final AtomicReferenceArray<StageTimer> senseToActTimers = new AtomicReferenceArray<>(SENSE_TO_ACT_SLOTS);
+	private volatile StageTimer scanTimer;
+	// Bumped for every tank command, to tell if a decision acted. Commands are
+	// sent from both the analysis and the rotation delegate threads.
+	private final AtomicInteger tankCommands = new AtomicInteger();
 
-	private String refIdLcd;
-	private String refIdTank;
-	private String refIdScanner;
-	private String refIdScanProcessor;
+	private static final String GAUGE_ANALYSES_QUEUED = "mission.analysesQueued";
+	private static final Counter SCANS = Metrics.counter("mission.scans");
+	// Scans refused because the laser was busy with another one
+	private static final Counter LASER_LOCK_CONTENTION = Metrics.counter("mission.laserLockContention");
+	private static final Counter SCANS_DROPPED = Metrics.counter("mission.scansDropped");
+	private static final Counter ANALYSES_DROPPED = Metrics.counter("mission.analysesDropped");
 
 	private class ScannerDelegate extends LocalReferenceAdapter<ScanResult2D> {
 		public ScannerDelegate() {
@@ -107,6 +351,102 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 		}
 	}
 
+	/**
+	 * Receives the chunks of a split up sweep. Requests the next chunk before
+	 * sending the received one off for analysis, to keep the laser busy.
+	 */
+	private class ChunkDelegate extends LocalReferenceAdapter<ScanResult2D> {
+		private final ScanStream stream;
+		private final float startAngle;
+		private final float chunkRange;
+		private final float angularResolution;
+		private final int chunks;
+		private volatile int nextChunk;
+
+		public ChunkDelegate(ScanStream stream, float startAngle, float chunkRange, float angularResolution, int chunks) {
+			super(ScanResult2D.class);
+			this.stream = stream;
+			this.startAngle = startAngle;
+			this.chunkRange = chunkRange;
+			this.angularResolution = angularResolution;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public void sendMessage(ScanResult2D message) {
+			if (nextChunk == chunks) {
+				laserLock.set(false);
+				scanDone();
+				MotionDelta motion = deadReckoning.takeDelta(clock.nanoTime());
+				GridMapper currentMapper = mapper;
+				if (currentMapper != null) {
+					currentMapper.scanTaken(motion, stream.getSequenceNumber());
+				}
+				if (isPipelined) {
+					// The chunks are already being analyzed, so stale results
+					// are dropped when they arrive instead.
+					scanAcquired(stream.getSequenceNumber());
+				}
+			} else {
+				requestNextChunk();
+			}
+			getScanProcessor().sendMessage(new ProcessingRequest(stream, message));
+		}
+
+		private void requestNextChunk() {
+			int chunk = nextChunk++;
+			// Skip the first step of all but the first chunk, so that the
+			// chunks don't overlap.
+			float offset = chunk == 0 ? 0 : angularResolution;
+			getScannerUnit().sendMessage(
+					new ScanRequest(this, startAngle + chunk * chunkRange + offset, chunkRange - offset, angularResolution));
+		}
+	}
+
+	/**
+	 * Notified when a rotation to face the target is done. There is only ever
+	 * one rotation going on, so the same instance is used for all of them.
+	 */
+	private class RotationDelegate extends LocalReferenceAdapter<RotationDoneNotification> {
+		public RotationDelegate() {
+			super(RotationDoneNotification.class);
+		}
+
+		@Override
+		public void sendMessage(RotationDoneNotification message) {
+			try {
+				stateMachine.fire(FastestPathEvent.ROTATION_DONE, message);
+			} catch (Throwable t) {
+				SimpleLoggingUtil.debug(getClass(), "Move to target failed.", t);
+			}
+		}
+	}
+
+	private class GpsDelegate extends LocalReferenceAdapter<GpsFix> {
+		public GpsDelegate() {
+			super(GpsFix.class);
+		}
+
+		@Override
+		public void sendMessage(GpsFix message) {
+			GridMapper currentMapper = mapper;
+			GeoFrame currentFrame = geoFrame;
+			if (currentMapper == null || currentFrame == null) {
+				return;
+			}
+			float x;
+			float y;
+			synchronized (currentMapper) {
+				if (!currentMapper.isPoseKnown()) {
+					return;
+				}
+				x = currentMapper.getX();
+				y = currentMapper.getY();
+			}
+			currentFrame.addFix(message, x, y);
+		}
+	}
+
 	private class RangeDelegate extends LocalReferenceAdapter<ScanResult2D> {
 		public RangeDelegate() {
 			super(ScanResult2D.class);
@@ -133,7 +473,28 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 
 		@Override
 		public void onMessage(AnalysisResult message) {
+			GridMapper currentMapper = mapper;
+			if (currentMapper != null) {
+				// Even stale scans are good for the map. The context merged into
+				// region of interest scans is already on it.
+				currentMapper.integrate(message.getFreshScan(), message.getSequenceNumber());
+			}
+			if (isPipelined) {
+				analysisDone(message.getSequenceNumber());
+				if (isStale(message.getSequenceNumber())) {
+					ANALYSES_DROPPED.increment();
+					SimpleLoggingUtil.debug(getClass(), "Dropping stale analysis of scan " + message.getSequenceNumber());
+					return;
+				}
+				lastActedSequence = message.getSequenceNumber();
+			}
+			StageTimer timer = StageTimer.start(LoopStage.DECISION, message.getSequenceNumber());
+			int commands = tankCommands.get();
 			updateFromNewKnowledge(message);
+			timer.stop();
+			if (commands != tankCommands.get()) {
+				stopSenseToActTimer(message.getSequenceNumber());
+			}
 		}
 
 		// Don't bother scheduling this - the processing of the results will be
@@ -155,27 +516,111 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 		scannerDelegate = new ScannerDelegate();
 		analysisDelegate = new AnalysisDelegate();
 		rangeDelegate = new RangeDelegate();
+		gpsDelegate = new GpsDelegate();
+		rotationDelegate = new RotationDelegate();
 	}
 
 	@Override
 	protected void onInitialization(Configuration configuration) throws ConfigurationException {
-		refIdTank = configuration.getString(KEY_ID_TANK, null);
+		String refIdTank = configuration.getString(KEY_ID_TANK, null);
 		if (refIdTank == null) {
 			throw ConfigurationException.createMissingConfigNameException(KEY_ID_TANK);
 		}
-		refIdLcd = configuration.getString(KEY_ID_LCD, null);
+		String refIdLcd = configuration.getString(KEY_ID_LCD, null);
 		if (refIdLcd == null) {
 			throw ConfigurationException.createMissingConfigNameException(KEY_ID_LCD);
 		}
-		refIdScanner = configuration.getString(KEY_ID_SCANNER, null);
+		String refIdScanner = configuration.getString(KEY_ID_SCANNER, null);
 		if (refIdScanner == null) {
 			throw ConfigurationException.createMissingConfigNameException(KEY_ID_SCANNER);
 		}
-		refIdScanProcessor = configuration.getString(KEY_ID_SCAN_PROCESSOR, null);
+		String refIdScanProcessor = configuration.getString(KEY_ID_SCAN_PROCESSOR, null);
 		if (refIdScanProcessor == null) {
 			throw ConfigurationException.createMissingConfigNameException(KEY_ID_SCAN_PROCESSOR);
 		}
+		tank = new CachedReference<>(getContext(), refIdTank);
+		lcd = new CachedReference<>(getContext(), refIdLcd);
+		scanner = new CachedReference<>(getContext(), refIdScanner);
+		scanProcessor = new CachedReference<>(getContext(), refIdScanProcessor);
 		currentMode = getModeOfOperation(configuration);
+		clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+		stateMachine = createStateMachine();
+		deadReckoning = new DeadReckoning(configuration.getFloat(KEY_FULL_SPEED_VELOCITY, 0.5f));
+		scanChunks = Math.max(1, configuration.getInteger(KEY_SCAN_CHUNKS, 1));
+		isPipelined = configuration.getBoolean(KEY_PIPELINED, false);
+		mapCellSize = configuration.getFloat(KEY_MAP_CELL_SIZE, 0.05f);
+		mapSize = configuration.getFloat(KEY_MAP_SIZE, 50f);
+		mapMaxTiles = configuration.getInteger(KEY_MAP_MAX_TILES, 2048);
+		mapMaxRange = configuration.getFloat(KEY_MAP_MAX_RANGE, 10f);
+		mapFile = configuration.getString(KEY_MAP_FILE, null);
+		particles = configuration.getInteger(KEY_PARTICLES, 500);
+		localizationBudget = configuration.getInteger(KEY_LOCALIZATION_BUDGET, 50);
+		particleSeed = configuration.getInteger(KEY_PARTICLE_SEED, 4711);
+		String refIdGps = configuration.getString(KEY_ID_GPS, null);
+		gps = refIdGps == null ? null : new CachedReference<GpsRequest>(getContext(), refIdGps);
+		parseWaypoints(configuration.getString(KEY_WAYPOINTS, ""));
+		waypointTolerance = configuration.getFloat(KEY_WAYPOINT_TOLERANCE, 2f);
+		robotRadius = configuration.getFloat(KEY_ROBOT_RADIUS, 0.3f);
+		planResolution = Integer.highestOneBit(
+				Math.max(1, Math.min(OccupancyGrid.TILE_SIZE, configuration.getInteger(KEY_PLAN_RESOLUTION, 2))));
+		isAdaptiveScans = configuration.getBoolean(KEY_ADAPTIVE_SCANS, false);
+		isRoiScans = configuration.getBoolean(KEY_ROI_SCANS, false);
+		roiScansPerContext = configuration.getInteger(KEY_ROI_SCANS_PER_CONTEXT, 4);
+		if (isAdaptiveScans || isRoiScans) {
+			scanPlanner = new ScanPlanner(configuration.getFloat(KEY_SCAN_SPACING, 0.1f),
+					configuration.getFloat(KEY_SCAN_HORIZON, 2f), configuration.getFloat(KEY_FULL_SPEED_VELOCITY, 0.5f),
+					robotRadius);
+		} else {
+			scanPlanner = null;
+		}
+	}
+
+	private void parseWaypoints(String waypoints) throws ConfigurationException {
+		String[] pairs = waypoints.trim().isEmpty() ? new String[0] : waypoints.split(";");
+		waypointLatitudes = new double[pairs.length];
+		waypointLongitudes = new double[pairs.length];
+		try {
+			for (int i = 0; i < pairs.length; i++) {
+				String[] pair = pairs[i].split(",");
+				waypointLatitudes[i] = Double.parseDouble(pair[0].trim());
+				waypointLongitudes[i] = Double.parseDouble(pair[1].trim());
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new ConfigurationException("Could not parse the waypoints " + waypoints, e);
+		}
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		// All units are registered by now - resolve the references up front
+		tank.get();
+		lcd.get();
+		scanner.get();
+		scanProcessor.get();
+		Metrics.register(GAUGE_ANALYSES_QUEUED, new Gauge() {
+			@Override
+			public long getValue() {
+				return (analysisInFlight.get() != 0 ? 1 : 0) + (pendingAnalysis.get() != null ? 1 : 0);
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		SimpleLoggingUtil.debug(getClass(), "Control loop latencies:\n" + LoopStage.report());
+		Metrics.unregisterGauge(GAUGE_ANALYSES_QUEUED);
+		tank.invalidate();
+		lcd.invalidate();
+		scanner.invalidate();
+		scanProcessor.invalidate();
+		if (gps != null) {
+			if (geoFrame != null) {
+				gps.get().sendMessage(new GpsRequest(gpsDelegate, GpsRequest.Operation.UNREGISTER));
+			}
+			gps.invalidate();
+		}
 	}
 
 	private ModeOfOperation getModeOfOperation(Configuration configuration) {
@@ -187,141 +632,527 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 	public void onMessage(MissionControllerEvent message) {
 		switch (message) {
 		case START:
-			getLcdUnit().sendMessage(new LcdMessage("Starting...", Color.TEAL));
-			reset();
-			switch (currentMode) {
-			case FASTEST_PATH:
-				initiateFastestPathMode();
-				break;
-			default:
-				getTank().sendMessage(new TankEvent(0, 0, 0));
-				SimpleLoggingUtil.error(MissionController.class, "Mode not supported:" + message);
-			}
+			startMission();
+			break;
 		case STOPPED_ROTATING:
-			// Release the latch and continue.
+			// Nothing to do - the rotations to face the target are handled
+			// by the state machine.
+			break;
+		}
+	}
+
+	private void startMission() {
+		getLcdUnit().sendMessage(new LcdMessage("Starting...", Color.TEAL));
+		reset();
+		switch (currentMode) {
+		case FASTEST_PATH:
+			initiateFastestPathMode();
+			break;
+		case FAST_SLAM:
+			initiateFastSlamMode();
+			break;
+		case GPS:
+			initiateGpsMode();
+			break;
+		default:
+			sendTankEvent(STOP_MESSAGE);
+			SimpleLoggingUtil.error(MissionController.class, "Mode not supported:" + currentMode);
 		}
 	}
 
 	private void initiateFastestPathMode() {
 		currentMode = ModeOfOperation.FASTEST_PATH;
-		currentPathState = FastestPathState.NMI;
+		stateMachine.reset(FastestPathState.NMI);
 		printMessage(Color.BLUE, "Starting\nMission!");
 		scheduleFullScan();
 	}
 
+	/**
+	 * Explores like the fastest path mode, mapping as we go.
+	 */
+	private void initiateFastSlamMode() {
+		if (mapper == null) {
+			mapper = createMapper();
+		}
+		currentMode = ModeOfOperation.FAST_SLAM;
+		stateMachine.reset(FastestPathState.NMI);
+		printMessage(Color.BLUE, "Starting\nMapping!");
+		scheduleFullScan();
+	}
+
+	/**
+	 * Visits the waypoints in order, following paths planned on the map. The
+	 * map is not related to the GPS positions until Coff-E has moved a bit, so
+	 * he explores like in the fastest path mode until then.
+	 */
+	private void initiateGpsMode() {
+		if (gps == null || waypointLatitudes.length == 0) {
+			SimpleLoggingUtil.error(getClass(), "The GPS mode needs " + KEY_ID_GPS + " and " + KEY_WAYPOINTS);
+			printMessage(Color.RED, "No GPS or\nwaypoints!");
+			return;
+		}
+		if (mapper == null) {
+			mapper = createMapper();
+		}
+		if (planner == null) {
+			planner = new PathPlanner(new CostMap(mapper.getGrid(), planResolution, robotRadius, 2 * robotRadius));
+		}
+		planner.clearPath();
+		if (geoFrame == null) {
+			geoFrame = new GeoFrame(GEO_MIN_SPREAD, GEO_FORGETTING);
+			gps.get().sendMessage(new GpsRequest(gpsDelegate, GpsRequest.Operation.REGISTER));
+		}
+		waypointIndex = 0;
+		currentMode = ModeOfOperation.GPS;
+		stateMachine.reset(FastestPathState.NMI);
+		printMessage(Color.BLUE, "Starting\nGPS Mission!");
+		scheduleFullScan();
+	}
+
+	/**
+	 * GPS mode only. Picks the point to go for next: a point on the path to
+	 * the current waypoint if there is one, else the target point of the scan.
+	 * 
+	 * @return the target point, or null if all waypoints have been visited.
+	 */
+	private Point2f getGpsTarget(AnalysisResult message) {
+		isFollowingPath = false;
+		GeoFrame currentFrame = geoFrame;
+		if (!currentFrame.isAligned()) {
+			return message.getTargetPoint();
+		}
+		GridMapper currentMapper = mapper;
+		float x;
+		float y;
+		float heading;
+		synchronized (currentMapper) {
+			if (!currentMapper.isPoseKnown()) {
+				return message.getTargetPoint();
+			}
+			x = currentMapper.getX();
+			y = currentMapper.getY();
+			heading = currentMapper.getHeading();
+		}
+		while (true) {
+			int index = waypointIndex;
+			if (index == waypointLatitudes.length) {
+				return null;
+			}
+			currentFrame.toMap(waypointLatitudes[index], waypointLongitudes[index], planPoint);
+			float dx = planPoint[0] - x;
+			float dy = planPoint[1] - y;
+			if (dx * dx + dy * dy > waypointTolerance * waypointTolerance) {
+				break;
+			}
+			waypointIndex = index + 1;
+			planner.clearPath();
+			if (index + 1 == waypointLatitudes.length) {
+				sendTankEvent(STOP_MESSAGE);
+				stateMachine.transition(FastestPathState.NMI);
+				printMessage(Color.GREEN, "Mission\ncomplete!");
+				return null;
+			}
+			StringBuilder text = LcdText.builder().append("Waypoint ").append(index + 1).append("\nreached!");
+			printMessage(Color.GREEN, text.toString());
+		}
+		boolean hasPath;
+		synchronized (currentMapper) {
+			planner.getCostMap().update();
+			hasPath = planner.replan(x, y, planPoint[0], planPoint[1]);
+		}
+		if (!hasPath || !planner.getLookahead(x, y, PLAN_LOOKAHEAD, planPoint)) {
+			SimpleLoggingUtil.debug(getClass(), "No path to waypoint " + waypointIndex + " - exploring");
+			return message.getTargetPoint();
+		}
+		isFollowingPath = true;
+		float dx = planPoint[0] - x;
+		float dy = planPoint[1] - y;
+		float bearing = (float) Math.atan2(dx, dy) - heading;
+		bearing = (float) Math.atan2(Math.sin(bearing), Math.cos(bearing));
+		return Point2f.fromPolar((float) Math.sqrt(dx * dx + dy * dy), bearing);
+	}
+
+	private GridMapper createMapper() {
+		OccupancyGrid grid = new OccupancyGrid(mapCellSize, mapSize, mapMaxTiles);
+		if (mapFile != null) {
+			try (InputStream in = MissionController.class.getClassLoader().getResourceAsStream(mapFile)) {
+				if (in == null) {
+					SimpleLoggingUtil.error(getClass(), "Could not find the map " + mapFile);
+				} else {
+					MapFiles.loadPgm(in, grid);
+				}
+			} catch (IOException e) {
+				SimpleLoggingUtil.error(getClass(), "Failed to load the map " + mapFile, e);
+			}
+		}
+		ParticleLocalizer localizer = null;
+		if (particles > 0) {
+			// The distance field is rebuilt every 5 scans
+			localizer = new ParticleLocalizer(particles, TimeUnit.MILLISECONDS.toNanos(localizationBudget), 5, mapMaxRange,
+					particleSeed, clock);
+		}
+		return new GridMapper(grid, mapMaxRange, localizer);
+	}
+
 	private void scheduleFullScan() {
 		if (laserLock.compareAndSet(false, true)) {
-			RoboReference<ScanRequest> scanner = getScannerUnit();
-			scanner.sendMessage(new ScanRequest(scannerDelegate, -45f, 90f, ANGULAR_RESOLUTION_FULL_SCAN));
+			if (isAdaptiveScans) {
+				scanPlanner.planFullScan(scanPlan);
+				requestScan(scanPlan[0], scanPlan[1], scanPlan[2], false);
+			} else {
+				requestScan(-45f, 90f, ANGULAR_RESOLUTION_FULL_SCAN, false);
+			}
+		} else {
+			LASER_LOCK_CONTENTION.increment();
 		}
 	}
 
 	private void scheduleQuickScan() {
 		if (laserLock.compareAndSet(false, true)) {
+			if (isRoiScans && stateMachine.getState() == FastestPathState.MOVE_TO_TARGET
+					&& roiScansSinceContext < roiScansPerContext && scanPlanner.planRoiScan(scanPlan)) {
+				roiScansSinceContext++;
+				requestScan(scanPlan[0], scanPlan[1], scanPlan[2], true);
+			} else if (isAdaptiveScans) {
+				roiScansSinceContext = 0;
+				scanPlanner.planQuickScan(scanPlan);
+				requestScan(scanPlan[0], scanPlan[1], scanPlan[2], false);
+			} else {
+				roiScansSinceContext = 0;
+				requestScan(-30f, 60f, ANGULAR_RESOLUTION_FAST_SCAN, false);
+			}
+		} else {
+			LASER_LOCK_CONTENTION.increment();
+		}
+	}
+
+	/**
+	 * Asks for the next quick scan after acting on one. When pipelining, the
+	 * next scan is usually already in flight, started by scanAcquired, so a
+	 * busy laser is no contention.
+	 */
+	private void continueQuickScans() {
+		if (isPipelined && laserLock.get()) {
+			return;
+		}
+		scheduleQuickScan();
+	}
+
+	/**
+	 * Must hold the laser lock. Region of interest scans are never split into
+	 * chunks, they are small enough as is.
+	 */
+	private void requestScan(float startAngle, float range, float angularResolution, boolean isRoi) {
+		long sequence = scanSequence.incrementAndGet();
+		inFlightScanSequence = sequence;
+		isInFlightScanRoi = isRoi;
+		scanTimer = StageTimer.start(LoopStage.SCAN, sequence);
+		senseToActTimers.set((int) (sequence % SENSE_TO_ACT_SLOTS), StageTimer.start(LoopStage.SENSE_TO_ACT, sequence));
+		if (scanChunks > 1 && !isRoi) {
+			ScanStream stream = new ScanStream(analysisDelegate, startAngle, range, angularResolution, scanChunks, sequence);
+			new ChunkDelegate(stream, startAngle, range / scanChunks, angularResolution, scanChunks).requestNextChunk();
+		} else {
 			RoboReference<ScanRequest> scanner = getScannerUnit();
-			scanner.sendMessage(new ScanRequest(scannerDelegate, -30f, 60f, ANGULAR_RESOLUTION_FAST_SCAN));
+			scanner.sendMessage(new ScanRequest(scannerDelegate, startAngle, range, angularResolution));
 		}
 	}
 
 	private void receiveScan(ScanResult2D message) {
+		long sequence = inFlightScanSequence;
+		boolean isRoi = isInFlightScanRoi;
 		laserLock.set(false);
+		scanDone();
+		MotionDelta motion = deadReckoning.takeDelta(clock.nanoTime());
+		GridMapper currentMapper = mapper;
+		if (currentMapper != null) {
+			currentMapper.scanTaken(motion, sequence);
+		}
+		if (isPipelined && !scanAcquired(sequence)) {
+			return;
+		}
 		// Send to feature extractor on the worker thread.
-		getScanProcessor().sendMessage(new ProcessingRequest(analysisDelegate, message, Scope.ALL, message.getAngularResolution()));
+		submitAnalysis(new ProcessingRequest(analysisDelegate, message, null, motion, sequence, Scope.ALL,
+				message.getAngularResolution(), isRoi));
+	}
+
+	/**
+	 * Pipelining only. Called when a scan is in, after releasing the laser
+	 * lock. Keeps the laser busy with the next scan while this one is being
+	 * analyzed.
+	 * 
+	 * @return false if the scan was taken before the last state change, and
+	 *         should be dropped.
+	 */
+	private boolean scanAcquired(long sequence) {
+		if (sequence < minimumSequence) {
+			SCANS_DROPPED.increment();
+			// Get what the current state needs instead.
+			if (stateMachine.getState() == FastestPathState.NMI) {
+				scheduleFullScan();
+			} else if (stateMachine.getState() == FastestPathState.MOVE_TO_TARGET) {
+				scheduleQuickScan();
+			}
+			return false;
+		}
+		if (stateMachine.getState() == FastestPathState.MOVE_TO_TARGET) {
+			scheduleQuickScan();
+		}
+		return true;
+	}
+
+	private void submitAnalysis(ProcessingRequest request) {
+		if (!isPipelined || analysisInFlight.compareAndSet(0, request.getSequenceNumber())) {
+			getScanProcessor().sendMessage(request);
+		} else {
+			ProcessingRequest replaced = pendingAnalysis.getAndSet(request);
+			if (replaced != null) {
+				ANALYSES_DROPPED.increment();
+				SimpleLoggingUtil.debug(getClass(), "Dropping scan " + replaced.getSequenceNumber() + " before analysis");
+			}
+		}
+	}
+
+	/**
+	 * Pipelining only. Starts the analysis of the waiting scan, if any, unless
+	 * the analyzed scan was streamed in chunks, and never submitted.
+	 */
+	private void analysisDone(long sequence) {
+		if (analysisInFlight.get() != sequence) {
+			return;
+		}
+		ProcessingRequest next = pendingAnalysis.getAndSet(null);
+		if (next != null) {
+			analysisInFlight.set(next.getSequenceNumber());
+			getScanProcessor().sendMessage(next);
+			return;
+		}
+		analysisInFlight.set(0);
+		// A scan may have been put on hold after we looked
+		next = pendingAnalysis.getAndSet(null);
+		if (next != null) {
+			submitAnalysis(next);
+		}
+	}
+
+	private void scanDone() {
+		SCANS.increment();
+		StageTimer timer = scanTimer;
+		if (timer != null) {
+			scanTimer = null;
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Records the time from requesting the scan to acting on it, unless
+	 * already acted upon, or overwritten by a later scan.
+	 */
+	private void stopSenseToActTimer(long sequence) {
+		int slot = (int) (sequence % SENSE_TO_ACT_SLOTS);
+		StageTimer timer = senseToActTimers.get(slot);
+		if (timer != null && timer.getCycle() == sequence && senseToActTimers.compareAndSet(slot, timer, null)) {
+			timer.stop();
+		}
+	}
+
+	private boolean isStale(long sequence) {
+		return sequence < minimumSequence || sequence <= lastActedSequence;
 	}
 
 	private void receiveRangeScan(ScanResult2D message) {
-		// We only care about these if we are cornered...
 		laserLock.set(false);
-		if (currentPathState == FastestPathState.CORNERED) {
-			if (message.getFarthestPoint().getRange() > 1.4) {
-				getTank().sendMessage(STOP_MESSAGE);
-				updateState(FastestPathState.NMI);
-				scheduleFullScan();
-			} else {
-				scheduleRangeMeasurement(message.getFarthestPoint().getAngle() > 0);
+		// We only care about these if we are cornered...
+		stateMachine.fire(FastestPathEvent.RANGE_MEASURED, message);
+	}
+
+	private void updateFromNewKnowledge(AnalysisResult message) {
+		stateMachine.fire(FastestPathEvent.SCAN_ANALYZED, message);
+	}
+
+	/**
+	 * Sets up what to do on which event in which state. All modes run the
+	 * same state machine; they only differ in how the target is picked. The
+	 * handlers are created once, here, so that running the machine does not
+	 * allocate.
+	 */
+	private StateMachine<FastestPathState, FastestPathEvent> createStateMachine() {
+		StateMachine<FastestPathState, FastestPathEvent> machine = new StateMachine<>("mission", FastestPathState.class,
+				FastestPathEvent.class, FastestPathState.NMI, clock);
+		machine.on(FastestPathState.NMI, FastestPathEvent.SCAN_ANALYZED, new StateMachine.Handler() {
+			@Override
+			public void handle(Object payload) {
+				gatherInformation((AnalysisResult) payload);
+			}
+		});
+		machine.on(FastestPathState.NMI, FastestPathEvent.ROTATION_DONE, new StateMachine.Handler() {
+			@Override
+			public void handle(Object payload) {
+				rotationDone((RotationDoneNotification) payload);
 			}
+		});
+		machine.on(FastestPathState.CORNERED, FastestPathEvent.RANGE_MEASURED, new StateMachine.Handler() {
+			@Override
+			public void handle(Object payload) {
+				escapeCorner((ScanResult2D) payload);
+			}
+		});
+		machine.on(FastestPathState.MOVE_TO_TARGET, FastestPathEvent.SCAN_ANALYZED, new StateMachine.Handler() {
+			@Override
+			public void handle(Object payload) {
+				moveToTarget((AnalysisResult) payload);
+			}
+		});
+		machine.setTransitionListener(new StateMachine.TransitionListener<FastestPathState>() {
+			@Override
+			public void stateChanged(FastestPathState from, FastestPathState to) {
+				// Anything scanned before this was scanned for the old state
+				minimumSequence = scanSequence.get() + 1;
+				getLcdUnit().sendMessage(to.getLcdMessage());
+			}
+		});
+		return machine;
+	}
+
+	/**
+	 * @return the point to go for, or null if all waypoints have been
+	 *         visited.
+	 */
+	private Point2f getTarget(AnalysisResult message) {
+		if (currentMode == ModeOfOperation.GPS) {
+			return getGpsTarget(message);
 		}
+		return message.getTargetPoint();
 	}
 
-	private void updateFromNewKnowledge(final AnalysisResult message) {
-		if (currentPathState == FastestPathState.NMI) {
-			if (isCornered(message)) {
-				getTank().sendMessage(STOP_MESSAGE);
-				updateState(FastestPathState.CORNERED);
-				printMessage(Color.RED, String.format("CornerEscape:\nG@%2.1fm,%2.1fdeg", message.getTargetPoint().getRange(),
-						Math.toDegrees(message.getTargetPoint().getAngle())));
-				Point2f p = message.getFeatures().getClosestCorner();
-				boolean goRight = false;
-				if (p != null && p.getRange() < 1) {
-					goRight = p.getAngle() > 0;
-				} else {
-					float rangeLeft = message.getSource().getLeftmostPoint().getRange();
-					float rangeRight = message.getSource().getRightmostPoint().getRange();
-					goRight = rangeRight > rangeLeft;
-				}
-				printMessage(Color.BLUE, "Corner escape\nRotating...");
-				scheduleRangeMeasurement(goRight);
-				// We don't want to get notified from the Gyro, but rather the
-				// laser, hence no "rotation" in the tank sense.
-				getTank().sendMessage(new TankEvent(0.5f, goRight ? TankController.getRotationDirectionRight(IS_USING_TRACKS)
-						: TankController.getRotationDirectionLeft(IS_USING_TRACKS), 0f));
+	/**
+	 * NMI: Decides where to go from a full scan, and rotates to face it, or
+	 * tries to escape if cornered.
+	 */
+	private void gatherInformation(AnalysisResult message) {
+		Point2f target = getTarget(message);
+		if (target == null) {
+			// All waypoints visited
+			return;
+		}
+		if (scanPlanner != null) {
+			scanPlanner.update(0, target.getAngle(), message.getScan());
+		}
+		if (isCornered(message)) {
+			sendTankEvent(STOP_MESSAGE);
+			stateMachine.transition(FastestPathState.CORNERED);
+			StringBuilder text = LcdText.builder().append("CornerEscape:\nG@");
+			LcdText.append(text, message.getTargetPoint().getRange(), 2, 1).append("m,");
+			LcdText.append(text, Math.toDegrees(message.getTargetPoint().getAngle()), 2, 1).append("deg");
+			printMessage(Color.RED, text.toString());
+			Point2f p = message.getFeatures().getClosestCorner();
+			boolean goRight = false;
+			if (p != null && p.getRange() < 1) {
+				goRight = p.getAngle() > 0;
 			} else {
-				getTank().sendMessage(new TankEvent(new LocalReferenceAdapter<RotationDoneNotification>(RotationDoneNotification.class) {
-					@Override
-					public void sendMessage(RotationDoneNotification rotMessage) {
-						try {
-							if (rotMessage == RotationDoneNotification.ROTATION_COMPLETE) {
-								getTank().sendMessage(new TankEvent(0, 0, 0));
-								startMoveToTarget(message);
-							}
-						} catch (Throwable t) {
-							SimpleLoggingUtil.debug(getClass(), "Move to target failed.", t);
-						}
-					}
-				}, ROTATION_SPEED, /* TODO: add turn direction from here */ 0f, message.getTargetPoint().getAngle()));
-				printMessage(Color.YELLOW, String.format("Rotating...\nR:%2.1f A:%2.1f", message.getTargetPoint().getRange(),
-						Math.toDegrees(message.getTargetPoint().getAngle())));
+				float rangeLeft = message.getScan().getLeftmostPoint().getRange();
+				float rangeRight = message.getScan().getRightmostPoint().getRange();
+				goRight = rangeRight > rangeLeft;
 			}
-		} else if (currentPathState == FastestPathState.MOVE_TO_TARGET) {
-			if (message.getTargetPoint().distance(ORIGO) < MIN_GOAL_RANGE) {
-				getTank().sendMessage(STOP_MESSAGE);
-				updateState(FastestPathState.NMI);
-				scheduleFullScan();
+			getLcdUnit().sendMessage(CORNER_ESCAPE_MESSAGE);
+			scheduleRangeMeasurement(goRight);
+			// We don't want to get notified from the Gyro, but rather the
+			// laser, hence no "rotation" in the tank sense.
+			sendTankEvent(TankEvent.motion(0.5f, goRight ? TankController.getRotationDirectionRight(IS_USING_TRACKS)
+					: TankController.getRotationDirectionLeft(IS_USING_TRACKS)));
+		} else {
+			rotationTarget = target;
+			sendTankEvent(new TankEvent(rotationDelegate, ROTATION_SPEED, /* TODO: add turn direction from here */ 0f,
+					target.getAngle(), message.getSequenceNumber()));
+			StringBuilder text = LcdText.builder().append("Rotating...\nR:");
+			LcdText.append(text, target.getRange(), 2, 1).append(" A:");
+			LcdText.append(text, Math.toDegrees(target.getAngle()), 2, 1);
+			printMessage(Color.YELLOW, text.toString());
+		}
+	}
+
+	/**
+	 * NMI: Done rotating to face the target, so go for it.
+	 */
+	private void rotationDone(RotationDoneNotification message) {
+		if (message.isComplete()) {
+			Point2f target = rotationTarget;
+			sendTankEvent(STOP_MESSAGE);
+			deadReckoning.rotationCompleted(clock.nanoTime());
+			GridMapper currentMapper = mapper;
+			if (currentMapper != null) {
+				currentMapper.rotated(target.getAngle() - message.getResidualError());
+			}
+			startMoveToTarget(target);
+		}
+	}
+
+	/**
+	 * CORNERED: Keeps rotating until the laser sees a way out.
+	 */
+	private void escapeCorner(ScanResult2D message) {
+		if (message.getFarthestPoint().getRange() > 1.4) {
+			sendTankEvent(STOP_MESSAGE);
+			stateMachine.transition(FastestPathState.NMI);
+			scheduleFullScan();
+		} else {
+			scheduleRangeMeasurement(message.getFarthestPoint().getAngle() > 0);
+		}
+	}
+
+	/**
+	 * MOVE_TO_TARGET: Steers for the target, until close enough to look
+	 * around again.
+	 */
+	private void moveToTarget(AnalysisResult message) {
+		Point2f target = getTarget(message);
+		if (target == null) {
+			return;
+		}
+		if (target.distance(ORIGO) < MIN_GOAL_RANGE) {
+			sendTankEvent(STOP_MESSAGE);
+			stateMachine.transition(FastestPathState.NMI);
+			scheduleFullScan();
+		} else {
+			float speedMultiplier = (float) Math.min(message.getScan().getNearestPoint().getRange(),
+					target.getRange() / 2.0);
+			float speed = 0;
+			float direction = 0;
+			Point2f mostPromising = target;
+			Point2f straightAhead = message.getCenterPoint();
+			// Stay on the planned path, even if straight ahead is open
+			if (!isFollowingPath && isGoodEnough(mostPromising, straightAhead)) {
+				direction = 0;
+				mostPromising = straightAhead;
 			} else {
-				float speedMultiplier = (float) Math.min(message.getSource().getNearestPoint().getRange(),
-						message.getTargetPoint().getRange() / 2.0);
-				float speed = 0;
-				float direction = 0;
-				Point2f mostPromising = message.getTargetPoint();
-				Point2f straightAhead = message.getCenterPoint();
-				if (isGoodEnough(mostPromising, straightAhead)) {
-					direction = 0;
-					mostPromising = straightAhead;
+				// direction = mostPromising.getAngle() /
+				// (tank.isUsingTracks() ? 2.5f : 1f);
+				if (IS_USING_TRACKS) {
+					direction = mostPromising.getAngle();
 				} else {
-					// direction = mostPromising.getAngle() /
-					// (tank.isUsingTracks() ? 2.5f : 1f);
-					if (IS_USING_TRACKS) {
-						direction = mostPromising.getAngle();
-					} else {
-						direction = mostPromising.getAngle();
-						// Turns way faster on wheels...
-						direction = (float) ((0.1 + Math.min(1.0f, direction / 5) * 0.9f) * mostPromising.getAngle()) / 2;
-					}
+					direction = mostPromising.getAngle();
+					// Turns way faster on wheels...
+					direction = (float) ((0.1 + Math.min(1.0f, direction / 5) * 0.9f) * mostPromising.getAngle()) / 2;
 				}
+			}
 
-				double targetDirectionDegrees = Math.toDegrees(mostPromising.getAngle());
-				if (speedMultiplier < 1.0) {
-					speed = speedMultiplier;
-				} else {
-					speed = 1;
-				}
-				printMessage(Color.BLUE,
-						String.format("Goal: A:%2.0f R:%2.1fm\nNear: A:%2.0f R:%2.1fm", targetDirectionDegrees, mostPromising.getRange(),
-								Math.toDegrees(message.getSource().getNearestPoint().getAngle()),
-								message.getSource().getNearestPoint().getRange()));
-				getTank().sendMessage(new TankEvent(speed, direction, 0f));
-				scheduleQuickScan();
+			double targetDirectionDegrees = Math.toDegrees(mostPromising.getAngle());
+			if (speedMultiplier < 1.0) {
+				speed = speedMultiplier;
+			} else {
+				speed = 1;
+			}
+			Point2f nearest = message.getScan().getNearestPoint();
+			StringBuilder text = LcdText.builder().append("Goal: A:");
+			LcdText.append(text, targetDirectionDegrees, 2, 0).append(" R:");
+			LcdText.append(text, mostPromising.getRange(), 2, 1).append("m\nNear: A:");
+			LcdText.append(text, Math.toDegrees(nearest.getAngle()), 2, 0).append(" R:");
+			LcdText.append(text, nearest.getRange(), 2, 1).append('m');
+			printMessage(Color.BLUE, text.toString());
+			sendTankEvent(TankEvent.motion(speed, direction));
+			if (scanPlanner != null) {
+				scanPlanner.update(speed, target.getAngle(), message.getScan());
 			}
+			continueQuickScans();
 		}
 	}
 
@@ -340,6 +1171,7 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 		if (laserLock.compareAndSet(false, true)) {
 			getScannerUnit().sendMessage(new ScanRequest(rangeDelegate, goRight ? 10 : -10, 0, 0));
 		} else {
+			LASER_LOCK_CONTENTION.increment();
 			SimpleLoggingUtil.debug(getClass(), "Failed to schedule range measurement due to laser lock!");
 		}
 	}
@@ -349,11 +1181,17 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 	}
 
 	private void reset() {
-		getTank().sendMessage(new TankEvent(0, 0, 0));
+		sendTankEvent(STOP_MESSAGE);
+	}
+
+	private void sendTankEvent(TankEvent event) {
+		tankCommands.incrementAndGet();
+		deadReckoning.commandIssued(event, clock.nanoTime());
+		getTank().sendMessage(event);
 	}
 
 	private RoboReference<TankEvent> getTank() {
-		return getContext().getReference(refIdTank);
+		return tank.get();
 	}
 
 	private void printMessage(Color color, String message) {
@@ -361,31 +1199,34 @@ public class MissionController extends RoboUnit<MissionControllerEvent> {
 	}
 
 	private RoboReference<LcdMessage> getLcdUnit() {
-		return getContext().getReference(refIdLcd);
+		return lcd.get();
 	}
 
 	private RoboReference<ScanRequest> getScannerUnit() {
-		return getContext().getReference(refIdScanner);
+		return scanner.get();
 	}
 
 	private RoboReference<ProcessingRequest> getScanProcessor() {
-		return getContext().getReference(refIdScanProcessor);
+		return scanProcessor.get();
 	}
 
 	public RoboReference<ScanResult2D> getScannerDelegate() {
 		return scannerDelegate;
 	}
 
-	private void updateState(FastestPathState newState) {
-		currentPathState = newState;
-		printMessage(newState.getStateColor(), newState.getHumanFriendlyName());
-	}
-
-	private void startMoveToTarget(AnalysisResult message) {
-		updateState(FastestPathState.MOVE_TO_TARGET);
-		printMessage(Color.GREEN, String.format("Moving to target\nR: %2.1f A: %2.1f", message.getTargetPoint().getRange(), 0f));
-		scheduleQuickScan();
+	private void startMoveToTarget(Point2f target) {
+		stateMachine.transition(FastestPathState.MOVE_TO_TARGET);
+		StringBuilder text = LcdText.builder().append("Moving to target\nR: ");
+		LcdText.append(text, target.getRange(), 2, 1).append(" A: ");
+		LcdText.append(text, 0f, 2, 1);
+		printMessage(Color.GREEN, text.toString());
+		if (scanPlanner != null) {
+			// Facing the target, at full speed, with the ranges of the last
+			// full scan
+			scanPlanner.update(1f, 0f, null);
+		}
+		continueQuickScans();
 		// Full speed ahead!
-		getTank().sendMessage(new TankEvent(1.0f, 0f, 0f));
+		sendTankEvent(FULL_SPEED_MESSAGE);
 	}
 }
@@ -31,17 +31,17 @@ public enum ModeOfOperation {
 	FASTEST_PATH,
 	/**
 	 * This mode will use a list of GPS coordinates to visit, and will
-	 * attempt to navigate all coordinates in order.
-	 * 
-	 * FIXME(Marcus/Aug 19, 2017): To be implemented. A*?
+	 * attempt to navigate all coordinates in order. Maps like
+	 * {@link #FAST_SLAM}, and plans the way to each waypoint on the map
+	 * with A*.
 	 */
 	GPS,
 	/**
 	 * This will run Coff-E in simultaneous location and mapping, attempting
-	 * to build awareness of the world as he goes.
+	 * to build awareness of the world as he goes. Explores like
+	 * {@link #FASTEST_PATH}, building an occupancy grid from the scans.
 	 * 
-	 * FIXME(Marcus/Aug 19, 2017): To be implemented. Should also allow GPS
-	 * coordinates.
+	 * FIXME(Marcus/Aug 19, 2017): Should also allow GPS coordinates.
 	 */
 	FAST_SLAM
 }
\ No newline at end of file
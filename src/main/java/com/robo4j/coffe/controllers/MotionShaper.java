@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+/**
+ * Shapes the driving commands sent to the motor controller. The speed is
+ * ramped up towards the target in steps of at most the max acceleration per
+ * control tick, to keep the tracks from slipping. Slowing down and stopping
+ * are done at once, since they are often about not hitting something.
+ * Commands that differ less than the tolerances from the last one sent are
+ * suppressed, except for stopping.
+ * <p>
+ * Set the target with {@link #setTarget(float, float)}, then call
+ * {@link #update()} every control tick until {@link #isSettled()}, sending
+ * the speed and direction whenever update returns true. Not thread safe.
+ * 
+ * @author Marcus
+ */
+public final class MotionShaper {
+	private final float speedTolerance;
+	private final float directionTolerance;
+	private final float maxStep;
+
+	private float targetSpeed;
+	private float targetDirection;
+	private boolean hasSent;
+	private float speed;
+	private float direction;
+	private boolean isSettled = true;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param speedTolerance
+	 *            speed changes smaller than this are not sent.
+	 * @param directionTolerance
+	 *            direction changes, in radians, smaller than this are not
+	 *            sent.
+	 * @param maxStep
+	 *            the max increase of the normalized speed per control tick,
+	 *            or 0 for no limit.
+	 */
+	public MotionShaper(float speedTolerance, float directionTolerance, float maxStep) {
+		this.speedTolerance = speedTolerance;
+		this.directionTolerance = directionTolerance;
+		// Smaller steps would all be suppressed
+		this.maxStep = maxStep > 0 ? Math.max(maxStep, speedTolerance) : 0;
+	}
+
+	/**
+	 * Sets the speed and direction to go for.
+	 */
+	public void setTarget(float speed, float direction) {
+		targetSpeed = speed;
+		targetDirection = direction;
+		isSettled = false;
+	}
+
+	/**
+	 * Takes a step towards the target.
+	 * 
+	 * @return true if the speed and direction should be sent.
+	 */
+	public boolean update() {
+		if (isSettled) {
+			return false;
+		}
+		// Stop before reversing
+		float base = speed * targetSpeed < 0 ? 0 : speed;
+		float next;
+		if (maxStep == 0 || Math.abs(targetSpeed) <= Math.abs(base)) {
+			next = targetSpeed;
+		} else {
+			next = base + Math.signum(targetSpeed) * Math.min(Math.abs(targetSpeed) - Math.abs(base), maxStep);
+		}
+		isSettled = next == targetSpeed;
+		if (hasSent && isClose(next, targetDirection) && !(next == 0 && speed != 0)) {
+			return false;
+		}
+		sent(next, targetDirection);
+		return true;
+	}
+
+	/**
+	 * Records a command sent to the motor controller by someone else, e.g.
+	 * for a rotation. Drops any ramp in progress.
+	 */
+	public void commandSent(float speed, float direction) {
+		sent(speed, direction);
+		targetSpeed = speed;
+		targetDirection = direction;
+		isSettled = true;
+	}
+
+	private void sent(float speed, float direction) {
+		this.speed = speed;
+		this.direction = direction;
+		hasSent = true;
+	}
+
+	private boolean isClose(float nextSpeed, float nextDirection) {
+		float directionChange = (float) Math.abs(Math.IEEEremainder(nextDirection - direction, 2 * Math.PI));
+		return (nextSpeed == speed || Math.abs(nextSpeed - speed) < speedTolerance)
+				&& (directionChange == 0 || directionChange < directionTolerance);
+	}
+
+	/**
+	 * @return true if the target has been reached, or is within the
+	 *         tolerances of what was last sent.
+	 */
+	public boolean isSettled() {
+		return isSettled;
+	}
+
+	/**
+	 * @return the speed of the last command sent.
+	 */
+	public float getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @return the direction of the last command sent.
+	 */
+	public float getDirection() {
+		return direction;
+	}
+}
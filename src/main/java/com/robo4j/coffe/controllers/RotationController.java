@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+/**
+ * Closed loop control of a gyro based rotation. The speed is ramped down
+ * linearly over the last part of the rotation, and the motors are stopped
+ * ahead of the target, when the remaining angle is less than what the current
+ * angular rate will cover during the stop lead time (latency of the command
+ * plus the coasting of the tank).
+ * <p>
+ * Feed it every gyro sample with {@link #update(float, long)}, and command the
+ * returned speed. Not thread safe.
+ * 
+ * @author Marcus
+ */
+public final class RotationController {
+	// Weight of a new sample in the angular rate estimate
+	private static final float RATE_SMOOTHING = 0.5f;
+
+	private final float slowdownAngle;
+	private final float minSpeed;
+	private final float stopLead;
+
+	private float targetAngle;
+	private float maxSpeed;
+	private boolean hasSample;
+	private float lastAngle;
+	private long lastTime;
+	private float rate;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param slowdownAngle
+	 *            the angle, in degrees, before the target where to start
+	 *            slowing down.
+	 * @param minSpeed
+	 *            the lowest speed at which the tank still rotates reliably.
+	 * @param stopLead
+	 *            the time, in seconds, that it takes for the tank to stop
+	 *            once the stop is decided.
+	 */
+	public RotationController(float slowdownAngle, float minSpeed, float stopLead) {
+		this.slowdownAngle = slowdownAngle;
+		this.minSpeed = minSpeed;
+		this.stopLead = stopLead;
+	}
+
+	/**
+	 * Starts a new rotation. The gyro angle is expected to start at zero.
+	 * 
+	 * @param targetAngle
+	 *            the angle to rotate to, in degrees.
+	 * @param maxSpeed
+	 *            the speed to rotate at, before slowing down.
+	 */
+	public void start(float targetAngle, float maxSpeed) {
+		this.targetAngle = targetAngle;
+		this.maxSpeed = maxSpeed;
+		hasSample = false;
+		rate = 0;
+	}
+
+	/**
+	 * Updates the controller with a new gyro sample.
+	 * 
+	 * @param angle
+	 *            the current angle, in degrees.
+	 * @param nanoTime
+	 *            the time of the sample, in ns, as per the clock of the tank.
+	 * @return the speed to rotate at, or 0 if it is time to stop.
+	 */
+	public float update(float angle, long nanoTime) {
+		if (hasSample && nanoTime > lastTime) {
+			float sampleRate = (angle - lastAngle) / ((nanoTime - lastTime) / 1e9f);
+			rate += RATE_SMOOTHING * (sampleRate - rate);
+		}
+		hasSample = true;
+		lastAngle = angle;
+		lastTime = nanoTime;
+
+		float remaining = getRemaining(angle);
+		float closingRate = Math.max(0, rate * Math.signum(targetAngle));
+		if (remaining <= closingRate * stopLead) {
+			return 0;
+		}
+		return Math.max(minSpeed, maxSpeed * Math.min(1f, remaining / slowdownAngle));
+	}
+
+	/**
+	 * @return the angle left to the target, in degrees. Negative if past it.
+	 */
+	public float getRemaining(float angle) {
+		return (targetAngle - angle) * Math.signum(targetAngle);
+	}
+
+	/**
+	 * @return the estimated angular rate, in degrees per second.
+	 */
+	public float getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return the target angle, in degrees.
+	 */
+	public float getTargetAngle() {
+		return targetAngle;
+	}
+}
@@ -16,6 +16,53 @@
  */
 package com.robo4j.coffe.controllers;
 
-public enum RotationDoneNotification {
-	ROTATION_COMPLETE, ROTATION_ABORTED
+/**
+ * Sent to the rotation done listener of a {@link TankEvent} when the rotation
+ * is over.
+ * 
+ * @author Marcus
+ */
+public final class RotationDoneNotification {
+	public enum Status {
+		ROTATION_COMPLETE, ROTATION_ABORTED
+	}
+
+	private final Status status;
+	private final float residualError;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param status
+	 *            how the rotation ended.
+	 * @param residualError
+	 *            the requested rotation minus the actual rotation, in radians.
+	 */
+	public RotationDoneNotification(Status status, float residualError) {
+		this.status = status;
+		this.residualError = residualError;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isComplete() {
+		return status == Status.ROTATION_COMPLETE;
+	}
+
+	/**
+	 * Returns the requested rotation minus the actual rotation, e.g. negative
+	 * for an overshoot of a positive rotation.
+	 * 
+	 * @return the residual error, in radians.
+	 */
+	public float getResidualError() {
+		return residualError;
+	}
+
+	@Override
+	public String toString() {
+		return status + " (residual " + Math.toDegrees(residualError) + " deg)";
+	}
 }
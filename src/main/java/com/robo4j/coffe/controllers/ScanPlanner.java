@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * Picks the sweep and the angular resolution of the next scan, from what the
+ * last scan showed and how fast Coff-E is going:
+ * <ul>
+ * <li>Quick scans cover the bearing to the target, and the corridor Coff-E
+ * will drive through within the horizon. The faster, the farther ahead that
+ * corridor is, and the narrower the sweep.</li>
+ * <li>The resolution is the coarsest that still puts the points no further
+ * apart than the lateral spacing at the end of the corridor. In the open,
+ * that is far coarser than the fixed resolutions, and the sweeps are over
+ * that much sooner.</li>
+ * <li>Close to obstacles, the quick scans are wide and at the finest
+ * resolution, since that is where the details matter.</li>
+ * <li>Full scans are always as wide as the scanner goes, with the resolution
+ * picked for the farthest range seen in the last scan.</li>
+ * <li>Region of interest scans are centered on the bearing to the target,
+ * just wide enough for the corridor, to be merged into the last full scan by
+ * the ScanProcessor.</li>
+ * </ul>
+ * The plans are in degrees, like the scan requests.
+ * 
+ * @author Marcus
+ */
+final class ScanPlanner {
+	/**
+	 * The finest resolution, in degrees, i.e. that of the fixed full scans.
+	 */
+	static final float FINEST_RESOLUTION = 0.4f;
+	private static final float COARSEST_RESOLUTION = 2f;
+	// Full scans look for the way out, so never coarser than the fixed
+	// quick scans
+	private static final float COARSEST_FULL_RESOLUTION = 1f;
+	private static final float FULL_SCAN_HALF_WIDTH = 45f;
+	private static final float MIN_HALF_WIDTH = 15f;
+	private static final float MIN_ROI_HALF_WIDTH = 8f;
+	// Cover this much, in degrees, beyond the bearing to the target
+	private static final float BEARING_MARGIN = 10f;
+	private static final float MIN_LOOKAHEAD = 0.5f;
+
+	private final float lateralSpacing;
+	private final float horizon;
+	private final float fullSpeedVelocity;
+	private final float corridorHalfWidth;
+	private final float clutterRange;
+
+	// Unknown until the first scan
+	private float speed;
+	private float bearing;
+	private float nearestRange = Float.NaN;
+	private float farthestRange = Float.NaN;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param lateralSpacing
+	 *            the largest distance, in meters, between the points at the
+	 *            end of the corridor.
+	 * @param horizon
+	 *            how far ahead, in seconds, to look.
+	 * @param fullSpeedVelocity
+	 *            the velocity, in m/s, at tank speed 1.0.
+	 * @param robotRadius
+	 *            the radius of Coff-E, in meters.
+	 */
+	ScanPlanner(float lateralSpacing, float horizon, float fullSpeedVelocity, float robotRadius) {
+		this.lateralSpacing = lateralSpacing;
+		this.horizon = horizon;
+		this.fullSpeedVelocity = fullSpeedVelocity;
+		// Leave room on either side
+		this.corridorHalfWidth = 2 * robotRadius;
+		this.clutterRange = 3 * robotRadius;
+	}
+
+	/**
+	 * Updates the planner with the outcome of a decision.
+	 * 
+	 * @param speed
+	 *            the tank speed decided on, 0 to 1.
+	 * @param bearing
+	 *            the bearing to the target, in radians.
+	 * @param scan
+	 *            the scan decided on, or null if none.
+	 */
+	synchronized void update(float speed, float bearing, PackedScan scan) {
+		this.speed = Math.abs(speed);
+		this.bearing = (float) Math.toDegrees(bearing);
+		if (scan != null && scan.size() > 0) {
+			nearestRange = scan.getRange(scan.getNearestIndex());
+			farthestRange = scan.getRange(scan.getFarthestIndex());
+		}
+	}
+
+	/**
+	 * Plans a quick scan.
+	 * 
+	 * @param plan
+	 *            receives the start angle, the range and the resolution, in
+	 *            degrees.
+	 */
+	synchronized void planQuickScan(float[] plan) {
+		if (!(nearestRange >= clutterRange)) {
+			// Cluttered, or nothing known yet
+			setPlan(plan, -FULL_SCAN_HALF_WIDTH, FULL_SCAN_HALF_WIDTH, FINEST_RESOLUTION);
+			return;
+		}
+		float lookahead = getLookahead();
+		float corridor = (float) Math.toDegrees(Math.atan2(corridorHalfWidth, lookahead));
+		float left = clampHalfWidth(Math.max(corridor, BEARING_MARGIN - bearing));
+		float right = clampHalfWidth(Math.max(corridor, bearing + BEARING_MARGIN));
+		setPlan(plan, -left, right, clampResolution(resolutionAt(lookahead), COARSEST_RESOLUTION));
+	}
+
+	/**
+	 * Plans a region of interest scan.
+	 * 
+	 * @param plan
+	 *            receives the start angle, the range and the resolution, in
+	 *            degrees.
+	 * @return false if close to obstacles, or nothing is known yet, in which
+	 *         case a quick scan is better.
+	 */
+	synchronized boolean planRoiScan(float[] plan) {
+		if (!(nearestRange >= clutterRange)) {
+			return false;
+		}
+		float lookahead = getLookahead();
+		float halfWidth = Math.max(MIN_ROI_HALF_WIDTH, (float) Math.toDegrees(Math.atan2(corridorHalfWidth, lookahead)));
+		float maxCenter = FULL_SCAN_HALF_WIDTH - halfWidth;
+		float center = Math.max(-maxCenter, Math.min(maxCenter, bearing));
+		float resolution = clampResolution(resolutionAt(lookahead), COARSEST_RESOLUTION);
+		setPlan(plan, center - halfWidth, center + halfWidth, resolution);
+		return true;
+	}
+
+	/**
+	 * Plans a full scan.
+	 * 
+	 * @param plan
+	 *            receives the start angle, the range and the resolution, in
+	 *            degrees.
+	 */
+	synchronized void planFullScan(float[] plan) {
+		float resolution = Float.isNaN(farthestRange) ? FINEST_RESOLUTION
+				: clampResolution(resolutionAt(farthestRange), COARSEST_FULL_RESOLUTION);
+		setPlan(plan, -FULL_SCAN_HALF_WIDTH, FULL_SCAN_HALF_WIDTH, resolution);
+	}
+
+	/**
+	 * @return how far ahead, in meters, Coff-E will be within the horizon,
+	 *         but no farther than what was seen.
+	 */
+	private float getLookahead() {
+		float lookahead = Math.max(MIN_LOOKAHEAD, speed * fullSpeedVelocity * horizon);
+		return Math.min(lookahead, farthestRange);
+	}
+
+	private float resolutionAt(float range) {
+		return (float) Math.toDegrees(Math.atan2(lateralSpacing, range));
+	}
+
+	private static float clampHalfWidth(float halfWidth) {
+		return Math.max(MIN_HALF_WIDTH, Math.min(FULL_SCAN_HALF_WIDTH, halfWidth));
+	}
+
+	private static float clampResolution(float resolution, float coarsest) {
+		// Round down to a tenth of a degree, to keep the steps of the servo
+		// even
+		float rounded = (float) Math.floor(resolution * 10) / 10;
+		return Math.max(FINEST_RESOLUTION, Math.min(coarsest, rounded));
+	}
+
+	/**
+	 * Makes the range a whole number of steps, shrinking it evenly on both
+	 * sides, so that it stays within what the scanner can do.
+	 */
+	private static void setPlan(float[] plan, float start, float end, float resolution) {
+		float range = end - start;
+		float steps = (float) Math.floor(range / resolution + 1e-3);
+		float shrink = (range - steps * resolution) / 2;
+		plan[0] = start + shrink;
+		plan[1] = steps * resolution;
+		plan[2] = resolution;
+	}
+}
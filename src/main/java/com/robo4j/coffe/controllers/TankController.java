@@ -16,12 +16,21 @@
  */
 package com.robo4j.coffe.controllers;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.robo4j.ConfigurationException;
 import com.robo4j.RoboContext;
 import com.robo4j.RoboReference;
 import com.robo4j.RoboUnit;
+import com.robo4j.coffe.jfr.LoopStage;
+import com.robo4j.coffe.jfr.StageTimer;
+import com.robo4j.coffe.metrics.Counter;
+import com.robo4j.coffe.metrics.Metrics;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.SystemClock;
 import com.robo4j.configuration.Configuration;
 import com.robo4j.logging.SimpleLoggingUtil;
 import com.robo4j.math.geometry.Tuple3f;
@@ -58,24 +67,165 @@ public class TankController extends RoboUnit<TankEvent> {
 	 */
 	public static final String KEY_MAX_SPEED = "maxSpeed";
 
+	/**
+	 * If true, rotations are closed loop controlled by a
+	 * {@link RotationController}, slowing down ahead of the target and
+	 * stopping early enough not to overshoot. If false, the tank rotates at
+	 * the requested speed until the gyro says the target is passed. Defaults
+	 * to false.
+	 */
+	public static final String KEY_PREDICTIVE_ROTATION = "predictiveRotation";
+
+	/**
+	 * The angle, in degrees, before the target where predictive rotations
+	 * start to slow down. Defaults to 30.
+	 */
+	public static final String KEY_ROTATION_SLOWDOWN_ANGLE = "rotationSlowdownAngle";
+
+	/**
+	 * The lowest speed that predictive rotations will slow down to. Defaults
+	 * to 0.3.
+	 */
+	public static final String KEY_ROTATION_MIN_SPEED = "rotationMinSpeed";
+
+	/**
+	 * The time, in ms, it takes for the tank to stop rotating once the stop
+	 * is decided. Defaults to 60.
+	 */
+	public static final String KEY_ROTATION_STOP_LEAD = "rotationStopLead";
+
+	/**
+	 * The max time, in ms, to wait for the tank to come to rest after a
+	 * predictive rotation, before measuring the residual error. Defaults to
+	 * 150.
+	 */
+	public static final String KEY_ROTATION_SETTLE_TIME = "rotationSettleTime";
+
+	/**
+	 * The gyro notification threshold, in degrees, to use close to the
+	 * rotation target. Defaults to 0.5.
+	 */
+	public static final String KEY_GYRO_FINE_THRESHOLD = "gyroFineThreshold";
+
+	/**
+	 * The gyro notification threshold, in degrees, to use far from the
+	 * rotation target. Defaults to 8.
+	 */
+	public static final String KEY_GYRO_COARSE_THRESHOLD = "gyroCoarseThreshold";
+
+	/**
+	 * The period, in ms, of the control tick for the driving commands.
+	 * Commands arriving within a tick of each other are coalesced, so that
+	 * only the latest is sent, and the speed is ramped up once per tick.
+	 * Defaults to 20.
+	 */
+	public static final String KEY_CONTROL_PERIOD = "controlPeriod";
+
+	/**
+	 * Driving commands that change the normalized speed less than this, and
+	 * the direction less than the direction tolerance, are not sent to the
+	 * motor controller. Defaults to 0.
+	 */
+	public static final String KEY_SPEED_TOLERANCE = "speedTolerance";
+
+	/**
+	 * The direction tolerance, in degrees. Defaults to 0.
+	 */
+	public static final String KEY_DIRECTION_TOLERANCE = "directionTolerance";
+
+	/**
+	 * The max increase of the normalized speed per second when driving, to
+	 * keep the tracks from slipping. Slowing down is never limited. Defaults
+	 * to 0, for no limit.
+	 */
+	public static final String KEY_MAX_ACCELERATION = "maxAcceleration";
+
+	/**
+	 * The clock to time the rotations with. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	// Don't bother the motor controller with smaller speed changes
+	private static final float SPEED_QUANTUM = 0.05f;
+	// Angular rate, in degrees per second, below which the tank is at rest
+	private static final float RATE_AT_REST = 2f;
+
+	private static final Counter COMMANDS = Metrics.counter("tank.commands");
+	// Rotations requested while already rotating
+	private static final Counter ROTATIONS_DROPPED = Metrics.counter("tank.rotationsDropped");
+	// Driving commands replaced by a later one within the same tick
+	private static final Counter COMMANDS_COALESCED = Metrics.counter("tank.commandsCoalesced");
+	// Driving commands within the tolerances of what was already sent
+	private static final Counter COMMANDS_SUPPRESSED = Metrics.counter("tank.commandsSuppressed");
+	private static final Counter MOTION_EVENTS = Metrics.counter("tank.motionEventsSent");
+	// The thresholds are the fine threshold times powers of two
+	private static final int MAX_THRESHOLD_LEVELS = 16;
+
 	private final RoboContext ctx;
 	private final AtomicBoolean isRotating = new AtomicBoolean(false);
+	// Close to the target, the fine delegate takes over the notifications, so
+	// that a late coarse notification is never mistaken for a fine one
 	private final GyroDelegate gyroDelegate;
+	private final GyroDelegate fineGyroDelegate;
+	private final CachedReference<MotionEvent> motion;
+	private final CachedReference<GyroRequest> gyro;
+	// The requests are immutable, and always for the same delegate
+	private final GyroRequest stopGyroRequest;
+	private final GyroRequest stopFineGyroRequest;
+	private final GyroRequest calibrateGyroRequest;
+	private GyroRequest fineGyroRequest;
+	private final GyroRequest[] continuousGyroRequests = new GyroRequest[MAX_THRESHOLD_LEVELS];
+	private CommandCache<MotionEvent> motionEvents;
+	// The driving command to apply on the next control tick
+	private final AtomicReference<TankEvent> pendingMotion = new AtomicReference<>();
+	private final AtomicBoolean isTickScheduled = new AtomicBoolean();
+	private final Runnable ticker = new Runnable() {
+		@Override
+		public void run() {
+			tick();
+		}
+	};
+	// Orders the motion events sent
+	private final Object motionLock = new Object();
+	private MotionShaper motionShaper;
+	private long controlPeriodNanos;
+	private volatile long lastTickTime;
 
 	private volatile float targetAngle;
 	private float maxSpeed = 1.0f;
 	private boolean isUsingTracks = false;
 	private RoboReference<RotationDoneNotification> rotationDoneListener;
+	private boolean isPredictiveRotation;
+	private RotationController rotationController;
+	private long settleTimeNanos;
+	private GyroSamplingPolicy samplingPolicy;
+	private Clock clock = SystemClock.INSTANCE;
+	// Only touched by the gyro delegate and rotate
+	private volatile boolean isSettling;
+	private volatile int rotationCount;
+	private volatile float lastGyroAngle;
+	private float rotationDirection;
+	private float rotationSpeed;
+	private float gyroThreshold;
+	private volatile boolean isFineSampling;
+	// The rotation angle when switching to the fine delegate, and the gyro
+	// angle the fine notifications are relative to (NaN until the first one)
+	private float switchAngle;
+	private float fineOrigin;
+	private volatile StageTimer rotationTimer;
 
 	private class GyroDelegate extends RoboUnit<GyroEvent> {
-		public GyroDelegate() {
-			super(GyroEvent.class, TankController.this.getContext(), "__TankGyroDelegate");
+		private final boolean isFine;
+
+		public GyroDelegate(String id, boolean isFine) {
+			super(GyroEvent.class, TankController.this.getContext(), id);
+			this.isFine = isFine;
 		}
 
 		@Override
 		public void onMessage(GyroEvent message) {
 			super.onMessage(message);
-			processGyroEvent(message);
+			processGyroEvent(message, isFine);
 		}
 
 		@Override
@@ -94,11 +244,20 @@ public class TankController extends RoboUnit<TankEvent> {
 	public TankController(RoboContext ctx, String id) {
 		super(TankEvent.class, ctx, id);
 		this.ctx = ctx;
-		gyroDelegate = new GyroDelegate();
+		gyroDelegate = new GyroDelegate("__TankGyroDelegate", false);
+		fineGyroDelegate = new GyroDelegate("__TankFineGyroDelegate", true);
+		motion = new CachedReference<>(ctx, REF_ID_MOTION);
+		gyro = new CachedReference<>(ctx, REF_ID_GYRO);
+		stopGyroRequest = new GyroRequest(gyroDelegate, GyroAction.STOP, null);
+		stopFineGyroRequest = new GyroRequest(fineGyroDelegate, GyroAction.STOP, null);
+		calibrateGyroRequest = new GyroRequest(gyroDelegate, GyroAction.CALIBRATE, null);
 	}
 
 	/**
-	 * Sets the speed of the tank.
+	 * Sets the speed of the tank at once, bypassing the control tick, and
+	 * dropping any driving command not yet applied. The speed and direction
+	 * are quantized to 1/32 and a tenth of a degree, so that the motion events
+	 * can be shared.
 	 * 
 	 * @param speed
 	 *            the desired speed.
@@ -106,9 +265,62 @@ public class TankController extends RoboUnit<TankEvent> {
 	 *            the desired direction.
 	 */
 	public void setSpeed(float speed, float direction) {
-		RoboReference<MotionEvent> reference = ctx.getReference(REF_ID_MOTION);
+		synchronized (motionLock) {
+			pendingMotion.set(null);
+			motionShaper.commandSent(speed, direction);
+			sendMotion(speed, direction);
+		}
+	}
+
+	/**
+	 * Applies a driving command on the next control tick.
+	 */
+	private void requestMotion(TankEvent message) {
+		if (pendingMotion.getAndSet(message) != null) {
+			COMMANDS_COALESCED.increment();
+		}
+		scheduleTick();
+	}
+
+	private void scheduleTick() {
+		if (isTickScheduled.compareAndSet(false, true)) {
+			long delay = lastTickTime + controlPeriodNanos - clock.nanoTime();
+			if (delay <= 0) {
+				tick();
+			} else {
+				clock.schedule(getContext(), ticker, delay, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	private void tick() {
+		lastTickTime = clock.nanoTime();
+		boolean isSettled;
+		synchronized (motionLock) {
+			TankEvent target = pendingMotion.getAndSet(null);
+			if (target != null) {
+				motionShaper.setTarget(target.getSpeed(), target.getDirection());
+			}
+			if (motionShaper.update()) {
+				sendMotion(motionShaper.getSpeed(), motionShaper.getDirection());
+			} else if (target != null) {
+				COMMANDS_SUPPRESSED.increment();
+			}
+			isSettled = motionShaper.isSettled();
+		}
+		isTickScheduled.set(false);
+		// Keep ramping, or take a command that arrived after we took the
+		// pending one
+		if (!isSettled || pendingMotion.get() != null) {
+			scheduleTick();
+		}
+	}
+
+	private void sendMotion(float speed, float direction) {
+		RoboReference<MotionEvent> reference = motion.get();
 		if (reference != null) {
-			reference.sendMessage(new MotionEvent(speed * maxSpeed, direction));
+			MOTION_EVENTS.increment();
+			reference.sendMessage(motionEvents.get(speed, direction));
 		} else {
 			SimpleLoggingUtil.error(TankController.class, "Could not find the reference for " + REF_ID_MOTION);
 		}
@@ -123,27 +335,69 @@ public class TankController extends RoboUnit<TankEvent> {
 		return ctx;
 	}
 
+	@Override
+	public void start() {
+		super.start();
+		// All units are registered by now - resolve the references up front
+		motion.get();
+		gyro.get();
+	}
+
 	@Override
 	public void stop() {
 		stopRotating();
 		setSpeed(0, 0);
+		motion.invalidate();
+		gyro.invalidate();
 	}
 
 	private void stopRotating() {
+		isSettling = false;
+		// An aborted rotation is not a measurement
+		rotationTimer = null;
 		isRotating.set(false);
-		getGyro().sendMessage(new GyroRequest(gyroDelegate, GyroAction.STOP, null));
+		getGyro().sendMessage(stopGyroRequest);
+		getGyro().sendMessage(stopFineGyroRequest);
+	}
+
+	/**
+	 * Ends the rotation, if not already ended, and notifies the listener.
+	 */
+	private void finishRotation(float angle) {
+		RoboReference<RotationDoneNotification> listener = rotationDoneListener;
+		if (isRotating.compareAndSet(true, false)) {
+			StageTimer timer = rotationTimer;
+			if (timer != null) {
+				rotationTimer = null;
+				timer.stop();
+			}
+			isSettling = false;
+			stopGyroNotifications();
+			notifyRotationTarget(listener, angle);
+		}
 	}
 
 	public void rotate(TankEvent message) {
 		if (isRotating.compareAndSet(false, true)) {
+			rotationCount++;
+			rotationTimer = StageTimer.start(LoopStage.ROTATION, message.getCycle());
 			targetAngle = (float) Math.toDegrees(message.getRotate());
 			rotationDoneListener = message.getRotationDoneListener();
-			getGyro().sendMessage(new GyroRequest(gyroDelegate, GyroAction.CONTINUOUS,
-					new Tuple3f(GyroRequest.DO_NOT_CARE, GyroRequest.DO_NOT_CARE, 1.0f)));
+			lastGyroAngle = 0;
+			gyroThreshold = samplingPolicy.getThreshold(targetAngle);
+			isFineSampling = gyroThreshold == samplingPolicy.getFineThreshold();
+			switchAngle = Float.NaN;
+			getGyro().sendMessage(isFineSampling ? fineGyroRequest : getContinuousGyroRequest(gyroThreshold));
 			float direction = 0;
 			direction = message.getRotate() > 0 ? getRotationDirectionRight(isUsingTracks) : getRotationDirectionLeft(isUsingTracks);
+			if (isPredictiveRotation) {
+				rotationController.start(targetAngle, message.getSpeed());
+				rotationDirection = direction;
+				rotationSpeed = message.getSpeed();
+			}
 			setSpeed(message.getSpeed(), direction);
 		} else {
+			ROTATIONS_DROPPED.increment();
 			SimpleLoggingUtil.debug(getClass(), "Got a request to rotate, but ignored it since we are already rotating...");
 		}
 	}
@@ -152,29 +406,148 @@ public class TankController extends RoboUnit<TankEvent> {
 	 * Calibrates the tank gyro. Make sure this is done on startup.
 	 */
 	public void calibrate() {
-		getGyro().sendMessage(new GyroRequest(gyroDelegate, GyroAction.CALIBRATE, null));
+		getGyro().sendMessage(calibrateGyroRequest);
 	}
 
 	private RoboReference<GyroRequest> getGyro() {
-		return getContext().getReference(REF_ID_GYRO);
+		return gyro.get();
 	}
 
 	@Override
 	protected void onInitialization(Configuration configuration) throws ConfigurationException {
 		isUsingTracks = configuration.getBoolean(KEY_IS_USING_TRACKS, false);
 		maxSpeed = configuration.getFloat(KEY_MAX_SPEED, 1.0f);
+		motionEvents = new CommandCache<MotionEvent>("tank.motionEvents") {
+			@Override
+			protected MotionEvent create(float speed, float direction) {
+				return new MotionEvent(speed * maxSpeed, direction);
+			}
+		};
+		isPredictiveRotation = configuration.getBoolean(KEY_PREDICTIVE_ROTATION, false);
+		rotationController = new RotationController(configuration.getFloat(KEY_ROTATION_SLOWDOWN_ANGLE, 30f),
+				configuration.getFloat(KEY_ROTATION_MIN_SPEED, 0.3f), configuration.getInteger(KEY_ROTATION_STOP_LEAD, 60) / 1000f);
+		settleTimeNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getInteger(KEY_ROTATION_SETTLE_TIME, 150));
+		controlPeriodNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getInteger(KEY_CONTROL_PERIOD, 20));
+		// Can only ramp with a tick to ramp on
+		float maxStep = controlPeriodNanos > 0
+				? configuration.getFloat(KEY_MAX_ACCELERATION, 0f) * controlPeriodNanos / 1e9f : 0;
+		motionShaper = new MotionShaper(configuration.getFloat(KEY_SPEED_TOLERANCE, 0f),
+				(float) Math.toRadians(configuration.getFloat(KEY_DIRECTION_TOLERANCE, 0f)), maxStep);
+		samplingPolicy = new GyroSamplingPolicy(configuration.getFloat(KEY_GYRO_FINE_THRESHOLD, 0.5f),
+				configuration.getFloat(KEY_GYRO_COARSE_THRESHOLD, 8f));
+		fineGyroRequest = new GyroRequest(fineGyroDelegate, GyroAction.CONTINUOUS,
+				new Tuple3f(GyroRequest.DO_NOT_CARE, GyroRequest.DO_NOT_CARE, samplingPolicy.getFineThreshold()));
+		clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+		lastTickTime = clock.nanoTime() - controlPeriodNanos;
 	}
 
-	private void processGyroEvent(GyroEvent message) {
-		if (isRotating.get()) {
-			if (isDoneRotating(message.getAngles().z)) {
-				RoboReference<RotationDoneNotification> listener = rotationDoneListener;
-				stopRotating();
-				notifyRotationTarget(listener);
+	private void processGyroEvent(GyroEvent message, boolean isFine) {
+		// Coarse notifications still arriving after the switch are stale
+		if (isRotating.get() && isFine == isFineSampling) {
+			float angle = toRotationAngle(message.getAngles().z, isFine);
+			lastGyroAngle = angle;
+			if (isPredictiveRotation) {
+				processPredictiveRotation(angle);
+			} else if (isDoneRotating(angle)) {
+				finishRotation(angle);
+			}
+			if (isRotating.get() && !isFine) {
+				float remaining = (targetAngle - angle) * Math.signum(targetAngle);
+				if (isSettling || remaining < 2 * gyroThreshold) {
+					switchToFineNotifications(angle);
+				}
 			}
 		}
 	}
 
+	/**
+	 * The gyro angle is only known to start over from zero when a rotation
+	 * registers for notifications after the last one stopped, so after the
+	 * switch the angle is tracked relative to the first fine notification.
+	 * That one arrives once the angle has moved the fine threshold.
+	 */
+	private float toRotationAngle(float gyroAngle, boolean isFine) {
+		if (!isFine || Float.isNaN(switchAngle)) {
+			return gyroAngle;
+		}
+		if (Float.isNaN(fineOrigin)) {
+			fineOrigin = gyroAngle - Math.signum(targetAngle) * samplingPolicy.getFineThreshold();
+		}
+		return switchAngle + gyroAngle - fineOrigin;
+	}
+
+	/**
+	 * Far from the target, the coarse notifications save the scheduling of a
+	 * notification for every gyro sample. The request is only changed once
+	 * per rotation, stopping the coarse notifications before starting the
+	 * fine ones, so that the gyro never has both registered.
+	 */
+	private void switchToFineNotifications(float angle) {
+		switchAngle = angle;
+		fineOrigin = Float.NaN;
+		isFineSampling = true;
+		getGyro().sendMessage(stopGyroRequest);
+		getGyro().sendMessage(fineGyroRequest);
+	}
+
+	private void stopGyroNotifications() {
+		getGyro().sendMessage(isFineSampling ? stopFineGyroRequest : stopGyroRequest);
+	}
+
+	private GyroRequest getContinuousGyroRequest(float threshold) {
+		float fineThreshold = samplingPolicy.getFineThreshold();
+		int level = Math.getExponent(threshold / fineThreshold);
+		if (level < 0 || level >= MAX_THRESHOLD_LEVELS || Math.scalb(fineThreshold, level) != threshold) {
+			return createContinuousGyroRequest(threshold);
+		}
+		GyroRequest request = continuousGyroRequests[level];
+		if (request == null) {
+			// Racy, but the requests are immutable
+			request = createContinuousGyroRequest(threshold);
+			continuousGyroRequests[level] = request;
+		}
+		return request;
+	}
+
+	private GyroRequest createContinuousGyroRequest(float threshold) {
+		return new GyroRequest(gyroDelegate, GyroAction.CONTINUOUS,
+				new Tuple3f(GyroRequest.DO_NOT_CARE, GyroRequest.DO_NOT_CARE, threshold));
+	}
+
+	private void processPredictiveRotation(float angle) {
+		float speed = rotationController.update(angle, clock.nanoTime());
+		if (isSettling) {
+			// Motors are stopped - wait for the tank to come to rest to get
+			// the real residual error.
+			if (Math.abs(rotationController.getRate()) < RATE_AT_REST) {
+				finishRotation(angle);
+			}
+		} else if (speed == 0) {
+			setSpeed(0, rotationDirection);
+			isSettling = true;
+			scheduleSettleTimeout();
+		} else if (Math.abs(speed - rotationSpeed) >= SPEED_QUANTUM) {
+			rotationSpeed = speed;
+			setSpeed(speed, rotationDirection);
+		}
+	}
+
+	/**
+	 * At rest, the gyro will not notify us, so give up waiting after the
+	 * settle time.
+	 */
+	private void scheduleSettleTimeout() {
+		final int rotation = rotationCount;
+		clock.schedule(getContext(), new Runnable() {
+			@Override
+			public void run() {
+				if (rotation == rotationCount && isSettling) {
+					finishRotation(lastGyroAngle);
+				}
+			}
+		}, settleTimeNanos, TimeUnit.NANOSECONDS);
+	}
+
 	private boolean isDoneRotating(double currentAngle) {
 		if (targetAngle > 0) {
 			return currentAngle >= targetAngle;
@@ -183,17 +556,21 @@ public class TankController extends RoboUnit<TankEvent> {
 		}
 	}
 
-	private static void notifyRotationTarget(RoboReference<RotationDoneNotification> listener) {
-		listener.sendMessage(RotationDoneNotification.ROTATION_COMPLETE);
+	private void notifyRotationTarget(RoboReference<RotationDoneNotification> listener, float angle) {
+		if (listener != null) {
+			float residualError = (float) Math.toRadians(targetAngle - angle);
+			listener.sendMessage(new RotationDoneNotification(RotationDoneNotification.Status.ROTATION_COMPLETE, residualError));
+		}
 	}
 
 	@Override
 	public void onMessage(TankEvent message) {
 		super.onMessage(message);
+		COMMANDS.increment();
 		if (message.getRotate() != 0) {
 			rotate(message);
 		} else {
-			setSpeed(message.getSpeed(), message.getDirection());
+			requestMotion(message);
 		}
 	}
 
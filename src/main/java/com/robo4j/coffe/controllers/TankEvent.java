@@ -26,10 +26,18 @@ import com.robo4j.RoboReference;
  * @author Marcus
  */
 public class TankEvent {
+	private static final CommandCache<TankEvent> MOTION_EVENTS = new CommandCache<TankEvent>("tank.events") {
+		@Override
+		protected TankEvent create(float speed, float direction) {
+			return new TankEvent(speed, direction, 0f);
+		}
+	};
+
 	private final RoboReference<RotationDoneNotification> rotationDoneListener;
 	private final float speed;
 	private final float direction;
 	private final float rotate;
+	private final long cycle;
 
 	/**
 	 * Constructor.
@@ -45,16 +53,54 @@ public class TankEvent {
 	 *            in radians
 	 */
 	public TankEvent(RoboReference<RotationDoneNotification> rotationDoneListener, float speed, float direction, float rotate) {
+		this(rotationDoneListener, speed, direction, rotate, 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rotationDoneListener
+	 *            if rotation set, will trigger when rotated the specified
+	 *            amount.
+	 * @param speed
+	 *            normalized speed
+	 * @param direction
+	 *            in radians
+	 * @param rotate
+	 *            in radians
+	 * @param cycle
+	 *            the sequence number of the scan that the event was decided
+	 *            on, to correlate the timing of the control loop stages.
+	 */
+	public TankEvent(RoboReference<RotationDoneNotification> rotationDoneListener, float speed, float direction, float rotate,
+			long cycle) {
 		this.rotationDoneListener = rotationDoneListener;
 		this.speed = speed;
 		this.direction = direction;
 		this.rotate = rotate;
+		this.cycle = cycle;
 	}
 
 	public TankEvent(float speed, float direction, float rotation) {
 		this(null, speed, direction, rotation);
 	}
 
+	/**
+	 * Returns a shared event for running in a direction, without rotation.
+	 * The speed is quantized to 1/32 and the direction to a tenth of a degree,
+	 * so that the commands of the control loop need not be allocated every
+	 * time.
+	 * 
+	 * @param speed
+	 *            normalized speed
+	 * @param direction
+	 *            in radians
+	 * @return the event.
+	 */
+	public static TankEvent motion(float speed, float direction) {
+		return MOTION_EVENTS.get(speed, direction);
+	}
+
 	/**
 	 * Returns the normalized speed.
 	 * 
@@ -85,4 +131,13 @@ public class TankEvent {
 	public RoboReference<RotationDoneNotification> getRotationDoneListener() {
 		return rotationDoneListener;
 	}
+
+	/**
+	 * Returns the sequence number of the scan that the event was decided on.
+	 * 
+	 * @return the sequence number of the scan, or 0 if not known.
+	 */
+	public long getCycle() {
+		return cycle;
+	}
 }
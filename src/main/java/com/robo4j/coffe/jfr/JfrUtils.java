@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.jfr;
+
+import java.net.URISyntaxException;
+
+import com.oracle.jrockit.jfr.EventToken;
+import com.oracle.jrockit.jfr.InstantEvent;
+import com.oracle.jrockit.jfr.InvalidEventDefinitionException;
+import com.oracle.jrockit.jfr.InvalidValueException;
+import com.oracle.jrockit.jfr.Producer;
+import com.robo4j.logging.SimpleLoggingUtil;
+
+/**
+ * Registers the JFR events of Coff-E with the flight recorder, under a
+ * producer of their own.
+ *
+ * @author Marcus
+ */
+public final class JfrUtils {
+	private static final String PRODUCER_URI = "http://www.robo4j.com/coffe/";
+	private static final Producer PRODUCER = createProducer();
+
+	private JfrUtils() {
+	}
+
+	/**
+	 * Registers an event class.
+	 *
+	 * @return the token to create the events with, or null if the event could
+	 *         not be registered.
+	 */
+	public static EventToken register(Class<? extends InstantEvent> eventClass) {
+		try {
+			return PRODUCER.addEvent(eventClass);
+		} catch (InvalidEventDefinitionException | InvalidValueException e) {
+			SimpleLoggingUtil.error(JfrUtils.class, "Failed to register the JFR event " + eventClass.getName(), e);
+			return null;
+		}
+	}
+
+	private static Producer createProducer() {
+		try {
+			Producer producer = new Producer("Robo4J Coff-E", "The control loop of Coff-E", PRODUCER_URI);
+			producer.register();
+			return producer;
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException("Bad producer URI", e);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.jfr;
+
+import com.oracle.jrockit.jfr.TimedEvent;
+import com.robo4j.coffe.metrics.LatencyHistogram;
+import com.robo4j.coffe.metrics.Metrics;
+
+/**
+ * The timed stages of the control loop. Every stage has a JFR event, and an
+ * in-process histogram of its latencies, so that the latencies can be looked
+ * at on the robot without a flight recording. The stages of a cycle are
+ * correlated by the sequence number of the scan that started it. The
+ * histograms are registered with the {@link Metrics} as loop.&lt;stage&gt;.
+ *
+ * @author Marcus
+ */
+public enum LoopStage {
+	/**
+	 * From requesting a scan to receiving it.
+	 */
+	SCAN {
+		@Override
+		TimedEvent createEvent(long cycle) {
+			return new ScanEvent(cycle);
+		}
+	},
+	/**
+	 * The analysis of a scan, or of a chunk of a scan, in the scan processor.
+	 */
+	ANALYSIS {
+		@Override
+		TimedEvent createEvent(long cycle) {
+			return new AnalysisEvent(cycle);
+		}
+	},
+	/**
+	 * From an analyzed scan to having decided, and sent any tank commands.
+	 */
+	DECISION {
+		@Override
+		TimedEvent createEvent(long cycle) {
+			return new DecisionEvent(cycle);
+		}
+	},
+	/**
+	 * From the start of a gyro based rotation to it being done.
+	 */
+	ROTATION {
+		@Override
+		TimedEvent createEvent(long cycle) {
+			return new RotationEvent(cycle);
+		}
+	},
+	/**
+	 * From requesting a scan to having acted on it with a tank command.
+	 */
+	SENSE_TO_ACT {
+		@Override
+		TimedEvent createEvent(long cycle) {
+			return new SenseToActEvent(cycle);
+		}
+	};
+
+	private final LatencyHistogram histogram = Metrics.histogram("loop." + name().toLowerCase());
+
+	abstract TimedEvent createEvent(long cycle);
+
+	/**
+	 * @return the latencies of the stage, in ns.
+	 */
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * @return a summary of the latencies of all the stages, in microseconds.
+	 */
+	public static String report() {
+		StringBuilder builder = new StringBuilder();
+		for (LoopStage stage : values()) {
+			builder.append(stage).append(": ").append(stage.histogram).append('\n');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.jfr;
+
+import com.oracle.jrockit.jfr.EventDefinition;
+import com.oracle.jrockit.jfr.EventToken;
+import com.oracle.jrockit.jfr.TimedEvent;
+import com.oracle.jrockit.jfr.ValueDefinition;
+
+/**
+ * Spans a full control loop cycle, from requesting a scan to acting on it with a tank command.
+ *
+ * @author Marcus
+ */
+@EventDefinition(path = "robo4j/coffe/sensetoact", name = "Sense to Act",
+		description = "From the scan request to the tank command acted on it.", stacktrace = false, thread = true)
+public class SenseToActEvent extends TimedEvent {
+	private static final EventToken TOKEN = JfrUtils.register(SenseToActEvent.class);
+
+	@ValueDefinition(name = "Cycle", description = "The sequence number of the scan.")
+	private long cycle;
+
+	public SenseToActEvent(long cycle) {
+		super(TOKEN);
+		this.cycle = cycle;
+	}
+
+	public long getCycle() {
+		return cycle;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.jfr;
+
+import com.oracle.jrockit.jfr.TimedEvent;
+
+/**
+ * Times a stage of the control loop, recording it in the histogram of the
+ * stage and as a JFR event. The stage may end on another thread than it
+ * started on.
+ *
+ * @author Marcus
+ */
+public final class StageTimer {
+	private final LoopStage stage;
+	private final long cycle;
+	private final TimedEvent event;
+	private final long startTime;
+
+	private StageTimer(LoopStage stage, long cycle) {
+		this.stage = stage;
+		this.cycle = cycle;
+		this.event = stage.createEvent(cycle);
+		event.begin();
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Starts timing a stage.
+	 *
+	 * @param stage
+	 *            the stage.
+	 * @param cycle
+	 *            the sequence number of the scan of the cycle.
+	 */
+	public static StageTimer start(LoopStage stage, long cycle) {
+		return new StageTimer(stage, cycle);
+	}
+
+	/**
+	 * Stops timing, and records the stage.
+	 *
+	 * @return the time the stage took, in ns.
+	 */
+	public long stop() {
+		long duration = System.nanoTime() - startTime;
+		stage.getHistogram().record(duration);
+		event.end();
+		event.commit();
+		return duration;
+	}
+
+	public LoopStage getStage() {
+		return stage;
+	}
+
+	public long getCycle() {
+		return cycle;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter of events, e.g. scans taken or messages dropped. Counting is
+ * contention free, so it can be used on the hot path from any number of
+ * threads. The rate is only updated when the {@link Metrics} are sampled.
+ *
+ * @author Marcus
+ */
+public final class Counter {
+	private final LongAdder count = new LongAdder();
+	// Only written by the sampling
+	private long lastCount;
+	private long lastTime;
+	private volatile double rate;
+
+	Counter() {
+	}
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long value) {
+		count.add(value);
+	}
+
+	public long get() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the events per second between the last two samples.
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	synchronized void sample(long nanoTime) {
+		long current = count.sum();
+		if (lastTime != 0 && nanoTime > lastTime) {
+			rate = (current - lastCount) * 1e9 / (nanoTime - lastTime);
+		}
+		lastCount = current;
+		lastTime = nanoTime;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in ns, with buckets of log-linear width like an
+ * HDR histogram: every power of two is split into 32 buckets, so that the
+ * values are kept to within about 3%, from a ns up to about 18 minutes, in a
+ * fixed 9 kB. Recording is a few atomic adds, and never blocks, so it can be
+ * used on the hot path from any number of threads.
+ * <p>
+ * The statistics are read without stopping the recording, so they may be off
+ * by the values recorded while reading.
+ *
+ * @author Marcus
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Values are clamped to below 2^MAX_BITS ns
+	private static final int MAX_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param nanos
+	 *            the latency, in ns. Negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, Math.min(MAX_VALUE, nanos));
+		counts.incrementAndGet(toIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the mean, in ns, or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / (double) n;
+	}
+
+	/**
+	 * @return the largest value recorded, in ns.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value at a percentile, as the highest value of the bucket
+	 * it is in.
+	 *
+	 * @param percentile
+	 *            the percentile, 0 to 100.
+	 * @return the value, in ns, or 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(max.get(), highestValue(i));
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets all values. Values recorded while resetting may be partly lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return a summary, in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d, mean=%.1f, p50=%.1f, p90=%.1f, p99=%.1f, max=%.1f", getCount(), getMean() / 1000,
+				getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0, getValueAtPercentile(99) / 1000.0,
+				getMax() / 1000.0);
+	}
+
+	static int toIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry of the metrics of Coff-E. The metrics are looked up by name,
+ * once, when the units are created, and kept in fields, so that updating
+ * them is just an add. The {@link MetricsUnit} samples the rates and serves
+ * the metrics over HTTP.
+ *
+ * @author Marcus
+ */
+public final class Metrics {
+	private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return the counter with the name, created the first time it is asked
+	 *         for.
+	 */
+	public static Counter counter(String name) {
+		Counter counter = COUNTERS.get(name);
+		if (counter == null) {
+			Counter created = new Counter();
+			counter = COUNTERS.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * @return the histogram with the name, created the first time it is
+	 *         asked for.
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = HISTOGRAMS.get(name);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = HISTOGRAMS.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers a histogram that is kept elsewhere, replacing any histogram
+	 * with the same name.
+	 */
+	public static void register(String name, LatencyHistogram histogram) {
+		HISTOGRAMS.put(name, histogram);
+	}
+
+	/**
+	 * Registers a gauge, replacing any gauge with the same name.
+	 */
+	public static void register(String name, Gauge gauge) {
+		GAUGES.put(name, gauge);
+	}
+
+	public static void unregisterGauge(String name) {
+		GAUGES.remove(name);
+	}
+
+	/**
+	 * Updates the rates of all the counters.
+	 *
+	 * @param nanoTime
+	 *            the time of the sample.
+	 */
+	public static void sample(long nanoTime) {
+		for (Counter counter : COUNTERS.values()) {
+			counter.sample(nanoTime);
+		}
+	}
+
+	/**
+	 * Writes all the metrics as text, one per line, sorted by name. Counters
+	 * are written with their total and rate per second, gauges with their
+	 * value and histograms with their count, mean, percentiles and max, in
+	 * microseconds.
+	 */
+	public static void dump(StringBuilder builder) {
+		for (Map.Entry<String, Counter> entry : new TreeMap<>(COUNTERS).entrySet()) {
+			Counter counter = entry.getValue();
+			builder.append(entry.getKey()).append(' ').append(counter.get()).append(' ');
+			appendDecimal(builder, counter.getRate()).append("/s\n");
+		}
+		for (Map.Entry<String, Gauge> entry : new TreeMap<>(GAUGES).entrySet()) {
+			builder.append(entry.getKey()).append(' ').append(entry.getValue().getValue()).append('\n');
+		}
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			builder.append(entry.getKey()).append(" count=").append(histogram.getCount());
+			appendDecimal(builder.append(" mean="), histogram.getMean() / 1000);
+			appendMicros(builder.append(" p50="), histogram.getValueAtPercentile(50));
+			appendMicros(builder.append(" p90="), histogram.getValueAtPercentile(90));
+			appendMicros(builder.append(" p99="), histogram.getValueAtPercentile(99));
+			appendMicros(builder.append(" p999="), histogram.getValueAtPercentile(99.9));
+			appendMicros(builder.append(" max="), histogram.getMax());
+			builder.append('\n');
+		}
+	}
+
+	/**
+	 * Resets all the histograms. The counters keep counting.
+	 */
+	public static void resetHistograms() {
+		for (LatencyHistogram histogram : HISTOGRAMS.values()) {
+			histogram.reset();
+		}
+	}
+
+	private static StringBuilder appendMicros(StringBuilder builder, long nanos) {
+		return builder.append(nanos / 1000);
+	}
+
+	private static StringBuilder appendDecimal(StringBuilder builder, double value) {
+		// One decimal is plenty, and avoids String.format
+		long tenths = Math.round(value * 10);
+		return builder.append(tenths / 10).append('.').append(Math.abs(tenths % 10));
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.Ticker;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Samples the {@link Metrics} and serves them as plain text over HTTP, e.g.
+ * <code>curl http://localhost:8025/metrics</code>. Adding
+ * <code>?reset</code> resets the histograms after dumping them. The server
+ * only listens on the loopback interface by default.
+ * <p>
+ * The unit also takes the messages "dump", to log the metrics, and "reset".
+ *
+ * @author Marcus
+ */
+public class MetricsUnit extends RoboUnit<String> {
+	/**
+	 * The port to serve the metrics on. 0 picks any free port, see
+	 * {@link #getPort()}, and a negative port disables the server. Defaults to
+	 * 8025.
+	 */
+	public static final String KEY_PORT = "port";
+
+	/**
+	 * The address to bind the server to. Defaults to 127.0.0.1.
+	 */
+	public static final String KEY_ADDRESS = "address";
+
+	/**
+	 * The period, in ms, with which to sample the rates. Defaults to 1000.
+	 */
+	public static final String KEY_SAMPLE_PERIOD = "samplePeriod";
+
+	/**
+	 * The clock to sample the rates with. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	/**
+	 * The message for logging the metrics.
+	 */
+	public static final String MESSAGE_DUMP = "dump";
+
+	/**
+	 * The message for resetting the histograms.
+	 */
+	public static final String MESSAGE_RESET = "reset";
+
+	private static final String PATH = "/metrics";
+
+	private String address;
+	private int port;
+	private Clock clock;
+	private long samplePeriodNanos;
+	private Ticker sampler;
+	private volatile HttpServer server;
+
+	public MetricsUnit(RoboContext context, String id) {
+		super(String.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		address = configuration.getString(KEY_ADDRESS, "127.0.0.1");
+		port = configuration.getInteger(KEY_PORT, 8025);
+		samplePeriodNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, configuration.getInteger(KEY_SAMPLE_PERIOD, 1000)));
+		clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		final Clock sampleClock = clock;
+		sampler = new Ticker(sampleClock, getContext(), new Runnable() {
+			@Override
+			public void run() {
+				Metrics.sample(sampleClock.nanoTime());
+			}
+		}, samplePeriodNanos);
+		sampler.start();
+		if (port >= 0) {
+			try {
+				server = HttpServer.create(new InetSocketAddress(address, port), 0);
+				server.createContext(PATH, new MetricsHandler());
+				server.start();
+			} catch (IOException e) {
+				SimpleLoggingUtil.error(getClass(), "Could not serve the metrics on " + address + ":" + port, e);
+				server = null;
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (sampler != null) {
+			sampler.stop();
+		}
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		super.stop();
+	}
+
+	/**
+	 * @return the port the metrics are served on, or -1 if not serving.
+	 */
+	public int getPort() {
+		HttpServer currentServer = server;
+		return currentServer == null ? -1 : currentServer.getAddress().getPort();
+	}
+
+	@Override
+	public void onMessage(String message) {
+		if (MESSAGE_DUMP.equals(message)) {
+			StringBuilder builder = new StringBuilder("Metrics:\n");
+			Metrics.dump(builder);
+			SimpleLoggingUtil.print(getClass(), builder.toString());
+		} else if (MESSAGE_RESET.equals(message)) {
+			Metrics.resetHistograms();
+		} else {
+			SimpleLoggingUtil.error(getClass(), "Unknown message " + message);
+		}
+	}
+
+	private static class MetricsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+				StringBuilder builder = new StringBuilder(4096);
+				Metrics.dump(builder);
+				String query = exchange.getRequestURI().getQuery();
+				if (query != null && query.contains(MESSAGE_RESET)) {
+					Metrics.resetHistograms();
+				}
+				byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
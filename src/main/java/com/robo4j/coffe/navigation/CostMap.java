@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+import java.util.Arrays;
+
+import com.robo4j.coffe.slam.OccupancyGrid;
+
+/**
+ * A cost map for path planning, derived from an {@link OccupancyGrid} at a
+ * coarser resolution. Cells within the robot radius of an occupied cell are
+ * lethal, and the cost falls off with the distance out to the inflation
+ * radius. Unknown cells are considered free.
+ * <p>
+ * The cost map is cached: {@link #update()} only recomputes the cells around
+ * the tiles of the occupancy grid that have changed since the last update.
+ * Not thread safe, and must not be updated concurrently with the grid.
+ *
+ * @author Marcus
+ */
+public final class CostMap {
+	/**
+	 * The cost of a cell the robot cannot be in.
+	 */
+	public static final int LETHAL = 255;
+	/**
+	 * The highest cost of a cell the robot can be in.
+	 */
+	public static final int MAX_INFLATED = 200;
+
+	private final OccupancyGrid grid;
+	private final int factor;
+	private final int width;
+	private final int height;
+	private final float cellSize;
+	private final int lethalRadius;
+	private final byte[] blocked;
+	private final byte[] costs;
+	private final int[] seenVersions;
+
+	// The inflation kernel, as offsets and the cost at each offset
+	private final int kernelRadius;
+	private final int[] kernelDx;
+	private final int[] kernelDy;
+	private final int[] kernelCost;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param grid
+	 *            the grid to derive the costs from.
+	 * @param factor
+	 *            the number of grid cells along the side of a cost map cell.
+	 *            Must divide the grid tile size.
+	 * @param robotRadius
+	 *            the radius of the robot, in meters.
+	 * @param inflationRadius
+	 *            the distance from obstacles, in meters, inside which cells
+	 *            get a cost.
+	 */
+	public CostMap(OccupancyGrid grid, int factor, float robotRadius, float inflationRadius) {
+		if (factor < 1 || OccupancyGrid.TILE_SIZE % factor != 0) {
+			throw new IllegalArgumentException("The factor must divide " + OccupancyGrid.TILE_SIZE + ", got " + factor);
+		}
+		this.grid = grid;
+		this.factor = factor;
+		this.width = grid.getWidth() / factor;
+		this.height = grid.getHeight() / factor;
+		this.cellSize = grid.getCellSize() * factor;
+		this.blocked = new byte[width * height];
+		this.costs = new byte[width * height];
+		// Tiles not allocated yet are all unknown, i.e. free, and the allocated
+		// ones are computed on the first update
+		int tilesPerSide = grid.getTilesPerSide();
+		this.seenVersions = new int[tilesPerSide * tilesPerSide];
+		for (int i = 0; i < seenVersions.length; i++) {
+			int tileX = i % tilesPerSide;
+			int tileY = i / tilesPerSide;
+			seenVersions[i] = grid.getTileVersion(tileX, tileY);
+			if (grid.isTileAllocated(tileX * OccupancyGrid.TILE_SIZE, tileY * OccupancyGrid.TILE_SIZE)) {
+				seenVersions[i]--;
+			}
+		}
+
+		inflationRadius = Math.max(inflationRadius, robotRadius);
+		this.lethalRadius = (int) Math.ceil(robotRadius / cellSize);
+		this.kernelRadius = (int) Math.ceil(inflationRadius / cellSize);
+		int side = 2 * kernelRadius + 1;
+		int[] dx = new int[side * side];
+		int[] dy = new int[side * side];
+		int[] cost = new int[side * side];
+		int n = 0;
+		for (int y = -kernelRadius; y <= kernelRadius; y++) {
+			for (int x = -kernelRadius; x <= kernelRadius; x++) {
+				float distance = (float) Math.sqrt(x * x + y * y) * cellSize;
+				if (distance <= robotRadius) {
+					cost[n] = LETHAL;
+				} else if (distance < inflationRadius) {
+					cost[n] = Math.max(1, Math.round(MAX_INFLATED * (inflationRadius - distance) / (inflationRadius - robotRadius)));
+				} else {
+					continue;
+				}
+				dx[n] = x;
+				dy[n] = y;
+				n++;
+			}
+		}
+		this.kernelDx = Arrays.copyOf(dx, n);
+		this.kernelDy = Arrays.copyOf(dy, n);
+		this.kernelCost = Arrays.copyOf(cost, n);
+	}
+
+	/**
+	 * Recomputes the costs around the parts of the grid that have changed.
+	 *
+	 * @return true if anything was recomputed.
+	 */
+	public boolean update() {
+		int tilesPerSide = grid.getTilesPerSide();
+		int minTileX = Integer.MAX_VALUE;
+		int minTileY = Integer.MAX_VALUE;
+		int maxTileX = -1;
+		int maxTileY = -1;
+		for (int tileY = 0; tileY < tilesPerSide; tileY++) {
+			for (int tileX = 0; tileX < tilesPerSide; tileX++) {
+				int version = grid.getTileVersion(tileX, tileY);
+				int index = tileY * tilesPerSide + tileX;
+				if (version != seenVersions[index]) {
+					seenVersions[index] = version;
+					updateBlocked(tileX, tileY);
+					minTileX = Math.min(minTileX, tileX);
+					minTileY = Math.min(minTileY, tileY);
+					maxTileX = Math.max(maxTileX, tileX);
+					maxTileY = Math.max(maxTileY, tileY);
+				}
+			}
+		}
+		if (maxTileX < 0) {
+			return false;
+		}
+		// Any cell within the kernel of a changed cell may have a new cost
+		int cellsPerTile = OccupancyGrid.TILE_SIZE / factor;
+		int x0 = Math.max(0, minTileX * cellsPerTile - kernelRadius);
+		int y0 = Math.max(0, minTileY * cellsPerTile - kernelRadius);
+		int x1 = Math.min(width, (maxTileX + 1) * cellsPerTile + kernelRadius);
+		int y1 = Math.min(height, (maxTileY + 1) * cellsPerTile + kernelRadius);
+		inflate(x0, y0, x1, y1);
+		return true;
+	}
+
+	private void updateBlocked(int tileX, int tileY) {
+		int cellsPerTile = OccupancyGrid.TILE_SIZE / factor;
+		for (int cy = tileY * cellsPerTile; cy < (tileY + 1) * cellsPerTile; cy++) {
+			for (int cx = tileX * cellsPerTile; cx < (tileX + 1) * cellsPerTile; cx++) {
+				blocked[cy * width + cx] = (byte) (isAnyOccupied(cx * factor, cy * factor) ? 1 : 0);
+			}
+		}
+	}
+
+	private boolean isAnyOccupied(int gridX, int gridY) {
+		for (int y = gridY; y < gridY + factor; y++) {
+			for (int x = gridX; x < gridX + factor; x++) {
+				if (grid.isOccupied(x, y)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Recomputes the costs in the region, stamping the kernel of every blocked
+	 * cell that can reach it.
+	 */
+	private void inflate(int x0, int y0, int x1, int y1) {
+		for (int y = y0; y < y1; y++) {
+			Arrays.fill(costs, y * width + x0, y * width + x1, (byte) 0);
+		}
+		int fromY = Math.max(0, y0 - kernelRadius);
+		int toY = Math.min(height, y1 + kernelRadius);
+		int fromX = Math.max(0, x0 - kernelRadius);
+		int toX = Math.min(width, x1 + kernelRadius);
+		for (int by = fromY; by < toY; by++) {
+			for (int bx = fromX; bx < toX; bx++) {
+				if (blocked[by * width + bx] == 0) {
+					continue;
+				}
+				for (int k = 0; k < kernelCost.length; k++) {
+					int x = bx + kernelDx[k];
+					int y = by + kernelDy[k];
+					if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+						int index = y * width + x;
+						if (kernelCost[k] > (costs[index] & 0xFF)) {
+							costs[index] = (byte) kernelCost[k];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the cost of the cell, 0 to {@link #LETHAL}. Cells outside of the
+	 *         map are lethal.
+	 */
+	public int getCost(int cellX, int cellY) {
+		if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) {
+			return LETHAL;
+		}
+		return costs[cellY * width + cellX] & 0xFF;
+	}
+
+	public boolean isLethal(int cellX, int cellY) {
+		return getCost(cellX, cellY) == LETHAL;
+	}
+
+	public int toCellX(float x) {
+		return Math.floorDiv(grid.toCellX(x), factor);
+	}
+
+	public int toCellY(float y) {
+		return Math.floorDiv(grid.toCellY(y), factor);
+	}
+
+	/**
+	 * @return the x coordinate of the center of the cell, in meters.
+	 */
+	public float toX(int cellX) {
+		return grid.toX(cellX * factor) + (cellSize - grid.getCellSize()) / 2;
+	}
+
+	/**
+	 * @return the y coordinate of the center of the cell, in meters.
+	 */
+	public float toY(int cellY) {
+		return grid.toY(cellY * factor) + (cellSize - grid.getCellSize()) / 2;
+	}
+
+	/**
+	 * @return the width, in cells.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height, in cells.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the side of a cell, in meters.
+	 */
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return the robot radius, in cells, rounded up.
+	 */
+	public int getLethalRadius() {
+		return lethalRadius;
+	}
+
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+/**
+ * Relates GPS positions to the map. Latitudes and longitudes are first
+ * projected onto a local plane, in meters east and north of the first fix.
+ * The map frame is then fitted to the plane by a rotation and a translation,
+ * using least squares over the pairs of GPS positions and map positions seen
+ * so far. Older pairs are gradually forgotten, so that the fit follows the
+ * drift of the map pose.
+ * <p>
+ * Both frames have the same handedness: east and north map to x and y, and
+ * the map headings are measured clockwise, like compass bearings.
+ * <p>
+ * Thread safe.
+ *
+ * @author Marcus
+ */
+public final class GeoFrame {
+	private static final double EARTH_RADIUS = 6371000;
+
+	private final float minSpread;
+	private final float forgetting;
+
+	private boolean hasOrigin;
+	private double originLatitude;
+	private double originLongitude;
+	private double metersPerDegreeLongitude;
+
+	// Weighted sums for the fit
+	private double weight;
+	private double sumMapX;
+	private double sumMapY;
+	private double sumGeoX;
+	private double sumGeoY;
+	private double sumDot;
+	private double sumCross;
+	private double sumMapSquared;
+
+	// The fit, geo = R * map + t
+	private boolean isAligned;
+	private double cos;
+	private double sin;
+	private double translationX;
+	private double translationY;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param minSpread
+	 *            the spread, in meters, of the map positions needed before the
+	 *            rotation can be trusted.
+	 * @param forgetting
+	 *            the factor the weight of the older pairs is multiplied with
+	 *            for every new pair, e.g. 0.99.
+	 */
+	public GeoFrame(float minSpread, float forgetting) {
+		this.minSpread = minSpread;
+		this.forgetting = forgetting;
+	}
+
+	/**
+	 * Adds a GPS fix, and where the map thought Coff-E was at the time.
+	 */
+	public synchronized void addFix(GpsFix fix, float mapX, float mapY) {
+		if (!hasOrigin) {
+			hasOrigin = true;
+			originLatitude = fix.getLatitude();
+			originLongitude = fix.getLongitude();
+			metersPerDegreeLongitude = Math.toRadians(1) * EARTH_RADIUS * Math.cos(Math.toRadians(originLatitude));
+		}
+		double geoX = toLocalX(fix.getLongitude());
+		double geoY = toLocalY(fix.getLatitude());
+		weight = weight * forgetting + 1;
+		sumMapX = sumMapX * forgetting + mapX;
+		sumMapY = sumMapY * forgetting + mapY;
+		sumGeoX = sumGeoX * forgetting + geoX;
+		sumGeoY = sumGeoY * forgetting + geoY;
+		sumDot = sumDot * forgetting + mapX * geoX + mapY * geoY;
+		sumCross = sumCross * forgetting + mapX * geoY - mapY * geoX;
+		sumMapSquared = sumMapSquared * forgetting + mapX * mapX + mapY * mapY;
+		fit();
+	}
+
+	private void fit() {
+		double meanMapX = sumMapX / weight;
+		double meanMapY = sumMapY / weight;
+		double meanGeoX = sumGeoX / weight;
+		double meanGeoY = sumGeoY / weight;
+		double spread = sumMapSquared / weight - meanMapX * meanMapX - meanMapY * meanMapY;
+		if (spread < minSpread * minSpread) {
+			isAligned = false;
+			return;
+		}
+		// The centered cross covariances give the rotation
+		double dot = sumDot / weight - (meanMapX * meanGeoX + meanMapY * meanGeoY);
+		double cross = sumCross / weight - (meanMapX * meanGeoY - meanMapY * meanGeoX);
+		double angle = Math.atan2(cross, dot);
+		cos = Math.cos(angle);
+		sin = Math.sin(angle);
+		translationX = meanGeoX - (cos * meanMapX - sin * meanMapY);
+		translationY = meanGeoY - (sin * meanMapX + cos * meanMapY);
+		isAligned = true;
+	}
+
+	/**
+	 * @return true if enough fixes, far enough apart, have been added to
+	 *         relate the frames.
+	 */
+	public synchronized boolean isAligned() {
+		return isAligned;
+	}
+
+	/**
+	 * Converts a GPS position to map coordinates. Only valid when aligned.
+	 *
+	 * @param map
+	 *            receives the x and y map coordinates, in meters.
+	 */
+	public synchronized void toMap(double latitude, double longitude, float[] map) {
+		double dx = toLocalX(longitude) - translationX;
+		double dy = toLocalY(latitude) - translationY;
+		map[0] = (float) (cos * dx + sin * dy);
+		map[1] = (float) (-sin * dx + cos * dy);
+	}
+
+	/**
+	 * @return the rotation from the map frame to the GPS frame, in radians,
+	 *         i.e. the compass bearing of map heading 0. Only valid when
+	 *         aligned.
+	 */
+	public synchronized float getRotation() {
+		// Bearings are clockwise, whereas the rotation is counter clockwise
+		return (float) -Math.atan2(sin, cos);
+	}
+
+	/**
+	 * Forgets everything, including the origin.
+	 */
+	public synchronized void reset() {
+		hasOrigin = false;
+		isAligned = false;
+		weight = 0;
+		sumMapX = sumMapY = sumGeoX = sumGeoY = sumDot = sumCross = sumMapSquared = 0;
+	}
+
+	private double toLocalX(double longitude) {
+		return (longitude - originLongitude) * metersPerDegreeLongitude;
+	}
+
+	private double toLocalY(double latitude) {
+		return (latitude - originLatitude) * Math.toRadians(1) * EARTH_RADIUS;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+/**
+ * A position from a GPS.
+ *
+ * @author Marcus
+ */
+public final class GpsFix {
+	private final double latitude;
+	private final double longitude;
+	private final float accuracy;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param latitude
+	 *            the latitude, in degrees.
+	 * @param longitude
+	 *            the longitude, in degrees.
+	 * @param accuracy
+	 *            the estimated horizontal accuracy, in meters, or NaN if not
+	 *            known.
+	 */
+	public GpsFix(double latitude, double longitude, float accuracy) {
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.accuracy = accuracy;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * @return the estimated horizontal accuracy, in meters, or NaN if not
+	 *         known.
+	 */
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	@Override
+	public String toString() {
+		return "GpsFix [latitude=" + latitude + ", longitude=" + longitude + ", accuracy=" + accuracy + "]";
+	}
+}
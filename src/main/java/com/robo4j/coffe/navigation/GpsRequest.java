@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+import com.robo4j.RoboReference;
+
+/**
+ * Registers for, or unregisters from, the fixes of a GPS unit.
+ *
+ * @author Marcus
+ */
+public final class GpsRequest {
+	public enum Operation {
+		REGISTER, UNREGISTER
+	}
+
+	private final RoboReference<GpsFix> target;
+	private final Operation operation;
+
+	public GpsRequest(RoboReference<GpsFix> target, Operation operation) {
+		this.target = target;
+		this.operation = operation;
+	}
+
+	public RoboReference<GpsFix> getTarget() {
+		return target;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	@Override
+	public String toString() {
+		return "GpsRequest [target=" + target + ", operation=" + operation + "]";
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+import java.util.Arrays;
+
+/**
+ * An 8-connected A* planner on a {@link CostMap}. The cost of a step is its
+ * length, weighted up by the cost of the cell stepped into, and lethal cells
+ * are only entered close to the start or the goal, so that Coff-E can plan his
+ * way out when he is already too close to something.
+ * <p>
+ * All search state lives in primitive arrays allocated once per map. The
+ * arrays are never cleared; every search has a generation number, and a cell
+ * only counts as visited if it was stamped by the current generation. When
+ * replanning to the same goal, the previous path is kept for as long as none
+ * of its cells have become lethal and Coff-E is still close to it, so most
+ * replans don't search at all.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class PathPlanner {
+	private static final float SQRT2 = (float) Math.sqrt(2);
+	// A cell at MAX_INFLATED costs five times as much as a free cell to cross
+	private static final float COST_WEIGHT = 4f / CostMap.MAX_INFLATED;
+	// How far off the path, in cells, Coff-E may be for the path to be kept
+	private static final int REUSE_DISTANCE = 4;
+	private static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private static final int[] DY = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	private final CostMap costMap;
+	private final int width;
+	private final int height;
+	private final float[] costSoFar;
+	private final int[] parent;
+	private final int[] visited;
+	private final int[] closed;
+	private int generation;
+	private int maxExpansions;
+
+	// Binary min heap of cells, with lazy deletion of outdated entries
+	private int[] heapCells = new int[1024];
+	private float[] heapKeys = new float[1024];
+	private int heapSize;
+
+	// The current path, from the start to the goal
+	private int[] path = new int[256];
+	private int pathLength;
+	private int goalCell = -1;
+	private int startX;
+	private int startY;
+	private int goalX;
+	private int goalY;
+
+	private int expandedCells;
+	private boolean isReused;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param costMap
+	 *            the cost map to plan on.
+	 */
+	public PathPlanner(CostMap costMap) {
+		this.costMap = costMap;
+		this.width = costMap.getWidth();
+		this.height = costMap.getHeight();
+		int cells = width * height;
+		this.costSoFar = new float[cells];
+		this.parent = new int[cells];
+		this.visited = new int[cells];
+		this.closed = new int[cells];
+		this.maxExpansions = cells;
+	}
+
+	/**
+	 * Plans a path, keeping the previous one if the goal is the same and the
+	 * path is still good. Call after updating the cost map.
+	 *
+	 * @return true if there is a path.
+	 */
+	public boolean replan(float fromX, float fromY, float toX, float toY) {
+		int sx = costMap.toCellX(fromX);
+		int sy = costMap.toCellY(fromY);
+		int gx = costMap.toCellX(toX);
+		int gy = costMap.toCellY(toY);
+		if (isInside(gx, gy) && gy * width + gx == goalCell && pathLength > 0 && isPathClear()) {
+			int nearest = findNearest(sx, sy);
+			if (nearest >= 0) {
+				System.arraycopy(path, nearest, path, 0, pathLength - nearest);
+				pathLength -= nearest;
+				startX = sx;
+				startY = sy;
+				isReused = true;
+				expandedCells = 0;
+				return true;
+			}
+		}
+		return search(sx, sy, gx, gy);
+	}
+
+	/**
+	 * Plans a new path from scratch.
+	 *
+	 * @return true if there is a path.
+	 */
+	public boolean plan(float fromX, float fromY, float toX, float toY) {
+		return search(costMap.toCellX(fromX), costMap.toCellY(fromY), costMap.toCellX(toX), costMap.toCellY(toY));
+	}
+
+	private boolean search(int sx, int sy, int gx, int gy) {
+		isReused = false;
+		expandedCells = 0;
+		pathLength = 0;
+		goalCell = -1;
+		if (!isInside(sx, sy) || !isInside(gx, gy)) {
+			return false;
+		}
+		startX = sx;
+		startY = sy;
+		goalX = gx;
+		goalY = gy;
+		int start = sy * width + sx;
+		int goal = gy * width + gx;
+		goalCell = goal;
+		if (++generation == Integer.MAX_VALUE) {
+			Arrays.fill(visited, 0);
+			Arrays.fill(closed, 0);
+			generation = 1;
+		}
+		heapSize = 0;
+		costSoFar[start] = 0;
+		parent[start] = -1;
+		visited[start] = generation;
+		push(start, heuristic(sx, sy));
+		while (heapSize > 0 && expandedCells < maxExpansions) {
+			int cell = pop();
+			if (closed[cell] == generation) {
+				continue;
+			}
+			closed[cell] = generation;
+			expandedCells++;
+			if (cell == goal) {
+				buildPath(goal);
+				return true;
+			}
+			int cx = cell % width;
+			int cy = cell / width;
+			for (int dir = 0; dir < 8; dir++) {
+				int nx = cx + DX[dir];
+				int ny = cy + DY[dir];
+				if (!isInside(nx, ny)) {
+					continue;
+				}
+				int next = ny * width + nx;
+				if (closed[next] == generation) {
+					continue;
+				}
+				int cost = costMap.getCost(nx, ny);
+				if (cost == CostMap.LETHAL) {
+					if (!isEscapable(nx, ny)) {
+						continue;
+					}
+					cost = CostMap.MAX_INFLATED;
+				}
+				float step = ((dir & 1) == 0 ? 1f : SQRT2) * (1 + cost * COST_WEIGHT);
+				float newCost = costSoFar[cell] + step;
+				if (visited[next] != generation || newCost < costSoFar[next]) {
+					visited[next] = generation;
+					costSoFar[next] = newCost;
+					parent[next] = cell;
+					push(next, newCost + heuristic(nx, ny));
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lethal cells can be crossed within the robot radius of the start and the
+	 * goal.
+	 */
+	private boolean isEscapable(int x, int y) {
+		int radius = costMap.getLethalRadius();
+		return Math.max(Math.abs(x - startX), Math.abs(y - startY)) <= radius
+				|| Math.max(Math.abs(x - goalX), Math.abs(y - goalY)) <= radius;
+	}
+
+	private float heuristic(int x, int y) {
+		// Octile distance
+		int dx = Math.abs(x - goalX);
+		int dy = Math.abs(y - goalY);
+		return Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy);
+	}
+
+	private void buildPath(int goal) {
+		int length = 0;
+		for (int cell = goal; cell != -1; cell = parent[cell]) {
+			length++;
+		}
+		if (path.length < length) {
+			path = new int[Math.max(length, path.length * 2)];
+		}
+		pathLength = length;
+		for (int cell = goal; cell != -1; cell = parent[cell]) {
+			path[--length] = cell;
+		}
+	}
+
+	private boolean isPathClear() {
+		for (int i = 0; i < pathLength; i++) {
+			int cell = path[i];
+			int x = cell % width;
+			int y = cell / width;
+			if (costMap.isLethal(x, y) && !isEscapable(x, y)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the path cell closest to the position, or -1 if no
+	 *         cell is close enough.
+	 */
+	private int findNearest(int x, int y) {
+		int best = -1;
+		int bestDistance = REUSE_DISTANCE + 1;
+		for (int i = 0; i < pathLength; i++) {
+			int distance = Math.max(Math.abs(path[i] % width - x), Math.abs(path[i] / width - y));
+			if (distance < bestDistance) {
+				best = i;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the point to steer for: the farthest point on the path, within the
+	 * lookahead distance of the position, that can be reached in a straight
+	 * line without crossing a lethal cell.
+	 *
+	 * @param target
+	 *            receives the x and y coordinates of the point, in meters.
+	 * @return false if there is no path.
+	 */
+	public boolean getLookahead(float x, float y, float lookahead, float[] target) {
+		if (pathLength == 0) {
+			return false;
+		}
+		int fromX = costMap.toCellX(x);
+		int fromY = costMap.toCellY(y);
+		int best = 0;
+		float maxCells = lookahead / costMap.getCellSize();
+		for (int i = 1; i < pathLength; i++) {
+			int px = path[i] % width;
+			int py = path[i] / width;
+			float dx = px - fromX;
+			float dy = py - fromY;
+			if (dx * dx + dy * dy > maxCells * maxCells) {
+				break;
+			}
+			if (isLineClear(fromX, fromY, px, py)) {
+				best = i;
+			}
+		}
+		target[0] = costMap.toX(path[best] % width);
+		target[1] = costMap.toY(path[best] / width);
+		return true;
+	}
+
+	private boolean isLineClear(int x, int y, int endX, int endY) {
+		// Bresenham
+		int dx = Math.abs(endX - x);
+		int dy = -Math.abs(endY - y);
+		int stepX = x < endX ? 1 : -1;
+		int stepY = y < endY ? 1 : -1;
+		int error = dx + dy;
+		while (x != endX || y != endY) {
+			if (costMap.isLethal(x, y) && !isEscapable(x, y)) {
+				return false;
+			}
+			int error2 = 2 * error;
+			if (error2 >= dy) {
+				error += dy;
+				x += stepX;
+			}
+			if (error2 <= dx) {
+				error += dx;
+				y += stepY;
+			}
+		}
+		return !costMap.isLethal(endX, endY) || isEscapable(endX, endY);
+	}
+
+	private boolean isInside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	private void push(int cell, float key) {
+		if (heapSize == heapCells.length) {
+			heapCells = Arrays.copyOf(heapCells, heapSize * 2);
+			heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (heapKeys[up] <= key) {
+				break;
+			}
+			heapCells[i] = heapCells[up];
+			heapKeys[i] = heapKeys[up];
+			i = up;
+		}
+		heapCells[i] = cell;
+		heapKeys[i] = key;
+	}
+
+	private int pop() {
+		int top = heapCells[0];
+		int cell = heapCells[--heapSize];
+		float key = heapKeys[heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+				child++;
+			}
+			if (key <= heapKeys[child]) {
+				break;
+			}
+			heapCells[i] = heapCells[child];
+			heapKeys[i] = heapKeys[child];
+			i = child;
+		}
+		heapCells[i] = cell;
+		heapKeys[i] = key;
+		return top;
+	}
+
+	/**
+	 * Caps the number of cells expanded per search, bounding the time spent on
+	 * unreachable goals. Defaults to all the cells of the map.
+	 */
+	public void setMaxExpansions(int maxExpansions) {
+		this.maxExpansions = maxExpansions;
+	}
+
+	/**
+	 * Forgets the current path, forcing the next replan to search.
+	 */
+	public void clearPath() {
+		pathLength = 0;
+		goalCell = -1;
+	}
+
+	/**
+	 * @return the number of cells in the current path, 0 if there is none.
+	 */
+	public int getPathLength() {
+		return pathLength;
+	}
+
+	/**
+	 * @return the x coordinate of the center of a cell in the path, in meters.
+	 */
+	public float getPathX(int index) {
+		return costMap.toX(path[index] % width);
+	}
+
+	/**
+	 * @return the y coordinate of the center of a cell in the path, in meters.
+	 */
+	public float getPathY(int index) {
+		return costMap.toY(path[index] / width);
+	}
+
+	/**
+	 * @return the number of cells expanded by the last (re)plan.
+	 */
+	public int getExpandedCells() {
+		return expandedCells;
+	}
+
+	/**
+	 * @return true if the last replan kept the previous path.
+	 */
+	public boolean isReused() {
+		return isReused;
+	}
+
+	public CostMap getCostMap() {
+		return costMap;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.LocalReferenceAdapter;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.controllers.CachedReference;
+import com.robo4j.coffe.controllers.TankEvent;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.math.geometry.ScanResult2D;
+import com.robo4j.units.rpi.gyro.GyroEvent;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+import com.robo4j.units.rpi.lidarlite.ScanRequest;
+
+/**
+ * Records what a robot sees and does, for replaying with the
+ * {@link ReplayUnit}, or for loading into benchmarks with the
+ * {@link RecordingReader}. The recorder is put in front of a unit, under the
+ * id the other units send to, and passes every message on to the unit:
+ * <ul>
+ * <li>In front of the laser scanner, it records the scans, and how long they
+ * took.</li>
+ * <li>In front of the gyro, it records the gyro events. An event sent to
+ * several listeners is only recorded once.</li>
+ * <li>In front of the tank controller, it records the tank commands.</li>
+ * </ul>
+ * Other messages are passed on without being recorded. All recorders naming
+ * the same file record to the same {@link RecordingWriter}.
+ *
+ * @author Marcus
+ */
+public class RecorderUnit extends RoboUnit<Object> {
+	/**
+	 * The file to record to. Truncated when the first recorder starts.
+	 */
+	public static final String KEY_FILE = "file";
+
+	/**
+	 * The reference id of the unit to pass the messages on to.
+	 */
+	public static final String KEY_TARGET = "target";
+
+	/**
+	 * The clock to time the records with. The first recorder to open the file
+	 * decides. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	private final Map<RoboReference<GyroEvent>, GyroTap> gyroTaps = new ConcurrentHashMap<>();
+	private CachedReference<Object> target;
+	private Clock clock;
+	private RecordingWriter writer;
+	// The last gyro event recorded, so that it is only recorded once
+	private volatile GyroEvent lastGyroEvent;
+
+	private class ScanTap extends LocalReferenceAdapter<ScanResult2D> {
+		private final RoboReference<ScanResult2D> receiver;
+		private final long requestTime;
+
+		public ScanTap(RoboReference<ScanResult2D> receiver, long requestTime) {
+			super(ScanResult2D.class);
+			this.receiver = receiver;
+			this.requestTime = requestTime;
+		}
+
+		@Override
+		public void sendMessage(ScanResult2D message) {
+			writer.writeScan(message, clock.nanoTime() - requestTime);
+			receiver.sendMessage(message);
+		}
+	}
+
+	private class GyroTap extends LocalReferenceAdapter<GyroEvent> {
+		private final RoboReference<GyroEvent> listener;
+
+		public GyroTap(RoboReference<GyroEvent> listener) {
+			super(GyroEvent.class);
+			this.listener = listener;
+		}
+
+		@Override
+		public void sendMessage(GyroEvent message) {
+			if (lastGyroEvent != message) {
+				lastGyroEvent = message;
+				writer.writeGyro(message.getAngles());
+			}
+			listener.sendMessage(message);
+		}
+	}
+
+	public RecorderUnit(RoboContext context, String id) {
+		super(Object.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		String targetId = configuration.getString(KEY_TARGET, null);
+		if (targetId == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_TARGET);
+		}
+		String file = configuration.getString(KEY_FILE, null);
+		if (file == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_FILE);
+		}
+		target = new CachedReference<>(getContext(), targetId);
+		clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+		try {
+			writer = RecordingWriter.open(file, clock);
+		} catch (IOException e) {
+			throw new ConfigurationException("Could not open the recording " + file, e);
+		}
+	}
+
+	@Override
+	public void onMessage(Object message) {
+		if (message instanceof ScanRequest) {
+			ScanRequest request = (ScanRequest) message;
+			message = new ScanRequest(new ScanTap(request.getReceiver(), clock.nanoTime()), request.getStartAngle(),
+					request.getRange(), request.getStep());
+		} else if (message instanceof GyroRequest) {
+			GyroRequest request = (GyroRequest) message;
+			message = new GyroRequest(getGyroTap(request.getTarget()), request.getAction(), request.getNotificationThreshold());
+		} else if (message instanceof TankEvent) {
+			TankEvent event = (TankEvent) message;
+			writer.writeTank(event.getSpeed(), event.getDirection(), event.getRotate());
+		}
+		RoboReference<Object> reference = target.get();
+		if (reference == null) {
+			SimpleLoggingUtil.error(getClass(), "Could not find the reference for " + target.getId());
+			return;
+		}
+		reference.sendMessage(message);
+	}
+
+	@Override
+	public void stop() {
+		writer.flush();
+		target.invalidate();
+		super.stop();
+	}
+
+	@Override
+	public void shutdown() {
+		writer.release();
+		super.shutdown();
+	}
+
+	/**
+	 * The same listener must get the same tap, so that stop requests match.
+	 */
+	private GyroTap getGyroTap(RoboReference<GyroEvent> listener) {
+		GyroTap tap = gyroTaps.get(listener);
+		if (tap == null) {
+			tap = new GyroTap(listener);
+			GyroTap previous = gyroTaps.putIfAbsent(listener, tap);
+			if (previous != null) {
+				tap = previous;
+			}
+		}
+		return tap;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.nio.ByteOrder;
+
+/**
+ * The layout of the recordings made by the {@link RecorderUnit}. All values
+ * are little endian. A recording starts with a header:
+ * 
+ * <pre>
+ * int   magic, COFE
+ * short version
+ * short reserved
+ * long  wall clock time of the start of the recording, in ms since the epoch
+ * </pre>
+ * 
+ * followed by records, each with a header and a payload:
+ * 
+ * <pre>
+ * byte  type
+ * int   length of the payload, in bytes
+ * long  time since the start of the recording, in ns
+ * </pre>
+ * 
+ * The payload depends on the type:
+ * 
+ * <pre>
+ * SCAN: float angular resolution in degrees, long sweep time in ns,
+ *       int point count, then range in meters and angle in radians per point
+ * GYRO: float x, y and z angles, in degrees
+ * TANK: float speed, direction in radians, rotation in radians
+ * </pre>
+ * 
+ * Records of unknown types are skipped, and a record cut short, e.g. by the
+ * robot losing power, ends the recording.
+ *
+ * @author Marcus
+ */
+public final class RecordingFormat {
+	public static final int MAGIC = 0x45464F43;
+	public static final short VERSION = 1;
+	public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_HEADER_SIZE = 13;
+
+	public static final byte TYPE_SCAN = 1;
+	public static final byte TYPE_GYRO = 2;
+	public static final byte TYPE_TANK = 3;
+
+	static final int SCAN_HEADER_SIZE = 16;
+	static final int POINT_SIZE = 8;
+	static final int GYRO_SIZE = 12;
+	static final int TANK_SIZE = 12;
+
+	private RecordingFormat() {
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.math.geometry.Point2f;
+import com.robo4j.math.geometry.ScanResult2D;
+import com.robo4j.math.geometry.Tuple3f;
+import com.robo4j.math.geometry.impl.ScanResultImpl;
+
+/**
+ * Reads a recording made by the {@link RecorderUnit}. The file is memory
+ * mapped, and the values are read straight from the mapping, so stepping
+ * through a recording allocates nothing until asked to build a
+ * {@link ScanResult2D}. Recordings are limited to 2 GB.
+ * <p>
+ * Step through the records with {@link #next()}, and read the values of the
+ * current record with the getters for its type. Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class RecordingReader implements Closeable {
+	private static final Predicate<Point2f> ACCEPT_ALL = new Predicate<Point2f>() {
+		@Override
+		public boolean test(Point2f t) {
+			return true;
+		}
+	};
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long startMillis;
+	// Position of the payload of the current record, or -1 if none
+	private int payload = -1;
+	private int next = RecordingFormat.HEADER_SIZE;
+	private byte type;
+	private long time;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 *            the recording to read.
+	 * @throws IOException
+	 *             if the file could not be read, or is not a recording.
+	 */
+	public RecordingReader(String file) throws IOException {
+		channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The recording " + file + " is larger than 2 GB");
+			}
+			MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, size);
+			buffer = mapped.order(RecordingFormat.ORDER);
+			if (size < RecordingFormat.HEADER_SIZE || buffer.getInt(0) != RecordingFormat.MAGIC) {
+				throw new IOException(file + " is not a recording");
+			}
+			if (buffer.getShort(4) != RecordingFormat.VERSION) {
+				throw new IOException("Unsupported version " + buffer.getShort(4) + " of the recording " + file);
+			}
+			startMillis = buffer.getLong(8);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false if there are no more complete records.
+	 */
+	public boolean next() {
+		while (next + RecordingFormat.RECORD_HEADER_SIZE <= buffer.limit()) {
+			byte recordType = buffer.get(next);
+			int length = buffer.getInt(next + 1);
+			int start = next + RecordingFormat.RECORD_HEADER_SIZE;
+			if (length < 0 || start + length > buffer.limit()) {
+				break;
+			}
+			next = start + length;
+			if (recordType == RecordingFormat.TYPE_SCAN || recordType == RecordingFormat.TYPE_GYRO
+					|| recordType == RecordingFormat.TYPE_TANK) {
+				type = recordType;
+				time = buffer.getLong(start - 8);
+				payload = start;
+				return true;
+			}
+		}
+		payload = -1;
+		return false;
+	}
+
+	/**
+	 * Moves back to before the first record.
+	 */
+	public void rewind() {
+		next = RecordingFormat.HEADER_SIZE;
+		payload = -1;
+	}
+
+	/**
+	 * @return the type of the current record, one of the
+	 *         {@link RecordingFormat} TYPE constants.
+	 */
+	public byte getType() {
+		return type;
+	}
+
+	/**
+	 * @return the time of the current record, in ns since the start of the
+	 *         recording.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the wall clock time of the start of the recording, in ms since
+	 *         the epoch.
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @return the angular resolution of the current scan, in degrees.
+	 */
+	public float getAngularResolution() {
+		return buffer.getFloat(payload);
+	}
+
+	/**
+	 * @return the time it took to get the current scan, in ns.
+	 */
+	public long getSweepNanos() {
+		return buffer.getLong(payload + 4);
+	}
+
+	/**
+	 * @return the number of points in the current scan.
+	 */
+	public int getScanSize() {
+		return buffer.getInt(payload + 12);
+	}
+
+	/**
+	 * @return the range of a point in the current scan, in meters.
+	 */
+	public float getRange(int index) {
+		return buffer.getFloat(payload + RecordingFormat.SCAN_HEADER_SIZE + index * RecordingFormat.POINT_SIZE);
+	}
+
+	/**
+	 * @return the angle of a point in the current scan, in radians.
+	 */
+	public float getAngle(int index) {
+		return buffer.getFloat(payload + RecordingFormat.SCAN_HEADER_SIZE + index * RecordingFormat.POINT_SIZE + 4);
+	}
+
+	/**
+	 * Copies the current scan into a packed scan.
+	 */
+	public void readScan(PackedScan target) {
+		target.clear(getAngularResolution());
+		int size = getScanSize();
+		for (int i = 0; i < size; i++) {
+			target.add(getRange(i), getAngle(i));
+		}
+	}
+
+	/**
+	 * @return the current scan, as a new scan result.
+	 */
+	public ScanResult2D toScanResult() {
+		int size = getScanSize();
+		ScanResultImpl result = new ScanResultImpl(size, getAngularResolution(), ACCEPT_ALL);
+		for (int i = 0; i < size; i++) {
+			result.addPoint(Point2f.fromPolar(getRange(i), getAngle(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the angles of the current gyro event, in degrees.
+	 */
+	public Tuple3f getGyroAngles() {
+		return new Tuple3f(buffer.getFloat(payload), buffer.getFloat(payload + 4), buffer.getFloat(payload + 8));
+	}
+
+	/**
+	 * @return the speed of the current tank command.
+	 */
+	public float getSpeed() {
+		return buffer.getFloat(payload);
+	}
+
+	/**
+	 * @return the direction of the current tank command, in radians.
+	 */
+	public float getDirection() {
+		return buffer.getFloat(payload + 4);
+	}
+
+	/**
+	 * @return the rotation of the current tank command, in radians.
+	 */
+	public float getRotation() {
+		return buffer.getFloat(payload + 8);
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released when the reader is
+	 * garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.math.geometry.Point2f;
+import com.robo4j.math.geometry.ScanResult2D;
+import com.robo4j.math.geometry.Tuple3f;
+
+/**
+ * Appends records to a recording, in the {@link RecordingFormat}. The records
+ * are collected in a buffer, and written when the buffer is full or the
+ * writer is released, so recording costs little more than a copy.
+ * <p>
+ * All {@link RecorderUnit}s naming the same file share the same writer. The
+ * file is truncated when the writer is first opened. If writing fails, the
+ * error is logged once and the rest of the recording is dropped. Thread safe.
+ *
+ * @author Marcus
+ */
+public final class RecordingWriter {
+	private static final Map<String, RecordingWriter> WRITERS = new HashMap<>();
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String file;
+	private final FileChannel channel;
+	private final Clock clock;
+	private final long startNanos;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(RecordingFormat.ORDER);
+	private int users;
+	private boolean hasFailed;
+	private long recordCount;
+	private long bytesWritten;
+
+	private RecordingWriter(String file, Clock clock) throws IOException {
+		this.file = file;
+		this.clock = clock;
+		this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.startNanos = clock.nanoTime();
+		buffer.putInt(RecordingFormat.MAGIC);
+		buffer.putShort(RecordingFormat.VERSION);
+		buffer.putShort((short) 0);
+		buffer.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Opens the writer for a file, creating it the first time. Release it
+	 * with {@link #release()} when done.
+	 *
+	 * @param file
+	 *            the file to record to.
+	 * @param clock
+	 *            the clock to time the records with, if created.
+	 * @throws IOException
+	 *             if the file could not be created.
+	 */
+	public static synchronized RecordingWriter open(String file, Clock clock) throws IOException {
+		RecordingWriter writer = WRITERS.get(file);
+		if (writer == null) {
+			writer = new RecordingWriter(file, clock);
+			WRITERS.put(file, writer);
+		}
+		writer.users++;
+		return writer;
+	}
+
+	/**
+	 * Releases the writer. The last user to release it flushes and closes the
+	 * file.
+	 */
+	public void release() {
+		synchronized (RecordingWriter.class) {
+			if (--users > 0) {
+				return;
+			}
+			WRITERS.remove(file);
+		}
+		synchronized (this) {
+			flush();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				SimpleLoggingUtil.error(getClass(), "Failed to close the recording " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Records a scan.
+	 *
+	 * @param scan
+	 *            the scan.
+	 * @param sweepNanos
+	 *            the time from requesting the scan to getting it, in ns.
+	 */
+	public synchronized void writeScan(ScanResult2D scan, long sweepNanos) {
+		List<Point2f> points = scan.getPoints();
+		int size = points.size();
+		if (!begin(RecordingFormat.TYPE_SCAN, RecordingFormat.SCAN_HEADER_SIZE + size * RecordingFormat.POINT_SIZE)) {
+			return;
+		}
+		buffer.putFloat(scan.getAngularResolution());
+		buffer.putLong(sweepNanos);
+		buffer.putInt(size);
+		for (int i = 0; i < size; i++) {
+			Point2f p = points.get(i);
+			buffer.putFloat(p.getRange());
+			buffer.putFloat(p.getAngle());
+		}
+	}
+
+	/**
+	 * Records the angles of a gyro event.
+	 */
+	public synchronized void writeGyro(Tuple3f angles) {
+		if (begin(RecordingFormat.TYPE_GYRO, RecordingFormat.GYRO_SIZE)) {
+			buffer.putFloat(angles.x);
+			buffer.putFloat(angles.y);
+			buffer.putFloat(angles.z);
+		}
+	}
+
+	/**
+	 * Records a tank command.
+	 */
+	public synchronized void writeTank(float speed, float direction, float rotation) {
+		if (begin(RecordingFormat.TYPE_TANK, RecordingFormat.TANK_SIZE)) {
+			buffer.putFloat(speed);
+			buffer.putFloat(direction);
+			buffer.putFloat(rotation);
+		}
+	}
+
+	/**
+	 * Writes the buffered records to the file.
+	 */
+	public synchronized void flush() {
+		if (hasFailed) {
+			buffer.clear();
+			return;
+		}
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				bytesWritten += channel.write(buffer);
+			}
+		} catch (IOException e) {
+			hasFailed = true;
+			SimpleLoggingUtil.error(getClass(), "Failed to write the recording " + file + " - dropping the rest", e);
+		}
+		buffer.clear();
+	}
+
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the number of bytes written to the file so far, not counting
+	 *         what is still buffered.
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Makes room for a record, and writes its header.
+	 *
+	 * @return false if the recording has failed.
+	 */
+	private boolean begin(byte type, int length) {
+		if (hasFailed) {
+			return false;
+		}
+		int needed = RecordingFormat.RECORD_HEADER_SIZE + length;
+		if (buffer.remaining() < needed) {
+			flush();
+			if (hasFailed) {
+				return false;
+			}
+			if (buffer.capacity() < needed) {
+				buffer = ByteBuffer.allocate(needed).order(RecordingFormat.ORDER);
+			}
+		}
+		buffer.put(type);
+		buffer.putInt(length);
+		buffer.putLong(clock.nanoTime() - startNanos);
+		recordCount++;
+		return true;
+	}
+}
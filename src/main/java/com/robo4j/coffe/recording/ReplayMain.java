@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.IOException;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.LocalReferenceAdapter;
+import com.robo4j.RoboBuilder;
+import com.robo4j.RoboBuilderException;
+import com.robo4j.RoboContext;
+import com.robo4j.coffe.Main;
+import com.robo4j.coffe.controllers.MissionControllerEvent;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.gyro.GyroEvent;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+import com.robo4j.units.rpi.gyro.GyroRequest.GyroAction;
+import com.robo4j.util.SystemUtil;
+
+/**
+ * Runs Coff-E against a recording, with the units in units-replay.xml.
+ * Starts the mission like {@link Main} does.
+ *
+ * @author Marcus
+ */
+public class ReplayMain {
+	public static void main(String[] args) throws RoboBuilderException, IOException, ConfigurationException, InterruptedException {
+		SimpleLoggingUtil.print(ReplayMain.class, "Starting Coff-E on a recording.\nLoading system...");
+		RoboBuilder builder = new RoboBuilder(ReplayMain.class.getClassLoader().getResourceAsStream("system.xml"));
+		builder.add(ReplayMain.class.getClassLoader().getResourceAsStream("units-replay.xml"));
+		final RoboContext ctx = builder.build();
+		ctx.start();
+		System.out.println(SystemUtil.printStateReport(ctx));
+
+		ctx.getReference("gyro").sendMessage(new GyroRequest(new LocalReferenceAdapter<GyroEvent>(GyroEvent.class) {
+			@Override
+			public void sendMessage(GyroEvent event) {
+				ctx.getReference("missioncontroller").sendMessage(MissionControllerEvent.START);
+			}
+		}, GyroAction.CALIBRATE, null));
+
+		System.out.println("Press enter to quit!");
+		System.in.read();
+		ctx.shutdown();
+	}
+}
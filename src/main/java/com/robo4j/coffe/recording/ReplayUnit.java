@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.IOException;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+import com.robo4j.units.rpi.lidarlite.ScanRequest;
+
+/**
+ * Stands in for the laser scanner and the gyro, answering with what was
+ * recorded by the {@link RecorderUnit}, so that the scan processor and the
+ * mission controller can be run against what a robot saw in the field. Use
+ * one replay unit for each of the units it replaces; all replay units naming
+ * the same file share the same replay. Replay with the same scan settings as
+ * were recorded, since each scan request is answered with the next recorded
+ * scan whatever it asks for.
+ *
+ * @author Marcus
+ */
+public class ReplayUnit extends RoboUnit<Object> {
+	/**
+	 * The recording to replay.
+	 */
+	public static final String KEY_FILE = "file";
+
+	/**
+	 * How much faster than recorded to replay, or 0 to replay as fast as the
+	 * scans are asked for. The first replay unit to open the file decides.
+	 * Defaults to 1.
+	 */
+	public static final String KEY_SPEED = "speed";
+
+	private Replayer replayer;
+
+	public ReplayUnit(RoboContext context, String id) {
+		super(Object.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		String file = configuration.getString(KEY_FILE, null);
+		if (file == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_FILE);
+		}
+		float speed = configuration.getFloat(KEY_SPEED, 1f);
+		try {
+			replayer = Replayer.get(file, speed);
+		} catch (IOException e) {
+			throw new ConfigurationException("Could not open the recording " + file, e);
+		}
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		replayer.start();
+	}
+
+	@Override
+	public void stop() {
+		replayer.stop();
+		super.stop();
+	}
+
+	@Override
+	public void onMessage(Object message) {
+		if (message instanceof ScanRequest) {
+			replayer.requestScan((ScanRequest) message);
+		} else if (message instanceof GyroRequest) {
+			replayer.requestGyro((GyroRequest) message);
+		} else {
+			SimpleLoggingUtil.debug(getClass(), "Nothing to replay for " + message);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.recording;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.robo4j.RoboReference;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.math.geometry.Tuple3f;
+import com.robo4j.units.rpi.gyro.GyroEvent;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+import com.robo4j.units.rpi.lidarlite.ScanRequest;
+
+/**
+ * Plays a recording back to the units asking for scans and gyro events,
+ * shared by all {@link ReplayUnit}s naming the same file. The records are
+ * played in order from a thread of its own. Gyro events go to the registered
+ * listeners as they come up, and each scan waits for the next scan request.
+ * <p>
+ * At a speed above zero, the records are played at their recorded times,
+ * scaled by the speed, and a scan is not delivered sooner after its request
+ * than it took to record. Time spent waiting for a late request pushes the
+ * rest of the recording back. At speed zero, everything is played as fast as
+ * the scans are asked for.
+ *
+ * @author Marcus
+ */
+final class Replayer {
+	private static final Map<String, Replayer> REPLAYERS = new HashMap<>();
+	private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final class PendingScan {
+		private final ScanRequest request;
+		private final long arrivalTime;
+
+		PendingScan(ScanRequest request, long arrivalTime) {
+			this.request = request;
+			this.arrivalTime = arrivalTime;
+		}
+	}
+
+	private final String file;
+	private final RecordingReader reader;
+	private final float speed;
+	private final BlockingQueue<PendingScan> scanRequests = new LinkedBlockingQueue<>();
+	private final Map<RoboReference<GyroEvent>, Boolean> gyroListeners = new ConcurrentHashMap<>();
+	private volatile Tuple3f lastAngles = new Tuple3f(0, 0, 0);
+	private volatile Thread driver;
+	private int users;
+	// Set when all of the recording has been played
+	private volatile boolean isDone;
+
+	// Only touched by the driver
+	private int scans;
+	private int gyroEvents;
+	private int tankCommands;
+
+	private Replayer(String file, float speed) throws IOException {
+		this.file = file;
+		this.reader = new RecordingReader(file);
+		this.speed = speed;
+	}
+
+	/**
+	 * Returns the replayer for a file, opening the file the first time.
+	 *
+	 * @param speed
+	 *            the speed to replay at, if opened. 1 is the original speed,
+	 *            and 0 as fast as the scans are asked for.
+	 */
+	static synchronized Replayer get(String file, float speed) throws IOException {
+		Replayer replayer = REPLAYERS.get(file);
+		if (replayer == null) {
+			replayer = new Replayer(file, speed);
+			REPLAYERS.put(file, replayer);
+		}
+		return replayer;
+	}
+
+	/**
+	 * Starts the replay, if not already started.
+	 */
+	synchronized void start() {
+		if (users++ > 0 || isDone) {
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				replay();
+			}
+		}, "Replay " + file);
+		thread.setDaemon(true);
+		driver = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the replay, when stopped as many times as started.
+	 */
+	synchronized void stop() {
+		if (--users > 0) {
+			return;
+		}
+		Thread thread = driver;
+		driver = null;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	void requestScan(ScanRequest request) {
+		scanRequests.add(new PendingScan(request, System.nanoTime()));
+	}
+
+	void requestGyro(GyroRequest request) {
+		RoboReference<GyroEvent> target = request.getTarget();
+		switch (request.getAction()) {
+		case CALIBRATE:
+			// The recorded angles are relative to the calibration of the robot
+			target.sendMessage(new GyroEvent(new Tuple3f(0, 0, 0)));
+			break;
+		case CONTINUOUS:
+			gyroListeners.put(target, Boolean.TRUE);
+			break;
+		case ONCE:
+			target.sendMessage(new GyroEvent(lastAngles));
+			break;
+		case STOP:
+			gyroListeners.remove(target);
+			break;
+		}
+	}
+
+	private void replay() {
+		long realBase = System.nanoTime();
+		long recordedBase = -1;
+		while (isRunning() && reader.next()) {
+			long due = realBase;
+			if (speed > 0) {
+				if (recordedBase < 0) {
+					recordedBase = reader.getTime();
+				}
+				due += (long) ((reader.getTime() - recordedBase) / speed);
+				if (!waitUntil(due)) {
+					break;
+				}
+			}
+			switch (reader.getType()) {
+			case RecordingFormat.TYPE_GYRO:
+				Tuple3f angles = reader.getGyroAngles();
+				lastAngles = angles;
+				GyroEvent event = new GyroEvent(angles);
+				for (RoboReference<GyroEvent> listener : gyroListeners.keySet()) {
+					listener.sendMessage(event);
+				}
+				gyroEvents++;
+				break;
+			case RecordingFormat.TYPE_SCAN:
+				PendingScan pending = takeScanRequest();
+				if (pending == null) {
+					break;
+				}
+				if (speed > 0) {
+					long deliveryTime = Math.max(due, pending.arrivalTime + (long) (reader.getSweepNanos() / speed));
+					if (!waitUntil(deliveryTime)) {
+						break;
+					}
+					realBase += deliveryTime - due;
+				}
+				pending.request.getReceiver().sendMessage(reader.toScanResult());
+				scans++;
+				break;
+			case RecordingFormat.TYPE_TANK:
+				// The units under replay make their own decisions
+				tankCommands++;
+				break;
+			}
+		}
+		if (isRunning()) {
+			isDone = true;
+			SimpleLoggingUtil.print(getClass(), String.format("Replay of %s done: %d scans, %d gyro events, %d tank commands skipped", file,
+					scans, gyroEvents, tankCommands));
+		}
+	}
+
+	private boolean isRunning() {
+		return driver == Thread.currentThread();
+	}
+
+	/**
+	 * @return false if stopped while waiting.
+	 */
+	private boolean waitUntil(long time) {
+		for (long left = time - System.nanoTime(); left > 0; left = time - System.nanoTime()) {
+			if (!isRunning()) {
+				return false;
+			}
+			LockSupport.parkNanos(Math.min(left, POLL_NANOS));
+		}
+		return isRunning();
+	}
+
+	/**
+	 * @return the next scan request, or null if stopped while waiting.
+	 */
+	private PendingScan takeScanRequest() {
+		while (isRunning()) {
+			try {
+				PendingScan pending = scanRequests.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+				if (pending != null) {
+					return pending;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.RoboUnit;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.lcd.AdafruitButtonEnum;
+import com.robo4j.units.rpi.lcd.AdafruitButtonUnit;
+
+/**
+ * Stands in for the {@link AdafruitButtonUnit}. Buttons are pressed by
+ * sending the name of the button to this unit, or by a script of presses
+ * configured with {@link #KEY_PRESSES}. Each press is passed on to the target,
+ * like the real buttons do.
+ *
+ * @author Marcus
+ */
+public class SimulatedButtonUnit extends RoboUnit<String> {
+	/**
+	 * The reference id of the unit to send the button presses to.
+	 */
+	public static final String KEY_TARGET = "target";
+
+	/**
+	 * Presses to make after start, as button@ms pairs separated by
+	 * semicolons, e.g. SELECT@1000;RIGHT@5000. Optional.
+	 */
+	public static final String KEY_PRESSES = "presses";
+
+	/**
+	 * The world resource, for timing the presses on the clock of the world.
+	 * Defaults to world-sim.txt.
+	 */
+	public static final String KEY_WORLD = SimulatedTankUnit.KEY_WORLD;
+
+	/**
+	 * The clock to run the world on, if loaded. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = SimulatedTankUnit.KEY_CLOCK;
+
+	private String target;
+	private String[] presses;
+	private SimulatedWorld world;
+
+	public SimulatedButtonUnit(RoboContext context, String id) {
+		super(String.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		target = configuration.getString(KEY_TARGET, null);
+		if (target == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_TARGET);
+		}
+		String script = configuration.getString(KEY_PRESSES, "").trim();
+		presses = script.isEmpty() ? new String[0] : script.split(";");
+		world = SimulatedTankUnit.getWorld(configuration);
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		for (String press : presses) {
+			final String[] buttonAndTime = press.split("@");
+			long delay = Long.parseLong(buttonAndTime[1].trim());
+			world.getClock().schedule(getContext(), new Runnable() {
+				@Override
+				public void run() {
+					onMessage(buttonAndTime[0].trim());
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void onMessage(String message) {
+		RoboReference<AdafruitButtonEnum> reference = getContext().getReference(target);
+		if (reference == null) {
+			SimpleLoggingUtil.error(getClass(), "Could not find the reference for " + target);
+			return;
+		}
+		try {
+			reference.sendMessage(AdafruitButtonEnum.valueOf(message.toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			SimpleLoggingUtil.error(getClass(), "No such button " + message);
+		}
+	}
+}
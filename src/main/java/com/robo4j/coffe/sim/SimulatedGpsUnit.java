@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.navigation.GpsFix;
+import com.robo4j.coffe.navigation.GpsRequest;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.Ticker;
+import com.robo4j.configuration.Configuration;
+
+/**
+ * A GPS for running the GPS mode without a GPS. Reports a noisy fix of a
+ * position, in meters east and north of a configured origin, to all
+ * registered targets at a fixed rate. If a world is configured, the position
+ * is that of the robot in the {@link SimulatedWorld}, else it stays at the
+ * origin unless something moves it with {@link #setPosition(float, float)}.
+ *
+ * @author Marcus
+ */
+public class SimulatedGpsUnit extends RoboUnit<GpsRequest> {
+	private static final double EARTH_RADIUS = 6371000;
+
+	/**
+	 * The latitude of the origin, in degrees.
+	 */
+	public static final String KEY_LATITUDE = "latitude";
+
+	/**
+	 * The longitude of the origin, in degrees.
+	 */
+	public static final String KEY_LONGITUDE = "longitude";
+
+	/**
+	 * The time between fixes, in ms. Defaults to 1000.
+	 */
+	public static final String KEY_PERIOD = "period";
+
+	/**
+	 * The standard deviation of the position noise, in meters. Defaults to
+	 * 1.5.
+	 */
+	public static final String KEY_NOISE = "noise";
+
+	/**
+	 * The world resource to follow the robot in. Optional.
+	 */
+	public static final String KEY_WORLD = SimulatedTankUnit.KEY_WORLD;
+
+	/**
+	 * The clock to report on. If a world is configured, the clock of the
+	 * world is used. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = SimulatedTankUnit.KEY_CLOCK;
+
+	private final List<RoboReference<GpsFix>> targets = new CopyOnWriteArrayList<>();
+	private final Random random = new Random();
+	private double originLatitude;
+	private double originLongitude;
+	private int period;
+	private float noise;
+	private SimulatedWorld world;
+	private Clock clock;
+	private volatile float x;
+	private volatile float y;
+	private Ticker reporter;
+
+	public SimulatedGpsUnit(RoboContext context, String id) {
+		super(GpsRequest.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		Double latitude = configuration.getDouble(KEY_LATITUDE, null);
+		if (latitude == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_LATITUDE);
+		}
+		Double longitude = configuration.getDouble(KEY_LONGITUDE, null);
+		if (longitude == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_LONGITUDE);
+		}
+		originLatitude = latitude;
+		originLongitude = longitude;
+		period = configuration.getInteger(KEY_PERIOD, 1000);
+		noise = configuration.getFloat(KEY_NOISE, 1.5f);
+		if (configuration.getString(KEY_WORLD, null) != null) {
+			world = SimulatedTankUnit.getWorld(configuration);
+			clock = world.getClock();
+		} else {
+			clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+		}
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		reporter = new Ticker(clock, getContext(), new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, TimeUnit.MILLISECONDS.toNanos(period));
+		reporter.start();
+	}
+
+	@Override
+	public void stop() {
+		if (reporter != null) {
+			reporter.stop();
+			reporter = null;
+		}
+		super.stop();
+	}
+
+	@Override
+	public void onMessage(GpsRequest message) {
+		switch (message.getOperation()) {
+		case REGISTER:
+			targets.add(message.getTarget());
+			break;
+		case UNREGISTER:
+			targets.remove(message.getTarget());
+			break;
+		}
+	}
+
+	/**
+	 * Moves the simulated position.
+	 *
+	 * @param x
+	 *            meters east of the origin.
+	 * @param y
+	 *            meters north of the origin.
+	 */
+	public void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	private void report() {
+		if (targets.isEmpty()) {
+			return;
+		}
+		if (world != null) {
+			setPosition(world.getX(), world.getY());
+		}
+		double east = x + random.nextGaussian() * noise;
+		double north = y + random.nextGaussian() * noise;
+		double latitude = originLatitude + Math.toDegrees(north / EARTH_RADIUS);
+		double longitude = originLongitude
+				+ Math.toDegrees(east / (EARTH_RADIUS * Math.cos(Math.toRadians(originLatitude))));
+		GpsFix fix = new GpsFix(latitude, longitude, noise);
+		for (RoboReference<GpsFix> target : targets) {
+			target.sendMessage(fix);
+		}
+	}
+}
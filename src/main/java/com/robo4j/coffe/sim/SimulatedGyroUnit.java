@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.time.Ticker;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.math.geometry.Tuple3f;
+import com.robo4j.units.rpi.gyro.GyroEvent;
+import com.robo4j.units.rpi.gyro.GyroL3GD20Unit;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+
+/**
+ * Stands in for the {@link GyroL3GD20Unit}, measuring the heading of the robot
+ * in a {@link SimulatedWorld}. Only the z axis moves, in degrees, positive to
+ * the right. The angle starts over from zero when calibrating, and whenever a
+ * continuous listener registers. Listeners are notified when the angle has
+ * changed more than their z threshold since they were last notified.
+ *
+ * @author Marcus
+ */
+public class SimulatedGyroUnit extends RoboUnit<GyroRequest> {
+	/**
+	 * The world resource. Defaults to world-sim.txt.
+	 */
+	public static final String KEY_WORLD = SimulatedTankUnit.KEY_WORLD;
+
+	/**
+	 * The clock to run the world on, if loaded. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = SimulatedTankUnit.KEY_CLOCK;
+
+	/**
+	 * The time between samples, in ms. Defaults to 10.
+	 */
+	public static final String KEY_PERIOD = "period";
+
+	/**
+	 * The standard deviation of the drift, in degrees per second. Defaults to
+	 * 0.05.
+	 */
+	public static final String KEY_DRIFT = "drift";
+
+	private static final long CALIBRATION_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private static final class Listener {
+		private final float threshold;
+		private float notifiedAngle;
+
+		Listener(float threshold, float notifiedAngle) {
+			this.threshold = threshold;
+			this.notifiedAngle = notifiedAngle;
+		}
+	}
+
+	private final Map<RoboReference<GyroEvent>, Listener> listeners = new ConcurrentHashMap<>();
+	private final Random random = new Random();
+	private SimulatedWorld world;
+	private int period;
+	private float drift;
+	private Ticker sampler;
+	// Only touched while synchronized on this
+	private float referenceHeading;
+	private float driftAngle;
+
+	public SimulatedGyroUnit(RoboContext context, String id) {
+		super(GyroRequest.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		world = SimulatedTankUnit.getWorld(configuration);
+		period = configuration.getInteger(KEY_PERIOD, 10);
+		drift = configuration.getFloat(KEY_DRIFT, 0.05f);
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		sampler = new Ticker(world.getClock(), getContext(), new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, TimeUnit.MILLISECONDS.toNanos(period));
+		sampler.start();
+	}
+
+	@Override
+	public void stop() {
+		if (sampler != null) {
+			sampler.stop();
+			sampler = null;
+		}
+		super.stop();
+	}
+
+	@Override
+	public void onMessage(GyroRequest message) {
+		final RoboReference<GyroEvent> target = message.getTarget();
+		switch (message.getAction()) {
+		case CALIBRATE:
+			zero();
+			world.getClock().schedule(getContext(), new Runnable() {
+				@Override
+				public void run() {
+					target.sendMessage(new GyroEvent(new Tuple3f(0, 0, 0)));
+				}
+			}, CALIBRATION_TIME, TimeUnit.NANOSECONDS);
+			break;
+		case CONTINUOUS:
+			zero();
+			listeners.put(target, new Listener(message.getNotificationThreshold().z, 0));
+			break;
+		case ONCE:
+			target.sendMessage(new GyroEvent(new Tuple3f(0, 0, getAngle())));
+			break;
+		case STOP:
+			listeners.remove(target);
+			break;
+		}
+	}
+
+	private synchronized void zero() {
+		referenceHeading = world.getHeading();
+		driftAngle = 0;
+	}
+
+	private synchronized float getAngle() {
+		return (float) Math.toDegrees(world.getHeading() - referenceHeading) + driftAngle;
+	}
+
+	private void sample() {
+		float angle;
+		synchronized (this) {
+			driftAngle += random.nextGaussian() * drift * period / 1000f;
+			angle = getAngle();
+		}
+		for (Map.Entry<RoboReference<GyroEvent>, Listener> entry : listeners.entrySet()) {
+			Listener listener = entry.getValue();
+			if (listener.threshold != GyroRequest.DO_NOT_CARE && Math.abs(angle - listener.notifiedAngle) >= listener.threshold) {
+				listener.notifiedAngle = angle;
+				entry.getKey().sendMessage(new GyroEvent(new Tuple3f(0, 0, angle)));
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.math.geometry.Point2f;
+import com.robo4j.math.geometry.impl.ScanResultImpl;
+import com.robo4j.units.rpi.lidarlite.LaserScanner;
+import com.robo4j.units.rpi.lidarlite.ScanRequest;
+
+/**
+ * Stands in for the {@link LaserScanner}, measuring the walls of a
+ * {@link SimulatedWorld}. The result is delivered when a real sweep would have
+ * been done: after moving the servo to the start angle, and then either
+ * sweeping at the angular speed, or waiting for the acquisition of every
+ * point, whichever takes longer. The ranges are measured at the pose the robot
+ * has when the sweep is requested.
+ *
+ * @author Marcus
+ */
+public class SimulatedLaserScanner extends RoboUnit<ScanRequest> {
+	/**
+	 * The world resource. Defaults to world-sim.txt.
+	 */
+	public static final String KEY_WORLD = SimulatedTankUnit.KEY_WORLD;
+
+	/**
+	 * The clock to run the world on, if loaded. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = SimulatedTankUnit.KEY_CLOCK;
+
+	/**
+	 * The angular speed of the servo, in degrees per second. Defaults to 100.
+	 */
+	public static final String KEY_ANGULAR_SPEED = "angularSpeed";
+
+	/**
+	 * The time, in ms, it takes to acquire a range. Defaults to 2.5.
+	 */
+	public static final String KEY_MIN_AQUISITION_TIME = "minAquisitionTime";
+
+	/**
+	 * The max range, in meters. Defaults to 40.
+	 */
+	public static final String KEY_MAX_RANGE = "maxRange";
+
+	/**
+	 * The standard deviation of the range noise, in meters. Defaults to 0.02.
+	 */
+	public static final String KEY_NOISE = "noise";
+
+	private static final Predicate<Point2f> ACCEPT_ALL = new Predicate<Point2f>() {
+		@Override
+		public boolean test(Point2f t) {
+			return true;
+		}
+	};
+
+	private final Random random = new Random();
+	private SimulatedWorld world;
+	private float angularSpeed;
+	private float aquisitionTime;
+	private float maxRange;
+	private float noise;
+	// Where the sweeps leave the servo, in degrees
+	private float servoAngle;
+
+	public SimulatedLaserScanner(RoboContext context, String id) {
+		super(ScanRequest.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		world = SimulatedTankUnit.getWorld(configuration);
+		angularSpeed = configuration.getFloat(KEY_ANGULAR_SPEED, 100f);
+		aquisitionTime = configuration.getFloat(KEY_MIN_AQUISITION_TIME, 2.5f);
+		maxRange = configuration.getFloat(KEY_MAX_RANGE, 40f);
+		noise = configuration.getFloat(KEY_NOISE, 0.02f);
+	}
+
+	@Override
+	public void onMessage(final ScanRequest message) {
+		float startAngle = message.getStartAngle();
+		float range = message.getRange();
+		float step = message.getStep();
+		int points = range <= 0 || step <= 0 ? 1 : Math.round(range / step) + 1;
+		final ScanResultImpl result = new ScanResultImpl(points, step, ACCEPT_ALL);
+		for (int i = 0; i < points; i++) {
+			float angle = (float) Math.toRadians(startAngle + i * step);
+			float distance = world.raycast(angle, maxRange);
+			if (distance < maxRange) {
+				distance = Math.max(0, distance + (float) random.nextGaussian() * noise);
+			}
+			result.addPoint(Point2f.fromPolar(distance, angle));
+		}
+		float seconds;
+		synchronized (this) {
+			seconds = Math.abs(startAngle - servoAngle) / angularSpeed
+					+ Math.max(Math.abs(range) / angularSpeed, points * aquisitionTime / 1000f);
+			servoAngle = startAngle + Math.max(0, range);
+		}
+		world.getClock().schedule(getContext(), new Runnable() {
+			@Override
+			public void run() {
+				message.getReceiver().sendMessage(result);
+			}
+		}, (long) (seconds * 1e9), TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.lcd.AdafruitLcdUnit;
+import com.robo4j.units.rpi.lcd.LcdMessage;
+import com.robo4j.units.rpi.lcd.LcdMessageType;
+
+/**
+ * Stands in for the {@link AdafruitLcdUnit}, logging the texts instead of
+ * showing them.
+ *
+ * @author Marcus
+ */
+public class SimulatedLcdUnit extends RoboUnit<LcdMessage> {
+	/**
+	 * Set to false to not log the texts. Defaults to true.
+	 */
+	public static final String KEY_ECHO = "echo";
+
+	private final AtomicLong messageCount = new AtomicLong();
+	private boolean isEchoing;
+
+	public SimulatedLcdUnit(RoboContext context, String id) {
+		super(LcdMessage.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		isEchoing = configuration.getBoolean(KEY_ECHO, true);
+	}
+
+	@Override
+	public void onMessage(LcdMessage message) {
+		messageCount.incrementAndGet();
+		if (isEchoing && message.getType() == LcdMessageType.SET_TEXT) {
+			SimpleLoggingUtil.print(getClass(), "LCD [" + message.getColor() + "]: " + message.getText().replace('\n', '|'));
+		}
+	}
+
+	/**
+	 * @return the number of messages received.
+	 */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.units.rpi.pwm.PCA9685ServoUnit;
+
+/**
+ * Stands in for a {@link PCA9685ServoUnit}, such as the tilt servo of the
+ * laser scanner. Only remembers the last input.
+ *
+ * @author Marcus
+ */
+public class SimulatedServoUnit extends RoboUnit<Float> {
+	private volatile float input;
+
+	public SimulatedServoUnit(RoboContext context, String id) {
+		super(Float.class, context, id);
+	}
+
+	@Override
+	public void onMessage(Float message) {
+		input = message;
+	}
+
+	/**
+	 * @return the last input, -1 to 1.
+	 */
+	public float getInput() {
+		return input;
+	}
+}
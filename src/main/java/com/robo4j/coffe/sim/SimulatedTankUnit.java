@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.io.IOException;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.units.rpi.roboclaw.MotionEvent;
+import com.robo4j.units.rpi.roboclaw.RoboClawRCTankUnit;
+
+/**
+ * Stands in for the {@link RoboClawRCTankUnit}, driving the robot in a
+ * {@link SimulatedWorld}. The speed and direction are mixed into motor speeds
+ * the same way: direction 0 is straight ahead, and 90 degrees rotates on the
+ * spot to the right.
+ *
+ * @author Marcus
+ */
+public class SimulatedTankUnit extends RoboUnit<MotionEvent> {
+	/**
+	 * The world resource. Defaults to world-sim.txt.
+	 */
+	public static final String KEY_WORLD = "world";
+
+	/**
+	 * The clock to run the world on. The first unit to load a world decides.
+	 * Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	private SimulatedWorld world;
+
+	public SimulatedTankUnit(RoboContext context, String id) {
+		super(MotionEvent.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		world = getWorld(configuration);
+	}
+
+	@Override
+	public void onMessage(MotionEvent message) {
+		float x = message.getSpeed() * (float) Math.sin(message.getDirection());
+		float y = message.getSpeed() * (float) Math.cos(message.getDirection());
+		world.setMotorSpeeds(y + x, y - x);
+	}
+
+	@Override
+	public void stop() {
+		world.setMotorSpeeds(0, 0);
+		super.stop();
+	}
+
+	static SimulatedWorld getWorld(Configuration configuration) throws ConfigurationException {
+		String resource = configuration.getString(KEY_WORLD, "world-sim.txt");
+		try {
+			return SimulatedWorld.get(resource, Clocks.get(configuration.getString(KEY_CLOCK, null)));
+		} catch (IOException e) {
+			throw new ConfigurationException("Could not load the world " + resource, e);
+		}
+	}
+}
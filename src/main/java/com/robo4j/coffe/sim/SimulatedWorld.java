@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.VirtualClock;
+
+/**
+ * A flat world of walls with a differential drive robot in it, shared by the
+ * simulated units. Coordinates are in meters, with x to the east and y to the
+ * north, and headings are in radians, clockwise from north, like the angles
+ * of the scans.
+ * <p>
+ * The world is loaded from a text resource, one definition per line:
+ * 
+ * <pre>
+ * # A comment
+ * wall x1 y1 x2 y2
+ * box minX minY maxX maxY
+ * start x y headingInDegrees
+ * robot radius trackWidth maxVelocity motorLag
+ * </pre>
+ * 
+ * The max velocity is the speed, in m/s, at motor speed 1.0, and the motor lag
+ * is the time constant, in seconds, of the motors.
+ * <p>
+ * Time is kept by a {@link Clock}; with a {@link VirtualClock} the world runs
+ * as fast, and as repeatably, as the clock is advanced. The robot moves
+ * lazily, catching up with the time passed whenever the world is looked at.
+ * It stops at walls, counting the collisions. Thread safe.
+ *
+ * @author Marcus
+ */
+public final class SimulatedWorld {
+	private static final Map<String, SimulatedWorld> WORLDS = new HashMap<>();
+	// Max time step, in seconds, when moving the robot
+	private static final double MAX_STEP = 0.005;
+
+	// Walls as x1, y1, x2, y2
+	private float[] walls = new float[64];
+	private int wallCount;
+
+	private float radius = 0.2f;
+	private float trackWidth = 0.3f;
+	private float maxVelocity = 1.25f;
+	private float motorLag = 0.1f;
+
+	private float x;
+	private float y;
+	private float heading;
+	private float leftCommand;
+	private float rightCommand;
+	private float left;
+	private float right;
+
+	private final Clock clock;
+	private final long startNanos;
+	private long lastNanos;
+	private double time;
+	private double distanceTravelled;
+	private int collisions;
+	private boolean isColliding;
+
+	private SimulatedWorld(Clock clock) {
+		this.clock = clock;
+		this.startNanos = clock.nanoTime();
+		this.lastNanos = startNanos;
+	}
+
+	/**
+	 * Returns the world loaded from the resource, loading it the first time.
+	 * All units naming the same resource share the same world, and the clock
+	 * of the unit loading it.
+	 * 
+	 * @param resource
+	 *            the world resource.
+	 * @param clock
+	 *            the clock to run the world on, if loaded.
+	 * @throws IOException
+	 *             if the world could not be loaded.
+	 */
+	public static synchronized SimulatedWorld get(String resource, Clock clock) throws IOException {
+		SimulatedWorld world = WORLDS.get(resource);
+		if (world == null) {
+			InputStream in = SimulatedWorld.class.getClassLoader().getResourceAsStream(resource);
+			if (in == null) {
+				throw new IOException("Could not find the world " + resource);
+			}
+			try {
+				world = load(in, clock);
+			} finally {
+				in.close();
+			}
+			WORLDS.put(resource, world);
+		}
+		return world;
+	}
+
+	/**
+	 * Loads a world.
+	 */
+	public static SimulatedWorld load(InputStream in, Clock clock) throws IOException {
+		SimulatedWorld world = new SimulatedWorld(clock);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		int lineNumber = 0;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] tokens = line.split("\\s+");
+			try {
+				world.define(tokens);
+			} catch (RuntimeException e) {
+				throw new IOException("Bad world definition on line " + lineNumber + ": " + line, e);
+			}
+		}
+		return world;
+	}
+
+	private void define(String[] tokens) {
+		float[] values = new float[tokens.length - 1];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Float.parseFloat(tokens[i + 1]);
+		}
+		switch (tokens[0]) {
+		case "wall":
+			addWall(values[0], values[1], values[2], values[3]);
+			break;
+		case "box":
+			addWall(values[0], values[1], values[2], values[1]);
+			addWall(values[2], values[1], values[2], values[3]);
+			addWall(values[2], values[3], values[0], values[3]);
+			addWall(values[0], values[3], values[0], values[1]);
+			break;
+		case "start":
+			x = values[0];
+			y = values[1];
+			heading = (float) Math.toRadians(values[2]);
+			break;
+		case "robot":
+			radius = values[0];
+			trackWidth = values[1];
+			maxVelocity = values[2];
+			motorLag = values[3];
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown definition " + tokens[0]);
+		}
+	}
+
+	/**
+	 * Adds a wall.
+	 */
+	public synchronized void addWall(float x1, float y1, float x2, float y2) {
+		if (wallCount * 4 == walls.length) {
+			walls = Arrays.copyOf(walls, walls.length * 2);
+		}
+		int i = wallCount++ * 4;
+		walls[i] = x1;
+		walls[i + 1] = y1;
+		walls[i + 2] = x2;
+		walls[i + 3] = y2;
+	}
+
+	/**
+	 * Sets the motor speeds, -1 to 1, positive forward.
+	 */
+	public synchronized void setMotorSpeeds(float left, float right) {
+		advance();
+		leftCommand = Math.max(-1, Math.min(1, left));
+		rightCommand = Math.max(-1, Math.min(1, right));
+	}
+
+	/**
+	 * Measures the distance to the nearest wall in a direction.
+	 * 
+	 * @param angle
+	 *            the angle, in radians, relative to the heading of the robot.
+	 * @param maxRange
+	 *            the max range, in meters.
+	 * @return the distance, or the max range if there is nothing closer.
+	 */
+	public synchronized float raycast(float angle, float maxRange) {
+		advance();
+		double absolute = heading + angle;
+		float dx = (float) Math.sin(absolute);
+		float dy = (float) Math.cos(absolute);
+		float best = maxRange;
+		for (int i = 0; i < wallCount * 4; i += 4) {
+			float ex = walls[i + 2] - walls[i];
+			float ey = walls[i + 3] - walls[i + 1];
+			float denominator = dx * ey - dy * ex;
+			if (denominator == 0) {
+				continue;
+			}
+			float wx = walls[i] - x;
+			float wy = walls[i + 1] - y;
+			float t = (wx * ey - wy * ex) / denominator;
+			float u = (wx * dy - wy * dx) / denominator;
+			if (t > 0 && t < best && u >= 0 && u <= 1) {
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	private void advance() {
+		long now = clock.nanoTime();
+		double passed = (now - lastNanos) / 1e9;
+		lastNanos = now;
+		time = (now - startNanos) / 1e9;
+		if (leftCommand == 0 && rightCommand == 0 && left == 0 && right == 0) {
+			return;
+		}
+		while (passed > 0) {
+			double step = Math.min(passed, MAX_STEP);
+			passed -= step;
+			step(step);
+		}
+	}
+
+	private void step(double step) {
+		float response = motorLag > 0 ? (float) (1 - Math.exp(-step / motorLag)) : 1;
+		left += (leftCommand - left) * response;
+		right += (rightCommand - right) * response;
+		if (Math.abs(left - leftCommand) < 1e-4f) {
+			left = leftCommand;
+		}
+		if (Math.abs(right - rightCommand) < 1e-4f) {
+			right = rightCommand;
+		}
+		float velocity = (left + right) / 2 * maxVelocity;
+		float angularVelocity = (left - right) * maxVelocity / trackWidth;
+		heading += angularVelocity * step;
+		float newX = x + velocity * (float) (step * Math.sin(heading));
+		float newY = y + velocity * (float) (step * Math.cos(heading));
+		if (isFree(newX, newY)) {
+			distanceTravelled += Math.abs(velocity * step);
+			x = newX;
+			y = newY;
+			isColliding = false;
+		} else if (!isColliding) {
+			isColliding = true;
+			collisions++;
+		}
+	}
+
+	private boolean isFree(float px, float py) {
+		float radiusSquared = radius * radius;
+		for (int i = 0; i < wallCount * 4; i += 4) {
+			float ex = walls[i + 2] - walls[i];
+			float ey = walls[i + 3] - walls[i + 1];
+			float lengthSquared = ex * ex + ey * ey;
+			float u = lengthSquared == 0 ? 0
+					: Math.max(0, Math.min(1, ((px - walls[i]) * ex + (py - walls[i + 1]) * ey) / lengthSquared));
+			float cx = walls[i] + u * ex - px;
+			float cy = walls[i + 1] + u * ey - py;
+			if (cx * cx + cy * cy < radiusSquared) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	public synchronized float getX() {
+		advance();
+		return x;
+	}
+
+	public synchronized float getY() {
+		advance();
+		return y;
+	}
+
+	/**
+	 * @return the heading, in radians, not normalized, so that it can be used
+	 *         like an integrating gyro.
+	 */
+	public synchronized float getHeading() {
+		advance();
+		return heading;
+	}
+
+	/**
+	 * @return the simulated time since the world was loaded, in seconds.
+	 */
+	public synchronized double getTime() {
+		advance();
+		return time;
+	}
+
+	public synchronized double getDistanceTravelled() {
+		advance();
+		return distanceTravelled;
+	}
+
+	public synchronized int getCollisions() {
+		advance();
+		return collisions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		advance();
+		return String.format("SimulatedWorld [time=%.1fs, x=%.2f, y=%.2f, heading=%.1f, travelled=%.1fm, collisions=%d]", time,
+				x, y, Math.toDegrees(heading), distanceTravelled, collisions);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.io.IOException;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.LocalReferenceAdapter;
+import com.robo4j.RoboBuilder;
+import com.robo4j.RoboBuilderException;
+import com.robo4j.RoboContext;
+import com.robo4j.coffe.Main;
+import com.robo4j.coffe.controllers.MissionControllerEvent;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.gyro.GyroEvent;
+import com.robo4j.units.rpi.gyro.GyroRequest;
+import com.robo4j.units.rpi.gyro.GyroRequest.GyroAction;
+import com.robo4j.util.SystemUtil;
+
+/**
+ * Runs Coff-E off the robot, with the hardware units replaced by the
+ * simulated ones in units-sim.xml. Starts the mission like {@link Main} does.
+ *
+ * @author Marcus
+ */
+public class SimulationMain {
+	private static final String WORLD = "world-sim.txt";
+	private static final String CLOCK = "sim";
+
+	/**
+	 * Starts the simulation.
+	 * 
+	 * @param args
+	 *            optionally the number of simulated seconds to run for, as
+	 *            per the virtual clock. If not specified, runs until enter is
+	 *            pressed.
+	 */
+	public static void main(String[] args) throws RoboBuilderException, IOException, ConfigurationException, InterruptedException {
+		SimpleLoggingUtil.print(SimulationMain.class, "Starting simulated Coff-E.\nLoading system...");
+		RoboBuilder builder = new RoboBuilder(SimulationMain.class.getClassLoader().getResourceAsStream("system.xml"));
+		builder.add(SimulationMain.class.getClassLoader().getResourceAsStream("units-sim.xml"));
+		final RoboContext ctx = builder.build();
+		SimulatedWorld world = SimulatedWorld.get(WORLD, Clocks.get(CLOCK));
+		ctx.start();
+		System.out.println(SystemUtil.printStateReport(ctx));
+
+		ctx.getReference("gyro").sendMessage(new GyroRequest(new LocalReferenceAdapter<GyroEvent>(GyroEvent.class) {
+			@Override
+			public void sendMessage(GyroEvent event) {
+				ctx.getReference("missioncontroller").sendMessage(MissionControllerEvent.START);
+			}
+		}, GyroAction.CALIBRATE, null));
+
+		if (args.length > 0) {
+			double seconds = Double.parseDouble(args[0]);
+			while (world.getTime() < seconds) {
+				Thread.sleep(100);
+			}
+		} else {
+			System.out.println("Press enter to quit!");
+			System.in.read();
+		}
+		ctx.shutdown();
+		System.out.println(world);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.sim;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.VirtualClock;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.logging.SimpleLoggingUtil;
+
+/**
+ * Drives a {@link VirtualClock} from a thread of its own, at a multiple of
+ * real time, running the tasks scheduled on the clock as they come due. All
+ * units configured with the same clock name then run that much faster (or
+ * slower) than real time. Send a Float to change the time scale on the fly.
+ * <p>
+ * Everything scheduled on the clock runs on the driver thread, so the tasks
+ * should be quick, like sending a message.
+ *
+ * @author Marcus
+ */
+public class VirtualClockUnit extends RoboUnit<Float> {
+	/**
+	 * The name of the virtual clock to drive. Defaults to sim.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	/**
+	 * How much faster than real time to run. Defaults to 1.
+	 */
+	public static final String KEY_TIME_SCALE = "timeScale";
+
+	private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private VirtualClock clock;
+	private volatile Thread driver;
+	// Only touched while synchronized on this
+	private float timeScale;
+	private long realBase;
+	private long virtualBase;
+
+	public VirtualClockUnit(RoboContext context, String id) {
+		super(Float.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		String name = configuration.getString(KEY_CLOCK, "sim");
+		if (Clocks.SYSTEM.equals(name)) {
+			throw new ConfigurationException("Can not drive the system clock");
+		}
+		clock = Clocks.getVirtual(name);
+		timeScale = configuration.getFloat(KEY_TIME_SCALE, 1f);
+	}
+
+	@Override
+	public void onMessage(Float message) {
+		if (message == null || message <= 0) {
+			SimpleLoggingUtil.error(getClass(), "Bad time scale " + message);
+			return;
+		}
+		synchronized (this) {
+			rebase();
+			timeScale = message;
+		}
+	}
+
+	@Override
+	public void start() {
+		super.start();
+		synchronized (this) {
+			realBase = System.nanoTime();
+			virtualBase = clock.nanoTime();
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drive();
+			}
+		}, "Virtual clock " + getId());
+		thread.setDaemon(true);
+		driver = thread;
+		thread.start();
+	}
+
+	@Override
+	public void stop() {
+		Thread thread = driver;
+		driver = null;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+		super.stop();
+	}
+
+	public synchronized float getTimeScale() {
+		return timeScale;
+	}
+
+	private void drive() {
+		while (driver == Thread.currentThread()) {
+			long target;
+			float scale;
+			synchronized (this) {
+				target = virtualBase + (long) ((System.nanoTime() - realBase) * (double) timeScale);
+				scale = timeScale;
+			}
+			try {
+				clock.runUntil(target);
+			} catch (RuntimeException e) {
+				SimpleLoggingUtil.error(getClass(), "Task on the virtual clock failed", e);
+			}
+			long untilNext = clock.getNextTaskTime() - clock.nanoTime();
+			LockSupport.parkNanos(Math.max(0, Math.min(MAX_PARK, (long) (untilNext / (double) scale))));
+		}
+	}
+
+	private void rebase() {
+		long now = System.nanoTime();
+		virtualBase += (long) ((now - realBase) * (double) timeScale);
+		realBase = now;
+	}
+}
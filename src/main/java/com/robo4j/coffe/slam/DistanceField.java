@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+/**
+ * The distance from each cell to the closest occupied cell of an
+ * {@link OccupancyGrid}, for fast scan matching. Computed with a two pass 3-4
+ * chamfer transform, which is within a few percent of the euclidean distance.
+ * Only the part of the grid with allocated tiles is covered, with a margin;
+ * everything outside counts as being at the max distance.
+ * <p>
+ * The arrays are reused between builds, and only grow. Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class DistanceField {
+	private static final int STRAIGHT = 3;
+	private static final int DIAGONAL = 4;
+
+	private final float maxDistance;
+	private final int[] bounds = new int[4];
+	private short[] distances = new short[0];
+	private OccupancyGrid grid;
+	private float cellSize;
+	private int originX;
+	private int originY;
+	private int width;
+	private int height;
+	private int maxChamfer;
+	private boolean isEmpty = true;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxDistance
+	 *            the distance, in meters, beyond which the exact distance does
+	 *            not matter.
+	 */
+	public DistanceField(float maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Recomputes the field from the grid.
+	 *
+	 * @param grid
+	 *            the grid.
+	 */
+	public void build(OccupancyGrid grid) {
+		this.grid = grid;
+		cellSize = grid.getCellSize();
+		if (!grid.getAllocatedBounds(bounds)) {
+			isEmpty = true;
+			return;
+		}
+		int margin = (int) Math.ceil(maxDistance / cellSize);
+		originX = Math.max(0, bounds[0] - margin);
+		originY = Math.max(0, bounds[1] - margin);
+		width = Math.min(grid.getWidth(), bounds[2] + margin) - originX;
+		height = Math.min(grid.getHeight(), bounds[3] + margin) - originY;
+		maxChamfer = Math.min(Short.MAX_VALUE, margin * STRAIGHT);
+		if (distances.length < width * height) {
+			distances = new short[width * height];
+		}
+		isEmpty = false;
+
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				distances[row + x] = grid.isOccupied(originX + x, originY + y) ? 0 : (short) maxChamfer;
+			}
+		}
+		// Forward pass
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			for (int x = 0; x < width; x++) {
+				int d = distances[row + x];
+				if (x > 0) {
+					d = Math.min(d, distances[row + x - 1] + STRAIGHT);
+				}
+				if (y > 0) {
+					int above = row - width + x;
+					d = Math.min(d, distances[above] + STRAIGHT);
+					if (x > 0) {
+						d = Math.min(d, distances[above - 1] + DIAGONAL);
+					}
+					if (x < width - 1) {
+						d = Math.min(d, distances[above + 1] + DIAGONAL);
+					}
+				}
+				distances[row + x] = (short) d;
+			}
+		}
+		// Backward pass
+		for (int y = height - 1; y >= 0; y--) {
+			int row = y * width;
+			for (int x = width - 1; x >= 0; x--) {
+				int d = distances[row + x];
+				if (x < width - 1) {
+					d = Math.min(d, distances[row + x + 1] + STRAIGHT);
+				}
+				if (y < height - 1) {
+					int below = row + width + x;
+					d = Math.min(d, distances[below] + STRAIGHT);
+					if (x < width - 1) {
+						d = Math.min(d, distances[below + 1] + DIAGONAL);
+					}
+					if (x > 0) {
+						d = Math.min(d, distances[below - 1] + DIAGONAL);
+					}
+				}
+				distances[row + x] = (short) d;
+			}
+		}
+	}
+
+	/**
+	 * @return the distance, in meters, to the closest occupied cell, capped
+	 *         at the max distance.
+	 */
+	public float getDistance(float x, float y) {
+		if (isEmpty) {
+			return maxDistance;
+		}
+		int cellX = grid.toCellX(x) - originX;
+		int cellY = grid.toCellY(y) - originY;
+		if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) {
+			return maxDistance;
+		}
+		return Math.min(maxDistance, distances[cellY * width + cellX] * cellSize / STRAIGHT);
+	}
+
+	/**
+	 * @return true if nothing had been mapped in the grid at the last build.
+	 */
+	public boolean isEmpty() {
+		return isEmpty;
+	}
+
+	public float getMaxDistance() {
+		return maxDistance;
+	}
+}
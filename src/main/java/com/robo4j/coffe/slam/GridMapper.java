@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * Builds an {@link OccupancyGrid} from the scans, tracking the pose of Coff-E
+ * from the estimated motion between the scans and the gyro measured
+ * rotations. The pose at which each scan was taken is remembered by the
+ * sequence number of the scan, so that the scan can be put on the map once
+ * analyzed, even if Coff-E has moved on since.
+ * <p>
+ * Without a localizer, unknown motion, e.g. after steering while driving, makes
+ * the pose uncertain. The pose is then dead reckoned along the old heading, and
+ * the next scan mapped is first matched against the map in a window around
+ * it, to re-anchor the pose. With a {@link ParticleLocalizer}, the latest scan
+ * is always matched against the map, and mapped at the corrected pose.
+ *
+ * @author Marcus
+ */
+public final class GridMapper {
+	// Enough for the scan being analyzed, and the next one when pipelining
+	private static final int POSE_HISTORY = 4;
+
+	private final OccupancyGrid grid;
+	private final float maxRange;
+	private final ParticleLocalizer localizer;
+	private final ScanMatcher matcher;
+	private long latestSequence;
+
+	private float x;
+	private float y;
+	private float heading;
+	private boolean isPoseKnown = true;
+
+	private final long[] historySequence = new long[POSE_HISTORY];
+	private final float[] historyX = new float[POSE_HISTORY];
+	private final float[] historyY = new float[POSE_HISTORY];
+	private final float[] historyHeading = new float[POSE_HISTORY];
+	private final boolean[] historyKnown = new boolean[POSE_HISTORY];
+	private final boolean[] historyMotionKnown = new boolean[POSE_HISTORY];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param grid
+	 *            the grid to map into.
+	 * @param maxRange
+	 *            the max range of the scanner, in meters.
+	 */
+	public GridMapper(OccupancyGrid grid, float maxRange) {
+		this(grid, maxRange, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param grid
+	 *            the grid to map into.
+	 * @param maxRange
+	 *            the max range of the scanner, in meters.
+	 * @param localizer
+	 *            the localizer to correct the pose with, or null.
+	 */
+	public GridMapper(OccupancyGrid grid, float maxRange, ParticleLocalizer localizer) {
+		this.grid = grid;
+		this.maxRange = maxRange;
+		this.localizer = localizer;
+		this.matcher = new ScanMatcher(grid, maxRange);
+	}
+
+	/**
+	 * Moves the pose, and records it as the pose of a scan.
+	 *
+	 * @param motion
+	 *            the motion since the previous scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan taken at the new pose.
+	 */
+	public synchronized void scanTaken(MotionDelta motion, long sequenceNumber) {
+		if (localizer != null) {
+			localizer.moved(motion);
+			x = localizer.getX();
+			y = localizer.getY();
+			heading = localizer.getHeading();
+		} else {
+			if (motion.isKnown()) {
+				heading += motion.getHeading();
+			}
+			// Without a heading, the old one is the best guess until re-anchored
+			if (motion.isDistanceKnown()) {
+				x += motion.getDistance() * (float) Math.sin(heading);
+				y += motion.getDistance() * (float) Math.cos(heading);
+			}
+			isPoseKnown &= motion.isKnown();
+		}
+		latestSequence = sequenceNumber;
+		int slot = (int) (sequenceNumber % POSE_HISTORY);
+		historySequence[slot] = sequenceNumber;
+		historyX[slot] = x;
+		historyY[slot] = y;
+		historyHeading[slot] = heading;
+		historyKnown[slot] = isPoseKnown;
+		historyMotionKnown[slot] = localizer != null || motion.isKnown();
+	}
+
+	/**
+	 * Turns the pose, e.g. after a gyro based rotation.
+	 *
+	 * @param angle
+	 *            the angle rotated, in radians, positive to the right.
+	 */
+	public synchronized void rotated(float angle) {
+		heading += angle;
+		if (localizer != null) {
+			localizer.rotated(angle);
+		}
+	}
+
+	/**
+	 * Adds a scan to the map, at the pose recorded for it.
+	 *
+	 * @param scan
+	 *            the scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan.
+	 * @return false if the pose of the scan is no longer remembered, and the
+	 *         scan was not mapped.
+	 */
+	public synchronized boolean integrate(PackedScan scan, long sequenceNumber) {
+		int slot = (int) (sequenceNumber % POSE_HISTORY);
+		if (historySequence[slot] != sequenceNumber) {
+			return false;
+		}
+		if (!historyKnown[slot]) {
+			reanchor(scan, slot);
+		} else if (localizer != null && sequenceNumber == latestSequence && localizer.localize(scan, grid)) {
+			x = localizer.getX();
+			y = localizer.getY();
+			heading = localizer.getHeading();
+			historyX[slot] = x;
+			historyY[slot] = y;
+			historyHeading[slot] = heading;
+		}
+		grid.integrate(historyX[slot], historyY[slot], historyHeading[slot], scan, maxRange);
+		return true;
+	}
+
+	/**
+	 * Matches the scan around its uncertain pose, and moves that pose and all
+	 * poses dead reckoned from it by the correction. The later poses become
+	 * known again unless they too were reached by unknown motion.
+	 */
+	private void reanchor(PackedScan scan, int slot) {
+		float oldX = historyX[slot];
+		float oldY = historyY[slot];
+		matcher.match(scan, oldX, oldY, historyHeading[slot]);
+		float turn = matcher.getHeading() - historyHeading[slot];
+		float cos = (float) Math.cos(turn);
+		float sin = (float) Math.sin(turn);
+		boolean isKnown = true;
+		historyKnown[slot] = true;
+		for (long sequence = historySequence[slot] + 1; sequence <= latestSequence
+				&& sequence < historySequence[slot] + POSE_HISTORY; sequence++) {
+			int laterSlot = (int) (sequence % POSE_HISTORY);
+			if (historySequence[laterSlot] == sequence) {
+				float dx = historyX[laterSlot] - oldX;
+				float dy = historyY[laterSlot] - oldY;
+				historyX[laterSlot] = matcher.getX() + dx * cos + dy * sin;
+				historyY[laterSlot] = matcher.getY() + dy * cos - dx * sin;
+				historyHeading[laterSlot] += turn;
+				isKnown &= historyMotionKnown[laterSlot];
+				historyKnown[laterSlot] = isKnown;
+			}
+		}
+		float dx = x - oldX;
+		float dy = y - oldY;
+		x = matcher.getX() + dx * cos + dy * sin;
+		y = matcher.getY() + dy * cos - dx * sin;
+		heading += turn;
+		isPoseKnown = isKnown;
+		historyX[slot] = matcher.getX();
+		historyY[slot] = matcher.getY();
+		historyHeading[slot] = matcher.getHeading();
+	}
+
+	/**
+	 * Sets the current pose, e.g. from a localizer.
+	 */
+	public synchronized void setPose(float x, float y, float heading) {
+		this.x = x;
+		this.y = y;
+		this.heading = heading;
+		isPoseKnown = true;
+		if (localizer != null) {
+			localizer.reset(x, y, heading);
+		}
+	}
+
+	public synchronized boolean isPoseKnown() {
+		return isPoseKnown;
+	}
+
+	public synchronized float getX() {
+		return x;
+	}
+
+	public synchronized float getY() {
+		return y;
+	}
+
+	public synchronized float getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @return the localizer, or null if not localizing.
+	 */
+	public ParticleLocalizer getLocalizer() {
+		return localizer;
+	}
+
+	/**
+	 * @return the grid. Synchronize on the mapper when reading it.
+	 */
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads maps into {@link OccupancyGrid}s.
+ *
+ * @author Marcus
+ */
+public final class MapFiles {
+
+	private MapFiles() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * Loads a binary (P5) PGM image, as written by most mapping tools. Dark
+	 * pixels are occupied, light pixels free, and mid gray unknown. The image
+	 * is centered on the map origin, with the top row farthest along y.
+	 *
+	 * @param in
+	 *            the stream to read the image from.
+	 * @param grid
+	 *            the grid to load into. Should have the same cell size as the
+	 *            image resolution.
+	 * @throws IOException
+	 *             if the image could not be read.
+	 */
+	public static void loadPgm(InputStream in, OccupancyGrid grid) throws IOException {
+		InputStream input = new BufferedInputStream(in);
+		if (!readToken(input).equals("P5")) {
+			throw new IOException("Not a binary PGM image");
+		}
+		int width = Integer.parseInt(readToken(input));
+		int height = Integer.parseInt(readToken(input));
+		int maxValue = Integer.parseInt(readToken(input));
+		if (maxValue > 255) {
+			throw new IOException("Only 8 bit PGM images are supported");
+		}
+		int offsetX = (grid.getWidth() - width) / 2;
+		int offsetY = (grid.getHeight() - height) / 2;
+		for (int row = 0; row < height; row++) {
+			int cellY = offsetY + height - 1 - row;
+			for (int column = 0; column < width; column++) {
+				int value = input.read();
+				if (value < 0) {
+					throw new IOException("Unexpected end of PGM image");
+				}
+				float brightness = value / (float) maxValue;
+				if (brightness < 0.35f) {
+					grid.setLogOdds(offsetX + column, cellY, Byte.MAX_VALUE);
+				} else if (brightness > 0.65f) {
+					grid.setLogOdds(offsetX + column, cellY, Byte.MIN_VALUE);
+				}
+			}
+		}
+	}
+
+	private static String readToken(InputStream input) throws IOException {
+		StringBuilder token = new StringBuilder();
+		int c;
+		while ((c = input.read()) >= 0) {
+			if (c == '#') {
+				while (c >= 0 && c != '\n') {
+					c = input.read();
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					return token.toString();
+				}
+			} else {
+				token.append((char) c);
+			}
+		}
+		throw new IOException("Unexpected end of PGM header");
+	}
+}
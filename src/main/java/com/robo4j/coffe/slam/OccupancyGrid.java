@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * A log-odds occupancy grid. The grid is split into square tiles of cells,
+ * and a tile is only allocated the first time any of its cells are updated,
+ * so the unexplored parts of the map cost nothing but a slot in the tile
+ * directory. The total number of tiles is capped, which bounds the memory
+ * used; updates that would need a tile beyond the cap are dropped.
+ * <p>
+ * Each cell is a byte of log-odds, in tenths, where 0 is unknown, positive is
+ * occupied and negative is free. The coordinates are in meters, with x to the
+ * right and y forward, and angles are in radians with 0 along y and positive
+ * to the right, as for the scans. The map origin is in the center of the grid.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class OccupancyGrid {
+	public static final int TILE_BITS = 5;
+	public static final int TILE_SIZE = 1 << TILE_BITS;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	/**
+	 * Log-odds added for a hit.
+	 */
+	public static final int LOG_ODDS_HIT = 24;
+	/**
+	 * Log-odds added for a ray passing through.
+	 */
+	public static final int LOG_ODDS_MISS = -6;
+	/**
+	 * Log-odds above which a cell is considered occupied.
+	 */
+	public static final int LOG_ODDS_OCCUPIED = 40;
+	private static final int LOG_ODDS_MAX = 120;
+	private static final int LOG_ODDS_MIN = -120;
+
+	private final float cellSize;
+	private final int width;
+	private final int height;
+	private final int tilesX;
+	private final byte[][] tiles;
+	// Bumped whenever a cell in the tile is written
+	private final int[] tileVersions;
+	private final int maxTiles;
+	private final float originX;
+	private final float originY;
+	private int allocatedTiles;
+	private int droppedUpdates;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cellSize
+	 *            the side of a cell, in meters.
+	 * @param size
+	 *            the side of the (square) map, in meters.
+	 * @param maxTiles
+	 *            the max number of tiles to allocate. Each tile is
+	 *            TILE_SIZE * TILE_SIZE bytes.
+	 */
+	public OccupancyGrid(float cellSize, float size, int maxTiles) {
+		this.cellSize = cellSize;
+		this.tilesX = Math.max(1, (int) Math.ceil(size / cellSize / TILE_SIZE));
+		this.width = tilesX * TILE_SIZE;
+		this.height = width;
+		this.tiles = new byte[tilesX * tilesX][];
+		this.tileVersions = new int[tiles.length];
+		this.maxTiles = maxTiles;
+		this.originX = -width * cellSize / 2;
+		this.originY = -height * cellSize / 2;
+	}
+
+	/**
+	 * Updates the grid with a scan. Every ray clears the cells it passes
+	 * through, and marks the cell it ends in as hit, unless it is at or beyond
+	 * the max range.
+	 *
+	 * @param x
+	 *            the x coordinate of the scanner, in meters.
+	 * @param y
+	 *            the y coordinate of the scanner, in meters.
+	 * @param heading
+	 *            the heading of the scanner, in radians.
+	 * @param scan
+	 *            the scan.
+	 * @param maxRange
+	 *            the max range of the scanner, in meters. Longer rays are
+	 *            truncated.
+	 */
+	public void integrate(float x, float y, float heading, PackedScan scan, float maxRange) {
+		int startX = toCellX(x);
+		int startY = toCellY(y);
+		for (int i = 0; i < scan.size(); i++) {
+			float range = scan.getRange(i);
+			boolean isHit = range < maxRange;
+			range = Math.min(range, maxRange);
+			double angle = heading + scan.getAngle(i);
+			int endX = toCellX(x + range * (float) Math.sin(angle));
+			int endY = toCellY(y + range * (float) Math.cos(angle));
+			traceRay(startX, startY, endX, endY, isHit);
+		}
+	}
+
+	private void traceRay(int x, int y, int endX, int endY, boolean isHit) {
+		// Bresenham
+		int dx = Math.abs(endX - x);
+		int dy = -Math.abs(endY - y);
+		int stepX = x < endX ? 1 : -1;
+		int stepY = y < endY ? 1 : -1;
+		int error = dx + dy;
+		while (x != endX || y != endY) {
+			update(x, y, LOG_ODDS_MISS);
+			int error2 = 2 * error;
+			if (error2 >= dy) {
+				error += dy;
+				x += stepX;
+			}
+			if (error2 <= dx) {
+				error += dx;
+				y += stepY;
+			}
+		}
+		update(endX, endY, isHit ? LOG_ODDS_HIT : LOG_ODDS_MISS);
+	}
+
+	private void update(int cellX, int cellY, int delta) {
+		byte[] tile = getTile(cellX, cellY);
+		if (tile != null) {
+			int cellIndex = ((cellY & TILE_MASK) << TILE_BITS) | (cellX & TILE_MASK);
+			int value = tile[cellIndex] + delta;
+			tile[cellIndex] = (byte) Math.max(LOG_ODDS_MIN, Math.min(LOG_ODDS_MAX, value));
+		}
+	}
+
+	/**
+	 * Returns the tile of the cell, allocating it if needed.
+	 * 
+	 * @return the tile, or null if outside of the grid or beyond the tile cap.
+	 */
+	private byte[] getTile(int cellX, int cellY) {
+		if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) {
+			return null;
+		}
+		int tileIndex = (cellY >> TILE_BITS) * tilesX + (cellX >> TILE_BITS);
+		byte[] tile = tiles[tileIndex];
+		if (tile == null) {
+			if (allocatedTiles == maxTiles) {
+				droppedUpdates++;
+				return null;
+			}
+			tile = new byte[TILE_SIZE * TILE_SIZE];
+			tiles[tileIndex] = tile;
+			allocatedTiles++;
+		}
+		tileVersions[tileIndex]++;
+		return tile;
+	}
+
+	/**
+	 * Sets the log-odds of a cell, e.g. when loading a map.
+	 */
+	public void setLogOdds(int cellX, int cellY, int logOdds) {
+		byte[] tile = getTile(cellX, cellY);
+		if (tile != null) {
+			tile[((cellY & TILE_MASK) << TILE_BITS) | (cellX & TILE_MASK)] = (byte) Math.max(LOG_ODDS_MIN,
+					Math.min(LOG_ODDS_MAX, logOdds));
+		}
+	}
+
+	/**
+	 * Gets the bounds of the allocated tiles, in cells.
+	 * 
+	 * @param bounds
+	 *            receives min x, min y, max x and max y, the max exclusive.
+	 * @return false if no tiles are allocated.
+	 */
+	public boolean getAllocatedBounds(int[] bounds) {
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = -1;
+		int maxY = -1;
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] != null) {
+				int tileX = i % tilesX;
+				int tileY = i / tilesX;
+				minX = Math.min(minX, tileX);
+				minY = Math.min(minY, tileY);
+				maxX = Math.max(maxX, tileX);
+				maxY = Math.max(maxY, tileY);
+			}
+		}
+		if (maxX < 0) {
+			return false;
+		}
+		bounds[0] = minX * TILE_SIZE;
+		bounds[1] = minY * TILE_SIZE;
+		bounds[2] = (maxX + 1) * TILE_SIZE;
+		bounds[3] = (maxY + 1) * TILE_SIZE;
+		return true;
+	}
+
+	/**
+	 * @return the log-odds of the cell, 0 if unknown or outside of the grid.
+	 */
+	public int getLogOdds(int cellX, int cellY) {
+		if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) {
+			return 0;
+		}
+		byte[] tile = tiles[(cellY >> TILE_BITS) * tilesX + (cellX >> TILE_BITS)];
+		return tile == null ? 0 : tile[((cellY & TILE_MASK) << TILE_BITS) | (cellX & TILE_MASK)];
+	}
+
+	public boolean isOccupied(int cellX, int cellY) {
+		return getLogOdds(cellX, cellY) > LOG_ODDS_OCCUPIED;
+	}
+
+	/**
+	 * @return the probability, 0 to 1, that the cell is occupied.
+	 */
+	public float getOccupancy(int cellX, int cellY) {
+		// The log-odds are scaled by 10
+		return (float) (1 / (1 + Math.exp(-getLogOdds(cellX, cellY) / 10.0)));
+	}
+
+	public int toCellX(float x) {
+		return (int) Math.floor((x - originX) / cellSize);
+	}
+
+	public int toCellY(float y) {
+		return (int) Math.floor((y - originY) / cellSize);
+	}
+
+	/**
+	 * @return the x coordinate of the center of the cell, in meters.
+	 */
+	public float toX(int cellX) {
+		return originX + (cellX + 0.5f) * cellSize;
+	}
+
+	/**
+	 * @return the y coordinate of the center of the cell, in meters.
+	 */
+	public float toY(int cellY) {
+		return originY + (cellY + 0.5f) * cellSize;
+	}
+
+	/**
+	 * @return true if the tile covering the cell has been allocated.
+	 */
+	public boolean isTileAllocated(int cellX, int cellY) {
+		if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) {
+			return false;
+		}
+		return tiles[(cellY >> TILE_BITS) * tilesX + (cellX >> TILE_BITS)] != null;
+	}
+
+	/**
+	 * Returns the version of a tile, which changes whenever any of its cells
+	 * are written. Use it to find out what parts of the map to recompute
+	 * things for.
+	 */
+	public int getTileVersion(int tileX, int tileY) {
+		return tileVersions[tileY * tilesX + tileX];
+	}
+
+	/**
+	 * @return the number of tiles along each side of the grid.
+	 */
+	public int getTilesPerSide() {
+		return tilesX;
+	}
+
+	/**
+	 * Forgets everything, releasing all tiles.
+	 */
+	public void clear() {
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = null;
+			tileVersions[i]++;
+		}
+		allocatedTiles = 0;
+		droppedUpdates = 0;
+	}
+
+	/**
+	 * @return the side of a cell, in meters.
+	 */
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return the width, in cells.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height, in cells.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	public int getAllocatedTiles() {
+		return allocatedTiles;
+	}
+
+	/**
+	 * @return the number of cell updates dropped since the tile cap was hit.
+	 */
+	public int getDroppedUpdates() {
+		return droppedUpdates;
+	}
+
+	/**
+	 * @return the memory used by the cells, in bytes.
+	 */
+	public long getMemoryUsage() {
+		return (long) allocatedTiles * TILE_SIZE * TILE_SIZE;
+	}
+}
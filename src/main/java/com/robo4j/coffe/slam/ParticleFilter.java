@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import java.util.Random;
+
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * A particle filter over the pose of Coff-E. The particles are kept in
+ * parallel primitive arrays, and all the working arrays are allocated up
+ * front for the max number of particles, so that neither the prediction, the
+ * scan matching nor the resampling allocates anything.
+ * <p>
+ * The scan likelihood of a particle is computed from the distance, looked up
+ * in a {@link DistanceField}, from the end of each beam to the closest
+ * obstacle on the map (the likelihood field model).
+ * <p>
+ * Poses use the scan conventions: x to the right, y forward, heading in
+ * radians with 0 along y and positive to the right. Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class ParticleFilter {
+	private static final int MIN_PARTICLES = 16;
+
+	private final int maxParticles;
+	private final Random random;
+
+	private float[] xs;
+	private float[] ys;
+	private float[] headings;
+	private float[] weights;
+	// Scratch arrays for the resampling, swapped with the above
+	private float[] nextXs;
+	private float[] nextYs;
+	private float[] nextHeadings;
+	private final double[] logWeights;
+	private int count;
+
+	private float estimatedX;
+	private float estimatedY;
+	private float estimatedHeading;
+	private float spread;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxParticles
+	 *            the max number of particles.
+	 * @param seed
+	 *            the seed for the random number generator.
+	 */
+	public ParticleFilter(int maxParticles, long seed) {
+		this.maxParticles = Math.max(MIN_PARTICLES, maxParticles);
+		this.random = new Random(seed);
+		xs = new float[this.maxParticles];
+		ys = new float[this.maxParticles];
+		headings = new float[this.maxParticles];
+		weights = new float[this.maxParticles];
+		nextXs = new float[this.maxParticles];
+		nextYs = new float[this.maxParticles];
+		nextHeadings = new float[this.maxParticles];
+		logWeights = new double[this.maxParticles];
+		count = this.maxParticles;
+	}
+
+	/**
+	 * Spreads the particles around a pose.
+	 *
+	 * @param x
+	 *            the x coordinate, in meters.
+	 * @param y
+	 *            the y coordinate, in meters.
+	 * @param heading
+	 *            the heading, in radians.
+	 * @param positionSpread
+	 *            the standard deviation of the position, in meters.
+	 * @param headingSpread
+	 *            the standard deviation of the heading, in radians.
+	 */
+	public void reset(float x, float y, float heading, float positionSpread, float headingSpread) {
+		float weight = 1f / count;
+		for (int i = 0; i < count; i++) {
+			xs[i] = x + gaussian(positionSpread);
+			ys[i] = y + gaussian(positionSpread);
+			headings[i] = heading + gaussian(headingSpread);
+			weights[i] = weight;
+		}
+		estimate();
+	}
+
+	/**
+	 * Changes the number of particles. New particles are copies of the
+	 * existing ones. The weights are evened out.
+	 *
+	 * @param newCount
+	 *            the number of particles, clamped to the max.
+	 */
+	public void setParticleCount(int newCount) {
+		newCount = Math.max(MIN_PARTICLES, Math.min(maxParticles, newCount));
+		if (newCount == count) {
+			return;
+		}
+		// Make sure that the survivors are picked by weight
+		resample();
+		for (int i = count; i < newCount; i++) {
+			int source = i % count;
+			xs[i] = xs[source];
+			ys[i] = ys[source];
+			headings[i] = headings[source];
+		}
+		count = newCount;
+		float weight = 1f / count;
+		for (int i = 0; i < count; i++) {
+			weights[i] = weight;
+		}
+	}
+
+	/**
+	 * Moves all particles, adding noise.
+	 *
+	 * @param headingChange
+	 *            the change in heading before moving, in radians.
+	 * @param distance
+	 *            the distance moved forward, in meters.
+	 * @param headingNoise
+	 *            the standard deviation of the heading change, in radians.
+	 * @param distanceNoise
+	 *            the standard deviation of the distance, as a fraction of the
+	 *            distance.
+	 */
+	public void predict(float headingChange, float distance, float headingNoise, float distanceNoise) {
+		for (int i = 0; i < count; i++) {
+			float heading = headings[i] + headingChange + gaussian(headingNoise);
+			float travelled = distance * (1 + gaussian(distanceNoise));
+			headings[i] = heading;
+			xs[i] += travelled * (float) Math.sin(heading);
+			ys[i] += travelled * (float) Math.cos(heading);
+		}
+		estimate();
+	}
+
+	/**
+	 * Moves all particles when the motion is unknown, e.g. after steering.
+	 *
+	 * @param maxDistance
+	 *            the max distance that can have been travelled, in meters.
+	 * @param headingSpread
+	 *            the standard deviation of the heading change, in radians.
+	 */
+	public void predictUnknown(float maxDistance, float headingSpread) {
+		for (int i = 0; i < count; i++) {
+			float heading = headings[i] + gaussian(headingSpread);
+			float travelled = random.nextFloat() * maxDistance;
+			headings[i] = heading;
+			xs[i] += travelled * (float) Math.sin(heading);
+			ys[i] += travelled * (float) Math.cos(heading);
+		}
+		estimate();
+	}
+
+	/**
+	 * Weighs the particles by how well the scan matches the map, and
+	 * resamples if the weights have become too uneven.
+	 *
+	 * @param scan
+	 *            the scan.
+	 * @param field
+	 *            the distance field of the map.
+	 * @param sigma
+	 *            the standard deviation of the beam end distance, in meters.
+	 * @param beamStride
+	 *            use every n:th beam of the scan.
+	 * @param maxRange
+	 *            beams at or beyond this range, in meters, are max range
+	 *            readings and ignored.
+	 */
+	public void update(PackedScan scan, DistanceField field, float sigma, int beamStride, float maxRange) {
+		double scale = 1.0 / (2 * sigma * sigma);
+		double maxLogWeight = Double.NEGATIVE_INFINITY;
+		int beams = scan.size();
+		for (int p = 0; p < count; p++) {
+			float x = xs[p];
+			float y = ys[p];
+			float sin = (float) Math.sin(headings[p]);
+			float cos = (float) Math.cos(headings[p]);
+			double sum = 0;
+			for (int i = 0; i < beams; i += beamStride) {
+				if (scan.getRange(i) >= maxRange) {
+					continue;
+				}
+				float localX = scan.getX(i);
+				float localY = scan.getY(i);
+				float d = field.getDistance(x + localX * cos + localY * sin, y - localX * sin + localY * cos);
+				sum += d * d;
+			}
+			double logWeight = Math.log(weights[p]) - sum * scale;
+			logWeights[p] = logWeight;
+			maxLogWeight = Math.max(maxLogWeight, logWeight);
+		}
+		double total = 0;
+		for (int p = 0; p < count; p++) {
+			double weight = Math.exp(logWeights[p] - maxLogWeight);
+			logWeights[p] = weight;
+			total += weight;
+		}
+		double sumOfSquares = 0;
+		for (int p = 0; p < count; p++) {
+			float weight = (float) (logWeights[p] / total);
+			weights[p] = weight;
+			sumOfSquares += weight * weight;
+		}
+		if (1 / sumOfSquares < count / 2) {
+			resample();
+		}
+		estimate();
+	}
+
+	/**
+	 * Low variance (systematic) resampling.
+	 */
+	private void resample() {
+		float step = 1f / count;
+		float target = random.nextFloat() * step;
+		float cumulative = weights[0];
+		int source = 0;
+		for (int i = 0; i < count; i++) {
+			while (target > cumulative && source < count - 1) {
+				source++;
+				cumulative += weights[source];
+			}
+			nextXs[i] = xs[source];
+			nextYs[i] = ys[source];
+			nextHeadings[i] = headings[source];
+			target += step;
+		}
+		float[] swap = xs;
+		xs = nextXs;
+		nextXs = swap;
+		swap = ys;
+		ys = nextYs;
+		nextYs = swap;
+		swap = headings;
+		headings = nextHeadings;
+		nextHeadings = swap;
+		for (int i = 0; i < count; i++) {
+			weights[i] = step;
+		}
+	}
+
+	private void estimate() {
+		double x = 0;
+		double y = 0;
+		double sin = 0;
+		double cos = 0;
+		double total = 0;
+		for (int i = 0; i < count; i++) {
+			double weight = weights[i];
+			x += weight * xs[i];
+			y += weight * ys[i];
+			sin += weight * Math.sin(headings[i]);
+			cos += weight * Math.cos(headings[i]);
+			total += weight;
+		}
+		estimatedX = (float) (x / total);
+		estimatedY = (float) (y / total);
+		estimatedHeading = (float) Math.atan2(sin, cos);
+		double variance = 0;
+		for (int i = 0; i < count; i++) {
+			double dx = xs[i] - estimatedX;
+			double dy = ys[i] - estimatedY;
+			variance += weights[i] * (dx * dx + dy * dy);
+		}
+		spread = (float) Math.sqrt(variance / total);
+	}
+
+	private float gaussian(float deviation) {
+		return deviation == 0 ? 0 : (float) random.nextGaussian() * deviation;
+	}
+
+	public int getParticleCount() {
+		return count;
+	}
+
+	public int getMaxParticles() {
+		return maxParticles;
+	}
+
+	/**
+	 * @return the weighted mean x, in meters.
+	 */
+	public float getX() {
+		return estimatedX;
+	}
+
+	/**
+	 * @return the weighted mean y, in meters.
+	 */
+	public float getY() {
+		return estimatedY;
+	}
+
+	/**
+	 * @return the weighted circular mean heading, in radians.
+	 */
+	public float getHeading() {
+		return estimatedHeading;
+	}
+
+	/**
+	 * @return the weighted standard deviation of the position, in meters.
+	 */
+	public float getSpread() {
+		return spread;
+	}
+}
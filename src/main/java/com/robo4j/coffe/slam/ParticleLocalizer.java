@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * Localizes Coff-E on an {@link OccupancyGrid} with a {@link ParticleFilter}.
+ * The number of particles adapts to keep the scan matching within a time
+ * budget: it shrinks when a match runs over the budget, and grows back when
+ * it takes less than half of it. The matching is timed with the clock of the
+ * mission, so on a virtual clock that does not advance during the matching,
+ * the filter runs with the max number of particles, and, with a fixed seed, is
+ * fully repeatable.
+ * <p>
+ * The distance field is rebuilt from the grid every few scans, since the map
+ * changes slowly compared to the scan rate. Not thread safe.
+ *
+ * @author Marcus
+ */
+public final class ParticleLocalizer {
+	// Noise model for the dead reckoning, which has no encoders to go on
+	private static final float HEADING_NOISE = (float) Math.toRadians(2);
+	private static final float DISTANCE_NOISE = 0.2f;
+	private static final float ROTATION_NOISE = 0.05f;
+	private static final float UNKNOWN_HEADING_SPREAD = (float) Math.toRadians(20);
+	private static final float UNKNOWN_MAX_DISTANCE = 0.5f;
+	// Sensor model
+	private static final float BEAM_SIGMA = 0.1f;
+	private static final float FIELD_MAX_DISTANCE = 1f;
+	private static final int BEAM_STRIDE = 2;
+
+	private final ParticleFilter filter;
+	private final Clock clock;
+	private final DistanceField field = new DistanceField(FIELD_MAX_DISTANCE);
+	private final long budgetNanos;
+	private final int fieldInterval;
+	private final float maxRange;
+	private int scansSinceField = Integer.MAX_VALUE;
+	private long lastMatchNanos;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxParticles
+	 *            the max number of particles.
+	 * @param budgetNanos
+	 *            the time budget for matching a scan, in ns.
+	 * @param fieldInterval
+	 *            the number of scans between rebuilding the distance field.
+	 * @param maxRange
+	 *            the max range of the scanner, in meters.
+	 * @param seed
+	 *            the seed for the random number generator of the filter.
+	 * @param clock
+	 *            the clock to time the matching with.
+	 */
+	public ParticleLocalizer(int maxParticles, long budgetNanos, int fieldInterval, float maxRange, long seed,
+			Clock clock) {
+		this.filter = new ParticleFilter(maxParticles, seed);
+		this.clock = clock;
+		this.budgetNanos = budgetNanos;
+		this.fieldInterval = Math.max(1, fieldInterval);
+		this.maxRange = maxRange;
+		filter.reset(0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Starts over at the specified pose.
+	 */
+	public void reset(float x, float y, float heading) {
+		filter.reset(x, y, heading, 0.05f, (float) Math.toRadians(2));
+	}
+
+	/**
+	 * Applies the estimated motion since the previous scan.
+	 */
+	public void moved(MotionDelta motion) {
+		if (motion.isKnown()) {
+			filter.predict(motion.getHeading(), motion.getDistance(), HEADING_NOISE, DISTANCE_NOISE);
+		} else {
+			filter.predictUnknown(UNKNOWN_MAX_DISTANCE, UNKNOWN_HEADING_SPREAD);
+		}
+	}
+
+	/**
+	 * Applies a gyro measured rotation.
+	 *
+	 * @param angle
+	 *            the angle rotated, in radians.
+	 */
+	public void rotated(float angle) {
+		filter.predict(angle, 0, Math.abs(angle) * ROTATION_NOISE, 0);
+	}
+
+	/**
+	 * Matches the scan against the map.
+	 *
+	 * @param scan
+	 *            the scan, taken at the current pose.
+	 * @param grid
+	 *            the map.
+	 * @return false if there was no map to match against yet.
+	 */
+	public boolean localize(PackedScan scan, OccupancyGrid grid) {
+		if (scansSinceField >= fieldInterval) {
+			field.build(grid);
+			scansSinceField = 0;
+		}
+		scansSinceField++;
+		if (field.isEmpty()) {
+			return false;
+		}
+		long start = clock.nanoTime();
+		filter.update(scan, field, BEAM_SIGMA, BEAM_STRIDE, maxRange);
+		lastMatchNanos = clock.nanoTime() - start;
+		adaptParticleCount();
+		return true;
+	}
+
+	private void adaptParticleCount() {
+		int count = filter.getParticleCount();
+		if (lastMatchNanos > budgetNanos) {
+			filter.setParticleCount((int) (count * 0.9 * budgetNanos / lastMatchNanos));
+		} else if (lastMatchNanos < budgetNanos / 2) {
+			filter.setParticleCount((int) (count * 1.25f));
+		}
+	}
+
+	/**
+	 * @return the time the last scan match took, in ns.
+	 */
+	public long getLastMatchNanos() {
+		return lastMatchNanos;
+	}
+
+	public ParticleFilter getFilter() {
+		return filter;
+	}
+
+	public float getX() {
+		return filter.getX();
+	}
+
+	public float getY() {
+		return filter.getY();
+	}
+
+	public float getHeading() {
+		return filter.getHeading();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import com.robo4j.coffe.units.PackedScan;
+
+/**
+ * Finds the pose at which a scan best fits an {@link OccupancyGrid}, by
+ * trying all poses in a window around a guess. A coarse search over the whole
+ * window is followed by a fine search around the best coarse pose. The score
+ * of a pose is the sum of the positive log-odds of the cells hit by the scan.
+ * <p>
+ * Used by the {@link GridMapper} to find its way back onto the map after
+ * unknown motion. Not thread safe.
+ *
+ * @author Marcus
+ */
+final class ScanMatcher {
+	private static final float COARSE_HEADING_WINDOW = (float) Math.toRadians(30);
+	private static final float COARSE_HEADING_STEP = (float) Math.toRadians(2);
+	private static final float COARSE_POSITION_WINDOW = 0.4f;
+	private static final float COARSE_POSITION_STEP = 0.1f;
+	private static final float FINE_HEADING_WINDOW = (float) Math.toRadians(2);
+	private static final float FINE_HEADING_STEP = (float) Math.toRadians(0.5);
+	private static final float FINE_POSITION_WINDOW = 0.1f;
+	private static final float FINE_POSITION_STEP = 0.025f;
+
+	private final OccupancyGrid grid;
+	private final float maxRange;
+	private float[] offsetsX = new float[0];
+	private float[] offsetsY = new float[0];
+
+	private float x;
+	private float y;
+	private float heading;
+	private int score;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param grid
+	 *            the grid to match against.
+	 * @param maxRange
+	 *            the max range of the scanner, in meters. Points at the max
+	 *            range did not hit anything, and are not matched.
+	 */
+	ScanMatcher(OccupancyGrid grid, float maxRange) {
+		this.grid = grid;
+		this.maxRange = maxRange;
+	}
+
+	/**
+	 * Matches the scan around the guessed pose. The guess itself is always
+	 * tried first, and is kept unless some other pose scores better, e.g.
+	 * when there is nothing on the map yet to match against.
+	 *
+	 * @return the score of the best pose.
+	 */
+	int match(PackedScan scan, float guessX, float guessY, float guessHeading) {
+		x = guessX;
+		y = guessY;
+		heading = guessHeading;
+		score = -1;
+		search(scan, guessX, guessY, guessHeading, 0, 1, 0, 1);
+		search(scan, guessX, guessY, guessHeading, COARSE_HEADING_WINDOW, COARSE_HEADING_STEP,
+				COARSE_POSITION_WINDOW, COARSE_POSITION_STEP);
+		search(scan, x, y, heading, FINE_HEADING_WINDOW, FINE_HEADING_STEP, FINE_POSITION_WINDOW,
+				FINE_POSITION_STEP);
+		return score;
+	}
+
+	private void search(PackedScan scan, float centerX, float centerY, float centerHeading, float headingWindow,
+			float headingStep, float positionWindow, float positionStep) {
+		int headingSteps = Math.round(headingWindow / headingStep);
+		int positionSteps = Math.round(positionWindow / positionStep);
+		for (int h = -headingSteps; h <= headingSteps; h++) {
+			float candidateHeading = centerHeading + h * headingStep;
+			int count = computeOffsets(scan, candidateHeading);
+			for (int i = -positionSteps; i <= positionSteps; i++) {
+				float candidateX = centerX + i * positionStep;
+				for (int j = -positionSteps; j <= positionSteps; j++) {
+					float candidateY = centerY + j * positionStep;
+					int candidateScore = score(count, candidateX, candidateY);
+					if (candidateScore > score) {
+						score = candidateScore;
+						x = candidateX;
+						y = candidateY;
+						heading = candidateHeading;
+					}
+				}
+			}
+		}
+	}
+
+	private int computeOffsets(PackedScan scan, float candidateHeading) {
+		if (offsetsX.length < scan.size()) {
+			offsetsX = new float[scan.size()];
+			offsetsY = new float[scan.size()];
+		}
+		int count = 0;
+		for (int i = 0; i < scan.size(); i++) {
+			float range = scan.getRange(i);
+			if (range < maxRange) {
+				double angle = candidateHeading + scan.getAngle(i);
+				offsetsX[count] = range * (float) Math.sin(angle);
+				offsetsY[count] = range * (float) Math.cos(angle);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int score(int count, float candidateX, float candidateY) {
+		int sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += Math.max(0, grid.getLogOdds(grid.toCellX(candidateX + offsetsX[i]),
+					grid.toCellY(candidateY + offsetsY[i])));
+		}
+		return sum;
+	}
+
+	float getX() {
+		return x;
+	}
+
+	float getY() {
+		return y;
+	}
+
+	float getHeading() {
+		return heading;
+	}
+}
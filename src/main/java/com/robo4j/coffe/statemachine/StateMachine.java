@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.statemachine;
+
+import com.robo4j.coffe.metrics.Counter;
+import com.robo4j.coffe.metrics.LatencyHistogram;
+import com.robo4j.coffe.metrics.Metrics;
+import com.robo4j.coffe.time.Clock;
+
+/**
+ * A table driven state machine over enum states and events. The handlers for
+ * each state and event are looked up by ordinal in a table set up before the
+ * machine is used, and the handlers decide on the transitions themselves, by
+ * calling {@link #transition(Enum)}. Events without a handler in the current
+ * state are ignored. Nothing is allocated when firing events or
+ * transitioning, as long as the handlers don't.
+ * <p>
+ * The time spent in each state is recorded in a histogram, and every
+ * transition is counted, in the {@link Metrics}. The histograms are named
+ * state.&lt;machine&gt;.&lt;state&gt; and the counters
+ * state.&lt;machine&gt;.&lt;from&gt;.&lt;to&gt;, all in lower case. The time
+ * is taken from the {@link Clock} of the machine, so in a simulation it is
+ * the simulated time.
+ * <p>
+ * Events are handled one at a time. A handler must not fire events on the
+ * machine it is handling an event for.
+ *
+ * @param <S>
+ *            the states.
+ * @param <E>
+ *            the events.
+ * @author Marcus
+ */
+public final class StateMachine<S extends Enum<S>, E extends Enum<E>> {
+	/**
+	 * Handles an event in a state.
+	 */
+	public interface Handler {
+		/**
+		 * @param payload
+		 *            the payload fired with the event, may be null.
+		 */
+		void handle(Object payload);
+	}
+
+	/**
+	 * Notified of every transition, after the time in the old state has been
+	 * recorded.
+	 */
+	public interface TransitionListener<S> {
+		void stateChanged(S from, S to);
+	}
+
+	private final S[] states;
+	private final Handler[][] handlers;
+	private final LatencyHistogram[] timeInState;
+	private final Counter[][] transitions;
+	private final Counter ignoredEvents;
+	private final Clock clock;
+	private TransitionListener<S> listener;
+	private volatile S state;
+	private long enteredTime;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            the name of the machine, for the metrics.
+	 * @param stateType
+	 *            the enum of the states.
+	 * @param eventType
+	 *            the enum of the events.
+	 * @param initialState
+	 *            the state to start in.
+	 * @param clock
+	 *            the clock to time the states with.
+	 */
+	public StateMachine(String name, Class<S> stateType, Class<E> eventType, S initialState, Clock clock) {
+		this.states = stateType.getEnumConstants();
+		this.handlers = new Handler[states.length][eventType.getEnumConstants().length];
+		this.timeInState = new LatencyHistogram[states.length];
+		this.transitions = new Counter[states.length][states.length];
+		String prefix = "state." + name.toLowerCase() + ".";
+		for (S from : states) {
+			String fromName = prefix + from.name().toLowerCase();
+			timeInState[from.ordinal()] = Metrics.histogram(fromName);
+			for (S to : states) {
+				transitions[from.ordinal()][to.ordinal()] = Metrics.counter(fromName + "." + to.name().toLowerCase());
+			}
+		}
+		this.ignoredEvents = Metrics.counter(prefix + "ignored");
+		this.clock = clock;
+		this.state = initialState;
+		this.enteredTime = clock.nanoTime();
+	}
+
+	/**
+	 * Sets the handler for an event in a state, replacing any previous
+	 * handler. Set up all handlers before firing any events.
+	 */
+	public void on(S state, E event, Handler handler) {
+		handlers[state.ordinal()][event.ordinal()] = handler;
+	}
+
+	/**
+	 * Sets the handler for an event in all states.
+	 */
+	public void onAny(E event, Handler handler) {
+		for (S s : states) {
+			on(s, event, handler);
+		}
+	}
+
+	public void setTransitionListener(TransitionListener<S> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Fires an event, running the handler for it in the current state.
+	 * 
+	 * @param event
+	 *            the event.
+	 * @param payload
+	 *            passed on to the handler.
+	 * @return false if the event was ignored, since there was no handler for
+	 *         it in the current state.
+	 */
+	public synchronized boolean fire(E event, Object payload) {
+		Handler handler = handlers[state.ordinal()][event.ordinal()];
+		if (handler == null) {
+			ignoredEvents.increment();
+			return false;
+		}
+		handler.handle(payload);
+		return true;
+	}
+
+	/**
+	 * Transitions to a state. A transition to the current state counts as
+	 * leaving and entering it again.
+	 */
+	public synchronized void transition(S to) {
+		S from = state;
+		long now = clock.nanoTime();
+		timeInState[from.ordinal()].record(now - enteredTime);
+		transitions[from.ordinal()][to.ordinal()].increment();
+		enteredTime = now;
+		state = to;
+		if (listener != null) {
+			listener.stateChanged(from, to);
+		}
+	}
+
+	/**
+	 * Puts the machine in a state without counting it as a transition, e.g.
+	 * when starting over.
+	 */
+	public synchronized void reset(S to) {
+		enteredTime = clock.nanoTime();
+		state = to;
+	}
+
+	/**
+	 * @return the current state. May be read from any thread.
+	 */
+	public S getState() {
+		return state;
+	}
+
+	/**
+	 * @return the histogram of the times, in ns, spent in the state.
+	 */
+	public LatencyHistogram getTimeInState(S state) {
+		return timeInState[state.ordinal()];
+	}
+
+	/**
+	 * @return the number of transitions from one state to another.
+	 */
+	public long getTransitionCount(S from, S to) {
+		return transitions[from.ordinal()][to.ordinal()].get();
+	}
+}
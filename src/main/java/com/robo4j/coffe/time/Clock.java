@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.time;
+
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.RoboContext;
+
+/**
+ * The source of time for the units that time things. On the robot this is
+ * the {@link SystemClock}; in simulations it can be a {@link VirtualClock},
+ * so that the units can run faster than real time, or step by step.
+ * <p>
+ * Use {@link Clocks#get(String)} to get the clock configured for a unit.
+ *
+ * @author Marcus
+ */
+public interface Clock {
+	/**
+	 * @return the current time, in ns. Only meaningful relative to other
+	 *         times from the same clock.
+	 */
+	long nanoTime();
+
+	/**
+	 * Runs a task after a delay.
+	 *
+	 * @param context
+	 *            the context of the unit scheduling the task.
+	 * @param task
+	 *            the task to run.
+	 * @param delay
+	 *            the delay.
+	 * @param unit
+	 *            the unit of the delay.
+	 */
+	void schedule(RoboContext context, Runnable task, long delay, TimeUnit unit);
+}
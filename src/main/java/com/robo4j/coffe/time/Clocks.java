@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.time;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks up clocks by name, so that the units of a simulation can share a
+ * {@link VirtualClock}.
+ *
+ * @author Marcus
+ */
+public final class Clocks {
+	/**
+	 * The configuration key for the name of the clock a unit should use. If
+	 * not set, the unit uses the {@link SystemClock}.
+	 */
+	public static final String KEY_CLOCK = "clock";
+
+	/**
+	 * The name of the {@link SystemClock}.
+	 */
+	public static final String SYSTEM = "system";
+
+	private static final Map<String, VirtualClock> VIRTUAL_CLOCKS = new HashMap<>();
+
+	private Clocks() {
+	}
+
+	/**
+	 * Returns the clock with the name. Any name but {@link #SYSTEM} is a
+	 * virtual clock, created the first time it is asked for.
+	 *
+	 * @param name
+	 *            the name of the clock, or null for the system clock.
+	 */
+	public static Clock get(String name) {
+		if (name == null || SYSTEM.equals(name)) {
+			return SystemClock.INSTANCE;
+		}
+		return getVirtual(name);
+	}
+
+	/**
+	 * @return the virtual clock with the name, created the first time it is
+	 *         asked for.
+	 */
+	public static synchronized VirtualClock getVirtual(String name) {
+		VirtualClock clock = VIRTUAL_CLOCKS.get(name);
+		if (clock == null) {
+			clock = new VirtualClock();
+			VIRTUAL_CLOCKS.put(name, clock);
+		}
+		return clock;
+	}
+}
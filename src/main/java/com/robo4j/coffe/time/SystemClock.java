@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.time;
+
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.RoboContext;
+
+/**
+ * The wall clock, scheduling with the scheduler of the context.
+ *
+ * @author Marcus
+ */
+public final class SystemClock implements Clock {
+	public static final SystemClock INSTANCE = new SystemClock();
+
+	private SystemClock() {
+	}
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void schedule(RoboContext context, Runnable task, long delay, TimeUnit unit) {
+		context.getScheduler().schedule(task, delay, unit);
+	}
+}
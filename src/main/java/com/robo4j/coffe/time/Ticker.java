@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.time;
+
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.RoboContext;
+
+/**
+ * Runs a task at a fixed rate on a {@link Clock}. The clocks can only run
+ * tasks once, so the ticker reschedules itself after every run, aiming for
+ * the next multiple of the period so that it does not drift.
+ *
+ * @author Marcus
+ */
+public final class Ticker {
+	private final Clock clock;
+	private final RoboContext context;
+	private final Runnable task;
+	private final long periodNanos;
+	// Bumped on start and stop, so that runs scheduled before are ignored
+	private int generation;
+	private long nextTime;
+
+	public Ticker(Clock clock, RoboContext context, Runnable task, long periodNanos) {
+		this.clock = clock;
+		this.context = context;
+		this.task = task;
+		this.periodNanos = periodNanos;
+	}
+
+	public synchronized void start() {
+		generation++;
+		nextTime = clock.nanoTime();
+		scheduleNext();
+	}
+
+	public synchronized void stop() {
+		generation++;
+	}
+
+	private synchronized void scheduleNext() {
+		final int scheduledGeneration = generation;
+		nextTime += periodNanos;
+		clock.schedule(context, new Runnable() {
+			@Override
+			public void run() {
+				tick(scheduledGeneration);
+			}
+		}, Math.max(0, nextTime - clock.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	private void tick(int scheduledGeneration) {
+		synchronized (this) {
+			if (scheduledGeneration != generation) {
+				return;
+			}
+		}
+		try {
+			task.run();
+		} finally {
+			synchronized (this) {
+				if (scheduledGeneration == generation) {
+					scheduleNext();
+				}
+			}
+		}
+	}
+}
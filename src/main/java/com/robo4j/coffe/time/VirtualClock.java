@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.time;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.RoboContext;
+
+/**
+ * A discrete clock. Time only moves when told to, and the scheduled tasks are
+ * run by whoever moves it, in the order of their due time. Tasks due at the
+ * same time run in the order they were scheduled, so a simulation driven from
+ * a single thread is deterministic.
+ * <p>
+ * Starts at time 0. Thread safe; tasks are run outside of the lock, and may
+ * schedule new tasks.
+ *
+ * @author Marcus
+ */
+public final class VirtualClock implements Clock {
+	private static final class Task implements Comparable<Task> {
+		private final long time;
+		private final long sequence;
+		private final Runnable runnable;
+
+		Task(long time, long sequence, Runnable runnable) {
+			this.time = time;
+			this.sequence = sequence;
+			this.runnable = runnable;
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+	private long now;
+	private long sequence;
+
+	@Override
+	public synchronized long nanoTime() {
+		return now;
+	}
+
+	@Override
+	public void schedule(RoboContext context, Runnable task, long delay, TimeUnit unit) {
+		schedule(task, unit.toNanos(delay));
+	}
+
+	/**
+	 * Runs a task after a delay, in ns.
+	 */
+	public synchronized void schedule(Runnable task, long delayNanos) {
+		tasks.add(new Task(now + Math.max(0, delayNanos), sequence++, task));
+	}
+
+	/**
+	 * Runs all tasks due up to, and including, the time, and then moves the
+	 * clock to the time.
+	 *
+	 * @param time
+	 *            the time to move to, in ns. Moving back has no effect.
+	 * @return the number of tasks run.
+	 */
+	public int runUntil(long time) {
+		int count = 0;
+		while (true) {
+			Task task;
+			synchronized (this) {
+				task = tasks.peek();
+				if (task == null || task.time > time) {
+					now = Math.max(now, time);
+					return count;
+				}
+				tasks.poll();
+				now = Math.max(now, task.time);
+			}
+			task.runnable.run();
+			count++;
+		}
+	}
+
+	/**
+	 * Moves the clock to the next task, and runs it.
+	 *
+	 * @return false if there were no tasks.
+	 */
+	public boolean runNext() {
+		Task task;
+		synchronized (this) {
+			task = tasks.poll();
+			if (task == null) {
+				return false;
+			}
+			now = Math.max(now, task.time);
+		}
+		task.runnable.run();
+		return true;
+	}
+
+	/**
+	 * @return the due time of the next task, or Long.MAX_VALUE if there is
+	 *         none.
+	 */
+	public synchronized long getNextTaskTime() {
+		Task task = tasks.peek();
+		return task == null ? Long.MAX_VALUE : task.time;
+	}
+
+	public synchronized int getPendingTasks() {
+		return tasks.size();
+	}
+
+	/**
+	 * Drops all tasks and moves the clock back to 0, e.g. between simulation
+	 * runs.
+	 */
+	public synchronized void reset() {
+		tasks.clear();
+		now = 0;
+		sequence = 0;
+	}
+}
@@ -30,25 +30,62 @@ import com.robo4j.math.geometry.ScanResult2D;
  */
 public final class AnalysisResult {
 	private final ScanResult2D source;
+	private final PackedScan scan;
+	private final PackedScan freshScan;
 	private final FeatureSet features;
 	private final Point2f targetPoint;
 	private final Point2f centerPoint;
+	private final long sequenceNumber;
 
-	public AnalysisResult(ScanResult2D source, FeatureSet features, Point2f targetPoint, Point2f centerPoint) {
+	public AnalysisResult(ScanResult2D source, PackedScan scan, FeatureSet features, Point2f targetPoint, Point2f centerPoint) {
+		this(source, scan, features, targetPoint, centerPoint, 0);
+	}
+
+	public AnalysisResult(ScanResult2D source, PackedScan scan, FeatureSet features, Point2f targetPoint, Point2f centerPoint,
+			long sequenceNumber) {
+		this(source, scan, scan, features, targetPoint, centerPoint, sequenceNumber);
+	}
+
+	public AnalysisResult(ScanResult2D source, PackedScan scan, PackedScan freshScan, FeatureSet features,
+			Point2f targetPoint, Point2f centerPoint, long sequenceNumber) {
 		this.source = source;
+		this.scan = scan;
+		this.freshScan = freshScan;
 		this.features = features;
 		this.targetPoint = targetPoint;
 		this.centerPoint = centerPoint;
+		this.sequenceNumber = sequenceNumber;
 	}
 
 	public FeatureSet getFeatures() {
 		return features;
 	}
 
+	/**
+	 * @return the source scan, or null if the scan was streamed in chunks. Use
+	 *         {@link #getScan()} if the complete scan is needed.
+	 */
 	public ScanResult2D getSource() {
 		return source;
 	}
 
+	/**
+	 * @return the packed version of the source scan. Do not modify.
+	 */
+	public PackedScan getScan() {
+		return scan;
+	}
+
+	/**
+	 * @return the points actually measured for this scan. Same as
+	 *         {@link #getScan()}, except for region of interest scans merged
+	 *         with the previous full scan, where only the region of interest
+	 *         is fresh. Do not modify.
+	 */
+	public PackedScan getFreshScan() {
+		return freshScan;
+	}
+
 	public Point2f getTargetPoint() {
 		return targetPoint;
 	}
@@ -56,4 +93,12 @@ public final class AnalysisResult {
 	public Point2f getCenterPoint() {
 		return centerPoint;
 	}
+
+	/**
+	 * @return the sequence number of the analyzed scan, as set in the
+	 *         {@link ProcessingRequest}.
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
 }
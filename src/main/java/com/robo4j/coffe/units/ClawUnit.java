@@ -21,6 +21,9 @@ import java.util.concurrent.TimeUnit;
 import com.robo4j.ConfigurationException;
 import com.robo4j.RoboContext;
 import com.robo4j.RoboUnit;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.SystemClock;
 import com.robo4j.configuration.Configuration;
 import com.robo4j.units.rpi.pwm.MC33926HBridgeUnit;
 
@@ -49,6 +52,11 @@ public class ClawUnit extends RoboUnit<ClawState> {
 	 */
 	private static final String PROPERTY_KEY_DEFAULT_STATE = "defaultState";
 
+	/**
+	 * The clock to time the claw with. Defaults to the system clock.
+	 */
+	private static final String PROPERTY_KEY_CLOCK = Clocks.KEY_CLOCK;
+
 	private static final Float OPEN_SPEED = 1.0f;
 	private static final Float CLOSE_SPEED = -1.0f;
 	private static final Float STOP_SPEED = 0f;
@@ -59,6 +67,7 @@ public class ClawUnit extends RoboUnit<ClawState> {
 	private volatile ClawState state;
 	private long openTime;
 	private long closeTime;
+	private Clock clock = SystemClock.INSTANCE;
 
 	public ClawUnit(RoboContext context, String id) {
 		super(ClawState.class, context, id);
@@ -97,18 +106,25 @@ public class ClawUnit extends RoboUnit<ClawState> {
 		if (closeTime == -1) {
 			throw ConfigurationException.createMissingConfigNameException(PROPERTY_KEY_CLOSE_TIME);
 		}
+		clock = Clocks.get(configuration.getString(PROPERTY_KEY_CLOCK, null));
 	}
 
 	@Override
-	public void onMessage(ClawState message) {
+	public void onMessage(final ClawState message) {
 		super.onMessage(message);
 		// Do not accept new input before we're (usually) done. Do not accept
 		// new input if it does not change the state.
 		if (!inTransit && state != message) {
 			inTransit = true;
 			delegate.sendMessage(message == ClawState.OPEN ? OPEN_SPEED : CLOSE_SPEED);
-			getContext().getScheduler().schedule(delegate, STOP_SPEED, message == ClawState.OPEN ? openTime : closeTime, 0,
-					TimeUnit.MILLISECONDS, 1, (RoboContext) -> state = message);
+			clock.schedule(getContext(), new Runnable() {
+				@Override
+				public void run() {
+					delegate.sendMessage(STOP_SPEED);
+					state = message;
+					inTransit = false;
+				}
+			}, message == ClawState.OPEN ? openTime : closeTime, TimeUnit.MILLISECONDS);
 		}
 	}
 
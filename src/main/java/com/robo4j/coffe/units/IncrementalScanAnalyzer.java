@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.robo4j.math.features.FeatureSet;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Analyzes a stream of overlapping scans, reusing what it can from the
+ * previous scan. The previous scan is moved into the frame of the new scan
+ * using the {@link MotionDelta}, and only the points that differ from the
+ * prediction by more than the range tolerance are considered changed. Only
+ * the rays that a changed point could possibly block, and the rays that the
+ * motion moved sideways by more than the range tolerance, are cast again; the
+ * rest are carried over from the previous scan. The features are only extracted
+ * again if anything changed at all, since the feature extraction in
+ * robo4j-math works on the whole scan.
+ * <p>
+ * The motion deltas are from one scan to the next, so the previous scan is
+ * only reused if no scan was skipped in between. Falls back to a full analysis
+ * when a scan was skipped, when the motion is unknown or too large, when the
+ * scans do not overlap, or when too much has changed for the bookkeeping to pay
+ * off.
+ * <p>
+ * Not thread safe. Keeps its state between calls.
+ *
+ * @author Marcus
+ */
+public final class IncrementalScanAnalyzer {
+	/**
+	 * If more than this fraction of the points changed, just do it all again.
+	 */
+	private static final float MAX_CHANGED_FRACTION = 0.5f;
+	private static final float HALF_PI = (float) (Math.PI / 2);
+
+	private final float minLateralDistance;
+	private final float rangeTolerance;
+	private final float maxHeadingChange;
+	private final float maxDistanceChange;
+
+	private final PackedScan previousScan = new PackedScan();
+	private boolean hasPrevious;
+	private long previousSequenceNumber;
+	private float previousResolution;
+	private float previousStepAngle;
+	private float previousRayStart;
+	private float previousHorizon;
+	private int previousRayCount;
+	private float[] rayRanges = new float[0];
+
+	private FeatureSet features;
+	private Point2f targetPoint;
+
+	// Scratch arrays, reused between scans
+	private float[] predictedRanges = new float[0];
+	private float[] newRayRanges = new float[0];
+	private boolean[] staleRays = new boolean[0];
+
+	// Statistics for the last scan
+	private boolean wasFullAnalysis;
+	private int recomputedRays;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles for the raycasting,
+	 *            in meters.
+	 * @param rangeTolerance
+	 *            how much, in meters, a range may differ from the predicted
+	 *            range and still be considered unchanged. Also how far
+	 *            sideways a ray may have moved and still be carried over.
+	 * @param maxHeadingChange
+	 *            the largest heading change, in radians, for which we attempt
+	 *            to reuse the previous scan.
+	 * @param maxDistanceChange
+	 *            the longest distance travelled, in meters, for which we
+	 *            attempt to reuse the previous scan.
+	 */
+	public IncrementalScanAnalyzer(float minLateralDistance, float rangeTolerance, float maxHeadingChange, float maxDistanceChange) {
+		this.minLateralDistance = minLateralDistance;
+		this.rangeTolerance = rangeTolerance;
+		this.maxHeadingChange = maxHeadingChange;
+		this.maxDistanceChange = maxDistanceChange;
+	}
+
+	/**
+	 * Analyzes the scan. Get the results with {@link #getFeatures()} and
+	 * {@link #getTargetPoint()}.
+	 *
+	 * @param index
+	 *            the raycasting index, built for the scan to analyze.
+	 * @param points
+	 *            the points of the scan, for the feature extraction.
+	 * @param angularResolution
+	 *            the angular resolution of the scan, in degrees.
+	 * @param stepAngle
+	 *            the step angle for the raycasting, in radians.
+	 * @param motion
+	 *            the motion since the previous scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan. The previous scan is only
+	 *            reused if it had the sequence number just before this one.
+	 */
+	public void analyze(ScanAngleIndex index, List<Point2f> points, float angularResolution, float stepAngle, MotionDelta motion,
+			long sequenceNumber) {
+		PackedScan scan = index.getScan();
+		boolean isContiguous = hasPrevious && sequenceNumber == previousSequenceNumber + 1;
+		previousSequenceNumber = sequenceNumber;
+		if (scan.size() == 0) {
+			hasPrevious = false;
+			features = ScanProcessor.extractFeatures(points, angularResolution);
+			targetPoint = null;
+			return;
+		}
+		if (!isContiguous || !canReuse(scan, angularResolution, stepAngle, motion)
+				|| !analyzeIncrementally(index, points, angularResolution, motion)) {
+			analyzeFully(index, points, angularResolution, stepAngle);
+		}
+		targetPoint = findFarthestRay();
+		scan.copyInto(previousScan);
+		previousResolution = angularResolution;
+		hasPrevious = true;
+	}
+
+	/**
+	 * Forgets the previous scan, forcing the next analysis to be a full one.
+	 */
+	public void reset() {
+		hasPrevious = false;
+		features = null;
+		targetPoint = null;
+	}
+
+	public FeatureSet getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return the point at the end of the longest free ray.
+	 */
+	public Point2f getTargetPoint() {
+		return targetPoint;
+	}
+
+	/**
+	 * @return true if the last scan required a full analysis.
+	 */
+	public boolean wasFullAnalysis() {
+		return wasFullAnalysis;
+	}
+
+	/**
+	 * @return the number of rays that were cast for the last scan.
+	 */
+	public int getRecomputedRays() {
+		return recomputedRays;
+	}
+
+	private boolean canReuse(PackedScan scan, float angularResolution, float stepAngle, MotionDelta motion) {
+		return hasPrevious && motion != null && motion.isKnown() && Math.abs(motion.getHeading()) <= maxHeadingChange
+				&& Math.abs(motion.getDistance()) <= maxDistanceChange && previousResolution == angularResolution
+				&& previousStepAngle == stepAngle;
+	}
+
+	private void analyzeFully(ScanAngleIndex index, List<Point2f> points, float angularResolution, float stepAngle) {
+		PackedScan scan = index.getScan();
+		wasFullAnalysis = true;
+		features = ScanProcessor.extractFeatures(points, angularResolution);
+		float horizon = PackedRaycast.horizon(scan);
+		int rayCount = PackedRaycast.rayCount(scan.getStartAngle(), scan.getEndAngle(), stepAngle);
+		rayRanges = ensureCapacity(rayRanges, rayCount);
+		for (int i = 0; i < rayCount; i++) {
+			float alpha = scan.getStartAngle() + i * stepAngle;
+			rayRanges[i] = index.freeRange(alpha, minLateralDistance);
+		}
+		recomputedRays = rayCount;
+		previousRayStart = scan.getStartAngle();
+		previousRayCount = rayCount;
+		previousStepAngle = stepAngle;
+		previousHorizon = horizon;
+	}
+
+	/**
+	 * @return false if it turned out to be better to do a full analysis.
+	 */
+	private boolean analyzeIncrementally(ScanAngleIndex index, List<Point2f> points, float angularResolution, MotionDelta motion) {
+		PackedScan scan = index.getScan();
+		int size = scan.size();
+		float resolution = (float) Math.toRadians(angularResolution);
+		float heading = motion.getHeading();
+		float distance = motion.getDistance();
+
+		float stepAngle = previousStepAngle;
+		int rayCount = PackedRaycast.rayCount(scan.getStartAngle(), scan.getEndAngle(), stepAngle);
+		staleRays = ensureCapacity(staleRays, rayCount);
+		Arrays.fill(staleRays, 0, rayCount, false);
+
+		// Move the previous points into the current frame, and bin them on
+		// the indices of the current scan. Points that fell outside of the
+		// current scan may still have blocked rays close to the edges.
+		predictedRanges = ensureCapacity(predictedRanges, size);
+		Arrays.fill(predictedRanges, 0, size, Float.POSITIVE_INFINITY);
+		for (int i = 0; i < previousScan.size(); i++) {
+			float x = previousScan.getX(i);
+			float y = previousScan.getY(i) - distance;
+			float angle = (float) Math.atan2(x, y) - heading;
+			float range = (float) Math.sqrt(x * x + y * y);
+			int slot = Math.round((angle - scan.getStartAngle()) / resolution);
+			if (slot >= 0 && slot < size) {
+				predictedRanges[slot] = Math.min(predictedRanges[slot], range);
+			} else {
+				markStale(angle, range, scan.getStartAngle(), stepAngle, rayCount);
+			}
+		}
+
+		// Find what changed, and which rays that may affect.
+		int changed = 0;
+		for (int i = 0; i < size; i++) {
+			float range = scan.getRange(i);
+			float predicted = predictedRanges[i];
+			if (Math.abs(range - predicted) > rangeTolerance) {
+				changed++;
+				markStale(scan.getAngle(i), Math.min(range, predicted), scan.getStartAngle(), stepAngle, rayCount);
+			}
+		}
+		if (changed > size * MAX_CHANGED_FRACTION) {
+			return false;
+		}
+
+		// Carry over the rays that could not have changed, adjusting them for
+		// the distance travelled, and cast the rest.
+		wasFullAnalysis = false;
+		float horizon = PackedRaycast.horizon(scan);
+		newRayRanges = ensureCapacity(newRayRanges, rayCount);
+		int recomputed = 0;
+		for (int i = 0; i < rayCount; i++) {
+			float alpha = scan.getStartAngle() + i * stepAngle;
+			int previousIndex = Math.round((alpha + heading - previousRayStart) / stepAngle);
+			// The ray runs along a line moved sideways by the distance times
+			// the sine of its angle in the previous frame, which can move
+			// obstacles into or out of its lateral band.
+			float previousAlpha = alpha + heading;
+			boolean isMovedSideways = Math.abs(distance * (float) Math.sin(previousAlpha)) > rangeTolerance;
+			if (staleRays[i] || isMovedSideways || previousIndex < 0 || previousIndex >= previousRayCount) {
+				newRayRanges[i] = index.freeRange(alpha, minLateralDistance);
+				recomputed++;
+			} else if (rayRanges[previousIndex] >= previousHorizon) {
+				// Was not blocked before, and still is not
+				newRayRanges[i] = horizon;
+			} else {
+				newRayRanges[i] = Math.max(0, rayRanges[previousIndex] - distance * (float) Math.cos(previousAlpha));
+			}
+		}
+		float[] tmp = rayRanges;
+		rayRanges = newRayRanges;
+		newRayRanges = tmp;
+		recomputedRays = recomputed;
+		previousRayStart = scan.getStartAngle();
+		previousRayCount = rayCount;
+		previousHorizon = horizon;
+
+		if (changed > 0 || features == null) {
+			features = ScanProcessor.extractFeatures(points, angularResolution);
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the rays that a point at the specified angle and range can block.
+	 */
+	private void markStale(float angle, float range, float rayStart, float stepAngle, int rayCount) {
+		float halfWidth = range <= minLateralDistance ? HALF_PI : (float) Math.asin(minLateralDistance / range);
+		int from = Math.max(0, (int) Math.ceil((angle - halfWidth - rayStart) / stepAngle));
+		int to = Math.min(rayCount - 1, (int) Math.floor((angle + halfWidth - rayStart) / stepAngle));
+		for (int i = from; i <= to; i++) {
+			staleRays[i] = true;
+		}
+	}
+
+	private Point2f findFarthestRay() {
+		int best = 0;
+		for (int i = 1; i < previousRayCount; i++) {
+			if (rayRanges[i] > rayRanges[best]) {
+				best = i;
+			}
+		}
+		return Point2f.fromPolar(rayRanges[best], previousRayStart + best * previousStepAngle);
+	}
+
+	private static float[] ensureCapacity(float[] array, int capacity) {
+		return array.length >= capacity ? array : new float[capacity];
+	}
+
+	private static boolean[] ensureCapacity(boolean[] array, int capacity) {
+		return array.length >= capacity ? array : new boolean[capacity];
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.robo4j.ConfigurationException;
+import com.robo4j.RoboContext;
+import com.robo4j.RoboReference;
+import com.robo4j.RoboUnit;
+import com.robo4j.coffe.controllers.CachedReference;
+import com.robo4j.coffe.time.Clock;
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.SystemClock;
+import com.robo4j.configuration.Configuration;
+import com.robo4j.hw.rpi.i2c.adafruitlcd.Color;
+import com.robo4j.logging.SimpleLoggingUtil;
+import com.robo4j.units.rpi.lcd.LcdMessage;
+import com.robo4j.units.rpi.lcd.LcdMessageType;
+
+/**
+ * Sits in front of the LCD unit and keeps the I2C traffic to the display down.
+ * Texts are coalesced, so that only the latest text is shown if several
+ * arrive within the minimum interval, and texts identical to what is already
+ * shown are not sent at all. Other messages, such as clearing the display,
+ * are passed on directly.
+ *
+ * @author Marcus
+ */
+public class LcdOutputUnit extends RoboUnit<LcdMessage> {
+	/**
+	 * The reference id of the lcd unit to send the messages on to.
+	 */
+	public static final String KEY_TARGET = "target";
+
+	/**
+	 * The minimum time, in ms, between updates of the display. Defaults to
+	 * 250.
+	 */
+	public static final String KEY_MIN_INTERVAL = "minInterval";
+
+	/**
+	 * The clock to rate limit with. Defaults to the system clock.
+	 */
+	public static final String KEY_CLOCK = Clocks.KEY_CLOCK;
+
+	private final AtomicReference<LcdMessage> pendingText = new AtomicReference<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private CachedReference<LcdMessage> lcd;
+	private long minIntervalNanos;
+	private Clock clock = SystemClock.INSTANCE;
+	private volatile long lastSendTime;
+	// Set when something else than a text was sent
+	private volatile boolean isShownTextUnknown;
+	// Only touched when flushing, which is never done concurrently
+	private String shownText;
+	private Color shownColor;
+
+	public LcdOutputUnit(RoboContext context, String id) {
+		super(LcdMessage.class, context, id);
+	}
+
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		String target = configuration.getString(KEY_TARGET, null);
+		if (target == null) {
+			throw ConfigurationException.createMissingConfigNameException(KEY_TARGET);
+		}
+		lcd = new CachedReference<>(getContext(), target);
+		minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getInteger(KEY_MIN_INTERVAL, 250));
+		clock = Clocks.get(configuration.getString(KEY_CLOCK, null));
+		lastSendTime = clock.nanoTime() - minIntervalNanos;
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		lcd.invalidate();
+	}
+
+	@Override
+	public void onMessage(LcdMessage message) {
+		super.onMessage(message);
+		if (message.getType() == LcdMessageType.SET_TEXT) {
+			pendingText.set(message);
+			scheduleFlush();
+		} else {
+			isShownTextUnknown = true;
+			send(message);
+		}
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			long delay = lastSendTime + minIntervalNanos - clock.nanoTime();
+			if (delay <= 0) {
+				flush();
+			} else {
+				clock.schedule(getContext(), flusher, delay, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	private void flush() {
+		if (isShownTextUnknown) {
+			isShownTextUnknown = false;
+			shownText = null;
+			shownColor = null;
+		}
+		LcdMessage message = pendingText.getAndSet(null);
+		if (message != null && !isShown(message)) {
+			send(message);
+			shownText = message.getText();
+			shownColor = message.getColor();
+		}
+		flushScheduled.set(false);
+		// A text may have arrived after we took the pending one
+		if (pendingText.get() != null) {
+			scheduleFlush();
+		}
+	}
+
+	private boolean isShown(LcdMessage message) {
+		return message.getColor() == shownColor && message.getText().equals(shownText);
+	}
+
+	private void send(LcdMessage message) {
+		RoboReference<LcdMessage> reference = lcd.get();
+		if (reference != null) {
+			lastSendTime = clock.nanoTime();
+			reference.sendMessage(message);
+		} else {
+			SimpleLoggingUtil.error(LcdOutputUnit.class, "Could not find the reference for " + lcd.getId());
+		}
+	}
+}
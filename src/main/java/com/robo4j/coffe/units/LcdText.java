@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+/**
+ * Cheap formatting of the texts for the LCD. Numbers are appended like
+ * String.format would with %[width].[decimals]f, but without the Formatter
+ * (and the parsing of the format string) for every message.
+ * <p>
+ * Typical use:
+ * 
+ * <pre>
+ * StringBuilder text = LcdText.builder().append("R:");
+ * LcdText.append(text, range, 2, 1);
+ * lcd.sendMessage(new LcdMessage(text.toString(), Color.BLUE));
+ * </pre>
+ *
+ * @author Marcus
+ */
+public final class LcdText {
+	private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000 };
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			// Two rows of 16 characters, plus the newline
+			return new StringBuilder(33);
+		}
+	};
+
+	private LcdText() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * @return an empty builder, reused by the calling thread. Do not hold on
+	 *         to it.
+	 */
+	public static StringBuilder builder() {
+		StringBuilder builder = BUILDER.get();
+		builder.setLength(0);
+		return builder;
+	}
+
+	/**
+	 * Appends the value, as String.format would with
+	 * %[width].[decimals]f.
+	 *
+	 * @param builder
+	 *            the builder to append to.
+	 * @param value
+	 *            the value to append.
+	 * @param width
+	 *            the minimum width, padded with spaces to the left.
+	 * @param decimals
+	 *            the number of decimals, 0 to 6.
+	 * @return the builder.
+	 */
+	public static StringBuilder append(StringBuilder builder, double value, int width, int decimals) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			String special = Double.isNaN(value) ? "NaN" : (value > 0 ? "Infinity" : "-Infinity");
+			pad(builder, special.length(), width);
+			return builder.append(special);
+		}
+		long scale = POWERS_OF_TEN[decimals];
+		long scaled = Math.round(Math.abs(value) * scale);
+		boolean negative = value < 0 && scaled != 0;
+		long integral = scaled / scale;
+		long fraction = scaled % scale;
+		pad(builder, digits(integral) + (negative ? 1 : 0) + (decimals > 0 ? decimals + 1 : 0), width);
+		if (negative) {
+			builder.append('-');
+		}
+		builder.append(integral);
+		if (decimals > 0) {
+			builder.append('.');
+			for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+				builder.append((char) ('0' + (fraction / divisor) % 10));
+			}
+		}
+		return builder;
+	}
+
+	private static void pad(StringBuilder builder, int length, int width) {
+		for (int i = length; i < width; i++) {
+			builder.append(' ');
+		}
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			digits++;
+		}
+		return digits;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+/**
+ * How much Coff-E has moved since the previous scan was taken, as estimated
+ * from odometry and/or the gyro.
+ *
+ * @author Marcus
+ */
+public final class MotionDelta {
+	/**
+	 * Used when we have no idea how we've moved. Forces a full analysis. After
+	 * steering, the distance may still be known, see {@link #isDistanceKnown()}.
+	 */
+	public static final MotionDelta UNKNOWN = new MotionDelta(Float.NaN, Float.NaN);
+
+	private final float heading;
+	private final float distance;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param heading
+	 *            the change in heading, in radians. Positive is to the right.
+	 * @param distance
+	 *            the distance travelled forward, in meters.
+	 */
+	public MotionDelta(float heading, float distance) {
+		this.heading = heading;
+		this.distance = distance;
+	}
+
+	/**
+	 * @return the change in heading, in radians. Positive is to the right.
+	 */
+	public float getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @return the distance travelled forward, in meters.
+	 */
+	public float getDistance() {
+		return distance;
+	}
+
+	/**
+	 * @return true if both the heading and the distance are known.
+	 */
+	public boolean isKnown() {
+		return !Float.isNaN(heading) && !Float.isNaN(distance);
+	}
+
+	/**
+	 * @return true if the distance is known, even if the heading is not.
+	 */
+	public boolean isDistanceKnown() {
+		return !Float.isNaN(distance);
+	}
+
+	@Override
+	public String toString() {
+		return "MotionDelta [heading=" + heading + ", distance=" + distance + "]";
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Raycasting on {@link PackedScan}s. A ray is blocked by any point in front of
+ * origo that is laterally closer to the ray than the minimum lateral distance,
+ * i.e. by anything that Coff-E would hit if he drove along the ray. The free
+ * range of a ray is the distance along the ray to the first such point. If
+ * nothing blocks the ray, the free range is the longest range in the scan,
+ * since we know nothing about what lies beyond that.
+ * <p>
+ * The {@link ScanProcessor} uses this instead of the Raycast of robo4j-math
+ * when configured to raycast on the packed scans, and for the incremental,
+ * parallel and chunked analysis. It differs from Raycast in two ways: only the
+ * points are looked at, not the {@link com.robo4j.math.features.FeatureSet} of
+ * the scan, and unblocked rays get the longest range in the scan. In a closed
+ * room every ray is blocked, and the two should pick the same target and center
+ * points, which is what the PackedRaycastTest checks. In scans with open
+ * directions, the target may be picked differently among the unblocked rays.
+ * <p>
+ * The methods taking a {@link ScanAngleIndex} give the same results, but only
+ * look at the points close to each ray. Build the index once per scan and use
+ * it for all the raycasting on that scan.
+ *
+ * @author Marcus
+ */
+public final class PackedRaycast {
+
+	private PackedRaycast() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * Returns the free range along the ray at the specified angle.
+	 *
+	 * @param scan
+	 *            the scan to cast against.
+	 * @param alpha
+	 *            the angle of the ray, in radians.
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles, in meters.
+	 * @return the free range, in meters.
+	 */
+	public static float freeRange(PackedScan scan, float alpha, float minLateralDistance) {
+		return freeRange(scan, 0, scan.size(), (float) Math.sin(alpha), (float) Math.cos(alpha), minLateralDistance,
+				horizon(scan));
+	}
+
+	/**
+	 * Finds the ray, stepping from the start angle to the end angle of the
+	 * scan, with the longest free range.
+	 *
+	 * @param scan
+	 *            the scan to cast against.
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles, in meters.
+	 * @param stepAngle
+	 *            the angle between the rays, in radians.
+	 * @return the point at the end of the longest free ray, or null if the
+	 *         scan is empty.
+	 */
+	public static Point2f raycastFarthestPoint(PackedScan scan, float minLateralDistance, float stepAngle) {
+		if (scan.size() == 0) {
+			return null;
+		}
+		return raycastAtAngle(scan, scan.getStartAngle(), scan.getEndAngle(), stepAngle, minLateralDistance);
+	}
+
+	/**
+	 * Finds the ray, stepping from the start angle to the end angle, with the
+	 * longest free range.
+	 *
+	 * @param scan
+	 *            the scan to cast against.
+	 * @param startAngle
+	 *            the angle of the first ray, in radians.
+	 * @param endAngle
+	 *            the angle of the last ray, in radians.
+	 * @param stepAngle
+	 *            the angle between the rays, in radians.
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles, in meters.
+	 * @return the point at the end of the longest free ray, or null if the
+	 *         scan is empty.
+	 */
+	public static Point2f raycastAtAngle(PackedScan scan, float startAngle, float endAngle, float stepAngle,
+			float minLateralDistance) {
+		if (scan.size() == 0) {
+			return null;
+		}
+		float horizon = horizon(scan);
+		float bestRange = -1;
+		float bestAngle = startAngle;
+		int rays = rayCount(startAngle, endAngle, stepAngle);
+		for (int i = 0; i < rays; i++) {
+			float alpha = startAngle + i * stepAngle;
+			float range = freeRange(scan, 0, scan.size(), (float) Math.sin(alpha), (float) Math.cos(alpha), minLateralDistance,
+					horizon);
+			if (range > bestRange) {
+				bestRange = range;
+				bestAngle = alpha;
+			}
+		}
+		return Point2f.fromPolar(bestRange, bestAngle);
+	}
+
+	/**
+	 * Indexed version of
+	 * {@link #raycastFarthestPoint(PackedScan, float, float)}.
+	 */
+	public static Point2f raycastFarthestPoint(ScanAngleIndex index, float minLateralDistance, float stepAngle) {
+		PackedScan scan = index.getScan();
+		if (scan.size() == 0) {
+			return null;
+		}
+		return raycastAtAngle(index, scan.getStartAngle(), scan.getEndAngle(), stepAngle, minLateralDistance);
+	}
+
+	/**
+	 * Indexed version of
+	 * {@link #raycastAtAngle(PackedScan, float, float, float, float)}.
+	 */
+	public static Point2f raycastAtAngle(ScanAngleIndex index, float startAngle, float endAngle, float stepAngle,
+			float minLateralDistance) {
+		if (index.getScan().size() == 0) {
+			return null;
+		}
+		float bestRange = -1;
+		float bestAngle = startAngle;
+		int rays = rayCount(startAngle, endAngle, stepAngle);
+		for (int i = 0; i < rays; i++) {
+			float alpha = startAngle + i * stepAngle;
+			float range = index.freeRange(alpha, minLateralDistance);
+			if (range > bestRange) {
+				bestRange = range;
+				bestAngle = alpha;
+			}
+		}
+		return Point2f.fromPolar(bestRange, bestAngle);
+	}
+
+	/**
+	 * Returns the number of rays needed to step from start to end, both
+	 * inclusive.
+	 */
+	static int rayCount(float startAngle, float endAngle, float stepAngle) {
+		// Small epsilon so that rounding does not lose the last ray
+		return Math.max(1, (int) Math.floor((endAngle - startAngle) / stepAngle + 1e-4) + 1);
+	}
+
+	/**
+	 * @return the free range for unblocked rays.
+	 */
+	static float horizon(PackedScan scan) {
+		return scan.getRange(scan.getFarthestIndex());
+	}
+
+	/**
+	 * Free range along the ray (dx, dy), only considering the points in the
+	 * index range [from, to).
+	 */
+	static float freeRange(PackedScan scan, int from, int to, float dx, float dy, float minLateralDistance, float horizon) {
+		float free = horizon;
+		for (int i = from; i < to; i++) {
+			float x = scan.getX(i);
+			float y = scan.getY(i);
+			float along = x * dx + y * dy;
+			if (along > 0 && along < free && Math.abs(x * dy - y * dx) < minLateralDistance) {
+				free = along;
+			}
+		}
+		return free;
+	}
+}
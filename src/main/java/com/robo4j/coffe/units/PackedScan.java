@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.robo4j.math.geometry.Point2f;
+import com.robo4j.math.geometry.ScanResult2D;
+
+/**
+ * A scan packed into parallel primitive arrays (structure of arrays), sorted
+ * by angle. The cartesian coordinates are cached, using the same convention as
+ * {@link Point2f#fromPolar(float, float)}: zero angle is straight ahead, x to
+ * the right and y forward.
+ * <p>
+ * This is what the analysis runs on, so that we don't have to chase pointers
+ * to boxed points (and create garbage) on the Pi. Instances can be reused by
+ * calling {@link #load(ScanResult2D)} or {@link #clear(float)}, but note that a
+ * scan that has been passed on in a {@link ProcessingRequest} or an
+ * {@link AnalysisResult} must not be modified.
+ *
+ * @author Marcus
+ */
+public final class PackedScan {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private float[] ranges;
+	private float[] angles;
+	private float[] xs;
+	private float[] ys;
+	private int size;
+	private float angularResolution;
+	private int nearestIndex = -1;
+	private int farthestIndex = -1;
+
+	/**
+	 * Creates an empty scan with the default capacity (a full scan at 0.4
+	 * degrees is 225 points).
+	 */
+	public PackedScan() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty scan.
+	 *
+	 * @param capacity
+	 *            the initial number of points the scan can hold without
+	 *            growing.
+	 */
+	public PackedScan(int capacity) {
+		ranges = new float[capacity];
+		angles = new float[capacity];
+		xs = new float[capacity];
+		ys = new float[capacity];
+	}
+
+	/**
+	 * Packs the specified scan.
+	 *
+	 * @param scan
+	 *            the scan to pack.
+	 * @return a new packed scan.
+	 */
+	public static PackedScan fromScanResult(ScanResult2D scan) {
+		PackedScan packedScan = new PackedScan(Math.max(1, scan.getPoints().size()));
+		packedScan.load(scan);
+		return packedScan;
+	}
+
+	/**
+	 * Replaces the content of this packed scan with the specified scan.
+	 *
+	 * @param scan
+	 *            the scan to load.
+	 */
+	public void load(ScanResult2D scan) {
+		List<Point2f> points = scan.getPoints();
+		clear(scan.getAngularResolution());
+		ensureCapacity(points.size());
+		// Indexed on purpose - the scanner hands us array lists, and we
+		// don't want the iterator.
+		for (int i = 0; i < points.size(); i++) {
+			Point2f p = points.get(i);
+			add(p.getRange(), p.getAngle());
+		}
+	}
+
+	/**
+	 * Empties the scan, keeping the arrays.
+	 *
+	 * @param angularResolution
+	 *            the angular resolution, in degrees, of the points to come.
+	 */
+	public void clear(float angularResolution) {
+		this.angularResolution = angularResolution;
+		size = 0;
+		nearestIndex = -1;
+		farthestIndex = -1;
+	}
+
+	/**
+	 * Adds a point to the scan. Points are expected to be added in angle
+	 * order, but will be sorted into place if not.
+	 *
+	 * @param range
+	 *            the range, in meters.
+	 * @param angle
+	 *            the angle, in radians.
+	 */
+	public void add(float range, float angle) {
+		ensureCapacity(size + 1);
+		int i = size++;
+		// Insertion sort - the scans are almost always already sorted, so
+		// this is usually a single compare.
+		while (i > 0 && angles[i - 1] > angle) {
+			ranges[i] = ranges[i - 1];
+			angles[i] = angles[i - 1];
+			xs[i] = xs[i - 1];
+			ys[i] = ys[i - 1];
+			i--;
+		}
+		ranges[i] = range;
+		angles[i] = angle;
+		xs[i] = range * (float) Math.sin(angle);
+		ys[i] = range * (float) Math.cos(angle);
+		if (i < size - 1) {
+			// Shifted things around, recalculate lazily.
+			nearestIndex = -1;
+			farthestIndex = -1;
+		} else {
+			if (nearestIndex >= 0 && range < ranges[nearestIndex]) {
+				nearestIndex = i;
+			}
+			if (farthestIndex >= 0 && range > ranges[farthestIndex]) {
+				farthestIndex = i;
+			}
+			if (size == 1) {
+				nearestIndex = 0;
+				farthestIndex = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of points in the scan.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the angular resolution, in degrees.
+	 */
+	public float getAngularResolution() {
+		return angularResolution;
+	}
+
+	public float getRange(int index) {
+		return ranges[index];
+	}
+
+	public float getAngle(int index) {
+		return angles[index];
+	}
+
+	public float getX(int index) {
+		return xs[index];
+	}
+
+	public float getY(int index) {
+		return ys[index];
+	}
+
+	/**
+	 * @return the angle of the first (leftmost) point, in radians.
+	 */
+	public float getStartAngle() {
+		return angles[0];
+	}
+
+	/**
+	 * @return the angle of the last (rightmost) point, in radians.
+	 */
+	public float getEndAngle() {
+		return angles[size - 1];
+	}
+
+	/**
+	 * @return the index of the point with the shortest range, or -1 if the
+	 *         scan is empty.
+	 */
+	public int getNearestIndex() {
+		if (nearestIndex < 0) {
+			updateExtremes();
+		}
+		return nearestIndex;
+	}
+
+	/**
+	 * @return the index of the point with the longest range, or -1 if the
+	 *         scan is empty.
+	 */
+	public int getFarthestIndex() {
+		if (farthestIndex < 0) {
+			updateExtremes();
+		}
+		return farthestIndex;
+	}
+
+	/**
+	 * Creates a point object for the specified index. Allocates, so only use
+	 * for results, not in loops.
+	 *
+	 * @param index
+	 *            the index of the point.
+	 * @return the point.
+	 */
+	public Point2f getPoint(int index) {
+		return Point2f.fromPolar(ranges[index], angles[index]);
+	}
+
+	/**
+	 * @return the point with the shortest range. Allocates.
+	 */
+	public Point2f getNearestPoint() {
+		return getPoint(getNearestIndex());
+	}
+
+	/**
+	 * @return the leftmost point, i.e. the one with the lowest angle.
+	 *         Allocates.
+	 */
+	public Point2f getLeftmostPoint() {
+		return getPoint(0);
+	}
+
+	/**
+	 * @return the rightmost point, i.e. the one with the highest angle.
+	 *         Allocates.
+	 */
+	public Point2f getRightmostPoint() {
+		return getPoint(size - 1);
+	}
+
+	/**
+	 * Returns a copy of this scan, trimmed to size.
+	 *
+	 * @return a copy of this scan.
+	 */
+	public PackedScan copy() {
+		PackedScan copy = new PackedScan(Math.max(1, size));
+		copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Copies this scan into the target, reusing the arrays of the target.
+	 *
+	 * @param target
+	 *            the scan to overwrite.
+	 */
+	public void copyInto(PackedScan target) {
+		target.clear(angularResolution);
+		target.ensureCapacity(size);
+		System.arraycopy(ranges, 0, target.ranges, 0, size);
+		System.arraycopy(angles, 0, target.angles, 0, size);
+		System.arraycopy(xs, 0, target.xs, 0, size);
+		System.arraycopy(ys, 0, target.ys, 0, size);
+		target.size = size;
+		target.nearestIndex = nearestIndex;
+		target.farthestIndex = farthestIndex;
+	}
+
+	private void updateExtremes() {
+		int nearest = -1;
+		int farthest = -1;
+		for (int i = 0; i < size; i++) {
+			if (nearest < 0 || ranges[i] < ranges[nearest]) {
+				nearest = i;
+			}
+			if (farthest < 0 || ranges[i] > ranges[farthest]) {
+				farthest = i;
+			}
+		}
+		nearestIndex = nearest;
+		farthestIndex = farthest;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > ranges.length) {
+			int newCapacity = Math.max(capacity, ranges.length * 2);
+			ranges = Arrays.copyOf(ranges, newCapacity);
+			angles = Arrays.copyOf(angles, newCapacity);
+			xs = Arrays.copyOf(xs, newCapacity);
+			ys = Arrays.copyOf(ys, newCapacity);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PackedScan [size=" + size + ", angularResolution=" + angularResolution + "]";
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.robo4j.math.features.FeatureSet;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Runs the scan analysis on several cores. The raycasting sweep is split into
+ * ranges of rays that are cast in a fork-join pool, and the feature extraction
+ * runs as a separate task alongside the raycasting (the feature extraction in
+ * robo4j-math works on the whole scan, so it can't be split up here).
+ * <p>
+ * The rays are written to their own slots, and the longest one is picked
+ * serially in angle order afterwards, so the result is exactly the same as
+ * for {@link PackedRaycast}.
+ *
+ * @author Marcus
+ */
+public final class ParallelScanAnalyzer {
+	private final ForkJoinPool pool;
+	private final int minRaysPerTask;
+
+	private static class RaycastAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ScanAngleIndex index;
+		private final float[] rayRanges;
+		private final float startAngle;
+		private final float stepAngle;
+		private final float minLateralDistance;
+		private final int minRaysPerTask;
+		private final int from;
+		private final int to;
+
+		RaycastAction(ScanAngleIndex index, float[] rayRanges, float startAngle, float stepAngle, float minLateralDistance,
+				int minRaysPerTask, int from, int to) {
+			this.index = index;
+			this.rayRanges = rayRanges;
+			this.startAngle = startAngle;
+			this.stepAngle = stepAngle;
+			this.minLateralDistance = minLateralDistance;
+			this.minRaysPerTask = minRaysPerTask;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= minRaysPerTask) {
+				for (int i = from; i < to; i++) {
+					float alpha = startAngle + i * stepAngle;
+					rayRanges[i] = index.freeRange(alpha, minLateralDistance);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(split(from, middle), split(middle, to));
+			}
+		}
+
+		private RaycastAction split(int from, int to) {
+			return new RaycastAction(index, rayRanges, startAngle, stepAngle, minLateralDistance, minRaysPerTask, from, to);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param parallelism
+	 *            the number of threads to use.
+	 * @param minRaysPerTask
+	 *            the number of rays below which a task will not be split
+	 *            further.
+	 */
+	public ParallelScanAnalyzer(int parallelism, int minRaysPerTask) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.minRaysPerTask = Math.max(1, minRaysPerTask);
+	}
+
+	/**
+	 * Starts the feature extraction in the pool.
+	 *
+	 * @param points
+	 *            the points to extract the features from.
+	 * @param angularResolution
+	 *            the angular resolution, in degrees.
+	 * @return the task, to join when the features are needed.
+	 */
+	public ForkJoinTask<FeatureSet> extractFeatures(final List<Point2f> points, final float angularResolution) {
+		return pool.submit(new Callable<FeatureSet>() {
+			@Override
+			public FeatureSet call() {
+				return ScanProcessor.extractFeatures(points, angularResolution);
+			}
+		});
+	}
+
+	/**
+	 * Parallel version of
+	 * {@link PackedRaycast#raycastFarthestPoint(ScanAngleIndex, float, float)}.
+	 */
+	public Point2f raycastFarthestPoint(ScanAngleIndex index, float minLateralDistance, float stepAngle) {
+		PackedScan scan = index.getScan();
+		if (scan.size() == 0) {
+			return null;
+		}
+		return raycastAtAngle(index, scan.getStartAngle(), scan.getEndAngle(), stepAngle, minLateralDistance);
+	}
+
+	/**
+	 * Parallel version of
+	 * {@link PackedRaycast#raycastAtAngle(ScanAngleIndex, float, float, float, float)}.
+	 */
+	public Point2f raycastAtAngle(ScanAngleIndex index, float startAngle, float endAngle, float stepAngle, float minLateralDistance) {
+		if (index.getScan().size() == 0) {
+			return null;
+		}
+		int rayCount = PackedRaycast.rayCount(startAngle, endAngle, stepAngle);
+		float[] rayRanges = new float[rayCount];
+		pool.invoke(new RaycastAction(index, rayRanges, startAngle, stepAngle, minLateralDistance, minRaysPerTask, 0, rayCount));
+		int best = 0;
+		for (int i = 1; i < rayCount; i++) {
+			if (rayRanges[i] > rayRanges[best]) {
+				best = i;
+			}
+		}
+		return Point2f.fromPolar(rayRanges[best], startAngle + best * stepAngle);
+	}
+
+	/**
+	 * @return the number of threads used.
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
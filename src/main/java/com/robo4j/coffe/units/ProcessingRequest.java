@@ -27,8 +27,13 @@ import com.robo4j.math.geometry.ScanResult2D;
 public class ProcessingRequest {
 	private final RoboReference<AnalysisResult> recipient;
 	private final ScanResult2D scan;
+	private final PackedScan packedScan;
+	private final MotionDelta motionDelta;
+	private final long sequenceNumber;
+	private final ScanStream stream;
 	private final Scope scope;
 	private final float angularResolution;
+	private final boolean isRegionOfInterest;
 
 	public enum Scope {
 		ALL, WALLS, WALLS_AND_CORNERS
@@ -43,10 +48,101 @@ public class ProcessingRequest {
 	 *            the scan to analyze.
 	 */
 	public ProcessingRequest(RoboReference<AnalysisResult> recipient, ScanResult2D scan, Scope scope, float angularResolution) {
+		this(recipient, scan, null, scope, angularResolution);
+	}
+
+	/**
+	 * Creates a request for analysis of an already packed scan.
+	 * 
+	 * @param recipient
+	 *            the recipient to send the result.
+	 * @param scan
+	 *            the scan to analyze.
+	 * @param packedScan
+	 *            the packed version of the scan, or null to let the
+	 *            {@link ScanProcessor} pack it on the worker thread.
+	 */
+	public ProcessingRequest(RoboReference<AnalysisResult> recipient, ScanResult2D scan, PackedScan packedScan, Scope scope,
+			float angularResolution) {
+		this(recipient, scan, packedScan, MotionDelta.UNKNOWN, 0, scope, angularResolution);
+	}
+
+	/**
+	 * Creates a request for analysis of a scan, taken after having moved the
+	 * specified amount since the previous scan. Used by the
+	 * {@link ScanProcessor} in incremental mode.
+	 * 
+	 * @param recipient
+	 *            the recipient to send the result.
+	 * @param scan
+	 *            the scan to analyze.
+	 * @param packedScan
+	 *            the packed version of the scan, or null to let the
+	 *            {@link ScanProcessor} pack it on the worker thread.
+	 * @param motionDelta
+	 *            the motion since the previous scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan, passed on to the
+	 *            {@link AnalysisResult}.
+	 */
+	public ProcessingRequest(RoboReference<AnalysisResult> recipient, ScanResult2D scan, PackedScan packedScan, MotionDelta motionDelta,
+			long sequenceNumber, Scope scope, float angularResolution) {
+		this(recipient, scan, packedScan, motionDelta, sequenceNumber, scope, angularResolution, false);
+	}
+
+	/**
+	 * Creates a request for analysis of a scan, taken after having moved the
+	 * specified amount since the previous scan.
+	 * 
+	 * @param recipient
+	 *            the recipient to send the result.
+	 * @param scan
+	 *            the scan to analyze.
+	 * @param packedScan
+	 *            the packed version of the scan, or null to let the
+	 *            {@link ScanProcessor} pack it on the worker thread.
+	 * @param motionDelta
+	 *            the motion since the previous scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan, passed on to the
+	 *            {@link AnalysisResult}.
+	 * @param isRegionOfInterest
+	 *            true if the scan only covers a region of interest, and
+	 *            should be merged into the last full scan before analysis.
+	 */
+	public ProcessingRequest(RoboReference<AnalysisResult> recipient, ScanResult2D scan, PackedScan packedScan, MotionDelta motionDelta,
+			long sequenceNumber, Scope scope, float angularResolution, boolean isRegionOfInterest) {
 		this.recipient = recipient;
 		this.scan = scan;
+		this.packedScan = packedScan;
+		this.motionDelta = motionDelta;
+		this.sequenceNumber = sequenceNumber;
+		this.stream = null;
 		this.scope = scope;
 		this.angularResolution = angularResolution;
+		this.isRegionOfInterest = isRegionOfInterest;
+	}
+
+	/**
+	 * Creates a request for folding a chunk of a scan into a streaming
+	 * analysis. The result will be sent to the recipient of the stream when the
+	 * last chunk has been processed.
+	 * 
+	 * @param stream
+	 *            the stream the chunk belongs to.
+	 * @param chunk
+	 *            the chunk of the scan.
+	 */
+	public ProcessingRequest(ScanStream stream, ScanResult2D chunk) {
+		this.recipient = stream.getRecipient();
+		this.scan = chunk;
+		this.packedScan = null;
+		this.motionDelta = MotionDelta.UNKNOWN;
+		this.sequenceNumber = stream.getSequenceNumber();
+		this.scope = Scope.ALL;
+		this.angularResolution = stream.getAngularResolution();
+		this.stream = stream;
+		this.isRegionOfInterest = false;
 	}
 
 	public RoboReference<AnalysisResult> getRecipient() {
@@ -57,6 +153,35 @@ public class ProcessingRequest {
 		return scan;
 	}
 
+	/**
+	 * @return the packed scan, or null if the scan has not been packed yet.
+	 */
+	public PackedScan getPackedScan() {
+		return packedScan;
+	}
+
+	/**
+	 * @return the motion since the previous scan, never null.
+	 */
+	public MotionDelta getMotionDelta() {
+		return motionDelta;
+	}
+
+	/**
+	 * @return the sequence number of the scan, or 0 if not set.
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * @return the stream that the scan is a chunk of, or null if the scan is
+	 *         complete.
+	 */
+	public ScanStream getStream() {
+		return stream;
+	}
+
 	public Scope getScope() {
 		return scope;
 	}
@@ -64,4 +189,12 @@ public class ProcessingRequest {
 	public float getAngularResolution() {
 		return angularResolution;
 	}
+
+	/**
+	 * @return true if the scan only covers a region of interest, to be merged
+	 *         into the last full scan.
+	 */
+	public boolean isRegionOfInterest() {
+		return isRegionOfInterest;
+	}
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.Arrays;
+
+/**
+ * An angular index over a {@link PackedScan}, for raycasting. The points
+ * (which are sorted by angle) are grouped into bins of a fixed angular width,
+ * and the angular extent and shortest range of each bin are recorded. A ray
+ * only needs to look at the bins where a point could be laterally closer than
+ * the minimum lateral distance, and can skip bins that are too far along the
+ * ray to shorten it. Bins are visited outwards from the ray, so the nearby
+ * bins shorten the ray early.
+ * <p>
+ * Build it once per scan, and use it for all the rays. The results are the
+ * same as for the brute force raycasting in {@link PackedRaycast}, including
+ * for unblocked rays, so they differ from the Raycast of robo4j-math in the
+ * same way. Not thread safe to build, but can be used from several threads
+ * once built.
+ *
+ * @author Marcus
+ */
+public final class ScanAngleIndex {
+	private static final float HALF_PI = (float) (Math.PI / 2);
+	/**
+	 * Slack for the bin rejection test, so that rounding never makes us skip a
+	 * bin the brute force version would have found a blocker in.
+	 */
+	private static final float EPSILON = 1e-4f;
+
+	private final float binWidth;
+
+	private PackedScan scan;
+	private float startAngle;
+	private float horizon;
+	private float nearest;
+	private int binCount;
+	private int[] binStart = new int[1];
+	private float[] binMinAngle = new float[0];
+	private float[] binMaxAngle = new float[0];
+	private float[] binMinRange = new float[0];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param binWidth
+	 *            the angular width of the bins, in radians.
+	 */
+	public ScanAngleIndex(float binWidth) {
+		this.binWidth = binWidth;
+	}
+
+	/**
+	 * (Re)builds the index for the specified scan. The scan must not be
+	 * modified while the index is in use.
+	 *
+	 * @param scan
+	 *            the scan to index.
+	 * @return this index.
+	 */
+	public ScanAngleIndex build(PackedScan scan) {
+		this.scan = scan;
+		int size = scan.size();
+		if (size == 0) {
+			binCount = 0;
+			return this;
+		}
+		startAngle = scan.getStartAngle();
+		horizon = PackedRaycast.horizon(scan);
+		nearest = scan.getRange(scan.getNearestIndex());
+		binCount = (int) Math.floor((scan.getEndAngle() - startAngle) / binWidth) + 1;
+		ensureCapacity(binCount);
+		Arrays.fill(binMinRange, 0, binCount, Float.POSITIVE_INFINITY);
+		int bin = 0;
+		binStart[0] = 0;
+		for (int i = 0; i < size; i++) {
+			int pointBin = Math.min(binCount - 1, (int) ((scan.getAngle(i) - startAngle) / binWidth));
+			while (bin < pointBin) {
+				binStart[++bin] = i;
+			}
+			float angle = scan.getAngle(i);
+			if (binMinRange[bin] == Float.POSITIVE_INFINITY) {
+				binMinAngle[bin] = angle;
+			}
+			binMaxAngle[bin] = angle;
+			binMinRange[bin] = Math.min(binMinRange[bin], scan.getRange(i));
+		}
+		while (bin < binCount) {
+			binStart[++bin] = size;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the indexed scan.
+	 */
+	public PackedScan getScan() {
+		return scan;
+	}
+
+	/**
+	 * Returns the free range along the ray at the specified angle. See
+	 * {@link PackedRaycast} for the definition.
+	 *
+	 * @param alpha
+	 *            the angle of the ray, in radians.
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles, in meters.
+	 * @return the free range, in meters.
+	 */
+	public float freeRange(float alpha, float minLateralDistance) {
+		if (binCount == 0) {
+			return 0;
+		}
+		float dx = (float) Math.sin(alpha);
+		float dy = (float) Math.cos(alpha);
+		// Nothing farther away than this, angularly, can block the ray.
+		float reach = nearest <= minLateralDistance ? HALF_PI : (float) Math.asin(Math.min(1f, (minLateralDistance + EPSILON) / nearest));
+		int lowest = Math.max(0, (int) Math.floor((alpha - reach - startAngle) / binWidth));
+		int highest = Math.min(binCount - 1, (int) Math.floor((alpha + reach - startAngle) / binWidth));
+		if (lowest > highest) {
+			return horizon;
+		}
+		int center = Math.max(lowest, Math.min(highest, (int) Math.floor((alpha - startAngle) / binWidth)));
+
+		float free = horizon;
+		for (int offset = 0; center - offset >= lowest || center + offset <= highest; offset++) {
+			int left = center - offset;
+			if (left >= lowest) {
+				free = castInBin(left, alpha, dx, dy, minLateralDistance, free);
+			}
+			int right = center + offset;
+			if (offset > 0 && right <= highest) {
+				free = castInBin(right, alpha, dx, dy, minLateralDistance, free);
+			}
+		}
+		return free;
+	}
+
+	private float castInBin(int bin, float alpha, float dx, float dy, float minLateralDistance, float free) {
+		int from = binStart[bin];
+		int to = binStart[bin + 1];
+		if (from == to) {
+			return free;
+		}
+		float minAngle = binMinAngle[bin];
+		float maxAngle = binMaxAngle[bin];
+		float closest = alpha < minAngle ? minAngle - alpha : (alpha > maxAngle ? alpha - maxAngle : 0);
+		if (closest >= HALF_PI || binMinRange[bin] * (float) Math.sin(closest) >= minLateralDistance + EPSILON) {
+			// Everything in the bin is laterally too far away
+			return free;
+		}
+		float farthest = Math.max(Math.abs(alpha - minAngle), Math.abs(alpha - maxAngle));
+		if (farthest < HALF_PI && binMinRange[bin] * (float) Math.cos(farthest) >= free + EPSILON) {
+			// Everything in the bin is beyond what is already blocking
+			return free;
+		}
+		return PackedRaycast.freeRange(scan, from, to, dx, dy, minLateralDistance, free);
+	}
+
+	private void ensureCapacity(int bins) {
+		if (binMinRange.length < bins) {
+			binStart = new int[bins + 1];
+			binMinAngle = new float[bins];
+			binMaxAngle = new float[bins];
+			binMinRange = new float[bins];
+		}
+	}
+}
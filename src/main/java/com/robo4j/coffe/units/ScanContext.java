@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+/**
+ * Keeps the last full scan around, so that narrow region of interest scans
+ * can be merged into it. The context is moved into the frame of each new scan
+ * using the {@link MotionDelta}, the points in the sweep of the region of
+ * interest scan are replaced with the fresh ones, and the result becomes the
+ * new context. That way the analysis of a region of interest scan still knows
+ * about the obstacles outside of it, as last seen.
+ * <p>
+ * The motion deltas are from one scan to the next, so the context is only
+ * merged into if no scan was skipped in between. It is dropped if the motion
+ * is unknown, or if it has been carried along too far.
+ * <p>
+ * Not thread safe.
+ *
+ * @author Marcus
+ */
+final class ScanContext {
+	private static final float HALF_PI = (float) (Math.PI / 2);
+
+	private final float maxDistance;
+	private final PackedScan context = new PackedScan();
+	private boolean hasContext;
+	private long sequenceNumber;
+	// Distance moved since the last full scan
+	private float distance;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxDistance
+	 *            the max distance, in meters, to carry the context along for
+	 *            after the last full scan.
+	 */
+	ScanContext(float maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Replaces the context with a full scan.
+	 */
+	void setFullScan(PackedScan scan, long sequenceNumber) {
+		scan.copyInto(context);
+		this.sequenceNumber = sequenceNumber;
+		distance = 0;
+		hasContext = scan.size() > 0;
+	}
+
+	/**
+	 * Merges a region of interest scan into the context.
+	 * 
+	 * @param scan
+	 *            the region of interest scan.
+	 * @param motion
+	 *            the motion since the previous scan.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan.
+	 * @return the merged scan, or null if there was no context to merge into.
+	 *         A new scan, which may be passed on.
+	 */
+	PackedScan merge(PackedScan scan, MotionDelta motion, long sequenceNumber) {
+		boolean isContiguous = sequenceNumber == this.sequenceNumber + 1;
+		this.sequenceNumber = sequenceNumber;
+		if (!hasContext || !isContiguous || !motion.isKnown() || scan.size() == 0) {
+			hasContext = false;
+			return null;
+		}
+		distance += Math.abs(motion.getDistance());
+		if (distance > maxDistance) {
+			hasContext = false;
+			return null;
+		}
+		float resolution = Math.max(context.getAngularResolution(), scan.getAngularResolution());
+		// Leave half a step on either side, so that the seams are not denser
+		// than the rest
+		float margin = (float) Math.toRadians(scan.getAngularResolution()) / 2;
+		float roiStart = scan.getStartAngle() - margin;
+		float roiEnd = scan.getEndAngle() + margin;
+		PackedScan merged = new PackedScan(context.size() + scan.size());
+		merged.clear(resolution);
+		float heading = motion.getHeading();
+		float moved = motion.getDistance();
+		for (int i = 0; i < context.size(); i++) {
+			// Same convention as the incremental analysis
+			float x = context.getX(i);
+			float y = context.getY(i) - moved;
+			float angle = (float) Math.atan2(x, y) - heading;
+			if (angle < -HALF_PI || angle > HALF_PI || (angle >= roiStart && angle <= roiEnd)) {
+				continue;
+			}
+			float range = (float) Math.sqrt(x * x + y * y);
+			merged.add(range, angle);
+		}
+		for (int i = 0; i < scan.size(); i++) {
+			merged.add(scan.getRange(i), scan.getAngle(i));
+		}
+		merged.copyInto(context);
+		return merged;
+	}
+
+	void reset() {
+		hasContext = false;
+	}
+}
@@ -16,9 +16,17 @@
  */
 package com.robo4j.coffe.units;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import com.robo4j.ConfigurationException;
 import com.robo4j.RoboContext;
 import com.robo4j.RoboUnit;
 import com.robo4j.WorkTrait;
+import com.robo4j.coffe.jfr.LoopStage;
+import com.robo4j.coffe.jfr.StageTimer;
+import com.robo4j.configuration.Configuration;
 import com.robo4j.math.features.FeatureExtraction;
 import com.robo4j.math.features.FeatureSet;
 import com.robo4j.math.features.Raycast;
@@ -36,10 +44,86 @@ import com.robo4j.math.jfr.FeatureExtractionEvent;
  */
 @WorkTrait
 public class ScanProcessor extends RoboUnit<ProcessingRequest> {
-	private static final float MIN_LATERAL_DISTANCE = 0.32f; // in meters
-	private static final float RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.4f);
-	private static final float DETAILED_RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.2f);
-	private static final float ONE_DEGREE = (float) Math.toRadians(1.0);
+	static final float MIN_LATERAL_DISTANCE = 0.32f; // in meters
+	static final float RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.4f);
+	static final float DETAILED_RAYCASTING_STEP_ANGLE = (float) Math.toRadians(0.2f);
+	static final float ONE_DEGREE = (float) Math.toRadians(1.0);
+
+	/**
+	 * Set to true to raycast on the packed scan, using the angular index,
+	 * instead of using the Raycast of robo4j-math. Defaults to false. The
+	 * incremental, parallel and chunked analysis always use the packed
+	 * raycasting. See {@link PackedRaycast} for how the two differ.
+	 */
+	public static final String KEY_PACKED_RAYCAST = "packedRaycast";
+
+	/**
+	 * Set to true to reuse results from the previous scan when the request
+	 * carries a known {@link MotionDelta}. Defaults to false.
+	 */
+	public static final String KEY_INCREMENTAL = "incremental";
+
+	/**
+	 * How much, in meters, a range may differ from the predicted range and
+	 * still be considered unchanged in incremental mode.
+	 */
+	public static final String KEY_INCREMENTAL_RANGE_TOLERANCE = "incrementalRangeTolerance";
+
+	/**
+	 * The largest heading change, in degrees, for which the previous scan will
+	 * be reused in incremental mode.
+	 */
+	public static final String KEY_INCREMENTAL_MAX_HEADING = "incrementalMaxHeading";
+
+	/**
+	 * The longest distance, in meters, for which the previous scan will be
+	 * reused in incremental mode.
+	 */
+	public static final String KEY_INCREMENTAL_MAX_DISTANCE = "incrementalMaxDistance";
+
+	/**
+	 * The number of threads to use for the analysis. Defaults to 1, i.e. the
+	 * analysis runs serially on the worker thread. Note that the threads are
+	 * not part of the Robo4J worker pool, so take them into account when
+	 * sizing the pools in the system configuration. Ignored for requests
+	 * handled in incremental mode.
+	 */
+	public static final String KEY_PARALLELISM = "parallelism";
+
+	/**
+	 * How far, in meters, Coff-E may move after the last full scan and still
+	 * have region of interest scans merged into it. Defaults to 1.
+	 */
+	public static final String KEY_CONTEXT_DISTANCE = "contextDistance";
+
+	/**
+	 * Don't split the raycasting into tasks smaller than this.
+	 */
+	private static final int MIN_RAYS_PER_TASK = 16;
+
+	/**
+	 * Angular width of the bins in the raycasting index.
+	 */
+	static final float INDEX_BIN_WIDTH = (float) Math.toRadians(2.0);
+
+	// Built once per scan, shared by the raycasts on that scan.
+	private static final ThreadLocal<ScanAngleIndex> INDEX = new ThreadLocal<ScanAngleIndex>() {
+		@Override
+		protected ScanAngleIndex initialValue() {
+			return createIndex();
+		}
+	};
+
+	// Only set if running in incremental mode
+	private IncrementalScanAnalyzer incrementalAnalyzer;
+
+	// Only set if running in parallel
+	private ParallelScanAnalyzer parallelAnalyzer;
+
+	// The last full scan, for the region of interest scans to be merged into
+	private ScanContext scanContext;
+
+	private boolean isPackedRaycast;
 
 	/**
 	 * Constructor.
@@ -53,22 +137,156 @@ public class ScanProcessor extends RoboUnit<ProcessingRequest> {
 		super(ProcessingRequest.class, context, id);
 	}
 
+	@Override
+	protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		if (configuration.getBoolean(KEY_INCREMENTAL, false)) {
+			incrementalAnalyzer = new IncrementalScanAnalyzer(MIN_LATERAL_DISTANCE,
+					configuration.getFloat(KEY_INCREMENTAL_RANGE_TOLERANCE, 0.05f),
+					(float) Math.toRadians(configuration.getFloat(KEY_INCREMENTAL_MAX_HEADING, 5f)),
+					configuration.getFloat(KEY_INCREMENTAL_MAX_DISTANCE, 0.3f));
+		} else {
+			incrementalAnalyzer = null;
+		}
+		int parallelism = configuration.getInteger(KEY_PARALLELISM, 1);
+		if (parallelism > 1) {
+			parallelAnalyzer = new ParallelScanAnalyzer(parallelism, MIN_RAYS_PER_TASK);
+		} else {
+			parallelAnalyzer = null;
+		}
+		scanContext = new ScanContext(configuration.getFloat(KEY_CONTEXT_DISTANCE, 1f));
+		isPackedRaycast = configuration.getBoolean(KEY_PACKED_RAYCAST, false) || incrementalAnalyzer != null
+				|| parallelAnalyzer != null;
+	}
+
+	@Override
+	public void shutdown() {
+		if (parallelAnalyzer != null) {
+			parallelAnalyzer.shutdown();
+		}
+		super.shutdown();
+	}
+
 	@Override
 	public void onMessage(ProcessingRequest message) {
 		super.onMessage(message);
 		// NOTE(Marcus/Aug 20, 2017): The feature extraction is computationally
 		// expensive, but will not hold up the system scheduler, since this unit
 		// is marked as @WorkTrait.
-		FeatureExtractionEvent event = new FeatureExtractionEvent(message.getScan().getPoints().size(), message.getAngularResolution());
+		if (message.getStream() != null) {
+			StageTimer timer = StageTimer.start(LoopStage.ANALYSIS, message.getStream().getSequenceNumber());
+			processChunk(message);
+			timer.stop();
+			return;
+		}
+		StageTimer timer = StageTimer.start(LoopStage.ANALYSIS, message.getSequenceNumber());
+		PackedScan scan = message.getPackedScan();
+		if (scan == null) {
+			scan = PackedScan.fromScanResult(message.getScan());
+		}
+		PackedScan freshScan = scan;
+		List<Point2f> points = message.getScan().getPoints();
+		float angularResolution = message.getAngularResolution();
+		if (message.isRegionOfInterest()) {
+			PackedScan merged;
+			synchronized (scanContext) {
+				merged = scanContext.merge(scan, message.getMotionDelta(), message.getSequenceNumber());
+			}
+			if (merged != null) {
+				scan = merged;
+				points = toPoints(merged);
+				angularResolution = merged.getAngularResolution();
+			}
+		} else if (message.getSequenceNumber() != 0) {
+			synchronized (scanContext) {
+				scanContext.setFullScan(scan, message.getSequenceNumber());
+			}
+		}
+		float stepAngle = angularResolution < 1 ? DETAILED_RAYCASTING_STEP_ANGLE : RAYCASTING_STEP_ANGLE;
+		FeatureSet features;
+		Point2f targetPoint;
+		Point2f centerPoint;
+		if (isPackedRaycast) {
+			ScanAngleIndex index = INDEX.get().build(scan);
+			if (incrementalAnalyzer != null) {
+				// The analyzer keeps the previous scan around, so one at a time.
+				synchronized (incrementalAnalyzer) {
+					incrementalAnalyzer.analyze(index, points, angularResolution, stepAngle, message.getMotionDelta(),
+							message.getSequenceNumber());
+					features = incrementalAnalyzer.getFeatures();
+					targetPoint = incrementalAnalyzer.getTargetPoint();
+				}
+			} else if (parallelAnalyzer != null) {
+				ForkJoinTask<FeatureSet> featureTask = parallelAnalyzer.extractFeatures(points, angularResolution);
+				targetPoint = parallelAnalyzer.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle);
+				features = featureTask.join();
+			} else {
+				features = extractFeatures(points, angularResolution);
+				targetPoint = PackedRaycast.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle);
+			}
+			centerPoint = PackedRaycast.raycastAtAngle(index, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE,
+					MIN_LATERAL_DISTANCE);
+		} else {
+			features = extractFeatures(points, angularResolution);
+			targetPoint = Raycast.raycastFarthestPoint(points, MIN_LATERAL_DISTANCE, stepAngle, features);
+			centerPoint = Raycast.raycastAtAngle(points, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE,
+					MIN_LATERAL_DISTANCE, features);
+		}
+		timer.stop();
+		message.getRecipient().sendMessage(new AnalysisResult(message.getScan(), scan, freshScan, features, targetPoint,
+				centerPoint, message.getSequenceNumber()));
+	}
+
+	private void processChunk(ProcessingRequest message) {
+		ScanStream stream = message.getStream();
+		float stepAngle = stream.getAngularResolution() < 1 ? DETAILED_RAYCASTING_STEP_ANGLE : RAYCASTING_STEP_ANGLE;
+		if (stream.accept(message.getScan(), MIN_LATERAL_DISTANCE, stepAngle)) {
+			// Last one - only the features and the center left to do.
+			PackedScan scan = stream.getScan();
+			if (stream.getSequenceNumber() != 0) {
+				// Region of interest scans merge into it, like any full scan.
+				// The incremental analyzer never sees it, so it starts over
+				// on the next scan, being out of sequence.
+				synchronized (scanContext) {
+					scanContext.setFullScan(scan, stream.getSequenceNumber());
+				}
+			}
+			FeatureSet features = extractFeatures(stream.getPoints(), stream.getAngularResolution());
+			Point2f centerPoint = PackedRaycast.raycastAtAngle(scan, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE,
+					MIN_LATERAL_DISTANCE);
+			stream.getRecipient().sendMessage(new AnalysisResult(null, scan, features, stream.getTargetPoint(), centerPoint,
+					stream.getSequenceNumber()));
+		}
+	}
+
+	/**
+	 * Unpacks the points of a merged scan, for the feature extraction.
+	 */
+	private static List<Point2f> toPoints(PackedScan scan) {
+		List<Point2f> points = new ArrayList<>(scan.size());
+		for (int i = 0; i < scan.size(); i++) {
+			points.add(scan.getPoint(i));
+		}
+		return points;
+	}
+
+	/**
+	 * @return a new index for raycasting, with the bin width used by the
+	 *         ScanProcessor.
+	 */
+	static ScanAngleIndex createIndex() {
+		return new ScanAngleIndex(INDEX_BIN_WIDTH);
+	}
+
+	/**
+	 * Extracts the features, recording a JFR event for it.
+	 */
+	static FeatureSet extractFeatures(List<Point2f> points, float angularResolution) {
+		FeatureExtractionEvent event = new FeatureExtractionEvent(points.size(), angularResolution);
 		event.begin();
-		FeatureSet features = FeatureExtraction.getFeatures(message.getScan().getPoints(), message.getAngularResolution());
+		// FeatureExtraction is in robo4j-math, and still wants the points.
+		FeatureSet features = FeatureExtraction.getFeatures(points, angularResolution);
 		event.end();
 		event.commit();
-		Point2f targetPoint = Raycast.raycastFarthestPoint(message.getScan().getPoints(), MIN_LATERAL_DISTANCE,
-				message.getAngularResolution() < 1 ? DETAILED_RAYCASTING_STEP_ANGLE : RAYCASTING_STEP_ANGLE, features);
-
-		Point2f centerPoint = Raycast.raycastAtAngle(message.getScan().getPoints(), -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE,
-				MIN_LATERAL_DISTANCE, features);
-		message.getRecipient().sendMessage(new AnalysisResult(message.getScan(), features, targetPoint, centerPoint));
+		return features;
 	}
 }
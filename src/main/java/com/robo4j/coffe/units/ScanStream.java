@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.robo4j.RoboReference;
+import com.robo4j.math.geometry.Point2f;
+import com.robo4j.math.geometry.ScanResult2D;
+
+/**
+ * A scan that arrives in chunks, e.g. when a sweep is split into several
+ * smaller sweeps. Each chunk is folded into the raycasting as it arrives:
+ * every point updates the rays it can block, so once the last chunk is in,
+ * all that remains is the feature extraction and picking the longest ray.
+ * <p>
+ * Send the chunks to the {@link ScanProcessor} with
+ * {@link ProcessingRequest#ProcessingRequest(ScanStream, ScanResult2D)}. The
+ * chunks may be processed in any order. The result is sent to the recipient
+ * when all the expected chunks have been processed.
+ *
+ * @author Marcus
+ */
+public final class ScanStream {
+	private static final float HALF_PI = (float) (Math.PI / 2);
+	private static final Comparator<Point2f> ANGLE_ORDER = new Comparator<Point2f>() {
+		@Override
+		public int compare(Point2f p1, Point2f p2) {
+			return Float.compare(p1.getAngle(), p2.getAngle());
+		}
+	};
+
+	private final RoboReference<AnalysisResult> recipient;
+	private final float startAngle;
+	private final float endAngle;
+	private final float angularResolution;
+	private final int expectedChunks;
+	private final long sequenceNumber;
+
+	private final PackedScan scan;
+	private final List<Point2f> points;
+	private int receivedChunks;
+
+	// Set up when the first chunk is processed
+	private float minLateralDistance;
+	private float stepAngle;
+	private int rayCount;
+	private float[] rayRanges;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param recipient
+	 *            the recipient of the analysis, when all chunks are in.
+	 * @param startAngle
+	 *            the start angle of the complete sweep, in degrees.
+	 * @param range
+	 *            the angular range of the complete sweep, in degrees.
+	 * @param angularResolution
+	 *            the angular resolution, in degrees.
+	 * @param expectedChunks
+	 *            the number of chunks the sweep is split into.
+	 * @param sequenceNumber
+	 *            the sequence number of the scan, passed on to the
+	 *            {@link AnalysisResult}.
+	 */
+	public ScanStream(RoboReference<AnalysisResult> recipient, float startAngle, float range, float angularResolution,
+			int expectedChunks, long sequenceNumber) {
+		this.recipient = recipient;
+		this.startAngle = (float) Math.toRadians(startAngle);
+		this.endAngle = (float) Math.toRadians(startAngle + range);
+		this.angularResolution = angularResolution;
+		this.expectedChunks = expectedChunks;
+		this.sequenceNumber = sequenceNumber;
+		int expectedPoints = Math.round(range / angularResolution) + 1;
+		this.scan = new PackedScan(expectedPoints);
+		this.scan.clear(angularResolution);
+		this.points = new ArrayList<>(expectedPoints);
+	}
+
+	public RoboReference<AnalysisResult> getRecipient() {
+		return recipient;
+	}
+
+	/**
+	 * @return the angular resolution, in degrees.
+	 */
+	public float getAngularResolution() {
+		return angularResolution;
+	}
+
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Folds a chunk into the analysis.
+	 *
+	 * @param chunk
+	 *            the chunk to add.
+	 * @param minLateralDistance
+	 *            the minimum lateral distance to obstacles, in meters.
+	 * @param stepAngle
+	 *            the step angle for the raycasting, in radians.
+	 * @return true if this was the last expected chunk.
+	 */
+	synchronized boolean accept(ScanResult2D chunk, float minLateralDistance, float stepAngle) {
+		if (rayRanges == null) {
+			this.minLateralDistance = minLateralDistance;
+			this.stepAngle = stepAngle;
+			rayCount = PackedRaycast.rayCount(startAngle, endAngle, stepAngle);
+			rayRanges = new float[rayCount];
+			Arrays.fill(rayRanges, Float.POSITIVE_INFINITY);
+		}
+		List<Point2f> chunkPoints = chunk.getPoints();
+		for (int i = 0; i < chunkPoints.size(); i++) {
+			Point2f p = chunkPoints.get(i);
+			points.add(p);
+			scan.add(p.getRange(), p.getAngle());
+			updateRays(p.getRange(), p.getAngle());
+		}
+		return ++receivedChunks == expectedChunks;
+	}
+
+	/**
+	 * @return the complete packed scan. Only valid when all chunks are in.
+	 */
+	PackedScan getScan() {
+		return scan;
+	}
+
+	/**
+	 * @return all the points, sorted by angle. Only valid when all chunks are
+	 *         in.
+	 */
+	synchronized List<Point2f> getPoints() {
+		for (int i = 1; i < points.size(); i++) {
+			if (points.get(i - 1).getAngle() > points.get(i).getAngle()) {
+				points.sort(ANGLE_ORDER);
+				break;
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * @return the point at the end of the longest free ray, or null if there
+	 *         were no points. Only valid when all chunks are in.
+	 */
+	synchronized Point2f getTargetPoint() {
+		if (scan.size() == 0) {
+			return null;
+		}
+		// Unblocked rays are as long as the longest range, as for the
+		// PackedRaycast.
+		float horizon = PackedRaycast.horizon(scan);
+		int best = 0;
+		float bestRange = Math.min(horizon, rayRanges[0]);
+		for (int i = 1; i < rayCount; i++) {
+			float range = Math.min(horizon, rayRanges[i]);
+			if (range > bestRange) {
+				best = i;
+				bestRange = range;
+			}
+		}
+		return Point2f.fromPolar(bestRange, startAngle + best * stepAngle);
+	}
+
+	private void updateRays(float range, float angle) {
+		float x = range * (float) Math.sin(angle);
+		float y = range * (float) Math.cos(angle);
+		float halfWidth = range <= minLateralDistance ? HALF_PI : (float) Math.asin(minLateralDistance / range);
+		int from = Math.max(0, (int) Math.ceil((angle - halfWidth - startAngle) / stepAngle));
+		int to = Math.min(rayCount - 1, (int) Math.floor((angle + halfWidth - startAngle) / stepAngle));
+		for (int i = from; i <= to; i++) {
+			float alpha = startAngle + i * stepAngle;
+			float dx = (float) Math.sin(alpha);
+			float dy = (float) Math.cos(alpha);
+			float along = x * dx + y * dy;
+			if (along > 0 && along < rayRanges[i] && Math.abs(x * dy - y * dx) < minLateralDistance) {
+				rayRanges[i] = along;
+			}
+		}
+	}
+}
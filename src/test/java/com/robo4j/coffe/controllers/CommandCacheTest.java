@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Checks that the interned commands keep the small steering corrections.
+ *
+ * @author Marcus
+ */
+public class CommandCacheTest {
+	private static final float TOLERANCE = (float) Math.toRadians(0.05);
+
+	private final CommandCache<float[]> cache = new CommandCache<float[]>("test.commands") {
+		@Override
+		protected float[] create(float speed, float direction) {
+			return new float[] { speed, direction };
+		}
+	};
+
+	@Test
+	public void testKeepsSmallCorrections() {
+		for (float degrees : new float[] { 0.2f, 0.4f, -0.3f, 7f }) {
+			float direction = (float) Math.toRadians(degrees);
+			float[] command = cache.get(1f, direction);
+			assertEquals("Direction for " + degrees + " degrees", direction, command[1], TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testReusesCommands() {
+		float[] command = cache.get(0.5f, (float) Math.toRadians(0.4));
+		assertSame(command, cache.get(0.5f, (float) Math.toRadians(0.41)));
+		assertNotSame(command, cache.get(0.5f, (float) Math.toRadians(0.3)));
+		assertEquals(0.5f, command[0], 0f);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Runs rotations against a simulated motor with command latency and a first
+ * order lag, like the RotationSettleHarness in the benchmarks, and checks that
+ * the controller stops close to the target.
+ *
+ * @author Marcus
+ */
+public class RotationControllerTest {
+	private static final float MAX_RATE = 360f;
+	private static final float TIME_CONSTANT = 0.05f;
+	private static final long COMMAND_LATENCY_NANOS = 20_000_000L;
+	private static final long GYRO_PERIOD_NANOS = 10_000_000L;
+	private static final long STEP_NANOS = 1_000_000L;
+	private static final long TIMEOUT_NANOS = 10_000_000_000L;
+	private static final float RATE_AT_REST = 2f;
+	private static final float ROTATION_SPEED = 1.0f;
+	private static final float MAX_OVERSHOOT = 5f;
+
+	private float angle;
+	private float rate;
+	private float speed;
+	private float commandedSpeed;
+	private long time;
+	// Commands on their way to the motors
+	private final float[] pendingSpeeds = new float[64];
+	private final long[] pendingTimes = new long[64];
+	private int pendingHead;
+	private int pendingCount;
+
+	@Test
+	public void testSettlesCloseToTarget() {
+		for (float target : new float[] { 10, 25, 45, 90, 180, -10, -90 }) {
+			reset();
+			float overshoot = run(target, new RotationController(30f, 0.3f, 0.06f));
+			assertTrue("Did not settle rotating " + target, time < TIMEOUT_NANOS);
+			assertEquals("Overshoot rotating " + target, 0, overshoot, MAX_OVERSHOOT);
+		}
+	}
+
+	@Test
+	public void testOvershootsLessThanThresholdStop() {
+		for (float target : new float[] { 45, 90, 180 }) {
+			reset();
+			float threshold = run(target, null);
+			reset();
+			float predictive = run(target, new RotationController(30f, 0.3f, 0.06f));
+			assertTrue("Rotating " + target + ": " + predictive + " vs " + threshold,
+					Math.abs(predictive) < Math.abs(threshold));
+		}
+	}
+
+	@Test
+	public void testSlowsDownBeforeTarget() {
+		RotationController controller = new RotationController(30f, 0.3f, 0.06f);
+		controller.start(90, 1f);
+		assertEquals(1f, controller.update(0, 0), 0f);
+		// No rate yet, so only the ramp applies
+		controller.start(90, 1f);
+		assertEquals(0.5f, controller.update(75, 0), 1e-6f);
+		controller.start(90, 1f);
+		assertEquals(0.3f, controller.update(89, 0), 1e-6f);
+		controller.start(90, 1f);
+		assertEquals(0f, controller.update(90, 0), 0f);
+	}
+
+	private void reset() {
+		angle = 0;
+		rate = 0;
+		speed = 0;
+		commandedSpeed = 0;
+		time = 0;
+		pendingHead = 0;
+		pendingCount = 0;
+	}
+
+	/**
+	 * @return the overshoot, in degrees, once at rest. Negative if short of the
+	 *         target.
+	 */
+	private float run(float target, RotationController controller) {
+		float direction = Math.signum(target);
+		if (controller != null) {
+			controller.start(target, ROTATION_SPEED);
+		}
+		command(ROTATION_SPEED * direction);
+		boolean stopped = false;
+		while (time < TIMEOUT_NANOS) {
+			step();
+			time += STEP_NANOS;
+			if (time % GYRO_PERIOD_NANOS == 0 && !stopped) {
+				if (controller == null) {
+					if (angle * direction >= target * direction) {
+						command(0);
+						stopped = true;
+					}
+				} else {
+					float newSpeed = controller.update(angle, time) * direction;
+					// Same quantization as the TankController
+					if (newSpeed == 0 || Math.abs(newSpeed - commandedSpeed) >= 0.05f) {
+						command(newSpeed);
+					}
+					stopped = newSpeed == 0;
+				}
+			}
+			if (stopped && pendingCount == 0 && Math.abs(rate) < RATE_AT_REST) {
+				break;
+			}
+		}
+		return (angle - target) * direction;
+	}
+
+	private void command(float newSpeed) {
+		int slot = (pendingHead + pendingCount++) % pendingSpeeds.length;
+		pendingSpeeds[slot] = newSpeed;
+		pendingTimes[slot] = time + COMMAND_LATENCY_NANOS;
+		commandedSpeed = newSpeed;
+	}
+
+	private void step() {
+		while (pendingCount > 0 && time >= pendingTimes[pendingHead]) {
+			speed = pendingSpeeds[pendingHead];
+			pendingHead = (pendingHead + 1) % pendingSpeeds.length;
+			pendingCount--;
+		}
+		float dt = STEP_NANOS / 1e9f;
+		rate += (speed * MAX_RATE - rate) * dt / TIME_CONSTANT;
+		angle += rate * dt;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.robo4j.RoboContext;
+import com.robo4j.configuration.Configuration;
+
+/**
+ * Starts the metrics unit on a free port, and reads the metrics over HTTP.
+ *
+ * @author Marcus
+ */
+public class MetricsUnitTest {
+	private MetricsUnit unit;
+
+	@Before
+	public void setUp() throws Exception {
+		Configuration configuration = mock(Configuration.class);
+		when(configuration.getString(MetricsUnit.KEY_ADDRESS, "127.0.0.1")).thenReturn("127.0.0.1");
+		when(configuration.getInteger(MetricsUnit.KEY_PORT, 8025)).thenReturn(0);
+		when(configuration.getInteger(MetricsUnit.KEY_SAMPLE_PERIOD, 1000)).thenReturn(1000);
+		// A virtual clock that is never advanced, so the sampler never runs
+		when(configuration.getString(MetricsUnit.KEY_CLOCK, null)).thenReturn("metricsUnitTest");
+		unit = new MetricsUnit(mock(RoboContext.class), "metrics");
+		unit.initialize(configuration);
+		unit.start();
+	}
+
+	@After
+	public void tearDown() {
+		unit.stop();
+	}
+
+	@Test
+	public void testServesMetrics() throws IOException {
+		Metrics.counter("test.served").add(42);
+		Metrics.histogram("test.latency").record(1_500_000);
+		int port = unit.getPort();
+		assertTrue("Not serving", port > 0);
+
+		String body = get(port, "/metrics");
+		assertTrue(body, body.contains("test.served 42 "));
+		assertTrue(body, body.contains("test.latency count=1 "));
+
+		// Dumped before the reset
+		body = get(port, "/metrics?reset");
+		assertTrue(body, body.contains("test.latency count=1 "));
+		body = get(port, "/metrics");
+		assertTrue(body, body.contains("test.latency count=0 "));
+		assertTrue(body, body.contains("test.served 42 "));
+	}
+
+	@Test
+	public void testOnlyGet() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + unit.getPort() + "/metrics")
+				.openConnection();
+		connection.setRequestMethod("POST");
+		assertEquals(405, connection.getResponseCode());
+		connection.disconnect();
+	}
+
+	@Test
+	public void testStopsServing() {
+		assertTrue(unit.getPort() > 0);
+		unit.stop();
+		assertEquals(-1, unit.getPort());
+	}
+
+	private static String get(int port, String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+		try {
+			assertEquals(200, connection.getResponseCode());
+			assertEquals("text/plain; charset=utf-8", connection.getContentType());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (InputStream in = connection.getInputStream()) {
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					out.write(buffer, 0, read);
+				}
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Aligns a map frame, rotated and translated relative to the compass, with
+ * GPS fixes taken along a drive.
+ *
+ * @author Marcus
+ */
+public class GeoFrameTest {
+	private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6371000;
+	private static final double ORIGIN_LATITUDE = 59.33;
+	private static final double ORIGIN_LONGITUDE = 18.06;
+	private static final float BEARING = (float) Math.toRadians(30);
+	private static final float TOLERANCE = 0.01f;
+
+	@Test
+	public void testAlignsAfterSpread() {
+		GeoFrame frame = new GeoFrame(1, 1);
+		frame.addFix(toFix(0, 0, 0, 0, BEARING), 0, 0);
+		assertFalse(frame.isAligned());
+		for (int i = 1; i <= 10; i++) {
+			// An L shaped drive in the map
+			float x = i <= 5 ? 0 : i - 5;
+			float y = Math.min(i, 5);
+			frame.addFix(toFix(x, y, 0, 0, BEARING), x, y);
+		}
+		assertTrue(frame.isAligned());
+		assertEquals(BEARING, frame.getRotation(), 1e-3f);
+
+		GpsFix fix = toFix(-3, 7, 0, 0, BEARING);
+		float[] map = new float[2];
+		frame.toMap(fix.getLatitude(), fix.getLongitude(), map);
+		assertEquals(-3, map[0], TOLERANCE);
+		assertEquals(7, map[1], TOLERANCE);
+	}
+
+	@Test
+	public void testFollowsDriftingMap() {
+		GeoFrame frame = new GeoFrame(1, 0.8f);
+		float[] map = new float[2];
+		for (int i = 0; i < 100; i++) {
+			float x = (float) Math.sin(i * 0.3) * 5;
+			float y = (float) Math.cos(i * 0.2) * 5;
+			// The map pose jumps by a meter half way
+			float offset = i < 50 ? 0 : 1;
+			frame.addFix(toFix(x, y, offset, 0, BEARING), x, y);
+		}
+		GpsFix fix = toFix(2, 2, 1, 0, BEARING);
+		frame.toMap(fix.getLatitude(), fix.getLongitude(), map);
+		assertEquals(2, map[0], TOLERANCE);
+		assertEquals(2, map[1], TOLERANCE);
+	}
+
+	@Test
+	public void testReset() {
+		GeoFrame frame = new GeoFrame(1, 1);
+		for (int i = 0; i < 5; i++) {
+			frame.addFix(toFix(i, i, 0, 0, BEARING), i, i);
+		}
+		assertTrue(frame.isAligned());
+		frame.reset();
+		assertFalse(frame.isAligned());
+		frame.addFix(toFix(0, 0, 0, 0, BEARING), 0, 0);
+		assertFalse(frame.isAligned());
+	}
+
+	/**
+	 * The GPS fix at a map position, with the map frame rotated to the
+	 * bearing and its origin at the specified position, in meters east and
+	 * north of the origin of the test.
+	 */
+	private static GpsFix toFix(float mapX, float mapY, float originEast, float originNorth, float bearing) {
+		double east = originEast + mapX * Math.cos(bearing) + mapY * Math.sin(bearing);
+		double north = originNorth - mapX * Math.sin(bearing) + mapY * Math.cos(bearing);
+		double latitude = ORIGIN_LATITUDE + north / METERS_PER_DEGREE;
+		double longitude = ORIGIN_LONGITUDE + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LATITUDE)));
+		return new GpsFix(latitude, longitude, Float.NaN);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.navigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.robo4j.coffe.slam.OccupancyGrid;
+
+/**
+ * Plans around a wall on a cost map derived from a hand made grid.
+ *
+ * @author Marcus
+ */
+public class PathPlannerTest {
+	private static final float CELL_SIZE = 0.05f;
+	private static final int OCCUPIED = 100;
+
+	private OccupancyGrid grid;
+	private CostMap costMap;
+	private PathPlanner planner;
+
+	@Before
+	public void setUp() {
+		grid = new OccupancyGrid(CELL_SIZE, 10, 1024);
+		// A wall from x = -2 to 2 m, between the start and the goal
+		for (float x = -2; x <= 2; x += CELL_SIZE) {
+			setOccupied(x, 0);
+		}
+		costMap = new CostMap(grid, 4, 0.15f, 0.4f);
+		costMap.update();
+		planner = new PathPlanner(costMap);
+	}
+
+	@Test
+	public void testPlansAroundWall() {
+		assertTrue(planner.plan(0, -2, 0, 2));
+		assertPathValid(0, -2, 0, 2);
+		boolean isAround = false;
+		for (int i = 0; i < planner.getPathLength(); i++) {
+			isAround |= Math.abs(planner.getPathX(i)) > 2;
+		}
+		assertTrue("The path does not go around the wall", isAround);
+	}
+
+	@Test
+	public void testReusesPathUntilBlocked() {
+		assertTrue(planner.plan(0, -2, 0, 2));
+		int length = planner.getPathLength();
+
+		// A bit along the path, the old path is still good
+		float x = planner.getPathX(5);
+		float y = planner.getPathY(5);
+		assertTrue(planner.replan(x, y, 0, 2));
+		assertTrue(planner.isReused());
+		assertEquals(0, planner.getExpandedCells());
+		assertEquals(length - 5, planner.getPathLength());
+		assertPathValid(x, y, 0, 2);
+
+		// Block the middle of the path
+		int middle = planner.getPathLength() / 2;
+		float blockX = planner.getPathX(middle);
+		float blockY = planner.getPathY(middle);
+		for (float dx = -0.1f; dx <= 0.1f; dx += CELL_SIZE) {
+			for (float dy = -0.1f; dy <= 0.1f; dy += CELL_SIZE) {
+				setOccupied(blockX + dx, blockY + dy);
+			}
+		}
+		assertTrue(costMap.update());
+		assertTrue(planner.replan(x, y, 0, 2));
+		assertFalse(planner.isReused());
+		assertTrue(planner.getExpandedCells() > 0);
+		assertPathValid(x, y, 0, 2);
+	}
+
+	@Test
+	public void testNoPathToEnclosedGoal() {
+		for (float d = -0.5f; d <= 0.5f; d += CELL_SIZE) {
+			setOccupied(3 + d, 2.5f);
+			setOccupied(3 + d, 3.5f);
+			setOccupied(2.5f, 3 + d);
+			setOccupied(3.5f, 3 + d);
+		}
+		costMap.update();
+		assertFalse(planner.plan(0, -2, 3, 3));
+		assertEquals(0, planner.getPathLength());
+	}
+
+	private void setOccupied(float x, float y) {
+		grid.setLogOdds(grid.toCellX(x), grid.toCellY(y), OCCUPIED);
+	}
+
+	/**
+	 * Checks that the path connects the cells of the start and the goal, in
+	 * steps to neighbouring cells, without entering a lethal cell.
+	 */
+	private void assertPathValid(float fromX, float fromY, float toX, float toY) {
+		int length = planner.getPathLength();
+		assertTrue(length > 1);
+		assertEquals(costMap.toCellX(fromX), costMap.toCellX(planner.getPathX(0)), 1);
+		assertEquals(costMap.toCellY(fromY), costMap.toCellY(planner.getPathY(0)), 1);
+		assertEquals(costMap.toCellX(toX), costMap.toCellX(planner.getPathX(length - 1)));
+		assertEquals(costMap.toCellY(toY), costMap.toCellY(planner.getPathY(length - 1)));
+		for (int i = 0; i < length; i++) {
+			int cellX = costMap.toCellX(planner.getPathX(i));
+			int cellY = costMap.toCellY(planner.getPathY(i));
+			assertFalse("Lethal cell at " + i, costMap.isLethal(cellX, cellY));
+			if (i > 0) {
+				assertEquals(costMap.toCellX(planner.getPathX(i - 1)), cellX, 1);
+				assertEquals(costMap.toCellY(planner.getPathY(i - 1)), cellY, 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.coffe.units.ScanFixtures;
+
+/**
+ * Drives a curve through a room, with the steering making the heading unknown
+ * at every step, as reported by the dead reckoning.
+ *
+ * @author Marcus
+ */
+public class GridMapperTest {
+	private static final float MAX_RANGE = 5.6f;
+	private static final float RESOLUTION = 1f;
+	private static final float SWEEP = 120f;
+	private static final float STEP_DISTANCE = 0.1f;
+	private static final float STEP_TURN = (float) Math.toRadians(4);
+	private static final float POSITION_TOLERANCE = 0.1f;
+	private static final float HEADING_TOLERANCE = (float) Math.toRadians(3);
+
+	@Test
+	public void testKeepsMappingWhileSteering() {
+		float[] walls = createRoom();
+		OccupancyGrid grid = new OccupancyGrid(0.05f, 20, 256);
+		GridMapper mapper = new GridMapper(grid, MAX_RANGE);
+		float x = 0;
+		float y = 0;
+		float heading = 0;
+		long sequence = 1;
+		mapper.scanTaken(new MotionDelta(0, 0), sequence);
+		assertTrue(mapper.integrate(scan(walls, x, y, heading), sequence));
+		for (int step = 0; step < 20; step++) {
+			x += STEP_DISTANCE * (float) Math.sin(heading);
+			y += STEP_DISTANCE * (float) Math.cos(heading);
+			heading += STEP_TURN;
+			sequence++;
+			mapper.scanTaken(new MotionDelta(Float.NaN, STEP_DISTANCE), sequence);
+			assertFalse(mapper.isPoseKnown());
+
+			long versions = sumTileVersions(grid);
+			assertTrue("Scan not mapped at step " + step, mapper.integrate(scan(walls, x, y, heading), sequence));
+			assertTrue("Grid not updated at step " + step, sumTileVersions(grid) > versions);
+			assertTrue("Pose not recovered at step " + step, mapper.isPoseKnown());
+			assertEquals("x at step " + step, x, mapper.getX(), POSITION_TOLERANCE);
+			assertEquals("y at step " + step, y, mapper.getY(), POSITION_TOLERANCE);
+			assertEquals("Heading at step " + step, heading, mapper.getHeading(), HEADING_TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testCorrectsPosesTakenSinceTheUncertainOne() {
+		float[] walls = createRoom();
+		OccupancyGrid grid = new OccupancyGrid(0.05f, 20, 256);
+		GridMapper mapper = new GridMapper(grid, MAX_RANGE);
+		mapper.scanTaken(new MotionDelta(0, 0), 1);
+		assertTrue(mapper.integrate(scan(walls, 0, 0, 0), 1));
+
+		// Steered, then drove straight while the steered scan was analyzed
+		float heading = (float) Math.toRadians(10);
+		mapper.scanTaken(new MotionDelta(Float.NaN, STEP_DISTANCE), 2);
+		mapper.scanTaken(new MotionDelta(0, STEP_DISTANCE), 3);
+		float x = STEP_DISTANCE * (float) Math.sin(heading);
+		float y = STEP_DISTANCE + STEP_DISTANCE * (float) Math.cos(heading);
+		assertTrue(mapper.integrate(scan(walls, 0, STEP_DISTANCE, heading), 2));
+		assertTrue(mapper.isPoseKnown());
+		assertEquals(x, mapper.getX(), POSITION_TOLERANCE);
+		assertEquals(y, mapper.getY(), POSITION_TOLERANCE);
+		assertEquals(heading, mapper.getHeading(), HEADING_TOLERANCE);
+	}
+
+	private static long sumTileVersions(OccupancyGrid grid) {
+		long sum = 0;
+		for (int tileY = 0; tileY < grid.getTilesPerSide(); tileY++) {
+			for (int tileX = 0; tileX < grid.getTilesPerSide(); tileX++) {
+				sum += grid.getTileVersion(tileX, tileY);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * A 6 x 6 m room around the origin, with a few posts to tell the places
+	 * along the walls apart.
+	 */
+	private static float[] createRoom() {
+		return ScanFixtures.walls(
+				-3, -2, 3, 4,
+				-1.5f, 2, -1.2f, 2.3f,
+				1, 1.5f, 1.2f, 1.7f,
+				2, -1, 2.4f, -0.8f,
+				-2.2f, -0.5f, -2, 0);
+	}
+
+	private static PackedScan scan(float[] walls, float x, float y, float heading) {
+		return ScanFixtures.scan(walls, x, y, heading, RESOLUTION, SWEEP, MAX_RANGE);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.slam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.robo4j.coffe.time.Clocks;
+import com.robo4j.coffe.time.VirtualClock;
+import com.robo4j.coffe.units.MotionDelta;
+import com.robo4j.coffe.units.PackedScan;
+import com.robo4j.coffe.units.ScanFixtures;
+
+/**
+ * Checks that the localization finds the pose after unknown motion, and that
+ * it can be repeated with a fixed seed and a virtual clock.
+ *
+ * @author Marcus
+ */
+public class ParticleLocalizerTest {
+	private static final float MAX_RANGE = 5.6f;
+	// A square room around the origin
+	private static final float[] WALLS = ScanFixtures.walls(-2, -2, 2, 2);
+	// The walls are drawn at the resolution of the map
+	private static final float POSITION_TOLERANCE = 0.05f;
+	private static final float HEADING_TOLERANCE = (float) Math.toRadians(2);
+
+	@Test
+	public void testRepeatable() {
+		OccupancyGrid grid = createMap(WALLS);
+		VirtualClock clock = Clocks.getVirtual("particleLocalizerTest");
+		ParticleLocalizer first = new ParticleLocalizer(200, 1_000_000, 1, MAX_RANGE, 17, clock);
+		ParticleLocalizer second = new ParticleLocalizer(200, 1_000_000, 1, MAX_RANGE, 17, clock);
+		for (ParticleLocalizer localizer : new ParticleLocalizer[] { first, second }) {
+			driveToOrigin(localizer, grid);
+			// The virtual clock stands still, so the budget is never exceeded
+			assertEquals(0, localizer.getLastMatchNanos());
+		}
+		assertEquals(first.getX(), second.getX(), 0f);
+		assertEquals(first.getY(), second.getY(), 0f);
+		assertEquals(first.getHeading(), second.getHeading(), 0f);
+		assertEquals(first.getFilter().getParticleCount(), second.getFilter().getParticleCount());
+	}
+
+	@Test
+	public void testFindsPoseAfterUnknownMotion() {
+		OccupancyGrid grid = createMap(WALLS);
+		VirtualClock clock = Clocks.getVirtual("particleLocalizerTest");
+		ParticleLocalizer localizer = new ParticleLocalizer(200, 1_000_000, 1, MAX_RANGE, 17, clock);
+		float unknownSpread = driveToOrigin(localizer, grid);
+		assertEquals(0, localizer.getX(), POSITION_TOLERANCE);
+		assertEquals(0, localizer.getY(), POSITION_TOLERANCE);
+		assertEquals(0, localizer.getHeading(), HEADING_TOLERANCE);
+		assertTrue(localizer.getFilter().getSpread() < unknownSpread / 4);
+	}
+
+	/**
+	 * Drives from (0, -1) to the origin, heading north all along, with every
+	 * other motion unknown and the known ones off in heading.
+	 *
+	 * @return the largest spread right after an unknown motion.
+	 */
+	private static float driveToOrigin(ParticleLocalizer localizer, OccupancyGrid grid) {
+		float unknownSpread = 0;
+		localizer.reset(0, -1, 0);
+		for (int step = 1; step <= 5; step++) {
+			if (step % 2 == 0) {
+				localizer.moved(MotionDelta.UNKNOWN);
+				unknownSpread = Math.max(unknownSpread, localizer.getFilter().getSpread());
+			} else {
+				localizer.moved(new MotionDelta(0.05f, 0.2f));
+			}
+			localizer.localize(scan(0, -1 + 0.2f * step, 0), grid);
+		}
+		return unknownSpread;
+	}
+
+	/**
+	 * A map of the walls, as if they had been seen many times.
+	 */
+	private static OccupancyGrid createMap(float[] walls) {
+		OccupancyGrid grid = new OccupancyGrid(0.05f, 10, 256);
+		for (int i = 0; i < walls.length; i += 4) {
+			float dx = walls[i + 2] - walls[i];
+			float dy = walls[i + 3] - walls[i + 1];
+			int steps = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / 0.025);
+			for (int step = 0; step <= steps; step++) {
+				float x = walls[i] + dx * step / steps;
+				float y = walls[i + 1] + dy * step / steps;
+				grid.setLogOdds(grid.toCellX(x), grid.toCellY(y), 100);
+			}
+		}
+		return grid;
+	}
+
+	private static PackedScan scan(float x, float y, float heading) {
+		return ScanFixtures.scan(WALLS, x, y, heading, 1f, 90f, MAX_RANGE);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Drives through random rooms, checking the incremental analysis against a
+ * full raycast of every scan.
+ *
+ * @author Marcus
+ */
+public class IncrementalScanAnalyzerTest {
+	// As in the ScanProcessor
+	private static final float MIN_LATERAL_DISTANCE = 0.32f;
+	private static final float STEP_ANGLE = (float) Math.toRadians(0.4);
+	private static final float BIN_WIDTH = (float) Math.toRadians(2.0);
+	private static final float RANGE_TOLERANCE = 0.05f;
+	private static final float MAX_HEADING = (float) Math.toRadians(5);
+	private static final float MAX_DISTANCE = 0.3f;
+
+	private static final float RESOLUTION = 1f;
+	private static final float SWEEP = 45f;
+	private static final float MAX_RANGE = 10f;
+	// The tolerance, plus the lateral error of carrying a ray half a step
+	private static final float MARGIN = 0.1f;
+
+	@Test
+	public void testNeverFreeThroughObstacles() {
+		Random random = new Random(4711);
+		int incremental = 0;
+		for (int room = 0; room < 20; room++) {
+			float[] walls = createRoom(random);
+			IncrementalScanAnalyzer analyzer = new IncrementalScanAnalyzer(MIN_LATERAL_DISTANCE, RANGE_TOLERANCE, MAX_HEADING,
+					MAX_DISTANCE);
+			float x = 0;
+			float y = -4;
+			float heading = 0;
+			MotionDelta motion = MotionDelta.UNKNOWN;
+			for (int step = 0; step < 20; step++) {
+				PackedScan scan = ScanFixtures.scan(walls, x, y, heading, RESOLUTION, SWEEP, MAX_RANGE);
+				ScanAngleIndex index = new ScanAngleIndex(BIN_WIDTH).build(scan);
+				analyzer.analyze(index, ScanFixtures.toPoints(scan), RESOLUTION, STEP_ANGLE, motion, step + 1);
+				if (!analyzer.wasFullAnalysis()) {
+					incremental++;
+				}
+				Point2f target = analyzer.getTargetPoint();
+				float free = PackedRaycast.freeRange(scan, target.getAngle(), MIN_LATERAL_DISTANCE - MARGIN);
+				assertFalse("Free through an obstacle at " + target + " in room " + room + ", step " + step,
+						target.getRange() > free + MARGIN);
+				float best = PackedRaycast.raycastFarthestPoint(scan, MIN_LATERAL_DISTANCE + MARGIN, STEP_ANGLE).getRange();
+				assertFalse("Missed the best ray in room " + room + ", step " + step, target.getRange() < best - MARGIN);
+
+				// Drive forward, then turn, like a MotionDelta
+				float distance = 0.05f + random.nextFloat() * (MAX_DISTANCE - 0.05f);
+				float turn = (float) Math.toRadians(random.nextFloat() * 8 - 4);
+				x += distance * (float) Math.sin(heading);
+				y += distance * (float) Math.cos(heading);
+				heading += turn;
+				motion = new MotionDelta(turn, distance);
+			}
+		}
+		assertTrue("Too few incremental analyses to test anything", incremental > 100);
+	}
+
+	@Test
+	public void testFullAnalysisAfterSkippedScan() {
+		float[] walls = ScanFixtures.walls(-2, -2, 2, 2);
+		PackedScan first = ScanFixtures.scan(walls, 0, -1, 0, RESOLUTION, SWEEP, MAX_RANGE);
+		PackedScan second = ScanFixtures.scan(walls, 0, -0.9f, 0, RESOLUTION, SWEEP, MAX_RANGE);
+		MotionDelta motion = new MotionDelta(0, 0.1f);
+		IncrementalScanAnalyzer analyzer = new IncrementalScanAnalyzer(MIN_LATERAL_DISTANCE, RANGE_TOLERANCE, MAX_HEADING,
+				MAX_DISTANCE);
+
+		analyze(analyzer, first, MotionDelta.UNKNOWN, 1);
+		analyze(analyzer, second, motion, 2);
+		assertFalse(analyzer.wasFullAnalysis());
+
+		// Scan 2 was dropped, so the motion is only the one since scan 2
+		analyze(analyzer, first, MotionDelta.UNKNOWN, 1);
+		analyze(analyzer, second, motion, 3);
+		assertTrue(analyzer.wasFullAnalysis());
+	}
+
+	private static void analyze(IncrementalScanAnalyzer analyzer, PackedScan scan, MotionDelta motion, long sequence) {
+		ScanAngleIndex index = new ScanAngleIndex(BIN_WIDTH).build(scan);
+		analyzer.analyze(index, ScanFixtures.toPoints(scan), RESOLUTION, STEP_ANGLE, motion, sequence);
+	}
+
+	/**
+	 * A 12 x 12 m room, with the robot at (0, -4) facing north, and posts
+	 * scattered ahead of it.
+	 */
+	private static float[] createRoom(Random random) {
+		return ScanFixtures.room(random, new float[] { -6, -6, 6, 6 }, 15, new float[] { -4, -2, 4, 6 });
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.robo4j.math.features.FeatureExtraction;
+import com.robo4j.math.features.FeatureSet;
+import com.robo4j.math.features.Raycast;
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Checks the packed and indexed raycasting against the Raycast of robo4j-math,
+ * with the step angles of the ScanProcessor, on scans of random closed rooms,
+ * and against each other on scans with open directions.
+ *
+ * @author Marcus
+ */
+public class PackedRaycastTest {
+	private static final float MIN_LATERAL_DISTANCE = ScanProcessor.MIN_LATERAL_DISTANCE;
+	private static final float RAYCASTING_STEP_ANGLE = ScanProcessor.RAYCASTING_STEP_ANGLE;
+	private static final float DETAILED_RAYCASTING_STEP_ANGLE = ScanProcessor.DETAILED_RAYCASTING_STEP_ANGLE;
+	private static final float ONE_DEGREE = ScanProcessor.ONE_DEGREE;
+	private static final float BIN_WIDTH = ScanProcessor.INDEX_BIN_WIDTH;
+
+	private static final float MAX_RANGE = 10f;
+	private static final float RANGE_TOLERANCE = 0.001f;
+	private static final float ANGLE_TOLERANCE = 1e-4f;
+
+	@Test
+	public void testSameAsRaycastInClosedRooms() {
+		Random random = new Random(4711);
+		for (int room = 0; room < 50; room++) {
+			float[] walls = createRoom(random, 8, 8);
+			// The full and the fast scans of the MissionController
+			for (float resolution : new float[] { 0.4f, 1f }) {
+				float sweep = resolution < 1 ? 45f : 30f;
+				float stepAngle = resolution < 1 ? DETAILED_RAYCASTING_STEP_ANGLE : RAYCASTING_STEP_ANGLE;
+				PackedScan scan = ScanFixtures.scan(walls, 0, 0, 0, resolution, sweep, MAX_RANGE);
+				List<Point2f> points = ScanFixtures.toPoints(scan);
+				FeatureSet features = FeatureExtraction.getFeatures(points, resolution);
+				ScanAngleIndex index = new ScanAngleIndex(BIN_WIDTH).build(scan);
+				String message = "Room " + room + " at " + resolution + " degrees: ";
+
+				Point2f expected = Raycast.raycastFarthestPoint(points, MIN_LATERAL_DISTANCE, stepAngle, features);
+				assertSamePoint(message + "target", expected,
+						PackedRaycast.raycastFarthestPoint(scan, MIN_LATERAL_DISTANCE, stepAngle));
+				assertSamePoint(message + "indexed target", expected,
+						PackedRaycast.raycastFarthestPoint(index, MIN_LATERAL_DISTANCE, stepAngle));
+
+				expected = Raycast.raycastAtAngle(points, -ONE_DEGREE, ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE,
+						MIN_LATERAL_DISTANCE, features);
+				assertSamePoint(message + "center", expected, PackedRaycast.raycastAtAngle(scan, -ONE_DEGREE, ONE_DEGREE,
+						DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE));
+				assertSamePoint(message + "indexed center", expected, PackedRaycast.raycastAtAngle(index, -ONE_DEGREE,
+						ONE_DEGREE, DETAILED_RAYCASTING_STEP_ANGLE, MIN_LATERAL_DISTANCE));
+			}
+		}
+	}
+
+	@Test
+	public void testIndexedSameAsBruteForce() {
+		Random random = new Random(17);
+		for (int room = 0; room < 50; room++) {
+			// Rooms larger than the max range, with gaps where nothing was hit
+			float[] walls = createRoom(random, 30, 30);
+			PackedScan scan = ScanFixtures.scanHits(walls, 0, 0, 0, 1f, 45f, MAX_RANGE);
+			ScanAngleIndex index = new ScanAngleIndex(BIN_WIDTH).build(scan);
+			for (float alpha = scan.getStartAngle(); alpha <= scan.getEndAngle(); alpha += RAYCASTING_STEP_ANGLE) {
+				assertEquals("Room " + room + " at " + alpha, PackedRaycast.freeRange(scan, alpha, MIN_LATERAL_DISTANCE),
+						index.freeRange(alpha, MIN_LATERAL_DISTANCE), 0f);
+			}
+		}
+	}
+
+	private static void assertSamePoint(String message, Point2f expected, Point2f actual) {
+		assertEquals(message + " range", expected.getRange(), actual.getRange(), RANGE_TOLERANCE);
+		assertEquals(message + " angle", expected.getAngle(), actual.getAngle(), ANGLE_TOLERANCE);
+	}
+
+	/**
+	 * A room of the specified size, with the robot in the middle of the south
+	 * wall, facing north, and posts scattered ahead of it.
+	 */
+	private static float[] createRoom(Random random, float width, float depth) {
+		return ScanFixtures.room(random, new float[] { -width / 2, -0.5f, width / 2, depth - 0.5f },
+				3 + random.nextInt(10), new float[] { -3, 0.5f, 3, 6.5f });
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014, 2018, Marcus Hirt, Miroslav Wengner
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.coffe.units;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.robo4j.math.geometry.Point2f;
+
+/**
+ * Rooms made out of boxes, and the scans Coff-E would take in them, for the
+ * tests. The walls are kept as x1, y1, x2, y2 for each segment, the boxes as
+ * minX, minY, maxX, maxY. Angles are clockwise from north, like in the scans.
+ *
+ * @author Marcus
+ */
+public final class ScanFixtures {
+
+	private ScanFixtures() {
+		// Not to be instantiated
+	}
+
+	/**
+	 * Returns the walls of the specified boxes.
+	 *
+	 * @param boxes
+	 *            the boxes, four floats each.
+	 * @return the walls of the boxes, four per box.
+	 */
+	public static float[] walls(float... boxes) {
+		float[] walls = new float[boxes.length * 4];
+		for (int box = 0; box < boxes.length / 4; box++) {
+			float minX = boxes[box * 4];
+			float minY = boxes[box * 4 + 1];
+			float maxX = boxes[box * 4 + 2];
+			float maxY = boxes[box * 4 + 3];
+			setSegment(walls, box * 4, minX, minY, maxX, minY);
+			setSegment(walls, box * 4 + 1, maxX, minY, maxX, maxY);
+			setSegment(walls, box * 4 + 2, maxX, maxY, minX, maxY);
+			setSegment(walls, box * 4 + 3, minX, maxY, minX, minY);
+		}
+		return walls;
+	}
+
+	/**
+	 * Returns the walls of a room, with square posts scattered in the specified
+	 * area.
+	 *
+	 * @param random
+	 *            where the posts go.
+	 * @param room
+	 *            the box of the room.
+	 * @param posts
+	 *            the number of posts.
+	 * @param area
+	 *            the box in which the posts are placed.
+	 * @return the walls.
+	 */
+	public static float[] room(Random random, float[] room, int posts, float[] area) {
+		float[] boxes = new float[4 + posts * 4];
+		System.arraycopy(room, 0, boxes, 0, 4);
+		for (int i = 1; i <= posts; i++) {
+			float x = area[0] + random.nextFloat() * (area[2] - area[0]);
+			float y = area[1] + random.nextFloat() * (area[3] - area[1]);
+			float side = 0.1f + random.nextFloat() * 0.3f;
+			boxes[i * 4] = x;
+			boxes[i * 4 + 1] = y;
+			boxes[i * 4 + 2] = x + side;
+			boxes[i * 4 + 3] = y + side;
+		}
+		return walls(boxes);
+	}
+
+	/**
+	 * Scans the walls from the specified pose, sweeping symmetrically around
+	 * the heading. Rays that hit nothing get the max range.
+	 *
+	 * @return the scan, relative to the pose.
+	 */
+	public static PackedScan scan(float[] walls, float x, float y, float heading, float resolution, float sweep,
+			float maxRange) {
+		return scan(walls, x, y, heading, resolution, sweep, maxRange, false);
+	}
+
+	/**
+	 * Like {@link #scan(float[], float, float, float, float, float, float)},
+	 * but leaves out the rays that hit nothing, like the laser does.
+	 */
+	public static PackedScan scanHits(float[] walls, float x, float y, float heading, float resolution, float sweep,
+			float maxRange) {
+		return scan(walls, x, y, heading, resolution, sweep, maxRange, true);
+	}
+
+	private static PackedScan scan(float[] walls, float x, float y, float heading, float resolution, float sweep,
+			float maxRange, boolean onlyHits) {
+		PackedScan scan = new PackedScan();
+		scan.clear(resolution);
+		int points = Math.round(2 * sweep / resolution) + 1;
+		for (int i = 0; i < points; i++) {
+			float angle = (float) Math.toRadians(-sweep + i * resolution);
+			float range = raycast(walls, x, y, heading + angle, maxRange);
+			if (!onlyHits || range < maxRange) {
+				scan.add(range, angle);
+			}
+		}
+		return scan;
+	}
+
+	/**
+	 * @return the distance from (x, y) to the closest wall in the direction of
+	 *         the angle, or the max range if there is none closer.
+	 */
+	public static float raycast(float[] walls, float x, float y, float angle, float maxRange) {
+		float dx = (float) Math.sin(angle);
+		float dy = (float) Math.cos(angle);
+		float best = maxRange;
+		for (int i = 0; i < walls.length; i += 4) {
+			float ex = walls[i + 2] - walls[i];
+			float ey = walls[i + 3] - walls[i + 1];
+			float denominator = dx * ey - dy * ex;
+			if (denominator == 0) {
+				continue;
+			}
+			float wx = walls[i] - x;
+			float wy = walls[i + 1] - y;
+			float t = (wx * ey - wy * ex) / denominator;
+			float u = (wx * dy - wy * dx) / denominator;
+			if (t > 0 && t < best && u >= 0 && u <= 1) {
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	private static void setSegment(float[] walls, int segment, float x1, float y1, float x2, float y2) {
+		walls[segment * 4] = x1;
+		walls[segment * 4 + 1] = y1;
+		walls[segment * 4 + 2] = x2;
+		walls[segment * 4 + 3] = y2;
+	}
+
+	/**
+	 * @return the points of the scan, for the code still using lists of
+	 *         points.
+	 */
+	public static List<Point2f> toPoints(PackedScan scan) {
+		List<Point2f> points = new ArrayList<>(scan.size());
+		for (int i = 0; i < scan.size(); i++) {
+			points.add(scan.getPoint(i));
+		}
+		return points;
+	}
+}